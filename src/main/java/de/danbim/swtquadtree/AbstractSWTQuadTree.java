@@ -0,0 +1,431 @@
+package de.danbim.swtquadtree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * Base class of all {@link ISWTQuadTree} implementations. Manages the
+ * {@link TreeListener}s of a tree and implements the operations that can be
+ * expressed by the basic operations of {@link ISWTQuadTree}.
+ * 
+ * Implementations have to call the <code>fire...</code> methods from their
+ * public modifying methods.
+ * 
+ * @author Daniel Bimschas
+ * 
+ * @param <T>
+ *            the type of items the tree should manage
+ */
+abstract class AbstractSWTQuadTree<T> implements ISWTQuadTree<T> {
+
+	/**
+	 * A quadrant binning the items for
+	 * {@link AbstractSWTQuadTree#searchClusters(Rectangle, int)}.
+	 */
+	private static class Cell<K> {
+
+		final Rectangle boundingBox;
+
+		final K first;
+
+		final Rectangle firstBoundingBox;
+
+		int count = 1;
+
+		Cell(Rectangle boundingBox, K first, Rectangle firstBoundingBox) {
+			this.boundingBox = boundingBox;
+			this.first = first;
+			this.firstBoundingBox = firstBoundingBox;
+		}
+
+	}
+
+	/**
+	 * The listeners of this tree, <code>null</code> as long as there are none
+	 * so that unobserved trees don't pay for them. The list is never modified,
+	 * it is replaced instead.
+	 */
+	private volatile List<TreeListener<T>> listeners;
+
+	/**
+	 * The region subscriptions of this tree, <code>null</code> as long as
+	 * there are none.
+	 */
+	private RegionSubscriptions<T> regionSubscriptions;
+
+	void addTreeListener(TreeListener<T> listener) {
+
+		// copy on write, listeners may be added or removed while the listeners
+		// are notified
+		List<TreeListener<T>> newListeners = listeners == null ? new ArrayList<TreeListener<T>>(
+				2) : new ArrayList<TreeListener<T>>(listeners);
+		newListeners.add(listener);
+		listeners = newListeners;
+
+	}
+
+	void removeTreeListener(TreeListener<T> listener) {
+
+		if (listeners == null)
+			return;
+
+		List<TreeListener<T>> newListeners = new ArrayList<TreeListener<T>>(listeners);
+		newListeners.remove(listener);
+		listeners = newListeners.isEmpty() ? null : newListeners;
+
+	}
+
+	boolean hasTreeListeners() {
+		return listeners != null;
+	}
+
+	public WriteBatch<T> beginBatch() {
+		return new WriteBatch<T>(this);
+	}
+
+	/**
+	 * Applies the net changes of a {@link WriteBatch}. The default
+	 * implementation checks that all items to move or remove are contained and
+	 * that the items to insert are not, and applies the changes one by one.
+	 */
+	void commitBatch(List<WriteBatch.Change<T>> changes) {
+
+		// check all items before modifying anything
+		for (WriteBatch.Change<T> change : changes) {
+			if (change.oldBoundingBox != null && !containsItem(change.item, change.oldBoundingBox))
+				throw new RuntimeException("Could not apply the batch because an item was not "
+						+ "found in this quad tree.");
+			if (change.oldBoundingBox == null && containsItem(change.item, change.newBoundingBox))
+				throw new RuntimeException("Could not apply the batch because an item to insert "
+						+ "is already contained in this quad tree.");
+		}
+
+		for (WriteBatch.Change<T> change : changes) {
+			if (change.oldBoundingBox == null)
+				insertItem(change.item, change.newBoundingBox);
+			else if (change.newBoundingBox == null)
+				removeItem(change.item, change.oldBoundingBox);
+			else
+				moveItem(change.item, change.oldBoundingBox, change.newBoundingBox);
+		}
+
+	}
+
+	public ViewportQuery<T> createViewportQuery(Rectangle viewport) {
+		return new ViewportQuery<T>(this, viewport);
+	}
+
+	public int[] densityGrid(Rectangle area, int columns, int rows) {
+
+		final DensityGrid grid = new DensityGrid(area, columns, rows);
+		searchItems(area, new ItemVisitor<T>() {
+			public boolean visit(T item, Rectangle itemBoundingBox) {
+				grid.add(itemBoundingBox);
+				return true;
+			}
+		});
+		return grid.getCounts();
+
+	}
+
+	public MemoryUsage estimateMemoryUsage() {
+		return getStatistics().getMemoryUsage();
+	}
+
+	public SpatialHandle<T> insertItem(T item, int x, int y, int width, int height) {
+
+		SpatialHandle<T> handle = new SpatialHandle<T>(this, item, x, y, width, height);
+		insertItem(item, handle.getBoundingBoxInternal());
+		return handle;
+
+	}
+
+	/**
+	 * Moves <code>item</code> by copying the coordinates of
+	 * <code>newBoundingBox</code> into <code>boundingBox</code>, the bounding
+	 * box owned by the tree, if the item can stay at its position in the tree.
+	 * Used by {@link SpatialHandle}, which has to call
+	 * {@link #moveItem(Object, Rectangle, Rectangle)} if this returns
+	 * <code>false</code>. The default implementation always does.
+	 * 
+	 * @return <code>true</code> if the item was moved in place,
+	 *         <code>false</code> if nothing was changed
+	 */
+	boolean moveItemInPlace(T item, Rectangle boundingBox, Rectangle newBoundingBox) {
+		return false;
+	}
+
+	/**
+	 * Searches the matching items and removes them one by one.
+	 */
+	public int removeAll(Rectangle region, final Predicate<T> filter) {
+
+		final List<T> items = new ArrayList<T>();
+		final List<Rectangle> boundingBoxes = new ArrayList<Rectangle>();
+
+		searchItems(region, new ItemVisitor<T>() {
+			public boolean visit(T item, Rectangle itemBoundingBox) {
+				if (filter == null || filter.test(item)) {
+					items.add(item);
+					boundingBoxes.add(itemBoundingBox);
+				}
+				return true;
+			}
+		});
+
+		for (int i = 0; i < items.size(); i++)
+			removeItem(items.get(i), boundingBoxes.get(i));
+
+		return items.size();
+
+	}
+
+	/**
+	 * Bins the items found into the grid of quadrants of the largest side
+	 * length not exceeding <code>minCellSize</code>. Items not fitting into a
+	 * single quadrant are returned as single items.
+	 */
+	public List<Cluster<T>> searchClusters(Rectangle region, int minCellSize) {
+
+		if (minCellSize <= 0)
+			throw new RuntimeException("The cell size must be positive.");
+
+		final Rectangle treeBoundingBox = getBoundingBox();
+
+		int size = treeBoundingBox.width;
+		while (size > minCellSize)
+			size >>= 1;
+		final int cellSize = size;
+		final long columns = treeBoundingBox.width / cellSize;
+
+		final List<Cluster<T>> singleItems = new ArrayList<Cluster<T>>();
+		final Map<Long, Cell<T>> cells = new LinkedHashMap<Long, Cell<T>>();
+
+		searchItems(region, new ItemVisitor<T>() {
+			public boolean visit(T item, Rectangle itemBoundingBox) {
+
+				int column = Math.floorDiv(itemBoundingBox.x - treeBoundingBox.x, cellSize);
+				int row = Math.floorDiv(itemBoundingBox.y - treeBoundingBox.y, cellSize);
+				int x = treeBoundingBox.x + column * cellSize;
+				int y = treeBoundingBox.y + row * cellSize;
+
+				if (column < 0 || row < 0 || column >= columns || row >= columns
+						|| itemBoundingBox.x + itemBoundingBox.width > x + cellSize
+						|| itemBoundingBox.y + itemBoundingBox.height > y + cellSize) {
+					singleItems.add(new Cluster<T>(copy(itemBoundingBox), 1, item));
+					return true;
+				}
+
+				Long key = row * columns + column;
+				Cell<T> cell = cells.get(key);
+				if (cell == null)
+					cells.put(key, new Cell<T>(new Rectangle(x, y, cellSize, cellSize), item,
+							copy(itemBoundingBox)));
+				else
+					cell.count++;
+				return true;
+
+			}
+		});
+
+		List<Cluster<T>> clusters = new ArrayList<Cluster<T>>(singleItems.size() + cells.size());
+		clusters.addAll(singleItems);
+		for (Cell<T> cell : cells.values())
+			clusters.add(cell.count == 1 ? new Cluster<T>(cell.firstBoundingBox, 1, cell.first)
+					: new Cluster<T>(cell.boundingBox, cell.count, cell.first));
+		return clusters;
+
+	}
+
+	private static Rectangle copy(Rectangle boundingBox) {
+		return new Rectangle(boundingBox.x, boundingBox.y, boundingBox.width, boundingBox.height);
+	}
+
+	/**
+	 * Searches the areas one after the other.
+	 */
+	public List<Set<T>> searchItems(List<Rectangle> boundingBoxes) {
+
+		List<Set<T>> results = new ArrayList<Set<T>>(boundingBoxes.size());
+		for (Rectangle boundingBox : boundingBoxes)
+			results.add(searchItems(boundingBox));
+		return results;
+
+	}
+
+	public Set<T> searchItems(Rectangle boundingBox, final int limit) {
+
+		final Set<T> set = new HashSet<T>();
+
+		if (limit < 0)
+			throw new RuntimeException("The limit must not be negative!");
+		if (limit == 0)
+			return set;
+
+		searchItems(boundingBox, new ItemVisitor<T>() {
+			public boolean visit(T item, Rectangle itemBoundingBox) {
+				set.add(item);
+				return set.size() < limit;
+			}
+		});
+		return set;
+
+	}
+
+	/**
+	 * Ranks all items found. Implementations should override this with a
+	 * search that prunes the tree.
+	 */
+	public List<T> searchItems(Rectangle boundingBox, int limit, final ItemPriority<T> priority) {
+
+		final TopItems<T> top = new TopItems<T>(limit);
+		searchItems(boundingBox, new ItemVisitor<T>() {
+			public boolean visit(T item, Rectangle itemBoundingBox) {
+				top.add(item, priority.getPriority(item));
+				return true;
+			}
+		});
+		return top.getItems();
+
+	}
+
+	/**
+	 * Collects the items hit within the bounding box of the segment and
+	 * reports them after sorting them by their entry points.
+	 */
+	public void raycast(int x0, int y0, int x1, int y1, ItemVisitor<T> visitor) {
+
+		final Ray ray = new Ray(x0, y0, x1, y1);
+		final List<Ray.Hit<T>> hits = new ArrayList<Ray.Hit<T>>();
+
+		searchItems(ray.getBoundingBox(), new ItemVisitor<T>() {
+			public boolean visit(T item, Rectangle itemBoundingBox) {
+				double t = ray.enter(itemBoundingBox);
+				if (t >= 0)
+					hits.add(new Ray.Hit<T>(t, item, new Rectangle(itemBoundingBox.x,
+							itemBoundingBox.y, itemBoundingBox.width, itemBoundingBox.height)));
+				return true;
+			}
+		});
+
+		Collections.sort(hits);
+
+		for (Ray.Hit<T> hit : hits)
+			if (!visitor.visit(hit.item, hit.boundingBox))
+				return;
+
+	}
+
+	/**
+	 * Searches the bounding box of <code>shape</code> and tests the items
+	 * found against it.
+	 */
+	Set<T> searchItems(final QueryShape shape) {
+
+		final Set<T> set = new HashSet<T>();
+		searchItems(shape.boundingBox, new ItemVisitor<T>() {
+			public boolean visit(T item, Rectangle itemBoundingBox) {
+				if (shape.intersects(itemBoundingBox))
+					set.add(item);
+				return true;
+			}
+		});
+		return set;
+
+	}
+
+	public Set<T> searchItemsInCircle(int centerX, int centerY, int radius) {
+		return searchItems(new QueryShape.Circle(centerX, centerY, radius));
+	}
+
+	public Set<T> searchItemsInPolygon(int[] pointArray) {
+		return searchItems(new QueryShape.Polygon(pointArray));
+	}
+
+	void removeRegionSubscriptions(RegionSubscriptions<T> subscriptions) {
+
+		if (regionSubscriptions != subscriptions)
+			return;
+
+		removeTreeListener(regionSubscriptions);
+		regionSubscriptions = null;
+
+	}
+
+	public RegionSubscription<T> subscribe(Rectangle region, RegionListener<T> listener) {
+
+		if (regionSubscriptions == null) {
+			regionSubscriptions = new RegionSubscriptions<T>(this);
+			addTreeListener(regionSubscriptions);
+		}
+
+		try {
+			return regionSubscriptions.add(region, listener);
+		} finally {
+			if (regionSubscriptions.isEmpty())
+				removeRegionSubscriptions(regionSubscriptions);
+		}
+
+	}
+
+	void fireBeforeClear() {
+
+		if (listeners != null)
+			for (TreeListener<T> listener : listeners)
+				listener.beforeClear();
+
+	}
+
+	void fireItemInserted(T item, Rectangle boundingBox) {
+
+		if (listeners != null)
+			for (TreeListener<T> listener : listeners)
+				listener.itemInserted(item, boundingBox);
+
+	}
+
+	void fireItemMoved(T item, Rectangle oldBoundingBox, Rectangle newBoundingBox) {
+
+		if (listeners != null)
+			for (TreeListener<T> listener : listeners)
+				listener.itemMoved(item, oldBoundingBox, newBoundingBox);
+
+	}
+
+	void fireItemRemoved(T item, Rectangle boundingBox) {
+
+		if (listeners != null)
+			for (TreeListener<T> listener : listeners)
+				listener.itemRemoved(item, boundingBox);
+
+	}
+
+	/**
+	 * Notifies the listeners about the net changes of a committed
+	 * {@link WriteBatch}.
+	 */
+	void fireBatchCommitted(List<WriteBatch.Change<T>> changes) {
+
+		if (listeners == null)
+			return;
+
+		for (WriteBatch.Change<T> change : changes) {
+			if (change.oldBoundingBox == null)
+				fireItemInserted(change.item, change.newBoundingBox);
+			else if (change.newBoundingBox == null)
+				fireItemRemoved(change.item, change.oldBoundingBox);
+			else
+				fireItemMoved(change.item, change.oldBoundingBox, change.newBoundingBox);
+		}
+
+	}
+
+}
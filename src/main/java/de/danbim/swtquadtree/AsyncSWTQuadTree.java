@@ -0,0 +1,254 @@
+package de.danbim.swtquadtree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * Asynchronous facade for an {@link ISWTQuadTree} meant for serving a large
+ * number of independent searches from many (e.g. virtual) threads.
+ * 
+ * Searches are queued and answered by whichever thread holds the lock of the
+ * facade: all searches queued at that time are answered together in a single
+ * pass using {@link ISWTQuadTree#searchItems(List)}, which for trees created
+ * by {@link ISWTQuadTree.Factory#create(int, int, int, int, int)} is a single
+ * traversal of the tree. A thread submitting a search while another thread is
+ * answering searches returns immediately, its search is answered by the other
+ * thread.
+ * 
+ * The facade uses a {@link ReentrantLock} instead of monitors so that virtual
+ * threads waiting for it don't pin their carrier threads. The wrapped tree
+ * must only be accessed through the facade and therefore doesn't need to be
+ * thread-safe itself.
+ * 
+ * @author Daniel Bimschas
+ * 
+ * @param <T>
+ *            the type of items managed by the tree
+ */
+public class AsyncSWTQuadTree<T> {
+
+	/**
+	 * A queued search.
+	 */
+	private static class Query<K> {
+
+		final Rectangle boundingBox;
+
+		final CompletableFuture<Set<K>> result = new CompletableFuture<Set<K>>();
+
+		Query(Rectangle boundingBox) {
+			this.boundingBox = boundingBox;
+		}
+
+	}
+
+	private static final String ERROR_BOUNDING_BOX_NO_INTERSECTION = "The bounding box must "
+			+ "intersect the tree elements' bounding box.";
+
+	private final ISWTQuadTree<T> tree;
+
+	private final Rectangle treeBoundingBox;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final ConcurrentLinkedQueue<Query<T>> queries = new ConcurrentLinkedQueue<Query<T>>();
+
+	/**
+	 * Creates a facade for the tree <code>tree</code>.
+	 * 
+	 * @param tree
+	 *            the tree to wrap, must not be accessed other than through the
+	 *            new facade afterwards
+	 */
+	public AsyncSWTQuadTree(ISWTQuadTree<T> tree) {
+		this.tree = tree;
+		this.treeBoundingBox = tree.getBoundingBox();
+	}
+
+	public void clear() {
+
+		lock.lock();
+		try {
+			tree.clear();
+		} finally {
+			lock.unlock();
+			drainQueries();
+		}
+
+	}
+
+	/**
+	 * Answers the queued searches as long as there are any and the lock is
+	 * free. A thread that doesn't get the lock may leave, the thread holding
+	 * the lock checks the queue again after releasing it. Therefore every
+	 * method taking the lock must call this after releasing it, even if it
+	 * fails.
+	 */
+	private void drainQueries() {
+
+		while (!queries.isEmpty()) {
+
+			if (!lock.tryLock())
+				return;
+
+			List<Query<T>> batch = new ArrayList<Query<T>>();
+			List<Rectangle> boundingBoxes = new ArrayList<Rectangle>();
+			List<Set<T>> results = null;
+			RuntimeException failure = null;
+
+			try {
+
+				for (Query<T> query = queries.poll(); query != null; query = queries.poll()) {
+					batch.add(query);
+					boundingBoxes.add(query.boundingBox);
+				}
+
+				if (!batch.isEmpty())
+					results = tree.searchItems(boundingBoxes);
+
+			} catch (RuntimeException e) {
+				failure = e;
+			} finally {
+				lock.unlock();
+			}
+
+			// complete outside of the lock, completing runs the dependent
+			// actions of the futures
+			for (int i = 0; i < batch.size(); i++) {
+				if (failure != null)
+					batch.get(i).result.completeExceptionally(failure);
+				else
+					batch.get(i).result.complete(results.get(i));
+			}
+
+		}
+
+	}
+
+	public int getItemCount() {
+
+		lock.lock();
+		try {
+			return tree.getItemCount();
+		} finally {
+			lock.unlock();
+			drainQueries();
+		}
+
+	}
+
+	public void insertItem(T item, Rectangle boundingBox) {
+
+		lock.lock();
+		try {
+			tree.insertItem(item, boundingBox);
+		} finally {
+			lock.unlock();
+			drainQueries();
+		}
+
+	}
+
+	public void moveItem(T item, Rectangle oldBoundingBox, Rectangle newBoundingBox) {
+
+		lock.lock();
+		try {
+			tree.moveItem(item, oldBoundingBox, newBoundingBox);
+		} finally {
+			lock.unlock();
+			drainQueries();
+		}
+
+	}
+
+	public void removeItem(T item, Rectangle boundingBox) {
+
+		lock.lock();
+		try {
+			tree.removeItem(item, boundingBox);
+		} finally {
+			lock.unlock();
+			drainQueries();
+		}
+
+	}
+
+	/**
+	 * Queues a search for the items intersecting with
+	 * <code>boundingBox</code>, see {@link ISWTQuadTree#searchItems(Rectangle)}
+	 * . The search is answered together with all other searches queued at the
+	 * same time.
+	 * 
+	 * @param boundingBox
+	 *            the area in which to search
+	 * @return a future completed with the items found, or exceptionally if
+	 *         <code>boundingBox</code> does not intersect with the bounding box
+	 *         of the tree
+	 */
+	public CompletableFuture<Set<T>> searchItemsAsync(Rectangle boundingBox) {
+
+		Query<T> query = new Query<T>(boundingBox);
+
+		// fail early so that an invalid search doesn't fail the whole batch
+		if (!treeBoundingBox.intersects(boundingBox)) {
+			query.result.completeExceptionally(new RuntimeException(
+					ERROR_BOUNDING_BOX_NO_INTERSECTION));
+			return query.result;
+		}
+
+		queries.add(query);
+		drainQueries();
+
+		return query.result;
+
+	}
+
+	/**
+	 * Queues searches for all areas of <code>boundingBoxes</code> at once.
+	 * 
+	 * @param boundingBoxes
+	 *            the areas in which to search
+	 * @return a future completed with the items found in each area, in the
+	 *         order of <code>boundingBoxes</code>, or exceptionally if one of
+	 *         the searches failed
+	 */
+	public CompletableFuture<List<Set<T>>> searchItemsAsync(List<Rectangle> boundingBoxes) {
+
+		final List<CompletableFuture<Set<T>>> futures = new ArrayList<CompletableFuture<Set<T>>>(
+				boundingBoxes.size());
+
+		for (Rectangle boundingBox : boundingBoxes) {
+
+			Query<T> query = new Query<T>(boundingBox);
+			futures.add(query.result);
+
+			if (treeBoundingBox.intersects(boundingBox))
+				queries.add(query);
+			else
+				query.result.completeExceptionally(new RuntimeException(
+						ERROR_BOUNDING_BOX_NO_INTERSECTION));
+
+		}
+
+		drainQueries();
+
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+				.thenApply(new Function<Void, List<Set<T>>>() {
+					public List<Set<T>> apply(Void ignored) {
+						List<Set<T>> results = new ArrayList<Set<T>>(futures.size());
+						for (CompletableFuture<Set<T>> future : futures)
+							results.add(future.join());
+						return results;
+					}
+				});
+
+	}
+
+}
@@ -0,0 +1,64 @@
+package de.danbim.swtquadtree;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * A result of {@link ISWTQuadTree#searchClusters(Rectangle, int)}, either a
+ * single item or an aggregate of all items of a quadrant that is too small to
+ * draw its items one by one.
+ * 
+ * @author Daniel Bimschas
+ * 
+ * @param <T>
+ *            the type of the items managed by the tree
+ */
+public class Cluster<T> {
+
+	private final Rectangle boundingBox;
+
+	private final int count;
+
+	private final T representative;
+
+	Cluster(Rectangle boundingBox, int count, T representative) {
+		this.boundingBox = boundingBox;
+		this.count = count;
+		this.representative = representative;
+	}
+
+	/**
+	 * Returns the bounding box of the item if this is a single item,
+	 * otherwise the bounding box of the quadrant containing the items. The
+	 * rectangle is owned by this cluster.
+	 */
+	public Rectangle getBoundingBox() {
+		return boundingBox;
+	}
+
+	/**
+	 * Returns the number of items aggregated by this cluster, 1 for a single
+	 * item.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the item if this is a single item, otherwise any of the
+	 * aggregated items intersecting with the region searched.
+	 */
+	public T getRepresentative() {
+		return representative;
+	}
+
+	public boolean isSingleItem() {
+		return count == 1;
+	}
+
+	@Override
+	public String toString() {
+		return "Cluster [count=" + count + ", boundingBox=" + boundingBox + ", representative="
+				+ representative + "]";
+	}
+
+}
@@ -0,0 +1,983 @@
+package de.danbim.swtquadtree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+import de.danbim.swtquadtree.SWTQuadTree.Entry;
+
+/**
+ * Concurrent implementation of {@link ISWTQuadTree} allowing writers in
+ * different regions to modify the tree at the same time.
+ * 
+ * The area of the tree is divided into a grid of 4^<code>stripeDepth</code>
+ * equally sized quadrants (the nodes of the tree on level
+ * <code>stripeDepth</code>), called stripes. Every stripe is a
+ * {@link SWTQuadTree} of its own guarded by its own read/write lock. Items
+ * that don't fit completely into one stripe, i.e. that straddle the border of
+ * two stripes or lie partially outside of the tree, are kept in an overflow
+ * tree covering the whole area which is guarded by a separate lock.
+ * 
+ * Operations that need more than one lock acquire them in the order of the
+ * stripe indexes with the overflow lock last, so that no two operations can
+ * deadlock. Searches lock one stripe after the other and therefore don't see
+ * a consistent snapshot of the whole tree if it is modified concurrently.
+ * 
+ * Listeners (of {@link ViewportQuery}s and {@link RegionSubscription}s) are
+ * notified after the modification holding the monitor of the tree but none of
+ * the stripe locks. As long as there are listeners, modifications take the
+ * monitor before the stripe locks and keep it until the listeners are
+ * notified, so that the listeners see the modifications in the order they
+ * were applied. The monitor is always taken before any stripe lock.
+ * 
+ * @author Daniel Bimschas
+ * 
+ * @param <T>
+ *            the type of items the tree should manage
+ */
+class ConcurrentSWTQuadTree<T> extends AbstractSWTQuadTree<T> {
+
+	private static final String ERROR_BATCH_SIZE = "The lists of a batch must have the same size.";
+
+	private static final String ERROR_BOUNDING_BOX_NO_INTERSECTION = "The bounding box must "
+			+ "intersect the tree elements' bounding box.";
+
+	private static final String ERROR_ITEM_ALREADY_CONTAINED = "Item already contained in the "
+			+ "QuadTree. Please make sure you don't add items more than once.";
+
+	private static final String ERROR_ITEM_NOT_CONTAINED = "Could not remove the item because it "
+			+ "was not found in this quad tree. The existence in the tree is a precondition for "
+			+ "calling the remove or move function.";
+
+	/**
+	 * The estimated size of a {@link ReentrantReadWriteLock} with its read and
+	 * write locks and its synchronizer, see {@link MemoryUsage}.
+	 */
+	private static final long LOCK_SIZE = 120;
+
+	/**
+	 * The maximum stripe depth, resulting in 4^5 = 1024 stripes.
+	 */
+	private static final int MAX_STRIPE_DEPTH = 5;
+
+	/**
+	 * The bounding box of the whole tree.
+	 */
+	private final Rectangle boundingBox;
+
+	/**
+	 * The number of stripes per side.
+	 */
+	private final int stripesPerSide;
+
+	/**
+	 * The binary logarithm of the side length of a stripe.
+	 */
+	private final int stripeSideLengthLog;
+
+	/**
+	 * The trees of all stripes in row-major order, followed by the overflow
+	 * tree.
+	 */
+	final SWTQuadTree<T>[] trees;
+
+	/**
+	 * The locks of the trees, with the same indexes as <code>trees</code>.
+	 */
+	final ReentrantReadWriteLock[] locks;
+
+	public ConcurrentSWTQuadTree(int originX, int originY, int totalSideLength,
+			int minSideLength, int capacity, int stripeDepth) {
+
+		if (stripeDepth < 0 || stripeDepth > MAX_STRIPE_DEPTH)
+			throw new RuntimeException("The stripe depth must be between 0 and "
+					+ MAX_STRIPE_DEPTH + "!");
+
+		if ((totalSideLength >> stripeDepth) < minSideLength)
+			throw new RuntimeException("The stripes must not be smaller than the minimum side "
+					+ "length!");
+
+		this.boundingBox = new Rectangle(originX, originY, totalSideLength, totalSideLength);
+		this.stripesPerSide = 1 << stripeDepth;
+		this.stripeSideLengthLog = Integer.numberOfTrailingZeros(totalSideLength) - stripeDepth;
+
+		int stripeCount = stripesPerSide * stripesPerSide;
+		int stripeSideLength = totalSideLength >> stripeDepth;
+
+		this.trees = newTrees(stripeCount + 1);
+		this.locks = new ReentrantReadWriteLock[stripeCount + 1];
+
+		for (int row = 0; row < stripesPerSide; row++)
+			for (int column = 0; column < stripesPerSide; column++)
+				trees[row * stripesPerSide + column] = new SWTQuadTree<T>(originX + column
+						* stripeSideLength, originY + row * stripeSideLength, stripeSideLength,
+						minSideLength, capacity);
+		trees[stripeCount] = new SWTQuadTree<T>(originX, originY, totalSideLength,
+				minSideLength, capacity);
+
+		for (int i = 0; i < locks.length; i++)
+			locks[i] = new ReentrantReadWriteLock();
+
+	}
+
+	void boundingBoxCheck(Rectangle itemBoundingBox) {
+
+		if (!boundingBox.intersects(itemBoundingBox))
+			throw new RuntimeException(ERROR_BOUNDING_BOX_NO_INTERSECTION);
+
+	}
+
+	/**
+	 * Notifies the listeners holding the monitor and all write locks, so that
+	 * no item can be inserted between the notification and the clearing. The
+	 * searches of the listeners may still take the read locks held for
+	 * writing.
+	 */
+	public void clear() {
+
+		synchronized (this) {
+
+			writeLockAll();
+			try {
+
+				if (hasTreeListeners())
+					fireBeforeClear();
+
+				for (SWTQuadTree<T> tree : trees)
+					tree.clear();
+
+			} finally {
+				writeUnlockAll();
+			}
+
+		}
+
+	}
+
+	/**
+	 * Applies the changes holding the write locks of all stripes, so that a
+	 * stripe is seen either before or after the whole batch. The changes are
+	 * distributed among the stripes and committed to every stripe with
+	 * {@link SWTQuadTree#commitEntries(List, List)}.
+	 */
+	@Override
+	void commitBatch(List<WriteBatch.Change<T>> changes) {
+
+		if (needsMonitor()) {
+			synchronized (this) {
+				commitBatch(changes);
+			}
+			return;
+		}
+
+		List<List<Entry<T>>> removals = new ArrayList<List<Entry<T>>>(trees.length);
+		List<List<Entry<T>>> insertions = new ArrayList<List<Entry<T>>>(trees.length);
+		for (int i = 0; i < trees.length; i++) {
+			removals.add(new ArrayList<Entry<T>>());
+			insertions.add(new ArrayList<Entry<T>>());
+		}
+
+		writeLockAll();
+		try {
+
+			// check all items before modifying anything
+			for (WriteBatch.Change<T> change : changes) {
+
+				if (change.oldBoundingBox != null) {
+					int index = indexOf(change.oldBoundingBox);
+					if (!trees[index].containsItem(change.item, change.oldBoundingBox))
+						throw new RuntimeException(ERROR_ITEM_NOT_CONTAINED);
+					removals.get(index).add(new Entry<T>(change.oldBoundingBox, change.item));
+				}
+
+				if (change.newBoundingBox != null) {
+					boundingBoxCheck(change.newBoundingBox);
+					int index = indexOf(change.newBoundingBox);
+					if (change.oldBoundingBox == null
+							&& trees[index].containsItem(change.item, change.newBoundingBox))
+						throw new RuntimeException(ERROR_ITEM_ALREADY_CONTAINED);
+					insertions.get(index).add(new Entry<T>(change.newBoundingBox, change.item));
+				}
+
+			}
+
+			for (int i = 0; i < trees.length; i++)
+				if (!removals.get(i).isEmpty() || !insertions.get(i).isEmpty())
+					trees[i].commitEntries(removals.get(i), insertions.get(i));
+
+		} finally {
+			writeUnlockAll();
+		}
+
+		if (hasTreeListeners())
+			synchronized (this) {
+				fireBatchCommitted(changes);
+			}
+
+	}
+
+	public boolean containsItem(T item, Rectangle itemBoundingBox) {
+
+		int index = indexOf(itemBoundingBox);
+
+		locks[index].readLock().lock();
+		try {
+			return trees[index].containsItem(item, itemBoundingBox);
+		} finally {
+			locks[index].readLock().unlock();
+		}
+
+	}
+
+	/**
+	 * Counts the stripes one after the other, holding the read lock of each
+	 * stripe. The item counts cached in the nodes may be computed by
+	 * concurrent readers, see {@link SWTQuadTree#getCachedItemCount()}.
+	 */
+	@Override
+	public int[] densityGrid(Rectangle area, int columns, int rows) {
+
+		boundingBoxCheck(area);
+
+		DensityGrid grid = new DensityGrid(area, columns, rows);
+
+		for (int i = 0; i < trees.length; i++) {
+
+			if (!trees[i].boundingBox.intersects(area) && i != trees.length - 1)
+				continue;
+
+			locks[i].readLock().lock();
+			try {
+				trees[i].densityGridInternal(grid, area);
+			} finally {
+				locks[i].readLock().unlock();
+			}
+
+		}
+
+		return grid.getCounts();
+
+	}
+
+	public void forEachIntersectingPair(PairVisitor<T> visitor) {
+		forEachIntersectingPair(visitor, null);
+	}
+
+	public void forEachIntersectingPair(final PairVisitor<T> visitor, ForkJoinPool pool) {
+
+		int overflowIndex = trees.length - 1;
+		SWTQuadTree<T> overflowTree = trees[overflowIndex];
+
+		// items of different stripes can't intersect, so only the pairs within
+		// every tree and the pairs of the overflow tree and the stripes are left
+		JoinVisitor<T, T> joinVisitor = new JoinVisitor<T, T>() {
+			public void visit(T item, T otherItem) {
+				visitor.visit(item, otherItem);
+			}
+		};
+
+		readLockAll();
+		try {
+
+			boolean overflows = overflowTree.getItemCount() > 0;
+
+			for (int i = 0; i < trees.length; i++) {
+
+				if (pool == null)
+					trees[i].forEachIntersectingPair(visitor);
+				else
+					trees[i].forEachIntersectingPair(visitor, pool);
+
+				if (i != overflowIndex && overflows)
+					overflowTree.join(trees[i], joinVisitor);
+
+			}
+
+		} finally {
+			readUnlockAll();
+		}
+
+	}
+
+	public Rectangle getBoundingBox() {
+
+		return new Rectangle(boundingBox.x, boundingBox.y, boundingBox.width, boundingBox.height);
+
+	}
+
+	public int getItemCount() {
+
+		int count = 0;
+
+		for (int i = 0; i < trees.length; i++) {
+			locks[i].readLock().lock();
+			try {
+				count += trees[i].getItemCount();
+			} finally {
+				locks[i].readLock().unlock();
+			}
+		}
+
+		return count;
+
+	}
+
+	/**
+	 * The nodes of the stripes are reported on their depth in the whole tree,
+	 * those of the overflow tree on their depth in the overflow tree. The tree
+	 * itself and the locks are reported on depth 0.
+	 */
+	public TreeStatistics getStatistics() {
+
+		TreeStatistics statistics = new TreeStatistics();
+		int stripeDepth = Integer.numberOfTrailingZeros(stripesPerSide);
+
+		for (int i = 0; i < trees.length; i++) {
+			locks[i].readLock().lock();
+			try {
+				statistics.add(trees[i].getStatistics(), i == trees.length - 1 ? 0 : stripeDepth);
+			} finally {
+				locks[i].readLock().unlock();
+			}
+		}
+
+		long nodeBytes = MemoryUsage.objectSize(5, 2, 0, 0)
+				+ MemoryUsage.arraySize(trees.length, MemoryUsage.REFERENCE)
+				+ MemoryUsage.arraySize(locks.length, MemoryUsage.REFERENCE) + locks.length
+				* LOCK_SIZE;
+		statistics.getMemoryUsage().add(0, nodeBytes, 0, MemoryUsage.RECTANGLE, 0, 0);
+
+		return statistics;
+
+	}
+
+	/**
+	 * Returns whether <code>tree</code> is an implementation that is not
+	 * thread-safe and therefore has no locks of its own.
+	 */
+	private static boolean hasLocks(ISWTQuadTree<?> tree) {
+		return tree.getClass() != SWTQuadTree.class && !(tree instanceof LinearSWTQuadTree);
+	}
+
+	/**
+	 * Returns the index of the stripe that completely contains
+	 * <code>itemBoundingBox</code> or the index of the overflow tree if there
+	 * is none. Uses the same semantics as
+	 * {@link SWTQuadTree#boundingBoxContains(Rectangle, Rectangle)}.
+	 */
+	int indexOf(Rectangle itemBoundingBox) {
+
+		int side = boundingBox.width;
+		int x1 = itemBoundingBox.x - boundingBox.x;
+		int y1 = itemBoundingBox.y - boundingBox.y;
+		int x2 = x1 + itemBoundingBox.width;
+		int y2 = y1 + itemBoundingBox.height;
+
+		if (x1 < 0 || y1 < 0 || x2 < 0 || y2 < 0 || x1 >= side || y1 >= side || x2 >= side
+				|| y2 >= side)
+			return trees.length - 1;
+
+		int column = x1 >> stripeSideLengthLog;
+		int row = y1 >> stripeSideLengthLog;
+
+		if (column != x2 >> stripeSideLengthLog || row != y2 >> stripeSideLengthLog)
+			return trees.length - 1;
+
+		return row * stripesPerSide + column;
+
+	}
+
+	public void insertBatch(List<T> items, List<Rectangle> boundingBoxes, ForkJoinPool pool) {
+
+		if (needsMonitor()) {
+			synchronized (this) {
+				insertBatch(items, boundingBoxes, pool);
+			}
+			return;
+		}
+
+		if (items.size() != boundingBoxes.size())
+			throw new RuntimeException(ERROR_BATCH_SIZE);
+
+		for (Rectangle itemBoundingBox : boundingBoxes)
+			boundingBoxCheck(itemBoundingBox);
+
+		List<List<T>> partitionItems = new ArrayList<List<T>>(trees.length);
+		List<List<Rectangle>> partitionBoundingBoxes = new ArrayList<List<Rectangle>>(
+				trees.length);
+		partition(items, boundingBoxes, partitionItems, partitionBoundingBoxes);
+
+		// insert one stripe after the other, each one in parallel
+		for (int i = 0; i < trees.length; i++) {
+
+			if (partitionItems.get(i).isEmpty())
+				continue;
+
+			locks[i].writeLock().lock();
+			try {
+				trees[i].insertBatch(partitionItems.get(i), partitionBoundingBoxes.get(i), pool);
+			} finally {
+				locks[i].writeLock().unlock();
+			}
+
+		}
+
+		if (hasTreeListeners())
+			synchronized (this) {
+				for (int i = 0; i < items.size(); i++)
+					fireItemInserted(items.get(i), boundingBoxes.get(i));
+			}
+
+	}
+
+	public void insertItem(T item, Rectangle itemBoundingBox) {
+
+		if (needsMonitor()) {
+			synchronized (this) {
+				insertItem(item, itemBoundingBox);
+			}
+			return;
+		}
+
+		boundingBoxCheck(itemBoundingBox);
+
+		int index = indexOf(itemBoundingBox);
+
+		locks[index].writeLock().lock();
+		try {
+			trees[index].insertItem(item, itemBoundingBox);
+		} finally {
+			locks[index].writeLock().unlock();
+		}
+
+		if (hasTreeListeners())
+			synchronized (this) {
+				fireItemInserted(item, itemBoundingBox);
+			}
+
+	}
+
+	/**
+	 * Joins the trees of this instance holding all read locks. A tree
+	 * <code>other</code> guarding itself by locks of its own, including this
+	 * tree, is copied before taking any of the locks, as searching it while
+	 * holding them could deadlock with writers holding its locks and waiting
+	 * for ours.
+	 */
+	public <U> void join(ISWTQuadTree<U> other, JoinVisitor<T, U> visitor) {
+
+		ISWTQuadTree<U> joined = hasLocks(other) ? snapshot(other) : other;
+		Rectangle otherBoundingBox = joined.getBoundingBox();
+
+		readLockAll();
+		try {
+
+			for (int i = 0; i < trees.length; i++)
+				if (trees[i].boundingBox.intersects(otherBoundingBox) || i == trees.length - 1)
+					trees[i].join(joined, visitor);
+
+		} finally {
+			readUnlockAll();
+		}
+
+	}
+
+	/**
+	 * Locks all trees for writing and moves the items. Moves within the same
+	 * tree are applied as a batch to that tree, moves between two trees are
+	 * split into a removal and a batch insertion.
+	 */
+	public void moveBatch(List<T> items, List<Rectangle> oldBoundingBoxes,
+			List<Rectangle> newBoundingBoxes, ForkJoinPool pool) {
+
+		if (needsMonitor()) {
+			synchronized (this) {
+				moveBatch(items, oldBoundingBoxes, newBoundingBoxes, pool);
+			}
+			return;
+		}
+
+		if (items.size() != oldBoundingBoxes.size() || items.size() != newBoundingBoxes.size())
+			throw new RuntimeException(ERROR_BATCH_SIZE);
+
+		List<List<T>> movedItems = new ArrayList<List<T>>(trees.length);
+		List<List<Rectangle>> movedOldBoundingBoxes = new ArrayList<List<Rectangle>>(
+				trees.length);
+		List<List<Rectangle>> movedNewBoundingBoxes = new ArrayList<List<Rectangle>>(
+				trees.length);
+		List<List<T>> insertedItems = new ArrayList<List<T>>(trees.length);
+		List<List<Rectangle>> insertedBoundingBoxes = new ArrayList<List<Rectangle>>(
+				trees.length);
+		for (int i = 0; i < trees.length; i++) {
+			movedItems.add(new ArrayList<T>());
+			movedOldBoundingBoxes.add(new ArrayList<Rectangle>());
+			movedNewBoundingBoxes.add(new ArrayList<Rectangle>());
+			insertedItems.add(new ArrayList<T>());
+			insertedBoundingBoxes.add(new ArrayList<Rectangle>());
+		}
+
+		writeLockAll();
+		try {
+
+			// check all items before modifying anything
+			for (int i = 0; i < items.size(); i++) {
+				if (!trees[indexOf(oldBoundingBoxes.get(i))].containsItem(items.get(i),
+						oldBoundingBoxes.get(i)))
+					throw new RuntimeException(ERROR_ITEM_NOT_CONTAINED);
+				boundingBoxCheck(newBoundingBoxes.get(i));
+			}
+
+			for (int i = 0; i < items.size(); i++) {
+
+				int oldIndex = indexOf(oldBoundingBoxes.get(i));
+				int newIndex = indexOf(newBoundingBoxes.get(i));
+
+				if (oldIndex == newIndex) {
+					movedItems.get(oldIndex).add(items.get(i));
+					movedOldBoundingBoxes.get(oldIndex).add(oldBoundingBoxes.get(i));
+					movedNewBoundingBoxes.get(oldIndex).add(newBoundingBoxes.get(i));
+				} else {
+					trees[oldIndex].removeItem(items.get(i), oldBoundingBoxes.get(i));
+					insertedItems.get(newIndex).add(items.get(i));
+					insertedBoundingBoxes.get(newIndex).add(newBoundingBoxes.get(i));
+				}
+
+			}
+
+			for (int i = 0; i < trees.length; i++) {
+				if (!movedItems.get(i).isEmpty())
+					trees[i].moveBatch(movedItems.get(i), movedOldBoundingBoxes.get(i),
+							movedNewBoundingBoxes.get(i), pool);
+				if (!insertedItems.get(i).isEmpty())
+					trees[i].insertBatch(insertedItems.get(i), insertedBoundingBoxes.get(i), pool);
+			}
+
+		} finally {
+			writeUnlockAll();
+		}
+
+		if (hasTreeListeners())
+			synchronized (this) {
+				for (int i = 0; i < items.size(); i++)
+					fireItemMoved(items.get(i), oldBoundingBoxes.get(i), newBoundingBoxes.get(i));
+			}
+
+	}
+
+	/**
+	 * Moves the item within its tree if it stays in the same stripe, otherwise
+	 * locks both trees in the order of their indexes and moves the item from
+	 * one to the other.
+	 */
+	public void moveItem(T item, Rectangle oldItemBoundingBox, Rectangle newItemBoundingBox) {
+
+		if (needsMonitor()) {
+			synchronized (this) {
+				moveItem(item, oldItemBoundingBox, newItemBoundingBox);
+			}
+			return;
+		}
+
+		int oldIndex = indexOf(oldItemBoundingBox);
+		int newIndex = indexOf(newItemBoundingBox);
+
+		if (oldIndex == newIndex) {
+
+			locks[oldIndex].writeLock().lock();
+			try {
+				trees[oldIndex].moveItem(item, oldItemBoundingBox, newItemBoundingBox);
+			} finally {
+				locks[oldIndex].writeLock().unlock();
+			}
+
+		} else {
+
+			ReentrantReadWriteLock first = locks[Math.min(oldIndex, newIndex)];
+			ReentrantReadWriteLock second = locks[Math.max(oldIndex, newIndex)];
+
+			first.writeLock().lock();
+			second.writeLock().lock();
+			try {
+				// like SWTQuadTree#moveItem this doesn't check the new bounding
+				// box, items outside the tree become overflows. The item is
+				// inserted first so that it is not lost if that fails.
+				trees[newIndex].insertItemInternal(item, newItemBoundingBox);
+				try {
+					trees[oldIndex].removeItem(item, oldItemBoundingBox);
+				} catch (RuntimeException e) {
+					trees[newIndex].removeItem(item, newItemBoundingBox);
+					throw e;
+				}
+			} finally {
+				second.writeLock().unlock();
+				first.writeLock().unlock();
+			}
+
+		}
+
+		if (hasTreeListeners())
+			synchronized (this) {
+				fireItemMoved(item, oldItemBoundingBox, newItemBoundingBox);
+			}
+
+	}
+
+	/**
+	 * Returns whether a modification must take the monitor of the tree before
+	 * taking any stripe lock, i.e. whether there are listeners to be notified
+	 * and the monitor is not held yet.
+	 */
+	private boolean needsMonitor() {
+		return hasTreeListeners() && !Thread.holdsLock(this);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <K> SWTQuadTree<K>[] newTrees(int length) {
+		return new SWTQuadTree[length];
+	}
+
+	/**
+	 * Partitions the items and bounding boxes by the index of the tree they
+	 * belong into.
+	 */
+	private void partition(List<T> items, List<Rectangle> boundingBoxes,
+			List<List<T>> partitionItems, List<List<Rectangle>> partitionBoundingBoxes) {
+
+		for (int i = 0; i < trees.length; i++) {
+			partitionItems.add(new ArrayList<T>());
+			partitionBoundingBoxes.add(new ArrayList<Rectangle>());
+		}
+
+		for (int i = 0; i < items.size(); i++) {
+			int index = indexOf(boundingBoxes.get(i));
+			partitionItems.get(index).add(items.get(i));
+			partitionBoundingBoxes.get(index).add(boundingBoxes.get(i));
+		}
+
+	}
+
+	/**
+	 * Walks all stripes at once, so that the items of different stripes are
+	 * reported in order, too.
+	 */
+	@Override
+	public void raycast(int x0, int y0, int x1, int y1, ItemVisitor<T> visitor) {
+
+		Ray ray = new Ray(x0, y0, x1, y1);
+		boundingBoxCheck(ray.getBoundingBox());
+
+		readLockAll();
+		try {
+
+			PriorityQueue<Ray.Hit<T>> queue = new PriorityQueue<Ray.Hit<T>>();
+			for (int i = 0; i < trees.length - 1; i++) {
+				double t = ray.enter(trees[i].boundingBox);
+				if (t >= 0)
+					queue.add(new Ray.Hit<T>(t, trees[i]));
+			}
+
+			// items of the overflow tree may lie outside of its bounding box
+			queue.add(new Ray.Hit<T>(Double.NEGATIVE_INFINITY, trees[trees.length - 1]));
+
+			SWTQuadTree.raycastInternal(queue, ray, visitor);
+
+		} finally {
+			readUnlockAll();
+		}
+
+	}
+
+	private void readLockAll() {
+		for (ReentrantReadWriteLock lock : locks)
+			lock.readLock().lock();
+	}
+
+	private void readUnlockAll() {
+		for (int i = locks.length - 1; i >= 0; i--)
+			locks[i].readLock().unlock();
+	}
+
+	/**
+	 * Removes the items from one stripe after the other, holding the write
+	 * lock of one stripe at a time like the searches do.
+	 */
+	@Override
+	public int removeAll(Rectangle region, Predicate<T> filter) {
+
+		if (needsMonitor()) {
+			synchronized (this) {
+				return removeAll(region, filter);
+			}
+		}
+
+		boundingBoxCheck(region);
+
+		List<Entry<T>> removed = hasTreeListeners() ? new ArrayList<Entry<T>>() : null;
+		int count = 0;
+
+		for (int i = 0; i < trees.length; i++) {
+
+			if (!trees[i].boundingBox.intersects(region) && i != trees.length - 1)
+				continue;
+
+			locks[i].writeLock().lock();
+			try {
+				count += trees[i].removeAll(region, filter, removed);
+			} finally {
+				locks[i].writeLock().unlock();
+			}
+
+		}
+
+		if (removed != null && !removed.isEmpty())
+			synchronized (this) {
+				for (Entry<T> e : removed)
+					fireItemRemoved(e.item, e.boundingBox);
+			}
+
+		return count;
+
+	}
+
+	public void removeItem(T item, Rectangle itemBoundingBox) {
+
+		if (needsMonitor()) {
+			synchronized (this) {
+				removeItem(item, itemBoundingBox);
+			}
+			return;
+		}
+
+		int index = indexOf(itemBoundingBox);
+
+		locks[index].writeLock().lock();
+		try {
+			trees[index].removeItem(item, itemBoundingBox);
+		} finally {
+			locks[index].writeLock().unlock();
+		}
+
+		if (hasTreeListeners())
+			synchronized (this) {
+				fireItemRemoved(item, itemBoundingBox);
+			}
+
+	}
+
+	/**
+	 * Searches the stripes one after the other, so clusters never span more
+	 * than one stripe. The search holds the read lock of each stripe like the
+	 * other searches.
+	 */
+	@Override
+	public List<Cluster<T>> searchClusters(Rectangle region, int minCellSize) {
+
+		boundingBoxCheck(region);
+
+		if (minCellSize <= 0)
+			throw new RuntimeException("The cell size must be positive.");
+
+		List<Cluster<T>> clusters = new ArrayList<Cluster<T>>();
+
+		for (int i = 0; i < trees.length; i++) {
+
+			if (!trees[i].boundingBox.intersects(region) && i != trees.length - 1)
+				continue;
+
+			locks[i].readLock().lock();
+			try {
+				trees[i].searchClustersInternal(clusters, region, minCellSize);
+			} finally {
+				locks[i].readLock().unlock();
+			}
+
+		}
+
+		return clusters;
+
+	}
+
+	public Set<T> searchItems() {
+		return searchItems(boundingBox);
+	}
+
+	public Set<T> searchItems(Rectangle boundingBox) {
+
+		boundingBoxCheck(boundingBox);
+
+		final Set<T> set = new HashSet<T>();
+		searchItems(boundingBox, new ItemVisitor<T>() {
+			public boolean visit(T item, Rectangle itemBoundingBox) {
+				set.add(item);
+				return true;
+			}
+		});
+		return set;
+
+	}
+
+	/**
+	 * Searches the stripes one after the other, sharing the items found so
+	 * that later stripes are pruned by the priorities found in earlier ones.
+	 * The search holds the read lock of each stripe, the priorities cached in
+	 * the nodes may be replaced by concurrent readers, see
+	 * {@link SWTQuadTree#getMaxPriority(ItemPriority)}.
+	 */
+	@Override
+	public List<T> searchItems(Rectangle boundingBox, int limit, ItemPriority<T> priority) {
+
+		boundingBoxCheck(boundingBox);
+
+		TopItems<T> top = new TopItems<T>(limit);
+
+		for (int i = 0; i < trees.length; i++) {
+
+			if (!trees[i].boundingBox.intersects(boundingBox) && i != trees.length - 1)
+				continue;
+
+			locks[i].readLock().lock();
+			try {
+				trees[i].searchItemsInternal(boundingBox, top, priority);
+			} finally {
+				locks[i].readLock().unlock();
+			}
+
+		}
+
+		return top.getItems();
+
+	}
+
+	@Override
+	Set<T> searchItems(QueryShape shape) {
+
+		boundingBoxCheck(shape.boundingBox);
+
+		Set<T> set = new HashSet<T>();
+
+		for (int i = 0; i < trees.length; i++) {
+
+			if (!shape.intersects(trees[i].boundingBox) && i != trees.length - 1)
+				continue;
+
+			locks[i].readLock().lock();
+			try {
+				trees[i].searchItemsInternal(set, shape);
+			} finally {
+				locks[i].readLock().unlock();
+			}
+
+		}
+
+		return set;
+
+	}
+
+	public void searchItems(Rectangle boundingBox, ItemVisitor<T> visitor) {
+
+		boundingBoxCheck(boundingBox);
+
+		for (int i = 0; i < trees.length; i++) {
+
+			if (!trees[i].boundingBox.intersects(boundingBox) && i != trees.length - 1)
+				continue;
+
+			locks[i].readLock().lock();
+			try {
+				if (!trees[i].searchItemsInternal(visitor, boundingBox))
+					return;
+			} finally {
+				locks[i].readLock().unlock();
+			}
+
+		}
+
+	}
+
+	public List<List<T>> searchItemsByTile(Rectangle viewport, int tileSize) {
+
+		boundingBoxCheck(viewport);
+
+		final TileBuckets<T> tiles = new TileBuckets<T>(viewport, tileSize);
+		searchItems(viewport, new ItemVisitor<T>() {
+			public boolean visit(T item, Rectangle itemBoundingBox) {
+				tiles.add(item, itemBoundingBox);
+				return true;
+			}
+		});
+		return tiles.getTiles();
+
+	}
+
+	/**
+	 * Copies the items of <code>tree</code> intersecting with its bounding box
+	 * into a new {@link SWTQuadTree} of the same area, using the public search
+	 * API of <code>tree</code>. An item moved between two stripes of a
+	 * concurrent tree while it is searched may be reported twice, the second
+	 * report is skipped.
+	 */
+	private static <U> SWTQuadTree<U> snapshot(ISWTQuadTree<U> tree) {
+
+		Rectangle treeBoundingBox = tree.getBoundingBox();
+		final SWTQuadTree<U> snapshot = new SWTQuadTree<U>(treeBoundingBox.x,
+				treeBoundingBox.y, treeBoundingBox.width, 1, 8);
+
+		final Set<U> copied = Collections.newSetFromMap(new IdentityHashMap<U, Boolean>());
+
+		tree.searchItems(treeBoundingBox, new ItemVisitor<U>() {
+			public boolean visit(U item, Rectangle itemBoundingBox) {
+				if (copied.add(item))
+					snapshot.insertItem(item, new Rectangle(itemBoundingBox.x, itemBoundingBox.y,
+							itemBoundingBox.width, itemBoundingBox.height));
+				return true;
+			}
+		});
+
+		return snapshot;
+
+	}
+
+	@Override
+	public synchronized RegionSubscription<T> subscribe(Rectangle region,
+			RegionListener<T> listener) {
+		return super.subscribe(region, listener);
+	}
+
+	@Override
+	public String toString() {
+
+		StringBuffer buff = new StringBuffer();
+
+		for (int i = 0; i < trees.length; i++) {
+			locks[i].readLock().lock();
+			try {
+				buff.append(trees[i].toString());
+			} finally {
+				locks[i].readLock().unlock();
+			}
+		}
+
+		return buff.toString();
+
+	}
+
+	private void writeLockAll() {
+		for (ReentrantReadWriteLock lock : locks)
+			lock.writeLock().lock();
+	}
+
+	private void writeUnlockAll() {
+		for (int i = locks.length - 1; i >= 0; i--)
+			locks[i].writeLock().unlock();
+	}
+
+}
@@ -0,0 +1,115 @@
+package de.danbim.swtquadtree;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * Helper for {@link ISWTQuadTree#densityGrid(Rectangle, int, int)}. Splits an
+ * area into a grid of cells and counts the items intersecting with each cell
+ * during a single traversal. The range of cells an item intersects is computed
+ * arithmetically from its bounding box, and a quadrant lying entirely inside a
+ * cell can be counted as a whole.
+ * 
+ * @author Daniel Bimschas
+ */
+class DensityGrid {
+
+	private final Rectangle area;
+
+	private final int columns;
+
+	private final int rows;
+
+	private final int[] counts;
+
+	public DensityGrid(Rectangle area, int columns, int rows) {
+
+		if (columns <= 0 || rows <= 0 || columns > area.width || rows > area.height)
+			throw new RuntimeException("The number of columns and rows must be positive and "
+					+ "must not exceed the size of the area!");
+
+		this.area = area;
+		this.columns = columns;
+		this.rows = rows;
+		this.counts = new int[columns * rows];
+
+	}
+
+	/**
+	 * Returns the index of the cell containing the coordinate at
+	 * <code>offset</code> from the start of the area, -1 if it lies before and
+	 * <code>cellCount</code> if it lies behind the area. The cell <code>i</code>
+	 * starts at the offset <code>i * length / cellCount</code>, so the cells
+	 * differ in size by at most one.
+	 */
+	private static int cellIndex(int offset, int cellCount, int length) {
+
+		if (offset < 0)
+			return -1;
+
+		if (offset >= length)
+			return cellCount;
+
+		return (int) ((((long) offset + 1) * cellCount - 1) / length);
+
+	}
+
+	/**
+	 * Counts an item in all cells its bounding box intersects with, using the
+	 * semantics of {@link Rectangle#intersects(Rectangle)}.
+	 */
+	public void add(int x, int y, int width, int height) {
+
+		int firstColumn = Math.max(0, cellIndex(x - area.x, columns, area.width));
+		int lastColumn = Math.min(columns - 1, cellIndex(x + width - area.x - 1, columns,
+				area.width));
+		int firstRow = Math.max(0, cellIndex(y - area.y, rows, area.height));
+		int lastRow = Math.min(rows - 1, cellIndex(y + height - area.y - 1, rows, area.height));
+
+		for (int row = firstRow; row <= lastRow; row++)
+			for (int column = firstColumn; column <= lastColumn; column++)
+				counts[row * columns + column]++;
+
+	}
+
+	public void add(Rectangle boundingBox) {
+		add(boundingBox.x, boundingBox.y, boundingBox.width, boundingBox.height);
+	}
+
+	/**
+	 * Adds <code>count</code> items to the cell <code>cell</code> as returned
+	 * by {@link #getCell(Rectangle)}.
+	 */
+	public void add(int cell, int count) {
+		counts[cell] += count;
+	}
+
+	/**
+	 * Returns the index of the cell <code>boundingBox</code> lies in entirely,
+	 * -1 if there is none.
+	 */
+	public int getCell(Rectangle boundingBox) {
+
+		int column = cellIndex(boundingBox.x - area.x, columns, area.width);
+		int row = cellIndex(boundingBox.y - area.y, rows, area.height);
+
+		if (column < 0 || column >= columns || row < 0 || row >= rows)
+			return -1;
+
+		if (column != cellIndex(boundingBox.x + boundingBox.width - area.x - 1, columns,
+				area.width)
+				|| row != cellIndex(boundingBox.y + boundingBox.height - area.y - 1, rows,
+						area.height))
+			return -1;
+
+		return row * columns + column;
+
+	}
+
+	/**
+	 * Returns the counts of all cells in row-major order.
+	 */
+	public int[] getCounts() {
+		return counts;
+	}
+
+}
@@ -0,0 +1,548 @@
+package de.danbim.swtquadtree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * Double-buffered {@link ISWTQuadTree} decoupling a single writer, e.g. a
+ * simulation, from any number of readers, e.g. a render thread. The writer
+ * modifies a back tree while the readers search a front tree without taking
+ * any lock. {@link #swap()} publishes the back tree atomically as the new front
+ * tree, so the readers see all modifications made up to the swap at once and
+ * none made afterwards.
+ * 
+ * The modifications since the last swap are kept as a change log composing
+ * the net change of every item. After a swap the writer brings the former
+ * front tree up to date by committing this log as a {@link WriteBatch} as soon
+ * as the last reader left it. With {@link SWTQuadTree} buffers, as created by
+ * {@link ISWTQuadTree.Factory#createDoubleBuffered(int, int, int, int, int)},
+ * catching up costs time proportional to the number of changed items and not
+ * to the size of the tree.
+ * 
+ * All modifying methods must be called by the same thread, the one calling
+ * {@link #swap()}. They may block until the readers still searching the
+ * former front tree are done. The listeners and region subscriptions of this
+ * tree are notified when a modification is made, not when it is published.
+ * 
+ * @author Daniel Bimschas
+ * 
+ * @param <T>
+ *            the type of the items managed by the tree
+ */
+public class DoubleBufferedSWTQuadTree<T> extends AbstractSWTQuadTree<T> {
+
+	/**
+	 * A tree together with the number of readers searching it.
+	 */
+	private static class Buffer<K> {
+
+		final ISWTQuadTree<K> tree;
+
+		final AtomicInteger readers = new AtomicInteger();
+
+		Buffer(ISWTQuadTree<K> tree) {
+			this.tree = tree;
+		}
+
+	}
+
+	private static final String ERROR_BATCH_SIZE = "The lists of a batch must have the same size.";
+
+	private static final String ERROR_BOUNDING_BOX_NO_INTERSECTION = "The bounding box must "
+			+ "intersect the tree elements' bounding box.";
+
+	private volatile Buffer<T> front;
+
+	private Buffer<T> back;
+
+	/**
+	 * The modifications of the back tree since the last swap, to be applied to
+	 * the front tree after the next swap.
+	 */
+	private WriteBatch<T> log;
+
+	/**
+	 * If the back tree was cleared since the last swap, in which case the
+	 * front tree has to be cleared before <code>log</code> is applied to it.
+	 */
+	private boolean logCleared;
+
+	/**
+	 * The modifications the back tree lacks, <code>null</code> if it is up to
+	 * date.
+	 */
+	private WriteBatch<T> pending;
+
+	private boolean pendingCleared;
+
+	/**
+	 * Creates a double-buffered tree using <code>front</code> and
+	 * <code>back</code> as its buffers.
+	 * 
+	 * @param front
+	 *            the tree searched first, must not be accessed other than
+	 *            through the new instance afterwards
+	 * @param back
+	 *            the tree modified first, must not be accessed other than
+	 *            through the new instance afterwards
+	 * @throws RuntimeException
+	 *             if one of the trees is not empty or if their bounding boxes
+	 *             differ
+	 */
+	public DoubleBufferedSWTQuadTree(ISWTQuadTree<T> front, ISWTQuadTree<T> back) {
+
+		if (front == back)
+			throw new RuntimeException("The buffers must be different trees!");
+		if (front.getItemCount() != 0 || back.getItemCount() != 0)
+			throw new RuntimeException("The buffers must be empty!");
+		if (!front.getBoundingBox().equals(back.getBoundingBox()))
+			throw new RuntimeException("The buffers must have the same bounding box!");
+
+		this.front = new Buffer<T>(front);
+		this.back = new Buffer<T>(back);
+		this.log = front.beginBatch();
+
+	}
+
+	/**
+	 * Publishes the back tree as the new front tree. Readers that already
+	 * started a search on the former front tree finish it there. Waits for
+	 * such readers only if the back tree has not caught up with the
+	 * modifications published by the previous swap yet.
+	 */
+	public void swap() {
+
+		catchUp();
+
+		Buffer<T> published = back;
+		back = front;
+		front = published;
+
+		pending = log;
+		pendingCleared = logCleared;
+		log = published.tree.beginBatch();
+		logCleared = false;
+
+	}
+
+	/**
+	 * Applies the modifications the back tree lacks after the last swap,
+	 * after waiting for the readers still searching it. Only the nodes of the
+	 * back tree touched by the log are restructured.
+	 */
+	private void catchUp() {
+
+		if (pending == null)
+			return;
+
+		// readers seeing the back tree as the front tree back off after
+		// incrementing its counter, see acquire()
+		while (back.readers.get() != 0)
+			Thread.yield();
+
+		if (pendingCleared)
+			back.tree.clear();
+		pending.commit();
+
+		pending = null;
+		pendingCleared = false;
+
+	}
+
+	/**
+	 * Returns the current front tree after registering the caller as its
+	 * reader. Must be followed by a call to {@link #release(Buffer)}.
+	 */
+	private Buffer<T> acquire() {
+
+		while (true) {
+
+			Buffer<T> buffer = front;
+			buffer.readers.incrementAndGet();
+
+			// the writer may have swapped and started catching up between
+			// reading front and registering
+			if (buffer == front)
+				return buffer;
+
+			buffer.readers.decrementAndGet();
+
+		}
+
+	}
+
+	private void release(Buffer<T> buffer) {
+		buffer.readers.decrementAndGet();
+	}
+
+	/**
+	 * Returns a copy of <code>boundingBox</code>, each buffer and the log own
+	 * their bounding boxes as callers like {@link SpatialHandle} reuse theirs.
+	 */
+	private static Rectangle copy(Rectangle boundingBox) {
+		return new Rectangle(boundingBox.x, boundingBox.y, boundingBox.width, boundingBox.height);
+	}
+
+	/**
+	 * Rejects bounding boxes not intersecting the tree before the back tree
+	 * is modified, as some trees accept them when moving an item but not when
+	 * the log is committed to the other tree.
+	 */
+	private void boundingBoxCheck(Rectangle itemBoundingBox) {
+
+		if (!front.tree.getBoundingBox().intersects(itemBoundingBox))
+			throw new RuntimeException(ERROR_BOUNDING_BOX_NO_INTERSECTION);
+
+	}
+
+	private static List<Rectangle> copy(List<Rectangle> boundingBoxes) {
+
+		List<Rectangle> copies = new ArrayList<Rectangle>(boundingBoxes.size());
+		for (Rectangle boundingBox : boundingBoxes)
+			copies.add(copy(boundingBox));
+		return copies;
+
+	}
+
+	public void clear() {
+
+		fireBeforeClear();
+
+		catchUp();
+		back.tree.clear();
+
+		log.discard();
+		log = front.tree.beginBatch();
+		logCleared = true;
+
+	}
+
+	/**
+	 * The net changes are committed to the back tree as a single batch and
+	 * added to the log.
+	 */
+	@Override
+	void commitBatch(List<WriteBatch.Change<T>> changes) {
+
+		catchUp();
+
+		WriteBatch<T> batch = back.tree.beginBatch();
+		for (WriteBatch.Change<T> change : changes) {
+			if (change.oldBoundingBox == null)
+				batch.insertItem(change.item, copy(change.newBoundingBox));
+			else if (change.newBoundingBox == null)
+				batch.removeItem(change.item, change.oldBoundingBox);
+			else
+				batch.moveItem(change.item, change.oldBoundingBox, copy(change.newBoundingBox));
+		}
+		batch.commit();
+
+		for (WriteBatch.Change<T> change : changes) {
+			if (change.oldBoundingBox == null)
+				log.insertItem(change.item, copy(change.newBoundingBox));
+			else if (change.newBoundingBox == null)
+				log.removeItem(change.item, copy(change.oldBoundingBox));
+			else
+				log.moveItem(change.item, copy(change.oldBoundingBox),
+						copy(change.newBoundingBox));
+		}
+
+		fireBatchCommitted(changes);
+
+	}
+
+	public boolean containsItem(T item, Rectangle itemBoundingBox) {
+
+		Buffer<T> buffer = acquire();
+		try {
+			return buffer.tree.containsItem(item, itemBoundingBox);
+		} finally {
+			release(buffer);
+		}
+
+	}
+
+	@Override
+	public int[] densityGrid(Rectangle area, int columns, int rows) {
+
+		Buffer<T> buffer = acquire();
+		try {
+			return buffer.tree.densityGrid(area, columns, rows);
+		} finally {
+			release(buffer);
+		}
+
+	}
+
+	public void forEachIntersectingPair(PairVisitor<T> visitor) {
+
+		Buffer<T> buffer = acquire();
+		try {
+			buffer.tree.forEachIntersectingPair(visitor);
+		} finally {
+			release(buffer);
+		}
+
+	}
+
+	public void forEachIntersectingPair(PairVisitor<T> visitor, ForkJoinPool pool) {
+
+		Buffer<T> buffer = acquire();
+		try {
+			buffer.tree.forEachIntersectingPair(visitor, pool);
+		} finally {
+			release(buffer);
+		}
+
+	}
+
+	public Rectangle getBoundingBox() {
+		return front.tree.getBoundingBox();
+	}
+
+	/**
+	 * Returns the number of items of the front tree.
+	 */
+	public int getItemCount() {
+
+		Buffer<T> buffer = acquire();
+		try {
+			return buffer.tree.getItemCount();
+		} finally {
+			release(buffer);
+		}
+
+	}
+
+	/**
+	 * Returns the statistics of the front tree. The back tree uses about as
+	 * much memory again.
+	 */
+	public TreeStatistics getStatistics() {
+
+		Buffer<T> buffer = acquire();
+		try {
+			return buffer.tree.getStatistics();
+		} finally {
+			release(buffer);
+		}
+
+	}
+
+	public void insertBatch(List<T> items, List<Rectangle> boundingBoxes, ForkJoinPool pool) {
+
+		if (items.size() != boundingBoxes.size())
+			throw new RuntimeException(ERROR_BATCH_SIZE);
+
+		catchUp();
+		back.tree.insertBatch(items, copy(boundingBoxes), pool);
+
+		for (int i = 0; i < items.size(); i++) {
+			log.insertItem(items.get(i), copy(boundingBoxes.get(i)));
+			fireItemInserted(items.get(i), boundingBoxes.get(i));
+		}
+
+	}
+
+	public void insertItem(T item, Rectangle itemBoundingBox) {
+
+		catchUp();
+		back.tree.insertItem(item, copy(itemBoundingBox));
+		log.insertItem(item, copy(itemBoundingBox));
+
+		fireItemInserted(item, itemBoundingBox);
+
+	}
+
+	public <U> void join(ISWTQuadTree<U> other, JoinVisitor<T, U> visitor) {
+
+		Buffer<T> buffer = acquire();
+		try {
+			buffer.tree.join(other, visitor);
+		} finally {
+			release(buffer);
+		}
+
+	}
+
+	public void moveBatch(List<T> items, List<Rectangle> oldBoundingBoxes,
+			List<Rectangle> newBoundingBoxes, ForkJoinPool pool) {
+
+		if (items.size() != oldBoundingBoxes.size() || items.size() != newBoundingBoxes.size())
+			throw new RuntimeException(ERROR_BATCH_SIZE);
+
+		for (Rectangle newBoundingBox : newBoundingBoxes)
+			boundingBoxCheck(newBoundingBox);
+
+		catchUp();
+		back.tree.moveBatch(items, oldBoundingBoxes, copy(newBoundingBoxes), pool);
+
+		for (int i = 0; i < items.size(); i++) {
+			log.moveItem(items.get(i), copy(oldBoundingBoxes.get(i)),
+					copy(newBoundingBoxes.get(i)));
+			fireItemMoved(items.get(i), oldBoundingBoxes.get(i), newBoundingBoxes.get(i));
+		}
+
+	}
+
+	public void moveItem(T item, Rectangle oldItemBoundingBox, Rectangle newItemBoundingBox) {
+
+		boundingBoxCheck(newItemBoundingBox);
+
+		catchUp();
+		back.tree.moveItem(item, oldItemBoundingBox, copy(newItemBoundingBox));
+		log.moveItem(item, copy(oldItemBoundingBox), copy(newItemBoundingBox));
+
+		fireItemMoved(item, oldItemBoundingBox, newItemBoundingBox);
+
+	}
+
+	@Override
+	public void raycast(int x0, int y0, int x1, int y1, ItemVisitor<T> visitor) {
+
+		Buffer<T> buffer = acquire();
+		try {
+			buffer.tree.raycast(x0, y0, x1, y1, visitor);
+		} finally {
+			release(buffer);
+		}
+
+	}
+
+	public void removeItem(T item, Rectangle itemBoundingBox) {
+
+		catchUp();
+		back.tree.removeItem(item, itemBoundingBox);
+		log.removeItem(item, copy(itemBoundingBox));
+
+		fireItemRemoved(item, itemBoundingBox);
+
+	}
+
+	@Override
+	public List<Cluster<T>> searchClusters(Rectangle region, int minCellSize) {
+
+		Buffer<T> buffer = acquire();
+		try {
+			return buffer.tree.searchClusters(region, minCellSize);
+		} finally {
+			release(buffer);
+		}
+
+	}
+
+	public Set<T> searchItems() {
+
+		Buffer<T> buffer = acquire();
+		try {
+			return buffer.tree.searchItems();
+		} finally {
+			release(buffer);
+		}
+
+	}
+
+	public Set<T> searchItems(Rectangle boundingBox) {
+
+		Buffer<T> buffer = acquire();
+		try {
+			return buffer.tree.searchItems(boundingBox);
+		} finally {
+			release(buffer);
+		}
+
+	}
+
+	@Override
+	public Set<T> searchItems(Rectangle boundingBox, int limit) {
+
+		Buffer<T> buffer = acquire();
+		try {
+			return buffer.tree.searchItems(boundingBox, limit);
+		} finally {
+			release(buffer);
+		}
+
+	}
+
+	@Override
+	public List<T> searchItems(Rectangle boundingBox, int limit, ItemPriority<T> priority) {
+
+		Buffer<T> buffer = acquire();
+		try {
+			return buffer.tree.searchItems(boundingBox, limit, priority);
+		} finally {
+			release(buffer);
+		}
+
+	}
+
+	@Override
+	public List<Set<T>> searchItems(List<Rectangle> boundingBoxes) {
+
+		Buffer<T> buffer = acquire();
+		try {
+			return buffer.tree.searchItems(boundingBoxes);
+		} finally {
+			release(buffer);
+		}
+
+	}
+
+	public void searchItems(Rectangle boundingBox, ItemVisitor<T> visitor) {
+
+		Buffer<T> buffer = acquire();
+		try {
+			buffer.tree.searchItems(boundingBox, visitor);
+		} finally {
+			release(buffer);
+		}
+
+	}
+
+	public List<List<T>> searchItemsByTile(Rectangle viewport, int tileSize) {
+
+		Buffer<T> buffer = acquire();
+		try {
+			return buffer.tree.searchItemsByTile(viewport, tileSize);
+		} finally {
+			release(buffer);
+		}
+
+	}
+
+	@Override
+	public Set<T> searchItemsInCircle(int centerX, int centerY, int radius) {
+
+		Buffer<T> buffer = acquire();
+		try {
+			return buffer.tree.searchItemsInCircle(centerX, centerY, radius);
+		} finally {
+			release(buffer);
+		}
+
+	}
+
+	@Override
+	public Set<T> searchItemsInPolygon(int[] pointArray) {
+
+		Buffer<T> buffer = acquire();
+		try {
+			return buffer.tree.searchItemsInPolygon(pointArray);
+		} finally {
+			release(buffer);
+		}
+
+	}
+
+	@Override
+	public String toString() {
+		return "DoubleBufferedSWTQuadTree [" + front.tree + "]";
+	}
+
+}
@@ -1,6 +1,9 @@
 package de.danbim.swtquadtree;
 
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
 
 import org.eclipse.swt.graphics.Rectangle;
 
@@ -80,8 +83,165 @@ public interface ISWTQuadTree<T> {
 					minSideLength, capacity) : new SWTQuadTree<T>(originX, originY,
 					totalSideLength, minSideLength, capacity);
 		}
+
+		/**
+		 * Creates a new concurrent {@link ISWTQuadTree} instance which allows
+		 * writers in different regions to modify it at the same time. The
+		 * tree is divided into 4^<code>stripeDepth</code> equally sized
+		 * quadrants, each one guarded by its own read/write lock. Items that
+		 * don't fit into a single quadrant are guarded by another lock.
+		 * 
+		 * Choose the stripe depth so that the regions of different writers
+		 * rarely share a quadrant, e.g. 2 for 16 quadrants.
+		 * 
+		 * @param originX
+		 *            the x coordinate of the origin
+		 * @param originY
+		 *            the y coordinate of the origin
+		 * @param totalSideLength
+		 *            the total length of a side of this quadratic
+		 *            {@link ISWTQuadTree} instance, must be a power of 2
+		 * @param minSideLength
+		 *            the minimal side length of an instance of
+		 *            {@link ISWTQuadTree}, must be a power of 2
+		 * @param capacity
+		 *            the maximum number of objects that one node should handle
+		 *            (excluding overflows when reaching maximum resolution)
+		 * @param stripeDepth
+		 *            the level of the quadrants that get their own lock,
+		 *            between 0 and 5
+		 * 
+		 * @throws RuntimeException
+		 *             if <code>totalSideLength</code> is not a power of 2, if
+		 *             <code>stripeDepth</code> is out of range or if the
+		 *             quadrants would be smaller than
+		 *             <code>minSideLength</code>
+		 * @return a newly created ISWTQuadTree instance
+		 */
+		public ISWTQuadTree<T> createConcurrent(int originX, int originY, int totalSideLength,
+				int minSideLength, int capacity, int stripeDepth) {
+			return new ConcurrentSWTQuadTree<T>(originX, originY, totalSideLength, minSideLength,
+					capacity, stripeDepth);
+		}
+
+		/**
+		 * Creates a new sharded {@link ISWTQuadTree} instance which splits
+		 * the area into a grid of independently locked shards like
+		 * {@link #createConcurrent(int, int, int, int, int, int)} and in
+		 * addition answers queries touching several shards by searching them
+		 * in parallel in the fork-join pool <code>pool</code>, see
+		 * {@link ShardedSWTQuadTree}. The returned instance is thread-safe.
+		 * 
+		 * @param originX
+		 *            the x coordinate of the origin
+		 * @param originY
+		 *            the y coordinate of the origin
+		 * @param totalSideLength
+		 *            the total length of a side of this quadratic
+		 *            {@link ISWTQuadTree} instance, must be a power of 2
+		 * @param minSideLength
+		 *            the minimal side length of an instance of
+		 *            {@link ISWTQuadTree}, must be a power of 2
+		 * @param capacity
+		 *            the maximum number of objects that one node should handle
+		 *            (excluding overflows when reaching maximum resolution)
+		 * @param shardDepth
+		 *            the level of the quadrants that become shards, between 0
+		 *            and 5
+		 * @param pool
+		 *            the pool to search the shards in, e.g.
+		 *            {@link ForkJoinPool#commonPool()}
+		 * 
+		 * @throws RuntimeException
+		 *             if <code>totalSideLength</code> is not a power of 2, if
+		 *             <code>shardDepth</code> is out of range, if the
+		 *             quadrants would be smaller than
+		 *             <code>minSideLength</code> or if <code>pool</code> is
+		 *             <code>null</code>
+		 * @return a newly created ISWTQuadTree instance
+		 */
+		public ISWTQuadTree<T> createSharded(int originX, int originY, int totalSideLength,
+				int minSideLength, int capacity, int shardDepth, ForkJoinPool pool) {
+			return new ShardedSWTQuadTree<T>(originX, originY, totalSideLength, minSideLength,
+					capacity, shardDepth, pool);
+		}
+
+		/**
+		 * Creates a new linear {@link ISWTQuadTree} instance which keeps its
+		 * items in a sorted array keyed by the Z-order code of the smallest
+		 * quadrant containing them instead of a tree of nodes. Searches are
+		 * considerably faster while inserts, moves and removals become more
+		 * expensive with a growing number of items, so this is the engine of
+		 * choice for mostly static and read-heavy layers.
+		 * 
+		 * The returned instance is not thread-safe, but may be searched
+		 * concurrently as long as it is not modified.
+		 * 
+		 * @param originX
+		 *            the x coordinate of the origin
+		 * @param originY
+		 *            the y coordinate of the origin
+		 * @param totalSideLength
+		 *            the total length of a side of this quadratic
+		 *            {@link ISWTQuadTree} instance, must be a power of 2
+		 * @param minSideLength
+		 *            the side length of the smallest quadrants, must be a power
+		 *            of 2
+		 * 
+		 * @throws RuntimeException
+		 *             if <code>totalSideLength</code> or
+		 *             <code>minSideLength</code> is not a power of 2
+		 * @return a newly created ISWTQuadTree instance
+		 */
+		public ISWTQuadTree<T> createLinear(int originX, int originY, int totalSideLength,
+				int minSideLength) {
+			return new LinearSWTQuadTree<T>(originX, originY, totalSideLength, minSideLength);
+		}
+
+		/**
+		 * Creates a new double-buffered {@link ISWTQuadTree} instance whose
+		 * readers search a stable front tree without any locking while a
+		 * single writer modifies a back tree, see
+		 * {@link DoubleBufferedSWTQuadTree}. The modifications become visible
+		 * to the readers when the writer calls
+		 * {@link DoubleBufferedSWTQuadTree#swap()}.
+		 * 
+		 * @param originX
+		 *            the x coordinate of the origin
+		 * @param originY
+		 *            the y coordinate of the origin
+		 * @param totalSideLength
+		 *            the total length of a side of this quadratic
+		 *            {@link ISWTQuadTree} instance, must be a power of 2
+		 * @param minSideLength
+		 *            the minimal side length of an instance of
+		 *            {@link ISWTQuadTree}, must be a power of 2
+		 * @param capacity
+		 *            the maximum number of objects that one node should handle
+		 *            (excluding overflows when reaching maximum resolution)
+		 * 
+		 * @throws RuntimeException
+		 *             if <code>totalSideLength</code> is not a power of 2
+		 * @return a newly created DoubleBufferedSWTQuadTree instance
+		 */
+		public DoubleBufferedSWTQuadTree<T> createDoubleBuffered(int originX, int originY,
+				int totalSideLength, int minSideLength, int capacity) {
+			return new DoubleBufferedSWTQuadTree<T>(new SWTQuadTree<T>(originX, originY,
+					totalSideLength, minSideLength, capacity), new SWTQuadTree<T>(originX, originY,
+					totalSideLength, minSideLength, capacity));
+		}
 	}
 
+	/**
+	 * Starts a write session whose insertions, moves and removals are buffered
+	 * and applied at once when the session is committed, see
+	 * {@link WriteBatch}. Readers see either none or all of the changes of a
+	 * session.
+	 * 
+	 * @return a new write session on this instance
+	 */
+	WriteBatch<T> beginBatch();
+
 	/**
 	 * Removes all items.
 	 */
@@ -100,6 +260,96 @@ public interface ISWTQuadTree<T> {
 	 */
 	boolean containsItem(T item, Rectangle itemBoundingBox);
 
+	/**
+	 * Creates a {@link ViewportQuery} for the viewport <code>viewport</code>
+	 * which initially contains all items intersecting with it. Afterwards the
+	 * query only determines the items entering and leaving the viewport when
+	 * it is moved or when the tree is modified.
+	 * 
+	 * @param viewport
+	 *            the initial viewport
+	 * @return a new viewport query tracking the modifications of this instance
+	 *         until it is disposed
+	 * @throws RuntimeException
+	 *             if <code>viewport</code> does not intersect with the bounding
+	 *             box of this instance
+	 */
+	ViewportQuery<T> createViewportQuery(Rectangle viewport);
+
+	/**
+	 * Splits <code>area</code> into a grid of <code>columns</code> by
+	 * <code>rows</code> cells and counts the items intersecting with each of
+	 * the cells, e.g. for a heatmap. The tree is only traversed once for all
+	 * cells, items spanning several cells are counted in all of them, and
+	 * quadrants lying entirely inside a cell are counted as a whole without
+	 * visiting their items.
+	 * 
+	 * The cells are numbered in row-major order starting at the upper left
+	 * corner of <code>area</code>, i.e. the cell in column <code>c</code> and
+	 * row <code>r</code> has index <code>r * columns + c</code>. The cell in
+	 * column <code>c</code> starts at <code>area.x + c * area.width / columns
+	 * </code> (rounded down) and the rows are split alike, so the cells
+	 * differ in size by at most one.
+	 * 
+	 * @param area
+	 *            the area in which to count
+	 * @param columns
+	 *            the number of cells per row
+	 * @param rows
+	 *            the number of cells per column
+	 * @return the number of items intersecting with every cell, in row-major
+	 *         order
+	 * @throws RuntimeException
+	 *             if <code>area</code> does not intersect with the bounding box
+	 *             of this instance or if <code>columns</code> or
+	 *             <code>rows</code> is not positive or exceeds the width or
+	 *             height of <code>area</code>
+	 */
+	int[] densityGrid(Rectangle area, int columns, int rows);
+
+	/**
+	 * Estimates the heap memory used by this instance, broken down by the
+	 * depth of the nodes into the node objects, the entry objects pairing the
+	 * items with their bounding boxes, the rectangles, the lists of entries
+	 * and the unused capacity of these lists. The items themselves are not
+	 * included. Walks the whole tree.
+	 * 
+	 * @return the estimated memory usage
+	 */
+	MemoryUsage estimateMemoryUsage();
+
+	/**
+	 * Reports every pair of items whose bounding boxes intersect to the
+	 * visitor <code>visitor</code>. Each pair is reported exactly once, the
+	 * whole tree is traversed only once.
+	 * 
+	 * @param visitor
+	 *            the visitor to report the pairs to
+	 */
+	void forEachIntersectingPair(PairVisitor<T> visitor);
+
+	/**
+	 * Same as {@link ISWTQuadTree#forEachIntersectingPair(PairVisitor)} but
+	 * traverses the quadrants of the tree in parallel using the fork-join pool
+	 * <code>pool</code>. The visitor is called concurrently from the worker
+	 * threads of <code>pool</code> and must therefore be thread-safe.
+	 * 
+	 * @param visitor
+	 *            the (thread-safe) visitor to report the pairs to
+	 * @param pool
+	 *            the pool to run the traversal in
+	 */
+	void forEachIntersectingPair(PairVisitor<T> visitor, ForkJoinPool pool);
+
+	/**
+	 * Returns the bounding box of the area this instance was created for, i.e.
+	 * the square defined by the origin and the total side length passed to the
+	 * {@link Factory}.
+	 * 
+	 * @return a copy of the bounding box of this instance
+	 */
+	Rectangle getBoundingBox();
+
 	/**
 	 * Returns the number of items currently held by this instance.
 	 * 
@@ -107,6 +357,38 @@ public interface ISWTQuadTree<T> {
 	 */
 	int getItemCount();
 
+	/**
+	 * Returns the number of nodes, leaves, items and overflows per depth and
+	 * the memory usage as estimated by {@link #estimateMemoryUsage()}. Walks
+	 * the whole tree.
+	 * 
+	 * @return a snapshot of the structure of this instance
+	 */
+	TreeStatistics getStatistics();
+
+	/**
+	 * Inserts all items of <code>items</code> into the ISWTQuadTree using the
+	 * bounding box at the same index of <code>boundingBoxes</code>. The batch
+	 * is partitioned by the quadrants of the tree and the partitions are
+	 * inserted into the disjoint sub trees in parallel using the fork-join pool
+	 * <code>pool</code>. Items that straddle the border of two quadrants are
+	 * inserted sequentially.
+	 * 
+	 * The result is the same as inserting the items one by one by calling
+	 * {@link #insertItem(Object, Rectangle)}.
+	 * 
+	 * @param items
+	 *            the items to insert
+	 * @param boundingBoxes
+	 *            the bounding boxes to use
+	 * @param pool
+	 *            the pool to run the insertion in
+	 * @throws RuntimeException
+	 *             if the lists differ in size or in any of the cases listed for
+	 *             {@link #insertItem(Object, Rectangle)}
+	 */
+	void insertBatch(List<T> items, List<Rectangle> boundingBoxes, ForkJoinPool pool);
+
 	/**
 	 * Inserts the object <code>item</code> into the ISWTQuadTree using the
 	 * Rectangle <code>boundingBox</code> as its bounding box.
@@ -127,6 +409,63 @@ public interface ISWTQuadTree<T> {
 	 */
 	void insertItem(T item, Rectangle boundingBox);
 
+	/**
+	 * Inserts the object <code>item</code> with the bounding box (
+	 * <code>x</code>, <code>y</code>, <code>width</code>, <code>height</code>)
+	 * and returns a handle for moving and removing it. Unlike
+	 * {@link #insertItem(Object, Rectangle)} the bounding box is owned by the
+	 * tree and can't be modified by the caller.
+	 * 
+	 * @param item
+	 *            the item to insert
+	 * @return the handle of the inserted item
+	 * @throws RuntimeException
+	 *             in the same cases as {@link #insertItem(Object, Rectangle)}
+	 */
+	SpatialHandle<T> insertItem(T item, int x, int y, int width, int height);
+
+	/**
+	 * Reports every pair of an item of this instance and an item of the tree
+	 * <code>other</code> whose bounding boxes intersect to the visitor
+	 * <code>visitor</code>. Each pair is reported exactly once.
+	 * 
+	 * If both instances were created by
+	 * {@link Factory#create(int, int, int, int, int, boolean)} both trees are
+	 * descended simultaneously and pairs of nodes whose bounding boxes don't
+	 * intersect are skipped. Otherwise <code>other</code> is searched once for
+	 * every item of this instance.
+	 * 
+	 * @param other
+	 *            the tree to join this instance with
+	 * @param visitor
+	 *            the visitor to report the pairs to
+	 */
+	<U> void join(ISWTQuadTree<U> other, JoinVisitor<T, U> visitor);
+
+	/**
+	 * Moves all items of <code>items</code> from the old bounding box at the
+	 * same index of <code>oldBoundingBoxes</code> to the new bounding box at
+	 * the same index of <code>newBoundingBoxes</code>. Like
+	 * {@link #insertBatch(List, List, ForkJoinPool)} the batch is partitioned
+	 * by the quadrants of the tree and applied to the disjoint sub trees in
+	 * parallel using the fork-join pool <code>pool</code>. The tree is cleaned
+	 * up once for the whole batch instead of once per item.
+	 * 
+	 * @param items
+	 *            the items to move
+	 * @param oldBoundingBoxes
+	 *            the old positions and shapes
+	 * @param newBoundingBoxes
+	 *            the new positions and shapes
+	 * @param pool
+	 *            the pool to run the move in
+	 * @throws RuntimeException
+	 *             if the lists differ in size or if one of the items is not
+	 *             found, in which case the tree is left unchanged
+	 */
+	void moveBatch(List<T> items, List<Rectangle> oldBoundingBoxes,
+			List<Rectangle> newBoundingBoxes, ForkJoinPool pool);
+
 	/**
 	 * Moves an object <code>item</code> from its old position and shape (i.e.
 	 * the old bounding box <code>oldBoundingBox</code>) to a new position and
@@ -143,6 +482,55 @@ public interface ISWTQuadTree<T> {
 	 */
 	void moveItem(T item, Rectangle oldBoundingBox, Rectangle newBoundingBox);
 
+	/**
+	 * Reports the items whose bounding boxes are hit by the line segment from
+	 * (<code>x0</code>, <code>y0</code>) to (<code>x1</code>, <code>y1</code>)
+	 * to the visitor <code>visitor</code>, in the order in which the segment
+	 * enters their bounding boxes. Items entered at the same point are
+	 * reported in no particular order. The search stops as soon as the
+	 * visitor returns <code>false</code>, e.g. after the first hit for a line
+	 * of sight check.
+	 * 
+	 * Bounding boxes are treated as closed here, so a segment only touching
+	 * the border of a bounding box hits it.
+	 * 
+	 * @param x0
+	 *            the x coordinate of the start of the segment
+	 * @param y0
+	 *            the y coordinate of the start of the segment
+	 * @param x1
+	 *            the x coordinate of the end of the segment
+	 * @param y1
+	 *            the y coordinate of the end of the segment
+	 * @param visitor
+	 *            the visitor to report the items to
+	 * @throws RuntimeException
+	 *             if the bounding box of the segment does not intersect with
+	 *             the bounding box of this instance
+	 */
+	void raycast(int x0, int y0, int x1, int y1, ItemVisitor<T> visitor);
+
+	/**
+	 * Removes all items whose bounding boxes intersect with
+	 * <code>region</code> and that are accepted by <code>filter</code>, i.e.
+	 * the items {@link #searchItems(Rectangle)} would return for
+	 * <code>region</code>, in a single traversal. The tree is cleaned up once
+	 * afterwards instead of once per item. If <code>filter</code> is
+	 * <code>null</code> all items in the region are removed and sub trees
+	 * lying completely within the region are dropped as a whole.
+	 * 
+	 * @param region
+	 *            the area to remove the items from
+	 * @param filter
+	 *            the filter deciding which items to remove or
+	 *            <code>null</code> to remove all of them
+	 * @return the number of items removed
+	 * @throws RuntimeException
+	 *             if <code>region</code> does not intersect with the bounding
+	 *             box of this instance
+	 */
+	int removeAll(Rectangle region, Predicate<T> filter);
+
 	/**
 	 * Removes the object <code>item</code> from the ISWTQuadTree using the
 	 * Rectangle <code>boundingBox</code> for searching its position inside the
@@ -157,6 +545,33 @@ public interface ISWTQuadTree<T> {
 	 */
 	void removeItem(T item, Rectangle boundingBox);
 
+	/**
+	 * Searches the items intersecting with <code>region</code> like
+	 * {@link #searchItems(Rectangle)}, but aggregates the items of quadrants
+	 * whose side length is at most <code>minCellSize</code> into a single
+	 * {@link Cluster} per quadrant instead of returning them one by one. Use
+	 * it for zoomed out views, passing the size of a few pixels in tree
+	 * coordinates, so that the number of results is bounded by the number of
+	 * cells in <code>region</code> rather than by the number of items.
+	 * 
+	 * Items that don't fit into such a quadrant and items of sparsely
+	 * populated regions may be returned as single items, i.e. clusters of
+	 * count 1. Every item intersecting with <code>region</code> is reported
+	 * exactly once. A cluster may also count items of its quadrant not
+	 * intersecting with <code>region</code>.
+	 * 
+	 * @param region
+	 *            the area in which to search
+	 * @param minCellSize
+	 *            the side length up to which quadrants are aggregated
+	 * @return the clusters and single items found
+	 * @throws RuntimeException
+	 *             if <code>region</code> does not intersect with the bounding
+	 *             box of this instance or if <code>minCellSize</code> is not
+	 *             positive
+	 */
+	List<Cluster<T>> searchClusters(Rectangle region, int minCellSize);
+
 	/**
 	 * Returns all items managed by the {@link ISWTQuadTree} instance.
 	 * 
@@ -175,4 +590,166 @@ public interface ISWTQuadTree<T> {
 	 */
 	Set<T> searchItems(Rectangle boundingBox);
 
+	/**
+	 * Returns at most <code>limit</code> of the items that have bounding boxes
+	 * intersecting with the bounding box <code>boundingBox</code>. The search
+	 * stops as soon as <code>limit</code> items are found, which of the items
+	 * are returned is not specified.
+	 * 
+	 * @param boundingBox
+	 *            the boundingBox of the area in which to search
+	 * @param limit
+	 *            the maximum number of items to return
+	 * @return at most <code>limit</code> items intersecting with
+	 *         <code>boundingBox</code>
+	 * @throws RuntimeException
+	 *             if <code>limit</code> is negative
+	 */
+	Set<T> searchItems(Rectangle boundingBox, int limit);
+
+	/**
+	 * Returns the <code>limit</code> items with the highest priorities among
+	 * the items that have bounding boxes intersecting with the bounding box
+	 * <code>boundingBox</code>, ordered by descending priority. Items of equal
+	 * priority are returned in no particular order.
+	 * 
+	 * Implementations may cache the maximum priority found in each node, so
+	 * the search can stop descending as soon as no node left can contain a
+	 * better item. Such a search updates the caches and must not run
+	 * concurrently with other calls of a tree that is not thread-safe. The
+	 * caches are kept for the last <code>priority</code> used, so callers
+	 * should reuse the same instance.
+	 * 
+	 * @param boundingBox
+	 *            the boundingBox of the area in which to search
+	 * @param limit
+	 *            the maximum number of items to return
+	 * @param priority
+	 *            the priority of the items
+	 * @return at most <code>limit</code> items intersecting with
+	 *         <code>boundingBox</code> in descending order of priority
+	 * @throws RuntimeException
+	 *             if <code>limit</code> is negative
+	 */
+	List<T> searchItems(Rectangle boundingBox, int limit, ItemPriority<T> priority);
+
+	/**
+	 * Returns the items intersecting with each of the areas
+	 * <code>boundingBoxes</code>, as if calling
+	 * {@link #searchItems(Rectangle)} once per area. Implementations may
+	 * answer all areas in a single traversal of the tree.
+	 * 
+	 * @param boundingBoxes
+	 *            the areas in which to search
+	 * @return the sets of items intersecting with each area, in the order of
+	 *         <code>boundingBoxes</code>
+	 * @throws RuntimeException
+	 *             if one of the areas does not intersect with the bounding box
+	 *             of this instance
+	 */
+	List<Set<T>> searchItems(List<Rectangle> boundingBoxes);
+
+	/**
+	 * Reports all items that have bounding boxes intersecting with the
+	 * bounding box <code>boundingBox</code> together with their bounding boxes
+	 * to the visitor <code>visitor</code> without collecting them. The search
+	 * stops as soon as the visitor returns <code>false</code>.
+	 * 
+	 * @param boundingBox
+	 *            the boundingBox of the area in which to search
+	 * @param visitor
+	 *            the visitor to report the items to
+	 */
+	void searchItems(Rectangle boundingBox, ItemVisitor<T> visitor);
+
+	/**
+	 * Splits the viewport <code>viewport</code> into square tiles of side
+	 * length <code>tileSize</code> and returns the items intersecting with each
+	 * of the tiles. The tree is only traversed once for all tiles and items
+	 * spanning several tiles are added to all of them.
+	 * 
+	 * The tiles are numbered in row-major order starting at the upper left
+	 * corner of <code>viewport</code>, i.e. the tile in column <code>c</code>
+	 * and row <code>r</code> has index <code>r * columns + c</code> where
+	 * <code>columns</code> is <code>viewport.width / tileSize</code> rounded
+	 * up. Tiles at the right and bottom border of the viewport are cut off at
+	 * the border.
+	 * 
+	 * @param viewport
+	 *            the area in which to search
+	 * @param tileSize
+	 *            the side length of the tiles
+	 * @return a list containing the items intersecting with every tile, in
+	 *         row-major order
+	 * @throws RuntimeException
+	 *             if <code>viewport</code> does not intersect with the bounding
+	 *             box of this instance or if <code>tileSize</code> is not
+	 *             positive
+	 */
+	List<List<T>> searchItemsByTile(Rectangle viewport, int tileSize);
+
+	/**
+	 * Returns all items that have bounding boxes intersecting with or
+	 * touching the circle with the center (<code>centerX</code>,
+	 * <code>centerY</code>) and the radius <code>radius</code>. Quadrants lying
+	 * completely inside the circle are taken as a whole without testing their
+	 * items.
+	 * 
+	 * @param centerX
+	 *            the x coordinate of the center
+	 * @param centerY
+	 *            the y coordinate of the center
+	 * @param radius
+	 *            the radius
+	 * @return the set of all items intersecting with the circle
+	 * @throws RuntimeException
+	 *             if <code>radius</code> is negative or if the bounding box of
+	 *             the circle does not intersect with the bounding box of this
+	 *             instance
+	 */
+	Set<T> searchItemsInCircle(int centerX, int centerY, int radius);
+
+	/**
+	 * Returns all items that have bounding boxes intersecting with or
+	 * touching the simple polygon <code>pointArray</code>, e.g. a lasso
+	 * selection. Quadrants lying completely inside the polygon are taken as a
+	 * whole without testing their items.
+	 * 
+	 * @param pointArray
+	 *            the coordinates of the vertices of the polygon in the form
+	 *            [x0, y0, x1, y1, ...], like in
+	 *            {@link org.eclipse.swt.graphics.GC#drawPolygon(int[])}
+	 * @return the set of all items intersecting with the polygon
+	 * @throws RuntimeException
+	 *             if <code>pointArray</code> contains less than three points
+	 *             or if the bounding box of the polygon does not intersect with
+	 *             the bounding box of this instance
+	 */
+	Set<T> searchItemsInPolygon(int[] pointArray);
+
+	/**
+	 * Subscribes to the region <code>region</code>. From now on the listener
+	 * <code>listener</code> is notified by {@link #insertItem(Object, Rectangle)},
+	 * {@link #moveItem(Object, Rectangle, Rectangle)},
+	 * {@link #removeItem(Object, Rectangle)} and {@link #clear()} whenever an
+	 * item enters, leaves or moves within the region, until the returned
+	 * subscription is cancelled.
+	 * 
+	 * The subscribed regions are indexed spatially, so every modification only
+	 * checks the subscriptions whose regions intersect with the bounding boxes
+	 * involved. Listeners are called synchronously from the modifying thread
+	 * and must not modify the tree.
+	 * 
+	 * @param region
+	 *            the region to subscribe to
+	 * @param listener
+	 *            the listener to notify
+	 * @return the subscription that can be used to cancel it
+	 * @throws RuntimeException
+	 *             if <code>region</code> does not intersect with the bounding
+	 *             box of this instance or if <code>listener</code> is
+	 *             <code>null</code>
+	 */
+	RegionSubscription<T> subscribe(Rectangle region, RegionListener<T> listener);
+
 }
@@ -0,0 +1,36 @@
+package de.danbim.swtquadtree;
+
+/**
+ * An item that knows its own bounding box, managed by a
+ * {@link SpatialItemQuadTree} without passing a
+ * {@link org.eclipse.swt.graphics.Rectangle} along with it.
+ * 
+ * @author Daniel Bimschas
+ */
+public interface ISpatialItem {
+
+	/**
+	 * Index of the x coordinate in the array filled by
+	 * {@link #getBounds(int[])}.
+	 */
+	public static final int X = 0;
+
+	public static final int Y = 1;
+
+	public static final int WIDTH = 2;
+
+	public static final int HEIGHT = 3;
+
+	/**
+	 * Writes the current bounding box of this item into <code>bounds</code>
+	 * at the indices {@link #X}, {@link #Y}, {@link #WIDTH} and
+	 * {@link #HEIGHT}. Called by the tree whenever the item is inserted or
+	 * updated, so the array is reused and must not be kept.
+	 * 
+	 * @param bounds
+	 *            the array of at least four elements to write the bounding box
+	 *            to
+	 */
+	void getBounds(int[] bounds);
+
+}
@@ -0,0 +1,637 @@
+package de.danbim.swtquadtree;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * Quad tree specialized for items that are plain <code>int</code> ids. It
+ * splits, overflows and cleans up exactly like {@link SWTQuadTree} but stores
+ * the ids and bounding boxes of every node in a single primitive array, so
+ * neither the ids are boxed nor {@link Rectangle} or entry objects are created
+ * per item. Results are reported to an {@link IntConsumer} or written into a
+ * buffer provided by the caller.
+ * 
+ * As ids have no identity other than their value, an id may be contained at
+ * most once in the same list of a node, like an item in {@link SWTQuadTree}.
+ * 
+ * This class is not thread-safe.
+ * 
+ * @author Daniel Bimschas
+ */
+public class IntQuadTree {
+
+	/**
+	 * A node of the tree. Its entries are stored in <code>objects</code> and
+	 * <code>overflows</code> as consecutive groups of {@link #ENTRY_SIZE} ints
+	 * (id, x, y, width, height).
+	 */
+	static final class Node {
+
+		final Node parent;
+
+		final int x;
+
+		final int y;
+
+		final int sideLength;
+
+		final boolean maximumResolutionReached;
+
+		Node[] children;
+
+		boolean leaf = true;
+
+		int[] objects = EMPTY;
+
+		int objectCount;
+
+		int[] overflows = EMPTY;
+
+		int overflowCount;
+
+		/**
+		 * The number of items in this node and all of its descendants.
+		 */
+		int itemCount;
+
+		Node(Node parent, int x, int y, int sideLength, int minSideLength) {
+			this.parent = parent;
+			this.x = x;
+			this.y = y;
+			this.sideLength = sideLength;
+			this.maximumResolutionReached = sideLength / 2 < minSideLength;
+		}
+
+		boolean contains(int px, int py) {
+			return px >= x && py >= y && px < x + sideLength && py < y + sideLength;
+		}
+
+		/**
+		 * Equivalent of {@link SWTQuadTree#boundingBoxContains(Rectangle, Rectangle)}.
+		 */
+		boolean contains(int ix, int iy, int iwidth, int iheight) {
+			return contains(ix, iy) && contains(ix + iwidth, iy + iheight);
+		}
+
+		/**
+		 * Returns the position of the child box the given bounding box lies
+		 * within or -1 if there is none.
+		 */
+		int getFittingChildPosition(int ix, int iy, int iwidth, int iheight) {
+
+			int half = sideLength / 2;
+			int right = ix >= x + half ? 1 : 0;
+			int lower = iy >= y + half ? 1 : 0;
+			int childX = x + right * half;
+			int childY = y + lower * half;
+
+			// both points defining the item bounding box must lie within the
+			// child box
+			int lowerRightX = ix + iwidth;
+			int lowerRightY = iy + iheight;
+			if (ix < childX || iy < childY || lowerRightX >= childX + half
+					|| lowerRightY >= childY + half)
+				return -1;
+
+			return lower == 0 ? right == 0 ? UPPER_LEFT : UPPER_RIGHT : right == 0 ? LOWER_LEFT
+					: LOWER_RIGHT;
+
+		}
+
+		boolean childIntersects(int position, int qx, int qy, int qwidth, int qheight) {
+
+			int half = sideLength / 2;
+			int childX = position == UPPER_RIGHT || position == LOWER_RIGHT ? x + half : x;
+			int childY = position == LOWER_RIGHT || position == LOWER_LEFT ? y + half : y;
+
+			return qx < childX + half && qy < childY + half && qx + qwidth > childX
+					&& qy + qheight > childY;
+
+		}
+
+	}
+
+	private static final int[] EMPTY = new int[0];
+
+	/**
+	 * The number of ints per entry: id, x, y, width and height.
+	 */
+	static final int ENTRY_SIZE = 5;
+
+	private static final String ERROR_BOUNDING_BOX_NO_INTERSECTION = "The bounding box must "
+			+ "intersect the tree elements' bounding box.";
+
+	private static final String ERROR_ITEM_EXISTING = "Item already contained in the QuadTree. "
+			+ "Please make sure you don't add items more than once.";
+
+	private static final String ERROR_ITEM_NOT_CONTAINED = "Could not remove the item because it "
+			+ "was not found in this quad tree. The existence in the tree is a precondition for "
+			+ "calling the remove or move function.";
+
+	private static final int LOWER_LEFT = 3;
+
+	private static final int LOWER_RIGHT = 2;
+
+	private static final int UPPER_LEFT = 0;
+
+	private static final int UPPER_RIGHT = 1;
+
+	private static boolean intersects(int[] entries, int offset, int qx, int qy, int qwidth,
+			int qheight) {
+
+		return qx < entries[offset + 1] + entries[offset + 3]
+				&& qy < entries[offset + 2] + entries[offset + 4]
+				&& qx + qwidth > entries[offset + 1] && qy + qheight > entries[offset + 2];
+
+	}
+
+	private static boolean isPowerOfTwo(int n) {
+		return ((n != 0) && (n & (n - 1)) == 0);
+	}
+
+	/**
+	 * The maximum number of objects that a node is allowed to hold in
+	 * <code>objects</code>.
+	 */
+	private final int capacity;
+
+	private final int minSideLength;
+
+	private final Node root;
+
+	public IntQuadTree(int originX, int originY, int totalSideLength, int minSideLength,
+			int capacity) {
+
+		if (!isPowerOfTwo(totalSideLength) || !isPowerOfTwo(minSideLength))
+			throw new RuntimeException("Both arguments must be powers of two!");
+
+		this.capacity = capacity;
+		this.minSideLength = minSideLength;
+		this.root = new Node(null, originX, originY, totalSideLength, minSideLength);
+
+	}
+
+	private static int[] add(int[] entries, int count, int id, int x, int y, int width,
+			int height) {
+
+		for (int i = 0; i < count; i++)
+			if (entries[i * ENTRY_SIZE] == id)
+				throw new RuntimeException(ERROR_ITEM_EXISTING);
+
+		if ((count + 1) * ENTRY_SIZE > entries.length)
+			entries = Arrays.copyOf(entries, Math.max(4, count * 2) * ENTRY_SIZE);
+
+		int offset = count * ENTRY_SIZE;
+		entries[offset] = id;
+		entries[offset + 1] = x;
+		entries[offset + 2] = y;
+		entries[offset + 3] = width;
+		entries[offset + 4] = height;
+
+		return entries;
+
+	}
+
+	private void boundingBoxCheck(int x, int y, int width, int height) {
+
+		// check precondition
+		if (!(x < root.x + root.sideLength && y < root.y + root.sideLength
+				&& x + width > root.x && y + height > root.y))
+			throw new RuntimeException(ERROR_BOUNDING_BOX_NO_INTERSECTION);
+
+	}
+
+	/**
+	 * Cleans up <code>node</code> by deleting obsolete children if possible
+	 * and cleans up the tree upwards, see {@link SWTQuadTree#cleanUp()}.
+	 */
+	private void cleanUp(Node node) {
+
+		for (; node != null; node = node.parent) {
+
+			if (node.leaf)
+				continue;
+
+			// check if all items in the subnodes would fit into this node and
+			// in this case reorder them
+			int childItemCount = node.itemCount - node.objectCount - node.overflowCount;
+			if (node.objectCount + childItemCount <= capacity) {
+
+				for (int i = 0; i < 4; i++)
+					if (node.children[i] != null)
+						collectItems(node, node.children[i]);
+
+				node.children = null;
+				node.leaf = true;
+
+			} else {
+
+				// remove empty children
+				boolean isLeaf = true;
+				for (int i = 0; i < 4; i++) {
+					if (node.children[i] != null && node.children[i].itemCount == 0)
+						node.children[i] = null;
+					else if (node.children[i] != null)
+						isLeaf = false;
+				}
+
+				if (isLeaf) {
+					node.children = null;
+					node.leaf = true;
+				}
+
+			}
+
+		}
+
+	}
+
+	public void clear() {
+
+		root.children = null;
+		root.leaf = true;
+		root.objects = root.overflows = EMPTY;
+		root.objectCount = root.overflowCount = root.itemCount = 0;
+
+		// check invariants
+		assert isOfIntegrity(root);
+
+	}
+
+	/**
+	 * Moves the items of <code>from</code> and its descendants into the
+	 * objects of <code>node</code>.
+	 */
+	private void collectItems(Node node, Node from) {
+
+		int count = from.objectCount + from.overflowCount;
+		if (count > 0 && (node.objectCount + count) * ENTRY_SIZE > node.objects.length)
+			node.objects = Arrays.copyOf(node.objects, Math.max(capacity, node.objectCount
+					+ count)
+					* ENTRY_SIZE);
+
+		System.arraycopy(from.objects, 0, node.objects, node.objectCount * ENTRY_SIZE,
+				from.objectCount * ENTRY_SIZE);
+		node.objectCount += from.objectCount;
+		System.arraycopy(from.overflows, 0, node.objects, node.objectCount * ENTRY_SIZE,
+				from.overflowCount * ENTRY_SIZE);
+		node.objectCount += from.overflowCount;
+
+		if (!from.leaf)
+			for (int i = 0; i < 4; i++)
+				if (from.children[i] != null)
+					collectItems(node, from.children[i]);
+
+	}
+
+	public boolean containsItem(int id, int x, int y, int width, int height) {
+
+		Node node = searchNode(x, y, width, height);
+
+		return indexOf(node.objects, node.objectCount, id) != -1
+				|| indexOf(node.overflows, node.overflowCount, id) != -1;
+
+	}
+
+	private Node getChild(Node node, int position) {
+
+		if (node.children == null)
+			node.children = new Node[4];
+
+		if (node.children[position] == null) {
+
+			int half = node.sideLength / 2;
+			int childX = position == UPPER_RIGHT || position == LOWER_RIGHT ? node.x + half
+					: node.x;
+			int childY = position == LOWER_RIGHT || position == LOWER_LEFT ? node.y + half
+					: node.y;
+
+			node.children[position] = new Node(node, childX, childY, half, minSideLength);
+			node.leaf = false;
+
+		}
+
+		return node.children[position];
+
+	}
+
+	/**
+	 * Returns a copy of the bounding box of the root node.
+	 * 
+	 * @return the bounding box of the tree
+	 */
+	public Rectangle getBoundingBox() {
+		return new Rectangle(root.x, root.y, root.sideLength, root.sideLength);
+	}
+
+	public int getItemCount() {
+		return root.itemCount;
+	}
+
+	private static int indexOf(int[] entries, int count, int id) {
+
+		for (int i = count - 1; i >= 0; i--)
+			if (entries[i * ENTRY_SIZE] == id)
+				return i;
+
+		return -1;
+
+	}
+
+	/**
+	 * Inserts the item with the id <code>id</code> into the tree.
+	 * 
+	 * @param id
+	 *            the id of the item
+	 * @param x
+	 *            the x coordinate of the items bounding box
+	 * @param y
+	 *            the y coordinate of the items bounding box
+	 * @param width
+	 *            the width of the items bounding box
+	 * @param height
+	 *            the height of the items bounding box
+	 */
+	public void insertItem(int id, int x, int y, int width, int height) {
+
+		// check invariants
+		assert isOfIntegrity(root);
+
+		boundingBoxCheck(x, y, width, height);
+
+		insertItemInternal(root, id, x, y, width, height);
+
+		// check invariants
+		assert isOfIntegrity(root);
+
+	}
+
+	/**
+	 * Inserts the item into the subtree of <code>node</code> like
+	 * {@link SWTQuadTree#insertItemInternal(Object, Rectangle)} does. Item
+	 * counts are only incremented after the item was added so that they stay
+	 * correct if the item was already contained.
+	 */
+	private void insertItemInternal(Node node, int id, int x, int y, int width, int height) {
+
+		int position = -1;
+		if (node.contains(x, y, width, height) && !node.maximumResolutionReached)
+			position = node.getFittingChildPosition(x, y, width, height);
+
+		if (position == -1) {
+
+			// the item doesn't fit into one of the child boxes, the maximum
+			// resolution is reached or the item sticks out of the root
+			node.overflows = add(node.overflows, node.overflowCount, id, x, y, width, height);
+			node.overflowCount++;
+
+		} else if (node.leaf && node.objectCount < capacity) {
+
+			node.objects = add(node.objects, node.objectCount, id, x, y, width, height);
+			node.objectCount++;
+
+		} else {
+
+			// reorder the objects into the children
+			int[] objects = node.objects;
+			for (int i = 0; i < node.objectCount; i++) {
+
+				int offset = i * ENTRY_SIZE;
+				int reorderFitPosition = node.getFittingChildPosition(objects[offset + 1],
+						objects[offset + 2], objects[offset + 3], objects[offset + 4]);
+
+				assert reorderFitPosition != -1;
+
+				insertItemInternal(getChild(node, reorderFitPosition), objects[offset],
+						objects[offset + 1], objects[offset + 2], objects[offset + 3],
+						objects[offset + 4]);
+
+			}
+			node.objectCount = 0;
+
+			insertItemInternal(getChild(node, position), id, x, y, width, height);
+
+		}
+
+		node.itemCount++;
+
+	}
+
+	/**
+	 * Checks the invariants of {@link SWTQuadTree#isOfIntegrity()} and the item
+	 * counts for <code>node</code> and its descendants. Should only be called
+	 * by assertions.
+	 */
+	boolean isOfIntegrity(Node node) {
+
+		if (node.leaf != (node.children == null))
+			return false;
+
+		if (!node.leaf && node.objectCount > 0)
+			return false;
+
+		if (node.objectCount > capacity)
+			return false;
+
+		if (node.maximumResolutionReached && !node.leaf)
+			return false;
+
+		int itemCount = node.objectCount + node.overflowCount;
+
+		if (!node.leaf) {
+
+			boolean hasChild = false;
+			for (int i = 0; i < 4; i++) {
+
+				Node child = node.children[i];
+				if (child == null)
+					continue;
+
+				if (child.parent != node || child.itemCount == 0 || !isOfIntegrity(child))
+					return false;
+
+				hasChild = true;
+				itemCount += child.itemCount;
+
+			}
+
+			if (!hasChild || itemCount - node.overflowCount <= capacity)
+				return false;
+
+		}
+
+		return itemCount == node.itemCount;
+
+	}
+
+	/**
+	 * Moves the item with the id <code>id</code> from its old to its new
+	 * bounding box.
+	 */
+	public void moveItem(int id, int oldX, int oldY, int oldWidth, int oldHeight, int x,
+			int y, int width, int height) {
+
+		// check invariants
+		assert isOfIntegrity(root);
+
+		Node node = removeItemInternal(id, oldX, oldY, oldWidth, oldHeight);
+
+		// inserting from the root puts the item where inserting it from node
+		// upwards would
+		insertItemInternal(root, id, x, y, width, height);
+		cleanUp(node);
+
+		// check invariants
+		assert isOfIntegrity(root);
+
+	}
+
+	public void removeItem(int id, int x, int y, int width, int height) {
+
+		// check invariants
+		assert isOfIntegrity(root);
+
+		cleanUp(removeItemInternal(id, x, y, width, height));
+
+		// check invariants
+		assert isOfIntegrity(root);
+
+	}
+
+	/**
+	 * Removes the item from the node it is stored in without cleaning up.
+	 * 
+	 * @return the node the item was removed from
+	 */
+	private Node removeItemInternal(int id, int x, int y, int width, int height) {
+
+		Node node = searchNode(x, y, width, height);
+
+		int index = indexOf(node.objects, node.objectCount, id);
+		if (index != -1) {
+
+			System.arraycopy(node.objects, (index + 1) * ENTRY_SIZE, node.objects, index
+					* ENTRY_SIZE, (node.objectCount - index - 1) * ENTRY_SIZE);
+			node.objectCount--;
+
+		} else {
+
+			index = indexOf(node.overflows, node.overflowCount, id);
+			if (index == -1)
+				throw new RuntimeException(ERROR_ITEM_NOT_CONTAINED);
+
+			System.arraycopy(node.overflows, (index + 1) * ENTRY_SIZE, node.overflows, index
+					* ENTRY_SIZE, (node.overflowCount - index - 1) * ENTRY_SIZE);
+			node.overflowCount--;
+
+		}
+
+		for (Node n = node; n != null; n = n.parent)
+			n.itemCount--;
+
+		return node;
+
+	}
+
+	/**
+	 * Writes the ids of all items intersecting with the given area into
+	 * <code>buffer</code>. If the buffer is too small only the first
+	 * <code>buffer.length</code> ids found are written but all ids are
+	 * counted, so the search can be repeated with a buffer of the returned
+	 * size.
+	 * 
+	 * @return the number of items found, may be larger than
+	 *         <code>buffer.length</code>
+	 */
+	public int searchItems(int x, int y, int width, int height, int[] buffer) {
+
+		boundingBoxCheck(x, y, width, height);
+
+		return searchItemsInternal(root, x, y, width, height, buffer, 0);
+
+	}
+
+	/**
+	 * Reports the ids of all items intersecting with the given area to
+	 * <code>consumer</code>.
+	 */
+	public void searchItems(int x, int y, int width, int height, IntConsumer consumer) {
+
+		boundingBoxCheck(x, y, width, height);
+
+		searchItemsInternal(root, x, y, width, height, consumer);
+
+	}
+
+	private int searchItemsInternal(Node node, int x, int y, int width, int height,
+			int[] buffer, int found) {
+
+		for (int i = 0; i < node.objectCount; i++)
+			if (intersects(node.objects, i * ENTRY_SIZE, x, y, width, height)) {
+				if (found < buffer.length)
+					buffer[found] = node.objects[i * ENTRY_SIZE];
+				found++;
+			}
+
+		for (int i = 0; i < node.overflowCount; i++)
+			if (intersects(node.overflows, i * ENTRY_SIZE, x, y, width, height)) {
+				if (found < buffer.length)
+					buffer[found] = node.overflows[i * ENTRY_SIZE];
+				found++;
+			}
+
+		if (!node.leaf) {
+			for (int i = 0; i < 4; i++)
+				if (node.children[i] != null && node.childIntersects(i, x, y, width, height))
+					found = searchItemsInternal(node.children[i], x, y, width, height, buffer,
+							found);
+		}
+
+		return found;
+
+	}
+
+	private void searchItemsInternal(Node node, int x, int y, int width, int height,
+			IntConsumer consumer) {
+
+		for (int i = 0; i < node.objectCount; i++)
+			if (intersects(node.objects, i * ENTRY_SIZE, x, y, width, height))
+				consumer.accept(node.objects[i * ENTRY_SIZE]);
+
+		for (int i = 0; i < node.overflowCount; i++)
+			if (intersects(node.overflows, i * ENTRY_SIZE, x, y, width, height))
+				consumer.accept(node.overflows[i * ENTRY_SIZE]);
+
+		if (!node.leaf) {
+			for (int i = 0; i < 4; i++)
+				if (node.children[i] != null && node.childIntersects(i, x, y, width, height))
+					searchItemsInternal(node.children[i], x, y, width, height, consumer);
+		}
+
+	}
+
+	/**
+	 * Returns the node an item with the given bounding box is stored in, see
+	 * {@link SWTQuadTree#searchNode(Rectangle)}.
+	 */
+	private Node searchNode(int x, int y, int width, int height) {
+
+		Node node = root;
+
+		while (!node.leaf && !node.maximumResolutionReached) {
+
+			int position = node.getFittingChildPosition(x, y, width, height);
+			if (position == -1 || node.children[position] == null)
+				break;
+
+			node = node.children[position];
+
+		}
+
+		return node;
+
+	}
+
+}
@@ -0,0 +1,30 @@
+package de.danbim.swtquadtree;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * Priority used by {@link ISWTQuadTree#searchItems(Rectangle, int, ItemPriority)}
+ * to rank the items found by a search, e.g. their z-order or layer.
+ * 
+ * The priority of an item must not change while it is managed by a tree. If
+ * it does, the item has to be removed and inserted again or moved, which may
+ * also be a move to the same bounding box.
+ * 
+ * @author Daniel Bimschas
+ * 
+ * @param <T>
+ *            the type of the items managed by the tree
+ */
+public interface ItemPriority<T> {
+
+	/**
+	 * Returns the priority of <code>item</code>, items with higher priorities
+	 * are returned first.
+	 * 
+	 * @param item
+	 *            the item to rank
+	 * @return the priority of <code>item</code>
+	 */
+	int getPriority(T item);
+
+}
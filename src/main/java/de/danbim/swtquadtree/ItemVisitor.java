@@ -0,0 +1,31 @@
+package de.danbim.swtquadtree;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * Callback used by {@link ISWTQuadTree#searchItems(Rectangle, ItemVisitor)} to
+ * report the items found by a search together with their bounding boxes.
+ * 
+ * @author Daniel Bimschas
+ * 
+ * @param <T>
+ *            the type of the items managed by the tree
+ */
+public interface ItemVisitor<T> {
+
+	/**
+	 * Called once for every item found.
+	 * 
+	 * The rectangle <code>boundingBox</code> is owned by the tree and may be
+	 * reused for the next call. It must neither be modified nor stored.
+	 * 
+	 * @param item
+	 *            the item found
+	 * @param boundingBox
+	 *            the bounding box of <code>item</code>
+	 * @return <code>true</code> if the search should continue,
+	 *         <code>false</code> if it should stop
+	 */
+	boolean visit(T item, Rectangle boundingBox);
+
+}
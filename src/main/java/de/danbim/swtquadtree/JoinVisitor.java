@@ -0,0 +1,28 @@
+package de.danbim.swtquadtree;
+
+/**
+ * Callback used by {@link ISWTQuadTree#join(ISWTQuadTree, JoinVisitor)} to
+ * report pairs of items from two different trees whose bounding boxes
+ * intersect.
+ * 
+ * @author Daniel Bimschas
+ * 
+ * @param <T>
+ *            the type of the items managed by the tree <code>join</code> is
+ *            called on
+ * @param <U>
+ *            the type of the items managed by the other tree
+ */
+public interface JoinVisitor<T, U> {
+
+	/**
+	 * Called once for every pair of items whose bounding boxes intersect.
+	 * 
+	 * @param item
+	 *            the item of the tree <code>join</code> was called on
+	 * @param otherItem
+	 *            the item of the other tree
+	 */
+	void visit(T item, U otherItem);
+
+}
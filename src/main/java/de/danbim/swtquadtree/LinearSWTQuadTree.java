@@ -0,0 +1,1095 @@
+package de.danbim.swtquadtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+import de.danbim.swtquadtree.SWTQuadTree.Entry;
+
+/**
+ * Linear (pointerless) implementation of {@link ISWTQuadTree}. Instead of a
+ * tree of node objects every item is keyed by the Z-order (Morton) code of the
+ * smallest quadrant that completely contains its bounding box. The keys are
+ * kept in a sorted primitive array together with the items and their bounding
+ * box coordinates.
+ * 
+ * The key of a quadrant is the Morton code of its upper left cell on the
+ * maximum resolution, shifted left by {@link LinearSWTQuadTree#LEVEL_BITS} and
+ * combined with the level of the quadrant. Therefore the entries of a quadrant
+ * are directly followed by the entries of all its descendants and every
+ * quadrant corresponds to one contiguous range of the arrays. A range query is
+ * answered by a set of binary searches and contiguous scans which is a lot
+ * more cache-friendly than the recursion of {@link SWTQuadTree}.
+ * 
+ * Inserting and removing items shifts the arrays, so this implementation is
+ * meant for mostly static and read-heavy layers. It is not thread-safe, but
+ * concurrent read-only access is safe.
+ * 
+ * @author Daniel Bimschas
+ * 
+ * @param <T>
+ *            the type of items the tree should manage
+ */
+class LinearSWTQuadTree<T> extends AbstractSWTQuadTree<T> {
+
+	/**
+	 * Fork-join task for
+	 * {@link LinearSWTQuadTree#forEachIntersectingPair(PairVisitor, ForkJoinPool)}
+	 * . Splits the key array into halves, which in Z-order corresponds to
+	 * splitting it by quadrants, until the ranges are small enough.
+	 */
+	static class IntersectingPairTask<K> extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final LinearSWTQuadTree<K> tree;
+
+		private final PairVisitor<K> visitor;
+
+		private final int from;
+
+		private final int to;
+
+		IntersectingPairTask(LinearSWTQuadTree<K> tree, PairVisitor<K> visitor, int from, int to) {
+			this.tree = tree;
+			this.visitor = visitor;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (to - from <= PARALLEL_THRESHOLD) {
+				tree.forEachIntersectingPairInternal(visitor, from, to);
+				return;
+			}
+
+			int middle = (from + to) >>> 1;
+			invokeAll(new IntersectingPairTask<K>(tree, visitor, from, middle),
+					new IntersectingPairTask<K>(tree, visitor, middle, to));
+
+		}
+
+	}
+
+	private static final String ERROR_BATCH_SIZE = "The lists of a batch must have the same size.";
+
+	private static final String ERROR_BOUNDING_BOX_NO_INTERSECTION = "The bounding box must "
+			+ "intersect the tree elements' bounding box.";
+
+	private static final String ERROR_ITEM_ALREADY_CONTAINED = "Item already contained in the "
+			+ "QuadTree. Please make sure you don't add items more than once.";
+
+	private static final String ERROR_ITEM_NOT_CONTAINED = "Could not remove the item because it "
+			+ "was not found in this quad tree. The existence in the tree is a precondition for "
+			+ "calling the remove or move function.";
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * The number of low-order bits of a key holding the level of the quadrant.
+	 */
+	private static final int LEVEL_BITS = 6;
+
+	private static final long LEVEL_MASK = (1L << LEVEL_BITS) - 1;
+
+	/**
+	 * The maximum number of levels below the root, limited by the number of
+	 * bits of a key.
+	 */
+	private static final int MAX_LEVELS = (63 - LEVEL_BITS) / 2;
+
+	/**
+	 * The number of entries below which parallel traversals stop splitting.
+	 */
+	private static final int PARALLEL_THRESHOLD = 1024;
+
+	/**
+	 * The number of entries below which the entries of a quadrant are scanned
+	 * sequentially instead of descending into its children.
+	 */
+	private static final int SCAN_THRESHOLD = 32;
+
+	/**
+	 * Spreads the lower 32 bits of <code>n</code> so that there is a zero bit
+	 * between every two of them.
+	 */
+	private static long spreadBits(long n) {
+		n &= 0xFFFFFFFFL;
+		n = (n | (n << 16)) & 0x0000FFFF0000FFFFL;
+		n = (n | (n << 8)) & 0x00FF00FF00FF00FFL;
+		n = (n | (n << 4)) & 0x0F0F0F0F0F0F0F0FL;
+		n = (n | (n << 2)) & 0x3333333333333333L;
+		n = (n | (n << 1)) & 0x5555555555555555L;
+		return n;
+	}
+
+	/**
+	 * Returns the Morton code of the cell (<code>x</code>, <code>y</code>).
+	 */
+	static long morton(int x, int y) {
+		return spreadBits(x) | (spreadBits(y) << 1);
+	}
+
+	/**
+	 * The bounding box of the tree.
+	 */
+	private final Rectangle boundingBox;
+
+	/**
+	 * The binary logarithm of the total side length.
+	 */
+	private final int sideLengthLog;
+
+	/**
+	 * The deepest level of quadrants, determined by the minimum side length.
+	 */
+	private final int maxLevel;
+
+	/**
+	 * The sorted keys of all entries.
+	 */
+	private long[] keys;
+
+	/**
+	 * The items of all entries, in the order of <code>keys</code>.
+	 */
+	private Object[] items;
+
+	/**
+	 * The bounding box coordinates (x, y, width, height) of all entries, in the
+	 * order of <code>keys</code>.
+	 */
+	private int[] bounds;
+
+	/**
+	 * The number of entries in <code>keys</code>, <code>items</code> and
+	 * <code>bounds</code>.
+	 */
+	private int size;
+
+	/**
+	 * All items that don't lie completely within the bounding box of the tree
+	 * and therefore have no key.
+	 */
+	private final List<Entry<T>> overflows = new ArrayList<Entry<T>>();
+
+	public LinearSWTQuadTree(int originX, int originY, int totalSideLength, int minSideLength) {
+
+		if (!isPowerOfTwo(totalSideLength) || !isPowerOfTwo(minSideLength))
+			throw new RuntimeException("Both arguments must be powers of two!");
+
+		this.boundingBox = new Rectangle(originX, originY, totalSideLength, totalSideLength);
+		this.sideLengthLog = Integer.numberOfTrailingZeros(totalSideLength);
+		this.maxLevel = Math.max(0, sideLengthLog - Integer.numberOfTrailingZeros(minSideLength));
+
+		if (maxLevel > MAX_LEVELS)
+			throw new RuntimeException("The ratio of total and minimum side length must not "
+					+ "exceed 2^" + MAX_LEVELS + "!");
+
+		this.keys = new long[INITIAL_CAPACITY];
+		this.items = new Object[INITIAL_CAPACITY];
+		this.bounds = new int[INITIAL_CAPACITY * 4];
+
+	}
+
+	private static boolean isPowerOfTwo(int n) {
+		return ((n != 0) && (n & (n - 1)) == 0);
+	}
+
+	public void clear() {
+
+		fireBeforeClear();
+
+		for (int i = 0; i < size; i++)
+			items[i] = null;
+
+		size = 0;
+		overflows.clear();
+
+	}
+
+	/**
+	 * Removes the old entries of all changes by compacting the arrays once and
+	 * merges the new ones into the arrays in a single pass, like
+	 * {@link LinearSWTQuadTree#moveBatch(List, List, List, ForkJoinPool)}.
+	 */
+	@Override
+	void commitBatch(List<WriteBatch.Change<T>> changes) {
+
+		BitSet removed = new BitSet(size);
+		BitSet removedOverflows = new BitSet(overflows.size());
+		List<T> insertedItems = new ArrayList<T>();
+		List<Rectangle> insertedBoundingBoxes = new ArrayList<Rectangle>();
+
+		// check all items before modifying anything
+		for (WriteBatch.Change<T> change : changes) {
+
+			if (change.oldBoundingBox != null) {
+
+				long oldKey = keyOf(change.oldBoundingBox);
+				int index = oldKey < 0 ? indexOfOverflow(change.item) : indexOf(change.item,
+						oldKey);
+				if (index == -1)
+					throw new RuntimeException(ERROR_ITEM_NOT_CONTAINED);
+				(oldKey < 0 ? removedOverflows : removed).set(index);
+
+			}
+
+			if (change.newBoundingBox != null) {
+
+				if (!boundingBox.intersects(change.newBoundingBox))
+					throw new RuntimeException(ERROR_BOUNDING_BOX_NO_INTERSECTION);
+				if (change.oldBoundingBox == null
+						&& containsItem(change.item, change.newBoundingBox))
+					throw new RuntimeException(ERROR_ITEM_ALREADY_CONTAINED);
+				insertedItems.add(change.item);
+				insertedBoundingBoxes.add(change.newBoundingBox);
+
+			}
+
+		}
+
+		removeIndexes(removed, removedOverflows);
+		insertBatchInternal(insertedItems, insertedBoundingBoxes);
+
+		fireBatchCommitted(changes);
+
+	}
+
+	public boolean containsItem(T item, Rectangle itemBoundingBox) {
+
+		long key = keyOf(itemBoundingBox);
+
+		if (key < 0)
+			return indexOfOverflow(item) != -1;
+
+		return indexOf(item, key) != -1;
+
+	}
+
+	public void forEachIntersectingPair(PairVisitor<T> visitor) {
+
+		forEachIntersectingPairInternal(visitor, 0, size);
+		forEachIntersectingOverflowPair(visitor);
+
+	}
+
+	public void forEachIntersectingPair(PairVisitor<T> visitor, ForkJoinPool pool) {
+
+		pool.invoke(new IntersectingPairTask<T>(this, visitor, 0, size));
+		forEachIntersectingOverflowPair(visitor);
+
+	}
+
+	/**
+	 * Reports the intersecting pairs between the entries with an index in
+	 * [<code>from</code>, <code>to</code>) and all entries following them in
+	 * the same quadrant or in one of its descendants. As the entries of all
+	 * descendants of a quadrant directly follow its own entries this is a
+	 * single contiguous scan per entry.
+	 */
+	@SuppressWarnings("unchecked")
+	void forEachIntersectingPairInternal(PairVisitor<T> visitor, int from, int to) {
+
+		for (int i = from; i < to; i++) {
+
+			long end = rangeEnd(keys[i]);
+
+			for (int j = i + 1; j < size && keys[j] < end; j++)
+				if (intersects(i, bounds[4 * j], bounds[4 * j + 1], bounds[4 * j + 2],
+						bounds[4 * j + 3]))
+					visitor.visit((T) items[i], (T) items[j]);
+
+		}
+
+	}
+
+	/**
+	 * Reports the intersecting pairs between the overflows and between the
+	 * overflows and all other entries.
+	 */
+	@SuppressWarnings("unchecked")
+	private void forEachIntersectingOverflowPair(final PairVisitor<T> visitor) {
+
+		for (int i = 0; i < overflows.size(); i++) {
+
+			Entry<T> e = overflows.get(i);
+
+			for (int j = i + 1; j < overflows.size(); j++)
+				if (e.boundingBox.intersects(overflows.get(j).boundingBox))
+					visitor.visit(e.item, overflows.get(j).item);
+
+			if (!boundingBox.intersects(e.boundingBox))
+				continue;
+
+			final T item = e.item;
+			searchIndexes(e.boundingBox, new IntPredicate() {
+				public boolean test(int index) {
+					visitor.visit(item, (T) items[index]);
+					return true;
+				}
+			});
+
+		}
+
+	}
+
+	public Rectangle getBoundingBox() {
+
+		return new Rectangle(boundingBox.x, boundingBox.y, boundingBox.width, boundingBox.height);
+
+	}
+
+	public int getItemCount() {
+
+		return size + overflows.size();
+
+	}
+
+	/**
+	 * As there are no node objects the tree itself is reported as the only
+	 * node, a leaf on depth 0 holding the overflows. The entries are reported
+	 * on the depth of their quadrants, the arrays and their unused capacity on
+	 * depth 0.
+	 */
+	public TreeStatistics getStatistics() {
+
+		TreeStatistics statistics = new TreeStatistics();
+		MemoryUsage memoryUsage = statistics.getMemoryUsage();
+
+		// a key, an item reference and four coordinates per entry
+		int bytesPerEntry = 8 + MemoryUsage.REFERENCE + 4 * 4;
+
+		int[] levelCounts = new int[maxLevel + 1];
+		for (int i = 0; i < size; i++)
+			levelCounts[(int) (keys[i] & LEVEL_MASK)]++;
+
+		statistics.addNode(0, true, 0, overflows.size());
+		for (int level = 0; level <= maxLevel; level++)
+			if (levelCounts[level] > 0)
+				statistics.addItems(level, levelCounts[level]);
+
+		long arrayBytes = MemoryUsage.arraySize(keys.length, 8)
+				+ MemoryUsage.arraySize(items.length, MemoryUsage.REFERENCE)
+				+ MemoryUsage.arraySize(bounds.length, 4);
+		long arraySlackBytes = (long) (keys.length - size) * bytesPerEntry;
+
+		memoryUsage.add(0, MemoryUsage.objectSize(7, 3, 0, 0), overflows.size()
+				* SWTQuadTree.ENTRY_SIZE, (1 + overflows.size()) * MemoryUsage.RECTANGLE,
+				arrayBytes - arraySlackBytes + MemoryUsage.listSize(overflows, 10),
+				arraySlackBytes + MemoryUsage.listSlack(overflows, 10));
+
+		for (int level = 0; level <= maxLevel; level++)
+			if (levelCounts[level] > 0)
+				memoryUsage.add(level, 0, (long) levelCounts[level] * bytesPerEntry, 0, 0, 0);
+
+		return statistics;
+
+	}
+
+	/**
+	 * As all entries are kept in one sorted array the batch is not inserted in
+	 * parallel but sorted by key and merged into the array in a single pass,
+	 * instead of shifting the array once per item. <code>pool</code> is not
+	 * used.
+	 */
+	public void insertBatch(List<T> items, List<Rectangle> boundingBoxes, ForkJoinPool pool) {
+
+		if (items.size() != boundingBoxes.size())
+			throw new RuntimeException(ERROR_BATCH_SIZE);
+
+		for (Rectangle itemBoundingBox : boundingBoxes)
+			if (!boundingBox.intersects(itemBoundingBox))
+				throw new RuntimeException(ERROR_BOUNDING_BOX_NO_INTERSECTION);
+
+		insertBatchInternal(items, boundingBoxes);
+
+		for (int i = 0; i < items.size(); i++)
+			fireItemInserted(items.get(i), boundingBoxes.get(i));
+
+	}
+
+	private void insertBatchInternal(List<T> items, List<Rectangle> boundingBoxes) {
+
+		final long[] batchKeys = new long[items.size()];
+		List<Integer> order = new ArrayList<Integer>(items.size());
+
+		// check all items before modifying anything
+		for (int i = 0; i < items.size(); i++) {
+
+			batchKeys[i] = keyOf(boundingBoxes.get(i));
+
+			if (batchKeys[i] < 0) {
+				if (indexOfOverflow(items.get(i)) != -1)
+					throw new RuntimeException(ERROR_ITEM_ALREADY_CONTAINED);
+				continue;
+			}
+
+			if (indexOf(items.get(i), batchKeys[i]) != -1)
+				throw new RuntimeException(ERROR_ITEM_ALREADY_CONTAINED);
+			order.add(i);
+
+		}
+
+		Integer[] sorted = order.toArray(new Integer[order.size()]);
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			public int compare(Integer index, Integer otherIndex) {
+				return Long.compare(batchKeys[index], batchKeys[otherIndex]);
+			}
+		});
+
+		// the same item must not be inserted twice with the same key
+		for (int i = 0; i < sorted.length; i++) {
+			long key = batchKeys[sorted[i]];
+			for (int j = i + 1; j < sorted.length && batchKeys[sorted[j]] == key; j++)
+				if (items.get(sorted[j]) == items.get(sorted[i]))
+					throw new RuntimeException(ERROR_ITEM_ALREADY_CONTAINED);
+		}
+
+		for (int i = 0; i < items.size(); i++)
+			if (batchKeys[i] < 0)
+				overflows.add(new Entry<T>(boundingBoxes.get(i), items.get(i)));
+
+		// make room for the new entries
+		int newSize = size + sorted.length;
+		if (newSize > keys.length) {
+			int newLength = Math.max(keys.length * 2, newSize);
+			keys = Arrays.copyOf(keys, newLength);
+			this.items = Arrays.copyOf(this.items, newLength);
+			bounds = Arrays.copyOf(bounds, newLength * 4);
+		}
+
+		// merge from the end, existing entries stay in front of new entries
+		// with the same key like in insertItemInternal
+		int i = size - 1;
+		int j = sorted.length - 1;
+		for (int k = newSize - 1; j >= 0; k--) {
+
+			if (i >= 0 && keys[i] > batchKeys[sorted[j]]) {
+				keys[k] = keys[i];
+				this.items[k] = this.items[i];
+				System.arraycopy(bounds, i * 4, bounds, k * 4, 4);
+				i--;
+				continue;
+			}
+
+			Rectangle itemBoundingBox = boundingBoxes.get(sorted[j]);
+			keys[k] = batchKeys[sorted[j]];
+			this.items[k] = items.get(sorted[j]);
+			bounds[k * 4] = itemBoundingBox.x;
+			bounds[k * 4 + 1] = itemBoundingBox.y;
+			bounds[k * 4 + 2] = itemBoundingBox.width;
+			bounds[k * 4 + 3] = itemBoundingBox.height;
+			j--;
+
+		}
+		size = newSize;
+
+	}
+
+	public void insertItem(T item, Rectangle itemBoundingBox) {
+
+		if (!boundingBox.intersects(itemBoundingBox))
+			throw new RuntimeException(ERROR_BOUNDING_BOX_NO_INTERSECTION);
+
+		insertItemInternal(item, itemBoundingBox);
+		fireItemInserted(item, itemBoundingBox);
+
+	}
+
+	private void insertItemInternal(T item, Rectangle itemBoundingBox) {
+
+		long key = keyOf(itemBoundingBox);
+
+		if (key < 0) {
+
+			if (indexOfOverflow(item) != -1)
+				throw new RuntimeException(ERROR_ITEM_ALREADY_CONTAINED);
+			overflows.add(new Entry<T>(itemBoundingBox, item));
+			return;
+
+		}
+
+		if (indexOf(item, key) != -1)
+			throw new RuntimeException(ERROR_ITEM_ALREADY_CONTAINED);
+
+		int index = upperBound(key, 0, size);
+
+		// make room for the new entry
+		if (size == keys.length) {
+			int newLength = keys.length * 2;
+			long[] newKeys = new long[newLength];
+			Object[] newItems = new Object[newLength];
+			int[] newBounds = new int[newLength * 4];
+			System.arraycopy(keys, 0, newKeys, 0, size);
+			System.arraycopy(items, 0, newItems, 0, size);
+			System.arraycopy(bounds, 0, newBounds, 0, size * 4);
+			keys = newKeys;
+			items = newItems;
+			bounds = newBounds;
+		}
+		System.arraycopy(keys, index, keys, index + 1, size - index);
+		System.arraycopy(items, index, items, index + 1, size - index);
+		System.arraycopy(bounds, index * 4, bounds, index * 4 + 4, (size - index) * 4);
+
+		keys[index] = key;
+		items[index] = item;
+		bounds[index * 4] = itemBoundingBox.x;
+		bounds[index * 4 + 1] = itemBoundingBox.y;
+		bounds[index * 4 + 2] = itemBoundingBox.width;
+		bounds[index * 4 + 3] = itemBoundingBox.height;
+		size++;
+
+	}
+
+	/**
+	 * Checks if the bounding box of the entry at <code>index</code> intersects
+	 * with the given rectangle, using the semantics of
+	 * {@link Rectangle#intersects(int, int, int, int)}.
+	 */
+	private boolean intersects(int index, int x, int y, int width, int height) {
+
+		int ex = bounds[index * 4];
+		int ey = bounds[index * 4 + 1];
+
+		return (x < ex + bounds[index * 4 + 2]) && (y < ey + bounds[index * 4 + 3])
+				&& (x + width > ex) && (y + height > ey);
+
+	}
+
+	/**
+	 * Returns the index of the entry of <code>item</code> with key
+	 * <code>key</code> or -1 if there is none.
+	 */
+	private int indexOf(T item, long key) {
+
+		for (int i = lowerBound(key, 0, size); i < size && keys[i] == key; i++)
+			if (items[i] == item)
+				return i;
+
+		return -1;
+
+	}
+
+	private int indexOfOverflow(T item) {
+
+		for (int i = 0; i < overflows.size(); i++)
+			if (overflows.get(i).item == item)
+				return i;
+
+		return -1;
+
+	}
+
+	@SuppressWarnings("unchecked")
+	public <U> void join(ISWTQuadTree<U> other, JoinVisitor<T, U> visitor) {
+
+		// search the other tree once for every entry of this tree
+		Rectangle otherBoundingBox = other.getBoundingBox();
+		Rectangle entryBoundingBox = new Rectangle(0, 0, 0, 0);
+
+		for (int i = 0; i < size; i++) {
+
+			entryBoundingBox.x = bounds[i * 4];
+			entryBoundingBox.y = bounds[i * 4 + 1];
+			entryBoundingBox.width = bounds[i * 4 + 2];
+			entryBoundingBox.height = bounds[i * 4 + 3];
+
+			if (otherBoundingBox.intersects(entryBoundingBox))
+				for (U otherItem : other.searchItems(entryBoundingBox))
+					visitor.visit((T) items[i], otherItem);
+
+		}
+
+		for (Entry<T> e : overflows)
+			if (otherBoundingBox.intersects(e.boundingBox))
+				for (U otherItem : other.searchItems(e.boundingBox))
+					visitor.visit(e.item, otherItem);
+
+	}
+
+	/**
+	 * Returns the key of the smallest quadrant that completely contains
+	 * <code>itemBoundingBox</code> or -1 if it does not lie within the bounding
+	 * box of the tree. Uses the same semantics as
+	 * {@link SWTQuadTree#boundingBoxContains(Rectangle, Rectangle)}.
+	 */
+	long keyOf(Rectangle itemBoundingBox) {
+
+		int side = boundingBox.width;
+		int x1 = itemBoundingBox.x - boundingBox.x;
+		int y1 = itemBoundingBox.y - boundingBox.y;
+		int x2 = x1 + itemBoundingBox.width;
+		int y2 = y1 + itemBoundingBox.height;
+
+		if (x1 < 0 || y1 < 0 || x2 < 0 || y2 < 0 || x1 >= side || y1 >= side || x2 >= side
+				|| y2 >= side)
+			return -1;
+
+		// the quadrants on level l have a side length of 2^(sideLengthLog - l)
+		// and both corners lie in the same quadrant if they don't differ in
+		// the bits above that
+		int differingBits = 32 - Integer.numberOfLeadingZeros((x1 ^ x2) | (y1 ^ y2));
+		int level = Math.min(maxLevel, sideLengthLog - differingBits);
+
+		return keyOf(x1 >> (sideLengthLog - level), y1 >> (sideLengthLog - level), level);
+
+	}
+
+	/**
+	 * Returns the key of the quadrant (<code>cellX</code>, <code>cellY</code>)
+	 * on level <code>level</code>.
+	 */
+	private long keyOf(int cellX, int cellY, int level) {
+
+		int shift = maxLevel - level;
+		return (morton(cellX << shift, cellY << shift) << LEVEL_BITS) | level;
+
+	}
+
+	/**
+	 * Returns the index of the first key greater or equal to <code>key</code>
+	 * in the range [<code>from</code>, <code>to</code>).
+	 */
+	private int lowerBound(long key, int from, int to) {
+
+		while (from < to) {
+			int middle = (from + to) >>> 1;
+			if (keys[middle] < key)
+				from = middle + 1;
+			else
+				to = middle;
+		}
+
+		return from;
+
+	}
+
+	/**
+	 * Like {@link LinearSWTQuadTree#insertBatch(List, List, ForkJoinPool)} this
+	 * doesn't run in parallel. Entries staying in their quadrant are updated in
+	 * place, all others are removed in a single pass over the array and then
+	 * merged back in. <code>pool</code> is not used.
+	 */
+	public void moveBatch(List<T> items, List<Rectangle> oldBoundingBoxes,
+			List<Rectangle> newBoundingBoxes, ForkJoinPool pool) {
+
+		if (items.size() != oldBoundingBoxes.size() || items.size() != newBoundingBoxes.size())
+			throw new RuntimeException(ERROR_BATCH_SIZE);
+
+		int[] indexes = new int[items.size()];
+		BitSet found = new BitSet(size);
+		BitSet foundOverflows = new BitSet(overflows.size());
+
+		// find all entries before modifying anything, an item can only be
+		// moved once
+		for (int i = 0; i < items.size(); i++) {
+
+			long oldKey = keyOf(oldBoundingBoxes.get(i));
+			BitSet foundSet = oldKey < 0 ? foundOverflows : found;
+			indexes[i] = oldKey < 0 ? indexOfOverflow(items.get(i)) : indexOf(items.get(i),
+					oldKey);
+
+			if (indexes[i] == -1 || foundSet.get(indexes[i]))
+				throw new RuntimeException(ERROR_ITEM_NOT_CONTAINED);
+			foundSet.set(indexes[i]);
+
+		}
+
+		// update the entries staying in their quadrant in place
+		BitSet removed = new BitSet(size);
+		BitSet removedOverflows = new BitSet(overflows.size());
+		List<T> movedItems = new ArrayList<T>();
+		List<Rectangle> movedBoundingBoxes = new ArrayList<Rectangle>();
+		for (int i = 0; i < items.size(); i++) {
+
+			long oldKey = keyOf(oldBoundingBoxes.get(i));
+			Rectangle newItemBoundingBox = newBoundingBoxes.get(i);
+
+			if (oldKey >= 0 && oldKey == keyOf(newItemBoundingBox)) {
+				bounds[indexes[i] * 4] = newItemBoundingBox.x;
+				bounds[indexes[i] * 4 + 1] = newItemBoundingBox.y;
+				bounds[indexes[i] * 4 + 2] = newItemBoundingBox.width;
+				bounds[indexes[i] * 4 + 3] = newItemBoundingBox.height;
+				continue;
+			}
+
+			(oldKey < 0 ? removedOverflows : removed).set(indexes[i]);
+			movedItems.add(items.get(i));
+			movedBoundingBoxes.add(newItemBoundingBox);
+
+		}
+
+		// remove the other entries in a single pass
+		removeIndexes(removed, removedOverflows);
+
+		insertBatchInternal(movedItems, movedBoundingBoxes);
+
+		for (int i = 0; i < items.size(); i++)
+			fireItemMoved(items.get(i), oldBoundingBoxes.get(i), newBoundingBoxes.get(i));
+
+	}
+
+	public void moveItem(T item, Rectangle oldItemBoundingBox, Rectangle newItemBoundingBox) {
+
+		long oldKey = keyOf(oldItemBoundingBox);
+		long newKey = keyOf(newItemBoundingBox);
+
+		// keep the entry in place if it stays in the same quadrant
+		if (oldKey >= 0 && oldKey == newKey) {
+
+			int index = indexOf(item, oldKey);
+			if (index == -1)
+				throw new RuntimeException(ERROR_ITEM_NOT_CONTAINED);
+
+			bounds[index * 4] = newItemBoundingBox.x;
+			bounds[index * 4 + 1] = newItemBoundingBox.y;
+			bounds[index * 4 + 2] = newItemBoundingBox.width;
+			bounds[index * 4 + 3] = newItemBoundingBox.height;
+
+		} else {
+
+			removeItemInternal(item, oldItemBoundingBox);
+			insertItemInternal(item, newItemBoundingBox);
+
+		}
+
+		fireItemMoved(item, oldItemBoundingBox, newItemBoundingBox);
+
+	}
+
+	/**
+	 * Returns the key following the range of the quadrant with key
+	 * <code>key</code> and all its descendants.
+	 */
+	private long rangeEnd(long key) {
+
+		int level = (int) (key & LEVEL_MASK);
+		long morton = key >>> LEVEL_BITS;
+
+		return (morton + (1L << (2 * (maxLevel - level)))) << LEVEL_BITS;
+
+	}
+
+	/**
+	 * Marks the matching entries with a single search and removes them by
+	 * compacting the arrays once instead of shifting them once per item.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public int removeAll(Rectangle region, final Predicate<T> filter) {
+
+		if (!this.boundingBox.intersects(region))
+			throw new RuntimeException(ERROR_BOUNDING_BOX_NO_INTERSECTION);
+
+		final BitSet removed = new BitSet(size);
+		searchIndexes(region, new IntPredicate() {
+			public boolean test(int index) {
+				if (filter == null || filter.test((T) items[index]))
+					removed.set(index);
+				return true;
+			}
+		});
+
+		BitSet removedOverflows = new BitSet(overflows.size());
+		for (int i = 0; i < overflows.size(); i++) {
+			Entry<T> e = overflows.get(i);
+			if (e.boundingBox.intersects(region) && (filter == null || filter.test(e.item)))
+				removedOverflows.set(i);
+		}
+
+		int count = removed.cardinality() + removedOverflows.cardinality();
+		if (count == 0)
+			return 0;
+
+		// keep the removed items and their bounding boxes for the listeners
+		List<T> removedItems = null;
+		List<Rectangle> removedBoundingBoxes = null;
+		if (hasTreeListeners()) {
+
+			removedItems = new ArrayList<T>(count);
+			removedBoundingBoxes = new ArrayList<Rectangle>(count);
+
+			for (int i = removed.nextSetBit(0); i >= 0; i = removed.nextSetBit(i + 1)) {
+				removedItems.add((T) items[i]);
+				removedBoundingBoxes.add(new Rectangle(bounds[i * 4], bounds[i * 4 + 1],
+						bounds[i * 4 + 2], bounds[i * 4 + 3]));
+			}
+			for (int i = removedOverflows.nextSetBit(0); i >= 0; i = removedOverflows
+					.nextSetBit(i + 1)) {
+				removedItems.add(overflows.get(i).item);
+				removedBoundingBoxes.add(overflows.get(i).boundingBox);
+			}
+
+		}
+
+		removeIndexes(removed, removedOverflows);
+
+		if (removedItems != null)
+			for (int i = 0; i < removedItems.size(); i++)
+				fireItemRemoved(removedItems.get(i), removedBoundingBoxes.get(i));
+
+		return count;
+
+	}
+
+	/**
+	 * Removes the entries with the indexes set in <code>removed</code> and the
+	 * overflows with the indexes set in <code>removedOverflows</code> in a
+	 * single pass.
+	 */
+	private void removeIndexes(BitSet removed, BitSet removedOverflows) {
+
+		int newSize = 0;
+		for (int i = 0; i < size; i++) {
+			if (removed.get(i))
+				continue;
+			keys[newSize] = keys[i];
+			items[newSize] = items[i];
+			System.arraycopy(bounds, i * 4, bounds, newSize * 4, 4);
+			newSize++;
+		}
+		Arrays.fill(items, newSize, size, null);
+		size = newSize;
+
+		for (int i = removedOverflows.length() - 1; i >= 0; i = removedOverflows
+				.previousSetBit(i - 1))
+			overflows.remove(i);
+
+	}
+
+	public void removeItem(T item, Rectangle itemBoundingBox) {
+
+		removeItemInternal(item, itemBoundingBox);
+		fireItemRemoved(item, itemBoundingBox);
+
+	}
+
+	private void removeItemInternal(T item, Rectangle itemBoundingBox) {
+
+		long key = keyOf(itemBoundingBox);
+
+		if (key < 0) {
+
+			int index = indexOfOverflow(item);
+			if (index == -1)
+				throw new RuntimeException(ERROR_ITEM_NOT_CONTAINED);
+			overflows.remove(index);
+			return;
+
+		}
+
+		int index = indexOf(item, key);
+		if (index == -1)
+			throw new RuntimeException(ERROR_ITEM_NOT_CONTAINED);
+
+		System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+		System.arraycopy(items, index + 1, items, index, size - index - 1);
+		System.arraycopy(bounds, index * 4 + 4, bounds, index * 4, (size - index - 1) * 4);
+		size--;
+		items[size] = null;
+
+	}
+
+	public Set<T> searchItems() {
+		return searchItems(boundingBox);
+	}
+
+	public Set<T> searchItems(Rectangle boundingBox) {
+
+		if (!this.boundingBox.intersects(boundingBox))
+			throw new RuntimeException(ERROR_BOUNDING_BOX_NO_INTERSECTION);
+
+		final HashSet<T> set = new HashSet<T>();
+		searchIndexes(boundingBox, new IntPredicate() {
+			@SuppressWarnings("unchecked")
+			public boolean test(int index) {
+				set.add((T) items[index]);
+				return true;
+			}
+		});
+
+		for (Entry<T> e : overflows)
+			if (e.boundingBox.intersects(boundingBox))
+				set.add(e.item);
+
+		return set;
+
+	}
+
+	public void searchItems(Rectangle boundingBox, final ItemVisitor<T> visitor) {
+
+		if (!this.boundingBox.intersects(boundingBox))
+			throw new RuntimeException(ERROR_BOUNDING_BOX_NO_INTERSECTION);
+
+		// the entries have no rectangles, pass them in a reused one
+		final Rectangle entryBoundingBox = new Rectangle(0, 0, 0, 0);
+		boolean completed = searchIndexes(boundingBox, new IntPredicate() {
+			@SuppressWarnings("unchecked")
+			public boolean test(int index) {
+				entryBoundingBox.x = bounds[index * 4];
+				entryBoundingBox.y = bounds[index * 4 + 1];
+				entryBoundingBox.width = bounds[index * 4 + 2];
+				entryBoundingBox.height = bounds[index * 4 + 3];
+				return visitor.visit((T) items[index], entryBoundingBox);
+			}
+		});
+
+		if (!completed)
+			return;
+
+		for (Entry<T> e : overflows)
+			if (e.boundingBox.intersects(boundingBox) && !visitor.visit(e.item, e.boundingBox))
+				return;
+
+	}
+
+	/**
+	 * Passes the indexes of all entries (excluding overflows) that intersect
+	 * with <code>area</code> to <code>predicate</code> until it returns
+	 * <code>false</code>.
+	 * 
+	 * @return <code>false</code> if <code>predicate</code> stopped the search
+	 */
+	boolean searchIndexes(Rectangle area, IntPredicate predicate) {
+		return searchIndexes(area, 0, 0, 0, 0, size, predicate);
+	}
+
+	/**
+	 * Passes the indexes of all entries in the quadrant (<code>cellX</code>,
+	 * <code>cellY</code>) on level <code>level</code> and its descendants that
+	 * intersect with <code>area</code> to <code>predicate</code>. All of these
+	 * entries lie in the index range [<code>from</code>, <code>to</code>).
+	 * 
+	 * If the quadrant lies completely within <code>area</code> or holds only a
+	 * few entries they are found with a single contiguous scan. Otherwise the
+	 * own entries of the quadrant are scanned and the children that intersect
+	 * with <code>area</code> and contain entries are searched recursively.
+	 */
+	private boolean searchIndexes(Rectangle area, int level, int cellX, int cellY, int from,
+			int to, IntPredicate predicate) {
+
+		if (from >= to)
+			return true;
+
+		int side = 1 << (sideLengthLog - level);
+		int x = boundingBox.x + cellX * side;
+		int y = boundingBox.y + cellY * side;
+
+		if (!area.intersects(x, y, side, side))
+			return true;
+
+		if (to - from <= SCAN_THRESHOLD
+				|| (area.x <= x && area.y <= y && x + side <= area.x + area.width && y + side <= area.y
+						+ area.height)) {
+
+			// the whole quadrant lies within the area or it holds only a few
+			// entries, scan all of them
+			for (int i = from; i < to; i++)
+				if (intersects(i, area.x, area.y, area.width, area.height) && !predicate.test(i))
+					return false;
+			return true;
+
+		}
+
+		// scan the entries of this quadrant only
+		long key = keyOf(cellX, cellY, level);
+		int i = from;
+		for (; i < to && keys[i] == key; i++)
+			if (intersects(i, area.x, area.y, area.width, area.height) && !predicate.test(i))
+				return false;
+
+		if (level == maxLevel)
+			return true;
+
+		// search the children, each one covering a quarter of the range
+		for (int child = 0; child < 4; child++) {
+
+			int childX = (cellX << 1) | (child & 1);
+			int childY = (cellY << 1) | (child >> 1);
+			int childTo = child == 3 ? to : lowerBound(rangeEnd(keyOf(childX, childY,
+					level + 1)), i, to);
+
+			if (!searchIndexes(area, level + 1, childX, childY, i, childTo, predicate))
+				return false;
+			i = childTo;
+
+		}
+
+		return true;
+
+	}
+
+	public List<List<T>> searchItemsByTile(Rectangle viewport, int tileSize) {
+
+		if (!boundingBox.intersects(viewport))
+			throw new RuntimeException(ERROR_BOUNDING_BOX_NO_INTERSECTION);
+
+		final TileBuckets<T> tiles = new TileBuckets<T>(viewport, tileSize);
+		searchIndexes(viewport, new IntPredicate() {
+			@SuppressWarnings("unchecked")
+			public boolean test(int index) {
+				tiles.add((T) items[index], bounds[index * 4], bounds[index * 4 + 1],
+						bounds[index * 4 + 2], bounds[index * 4 + 3]);
+				return true;
+			}
+		});
+
+		for (Entry<T> e : overflows)
+			if (e.boundingBox.intersects(viewport))
+				tiles.add(e.item, e.boundingBox);
+
+		return tiles.getTiles();
+
+	}
+
+	@Override
+	public String toString() {
+
+		StringBuffer buff = new StringBuffer();
+		buff.append(boundingBox.toString() + "(");
+
+		buff.append("entries: ");
+		for (int i = 0; i < size; i++)
+			buff.append("(" + items[i].toString() + "), ");
+
+		buff.append("overflows: ");
+		for (Entry<T> entry : overflows)
+			buff.append("(" + entry.item.toString() + "), ");
+
+		buff.append(")");
+		return buff.toString();
+
+	}
+
+	/**
+	 * Returns the index of the first key greater than <code>key</code> in the
+	 * range [<code>from</code>, <code>to</code>).
+	 */
+	private int upperBound(long key, int from, int to) {
+
+		while (from < to) {
+			int middle = (from + to) >>> 1;
+			if (keys[middle] <= key)
+				from = middle + 1;
+			else
+				to = middle;
+		}
+
+		return from;
+
+	}
+
+}
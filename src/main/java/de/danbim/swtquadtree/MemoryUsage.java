@@ -0,0 +1,290 @@
+package de.danbim.swtquadtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An estimate of the heap memory used by an {@link ISWTQuadTree}, broken down
+ * by the depth of the nodes, see {@link ISWTQuadTree#estimateMemoryUsage()}.
+ * 
+ * The sizes are computed from the fields of the objects assuming a 64 bit JVM
+ * with compressed references, i.e. 12 byte object headers, 16 byte array
+ * headers, 4 byte references and a padding to multiples of 8 bytes. The items
+ * themselves are not part of the estimate.
+ * 
+ * The JVM doesn't tell the length of the array backing an {@link ArrayList},
+ * so it is estimated by growing the list one element at a time from its
+ * initial capacity. A list that shrank after growing holds more slack than
+ * reported.
+ * 
+ * @author Daniel Bimschas
+ */
+public class MemoryUsage {
+
+	static final int OBJECT_HEADER = 12;
+
+	static final int ARRAY_HEADER = 16;
+
+	static final int REFERENCE = 4;
+
+	/**
+	 * The size of a {@link org.eclipse.swt.graphics.Rectangle}, four ints.
+	 */
+	static final long RECTANGLE = align(OBJECT_HEADER + 4 * 4);
+
+	/**
+	 * The size of an {@link ArrayList} without its array, the fields
+	 * <code>modCount</code>, <code>size</code> and <code>elementData</code>.
+	 */
+	static final long ARRAY_LIST = align(OBJECT_HEADER + 4 + 4 + REFERENCE);
+
+	private static final int NODES = 0;
+
+	private static final int ENTRIES = 1;
+
+	private static final int RECTANGLES = 2;
+
+	private static final int LISTS = 3;
+
+	private static final int LIST_SLACK = 4;
+
+	private static final String[] CATEGORY_NAMES = { "nodes", "entries", "rectangles",
+			"lists", "list slack" };
+
+	/**
+	 * Rounds <code>bytes</code> up to the next multiple of 8.
+	 */
+	static long align(long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+
+	/**
+	 * Returns the size of an array of <code>length</code> elements of
+	 * <code>elementSize</code> bytes each.
+	 */
+	static long arraySize(int length, int elementSize) {
+		return align(ARRAY_HEADER + (long) length * elementSize);
+	}
+
+	/**
+	 * Returns the size of an object with the given number of fields.
+	 */
+	static long objectSize(int references, int ints, int longs, int booleans) {
+		return align(OBJECT_HEADER + references * REFERENCE + ints * 4 + longs * 8 + booleans);
+	}
+
+	/**
+	 * Returns the estimated length of the array backing <code>list</code> if
+	 * it was created with <code>initialCapacity</code> and grown one element
+	 * at a time, using the growth policy of {@link ArrayList}.
+	 */
+	static int estimateCapacity(List<?> list, int initialCapacity) {
+
+		int capacity = initialCapacity;
+		while (capacity < list.size())
+			capacity = Math.max(capacity + (capacity >> 1), capacity + 1);
+		return capacity;
+
+	}
+
+	/**
+	 * Returns the size of <code>list</code> and of the used part of its array,
+	 * 0 for lists other than {@link ArrayList}, which are shared sentinels.
+	 */
+	static long listSize(List<?> list, int initialCapacity) {
+
+		if (!(list instanceof ArrayList))
+			return 0;
+
+		long arraySize = arraySize(estimateCapacity(list, initialCapacity), REFERENCE);
+		return ARRAY_LIST + arraySize - listSlack(list, initialCapacity);
+
+	}
+
+	/**
+	 * Returns the size of the unused part of the array backing
+	 * <code>list</code>, see {@link MemoryUsage#listSize(List, int)}.
+	 */
+	static long listSlack(List<?> list, int initialCapacity) {
+
+		if (!(list instanceof ArrayList))
+			return 0;
+
+		return (long) (estimateCapacity(list, initialCapacity) - list.size()) * REFERENCE;
+
+	}
+
+	/**
+	 * The bytes per category and depth.
+	 */
+	private long[][] bytes = new long[CATEGORY_NAMES.length][0];
+
+	private int depthCount;
+
+	MemoryUsage() {
+	}
+
+	/**
+	 * Adds the bytes used on <code>depth</code>.
+	 */
+	void add(int depth, long nodeBytes, long entryBytes, long rectangleBytes, long listBytes,
+			long listSlackBytes) {
+
+		if (depth >= depthCount) {
+			depthCount = depth + 1;
+			if (depthCount > bytes[0].length)
+				for (int category = 0; category < bytes.length; category++)
+					bytes[category] = Arrays.copyOf(bytes[category], Math.max(depthCount,
+							2 * bytes[category].length));
+		}
+
+		bytes[NODES][depth] += nodeBytes;
+		bytes[ENTRIES][depth] += entryBytes;
+		bytes[RECTANGLES][depth] += rectangleBytes;
+		bytes[LISTS][depth] += listBytes;
+		bytes[LIST_SLACK][depth] += listSlackBytes;
+
+	}
+
+	/**
+	 * Adds all bytes of <code>other</code>, moved down by
+	 * <code>depthOffset</code> levels.
+	 */
+	void add(MemoryUsage other, int depthOffset) {
+
+		for (int depth = 0; depth < other.depthCount; depth++)
+			add(depth + depthOffset, other.bytes[NODES][depth], other.bytes[ENTRIES][depth],
+					other.bytes[RECTANGLES][depth], other.bytes[LISTS][depth],
+					other.bytes[LIST_SLACK][depth]);
+
+	}
+
+	private long get(int category, int depth) {
+		return depth < depthCount ? bytes[category][depth] : 0;
+	}
+
+	private long getTotal(int category) {
+
+		long total = 0;
+		for (int depth = 0; depth < depthCount; depth++)
+			total += bytes[category][depth];
+		return total;
+
+	}
+
+	/**
+	 * Returns the number of depths, i.e. the depth of the deepest node plus
+	 * one.
+	 */
+	public int getDepthCount() {
+		return depthCount;
+	}
+
+	/**
+	 * Returns the bytes used by the node objects and their arrays of children.
+	 */
+	public long getNodeBytes() {
+		return getTotal(NODES);
+	}
+
+	public long getNodeBytes(int depth) {
+		return get(NODES, depth);
+	}
+
+	/**
+	 * Returns the bytes used by the entry objects pairing an item with its
+	 * bounding box.
+	 */
+	public long getEntryBytes() {
+		return getTotal(ENTRIES);
+	}
+
+	public long getEntryBytes(int depth) {
+		return get(ENTRIES, depth);
+	}
+
+	/**
+	 * Returns the bytes used by the bounding boxes of the nodes and items. The
+	 * bounding boxes of the items are usually shared with the caller.
+	 */
+	public long getRectangleBytes() {
+		return getTotal(RECTANGLES);
+	}
+
+	public long getRectangleBytes(int depth) {
+		return get(RECTANGLES, depth);
+	}
+
+	/**
+	 * Returns the bytes used by the lists of entries and the used part of
+	 * their arrays.
+	 */
+	public long getListBytes() {
+		return getTotal(LISTS);
+	}
+
+	public long getListBytes(int depth) {
+		return get(LISTS, depth);
+	}
+
+	/**
+	 * Returns the bytes allocated by the arrays of the lists but not used.
+	 */
+	public long getListSlackBytes() {
+		return getTotal(LIST_SLACK);
+	}
+
+	public long getListSlackBytes(int depth) {
+		return get(LIST_SLACK, depth);
+	}
+
+	public long getTotalBytes() {
+
+		long total = 0;
+		for (int category = 0; category < bytes.length; category++)
+			total += getTotal(category);
+		return total;
+
+	}
+
+	public long getTotalBytes(int depth) {
+
+		long total = 0;
+		for (int category = 0; category < bytes.length; category++)
+			total += get(category, depth);
+		return total;
+
+	}
+
+	/**
+	 * Lists the bytes of every category per depth and in total.
+	 */
+	@Override
+	public String toString() {
+
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("%d bytes%n", getTotalBytes()));
+
+		builder.append(String.format("  %-6s", "depth"));
+		for (String name : CATEGORY_NAMES)
+			builder.append(String.format(" %12s", name));
+		builder.append(String.format(" %12s%n", "total"));
+
+		for (int depth = 0; depth < depthCount; depth++) {
+			builder.append(String.format("  %-6d", depth));
+			for (int category = 0; category < bytes.length; category++)
+				builder.append(String.format(" %12d", bytes[category][depth]));
+			builder.append(String.format(" %12d%n", getTotalBytes(depth)));
+		}
+
+		builder.append(String.format("  %-6s", "all"));
+		for (int category = 0; category < bytes.length; category++)
+			builder.append(String.format(" %12d", getTotal(category)));
+		builder.append(String.format(" %12d%n", getTotalBytes()));
+
+		return builder.toString();
+
+	}
+
+}
@@ -0,0 +1,26 @@
+package de.danbim.swtquadtree;
+
+/**
+ * Callback used by {@link ISWTQuadTree#forEachIntersectingPair(PairVisitor)}
+ * to report pairs of items whose bounding boxes intersect.
+ * 
+ * @author Daniel Bimschas
+ * 
+ * @param <T>
+ *            the type of the items managed by the tree
+ */
+public interface PairVisitor<T> {
+
+	/**
+	 * Called once for every unordered pair of items whose bounding boxes
+	 * intersect. The order of <code>item</code> and <code>otherItem</code> is
+	 * unspecified.
+	 * 
+	 * @param item
+	 *            the first item of the pair
+	 * @param otherItem
+	 *            the second item of the pair
+	 */
+	void visit(T item, T otherItem);
+
+}
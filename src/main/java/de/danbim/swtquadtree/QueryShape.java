@@ -0,0 +1,195 @@
+package de.danbim.swtquadtree;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * A query shape other than a rectangle, used by
+ * {@link ISWTQuadTree#searchItemsInCircle(int, int, int)} and
+ * {@link ISWTQuadTree#searchItemsInPolygon(int[])}. Shapes are tested
+ * exactly against rectangles, which are treated as closed, so a rectangle
+ * only touching the shape intersects with it.
+ * 
+ * @author Daniel Bimschas
+ */
+abstract class QueryShape {
+
+	/**
+	 * A circle given by its center and radius.
+	 */
+	static class Circle extends QueryShape {
+
+		private final long centerX;
+
+		private final long centerY;
+
+		private final long radiusSquared;
+
+		Circle(int centerX, int centerY, int radius) {
+
+			super(new Rectangle(centerX - radius - 1, centerY - radius - 1, 2 * radius + 2,
+					2 * radius + 2));
+
+			if (radius < 0)
+				throw new RuntimeException("The radius must not be negative!");
+
+			this.centerX = centerX;
+			this.centerY = centerY;
+			this.radiusSquared = (long) radius * radius;
+
+		}
+
+		@Override
+		boolean contains(int x, int y, int width, int height) {
+
+			// the corner farthest from the center must lie within the circle
+			long dx = Math.max(Math.abs(x - centerX), Math.abs(x + width - centerX));
+			long dy = Math.max(Math.abs(y - centerY), Math.abs(y + height - centerY));
+
+			return dx * dx + dy * dy <= radiusSquared;
+
+		}
+
+		@Override
+		boolean intersects(int x, int y, int width, int height) {
+
+			// the point of the rectangle nearest to the center must lie within
+			// the circle
+			long dx = Math.max(x, Math.min(centerX, x + width)) - centerX;
+			long dy = Math.max(y, Math.min(centerY, y + height)) - centerY;
+
+			return dx * dx + dy * dy <= radiusSquared;
+
+		}
+
+	}
+
+	/**
+	 * A simple polygon given by the coordinates of its vertices, using the
+	 * even-odd rule to decide which points lie inside.
+	 */
+	static class Polygon extends QueryShape {
+
+		private final int[] pointArray;
+
+		private final Ray[] edges;
+
+		Polygon(int[] pointArray) {
+
+			super(getBoundingBox(pointArray));
+
+			this.pointArray = pointArray.clone();
+			this.edges = new Ray[pointArray.length / 2];
+
+			for (int i = 0, j = edges.length - 1; i < edges.length; j = i++)
+				edges[i] = new Ray(pointArray[2 * j], pointArray[2 * j + 1], pointArray[2 * i],
+						pointArray[2 * i + 1]);
+
+		}
+
+		private static Rectangle getBoundingBox(int[] pointArray) {
+
+			if (pointArray.length < 6 || pointArray.length % 2 != 0)
+				throw new RuntimeException("A polygon needs at least three points given as "
+						+ "pairs of coordinates!");
+
+			int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+			int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+
+			for (int i = 0; i < pointArray.length; i += 2) {
+				minX = Math.min(minX, pointArray[i]);
+				maxX = Math.max(maxX, pointArray[i]);
+				minY = Math.min(minY, pointArray[i + 1]);
+				maxY = Math.max(maxY, pointArray[i + 1]);
+			}
+
+			return new Rectangle(minX - 1, minY - 1, maxX - minX + 2, maxY - minY + 2);
+
+		}
+
+		@Override
+		boolean contains(int x, int y, int width, int height) {
+
+			// all corners must lie inside and no edge may cross the rectangle
+			if (!contains(x, y) || !contains(x + width, y) || !contains(x + width, y + height)
+					|| !contains(x, y + height))
+				return false;
+
+			return !hitByEdge(x, y, width, height);
+
+		}
+
+		/**
+		 * Checks if the point lies inside the polygon by counting the edges
+		 * crossed by a horizontal ray starting at the point.
+		 */
+		private boolean contains(double px, double py) {
+
+			boolean inside = false;
+
+			for (int i = 0, j = edges.length - 1; i < edges.length; j = i++) {
+
+				double xi = pointArray[2 * i], yi = pointArray[2 * i + 1];
+				double xj = pointArray[2 * j], yj = pointArray[2 * j + 1];
+
+				if ((yi > py) != (yj > py) && px < (xj - xi) * (py - yi) / (yj - yi) + xi)
+					inside = !inside;
+
+			}
+
+			return inside;
+
+		}
+
+		private boolean hitByEdge(int x, int y, int width, int height) {
+
+			for (Ray edge : edges)
+				if (edge.enter(x, y, width, height) >= 0)
+					return true;
+
+			return false;
+
+		}
+
+		@Override
+		boolean intersects(int x, int y, int width, int height) {
+
+			if (!boundingBox.intersects(x, y, width, height))
+				return false;
+
+			// either an edge hits the rectangle or it lies completely inside
+			return hitByEdge(x, y, width, height) || contains(x, y);
+
+		}
+
+	}
+
+	/**
+	 * A rectangle intersecting with all rectangles intersecting with the
+	 * shape, i.e. the bounding box of the shape grown by one like
+	 * {@link Ray#getBoundingBox()}.
+	 */
+	final Rectangle boundingBox;
+
+	QueryShape(Rectangle boundingBox) {
+		this.boundingBox = boundingBox;
+	}
+
+	/**
+	 * Checks if the rectangle lies completely inside of this shape.
+	 */
+	abstract boolean contains(int x, int y, int width, int height);
+
+	boolean contains(Rectangle rectangle) {
+		return contains(rectangle.x, rectangle.y, rectangle.width, rectangle.height);
+	}
+
+	/**
+	 * Checks if the rectangle intersects with or touches this shape.
+	 */
+	abstract boolean intersects(int x, int y, int width, int height);
+
+	boolean intersects(Rectangle rectangle) {
+		return intersects(rectangle.x, rectangle.y, rectangle.width, rectangle.height);
+	}
+
+}
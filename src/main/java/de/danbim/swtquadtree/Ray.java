@@ -0,0 +1,138 @@
+package de.danbim.swtquadtree;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * Helper for {@link ISWTQuadTree#raycast(int, int, int, int, ItemVisitor)}.
+ * Clips the line segment from (<code>x0</code>, <code>y0</code>) to (
+ * <code>x1</code>, <code>y1</code>) against rectangles using the algorithm of
+ * Liang and Barsky. Points of the segment are addressed by their parameter
+ * <code>t</code> between 0 (the start) and 1 (the end).
+ * 
+ * Unlike {@link Rectangle#intersects(Rectangle)} rectangles are treated as
+ * closed, so a segment touching the border of a rectangle hits it.
+ * 
+ * @author Daniel Bimschas
+ */
+class Ray {
+
+	/**
+	 * An item or a node hit by the segment, ordered by the parameter of the
+	 * point at which the segment enters its bounding box.
+	 */
+	static class Hit<K> implements Comparable<Hit<K>> {
+
+		final double t;
+
+		final K item;
+
+		final Rectangle boundingBox;
+
+		final SWTQuadTree<K> node;
+
+		Hit(double t, K item, Rectangle boundingBox) {
+			this.t = t;
+			this.item = item;
+			this.boundingBox = boundingBox;
+			this.node = null;
+		}
+
+		Hit(double t, SWTQuadTree<K> node) {
+			this.t = t;
+			this.item = null;
+			this.boundingBox = null;
+			this.node = node;
+		}
+
+		public int compareTo(Hit<K> other) {
+			return Double.compare(t, other.t);
+		}
+
+	}
+
+	private final double x0;
+
+	private final double y0;
+
+	private final double dx;
+
+	private final double dy;
+
+	private final Rectangle boundingBox;
+
+	public Ray(int x0, int y0, int x1, int y1) {
+
+		this.x0 = x0;
+		this.y0 = y0;
+		this.dx = (double) x1 - x0;
+		this.dy = (double) y1 - y0;
+
+		// grown by one so that it also intersects the rectangles the segment
+		// only touches
+		this.boundingBox = new Rectangle(Math.min(x0, x1) - 1, Math.min(y0, y1) - 1, Math.abs(x1
+				- x0) + 2, Math.abs(y1 - y0) + 2);
+
+	}
+
+	/**
+	 * Returns the parameter of the point at which the segment enters the
+	 * rectangle, i.e. 0 if it starts inside of it.
+	 * 
+	 * @return the parameter of the entry point or -1 if the segment misses the
+	 *         rectangle
+	 */
+	public double enter(Rectangle rectangle) {
+		return enter(rectangle.x, rectangle.y, rectangle.width, rectangle.height);
+	}
+
+	public double enter(int x, int y, int width, int height) {
+
+		double[] t = { 0, 1 };
+
+		if (!clip(-dx, x0 - x, t) || !clip(dx, (double) x + width - x0, t)
+				|| !clip(-dy, y0 - y, t) || !clip(dy, (double) y + height - y0, t))
+			return -1;
+
+		return t[0];
+
+	}
+
+	/**
+	 * Clips the parameter range <code>t</code> against one border of a
+	 * rectangle, <code>p</code> being the (negated) direction of the segment
+	 * perpendicular to the border and <code>q</code> the distance of the
+	 * start of the segment to the border.
+	 * 
+	 * @return <code>false</code> if nothing of the segment is left
+	 */
+	private static boolean clip(double p, double q, double[] t) {
+
+		if (p == 0)
+			return q >= 0;
+
+		double r = q / p;
+
+		if (p < 0) {
+			if (r > t[1])
+				return false;
+			if (r > t[0])
+				t[0] = r;
+		} else {
+			if (r < t[0])
+				return false;
+			if (r < t[1])
+				t[1] = r;
+		}
+
+		return true;
+
+	}
+
+	/**
+	 * Returns a rectangle intersecting with all rectangles the segment hits.
+	 */
+	public Rectangle getBoundingBox() {
+		return boundingBox;
+	}
+
+}
@@ -0,0 +1,576 @@
+package de.danbim.swtquadtree;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * Decorator for an {@link ISWTQuadTree} that records every insert, move,
+ * removal and search, together with its rectangles and timing, to a compact
+ * binary trace. The trace can be replayed against any {@link ISWTQuadTree}
+ * implementation by a {@link TraceReplayer}, so that a real session captured
+ * once can be used to evaluate every engine and tuning.
+ * 
+ * Items are recorded as numbers assigned on their insertion, the old bounding
+ * boxes of moves and removals are not recorded as the replay keeps track of
+ * them. Every record holds the time passed since the previous record started
+ * and the time the wrapped tree took to execute the operation. Searches are
+ * recorded with their areas only, e.g. searches with a limit, a priority or a
+ * visitor are replayed as plain searches of the same area. Searches for
+ * clusters and density grids are recorded with their cell size or grid and
+ * replayed as such, as their cost differs from plain searches. Operations
+ * that fail are not recorded.
+ * 
+ * All operations are serialized while recording, so the trace of concurrent
+ * callers holds their operations in a well-defined order. The wrapped tree
+ * must only be accessed through the decorator, and {@link #close()} must be
+ * called to complete the trace.
+ * 
+ * @author Daniel Bimschas
+ * 
+ * @param <T>
+ *            the type of items managed by the tree
+ */
+public class RecordingSWTQuadTree<T> extends AbstractSWTQuadTree<T> {
+
+	public static final int CLEAR = 0;
+
+	public static final int INSERT = 1;
+
+	public static final int INSERT_BATCH = 2;
+
+	public static final int MOVE = 3;
+
+	public static final int MOVE_BATCH = 4;
+
+	public static final int REMOVE = 5;
+
+	public static final int SEARCH = 6;
+
+	public static final int SEARCH_MULTI = 7;
+
+	public static final int SEARCH_CIRCLE = 8;
+
+	public static final int SEARCH_POLYGON = 9;
+
+	public static final int RAYCAST = 10;
+
+	public static final int SEARCH_CLUSTERS = 11;
+
+	public static final int DENSITY_GRID = 12;
+
+	/**
+	 * The names of the operations, indexed by their codes.
+	 */
+	static final String[] OPERATION_NAMES = { "clear", "insert", "insert batch", "move",
+			"move batch", "remove", "search", "search multi", "search circle",
+			"search polygon", "raycast", "search clusters", "density grid" };
+
+	/**
+	 * "SWTQ", the first four bytes of every trace.
+	 */
+	static final int MAGIC = 0x53575451;
+
+	static final int VERSION = 1;
+
+	private final ISWTQuadTree<T> tree;
+
+	private final DataOutputStream out;
+
+	/**
+	 * The numbers of the items contained in the tree.
+	 */
+	private final Map<T, Integer> ids = new IdentityHashMap<T, Integer>();
+
+	private int nextId;
+
+	private long lastStart;
+
+	/**
+	 * Creates a decorator recording the operations on <code>tree</code> to
+	 * <code>out</code>. The tree must be empty.
+	 * 
+	 * @param tree
+	 *            the tree to wrap, must not be accessed other than through the
+	 *            new decorator afterwards
+	 * @param out
+	 *            the stream to write the trace to, closed by {@link #close()}
+	 * @throws RuntimeException
+	 *             if <code>tree</code> is not empty or if writing the trace
+	 *             fails
+	 */
+	public RecordingSWTQuadTree(ISWTQuadTree<T> tree, OutputStream out) {
+
+		if (tree.getItemCount() != 0)
+			throw new RuntimeException("The tree to record must be empty!");
+
+		this.tree = tree;
+		this.out = new DataOutputStream(new BufferedOutputStream(out));
+
+		Rectangle boundingBox = tree.getBoundingBox();
+
+		try {
+			this.out.writeInt(MAGIC);
+			this.out.writeByte(VERSION);
+			writeRectangle(boundingBox);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		lastStart = System.nanoTime();
+
+	}
+
+	/**
+	 * Completes the trace and closes the stream it is written to.
+	 */
+	public synchronized void close() {
+
+		try {
+			out.close();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+	}
+
+	/**
+	 * Writes everything recorded so far to the stream.
+	 */
+	public synchronized void flush() {
+
+		try {
+			out.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+	}
+
+	/**
+	 * Writes the header of a record of an operation started at
+	 * <code>start</code>.
+	 */
+	private void writeHeader(int operation, long start) throws IOException {
+
+		out.writeByte(operation);
+		writeVarLong(start - lastStart);
+		writeVarLong(System.nanoTime() - start);
+		lastStart = start;
+
+	}
+
+	private void writeVarLong(long value) throws IOException {
+
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+
+	}
+
+	/**
+	 * Writes <code>value</code> zigzag encoded, so that small negative numbers
+	 * take few bytes as well.
+	 */
+	private void writeVarInt(int value) throws IOException {
+		writeVarLong(((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+	}
+
+	private void writeRectangle(Rectangle rectangle) throws IOException {
+
+		writeVarInt(rectangle.x);
+		writeVarInt(rectangle.y);
+		writeVarInt(rectangle.width);
+		writeVarInt(rectangle.height);
+
+	}
+
+	private int idOf(T item) {
+
+		Integer id = ids.get(item);
+		if (id == null)
+			throw new RuntimeException("Item not recorded!");
+		return id;
+
+	}
+
+	private int assignId(T item) {
+
+		int id = nextId++;
+		ids.put(item, id);
+		return id;
+
+	}
+
+	public synchronized void clear() {
+
+		fireBeforeClear();
+
+		long start = System.nanoTime();
+		tree.clear();
+
+		try {
+			writeHeader(CLEAR, start);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		ids.clear();
+
+	}
+
+	/**
+	 * The changes are applied and recorded one by one while holding the
+	 * monitor of this tree.
+	 */
+	@Override
+	synchronized void commitBatch(List<WriteBatch.Change<T>> changes) {
+		super.commitBatch(changes);
+	}
+
+	public synchronized boolean containsItem(T item, Rectangle itemBoundingBox) {
+		return tree.containsItem(item, itemBoundingBox);
+	}
+
+	@Override
+	public synchronized int[] densityGrid(Rectangle area, int columns, int rows) {
+
+		long start = System.nanoTime();
+		int[] counts = tree.densityGrid(area, columns, rows);
+
+		try {
+			writeHeader(DENSITY_GRID, start);
+			writeRectangle(area);
+			writeVarInt(columns);
+			writeVarInt(rows);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		return counts;
+
+	}
+
+	public synchronized void forEachIntersectingPair(PairVisitor<T> visitor) {
+		tree.forEachIntersectingPair(visitor);
+	}
+
+	public synchronized void forEachIntersectingPair(PairVisitor<T> visitor, ForkJoinPool pool) {
+		tree.forEachIntersectingPair(visitor, pool);
+	}
+
+	public Rectangle getBoundingBox() {
+		return tree.getBoundingBox();
+	}
+
+	public synchronized int getItemCount() {
+		return tree.getItemCount();
+	}
+
+	public synchronized TreeStatistics getStatistics() {
+		return tree.getStatistics();
+	}
+
+	public synchronized void insertBatch(List<T> items, List<Rectangle> boundingBoxes,
+			ForkJoinPool pool) {
+
+		long start = System.nanoTime();
+		tree.insertBatch(items, boundingBoxes, pool);
+
+		try {
+			writeHeader(INSERT_BATCH, start);
+			writeVarInt(items.size());
+			for (int i = 0; i < items.size(); i++) {
+				writeVarInt(assignId(items.get(i)));
+				writeRectangle(boundingBoxes.get(i));
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		for (int i = 0; i < items.size(); i++)
+			fireItemInserted(items.get(i), boundingBoxes.get(i));
+
+	}
+
+	public synchronized void insertItem(T item, Rectangle itemBoundingBox) {
+
+		long start = System.nanoTime();
+		tree.insertItem(item, itemBoundingBox);
+
+		try {
+			writeHeader(INSERT, start);
+			writeVarInt(assignId(item));
+			writeRectangle(itemBoundingBox);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		fireItemInserted(item, itemBoundingBox);
+
+	}
+
+	public synchronized <U> void join(ISWTQuadTree<U> other, JoinVisitor<T, U> visitor) {
+		tree.join(other, visitor);
+	}
+
+	public synchronized void moveBatch(List<T> items, List<Rectangle> oldBoundingBoxes,
+			List<Rectangle> newBoundingBoxes, ForkJoinPool pool) {
+
+		long start = System.nanoTime();
+		tree.moveBatch(items, oldBoundingBoxes, newBoundingBoxes, pool);
+
+		try {
+			writeHeader(MOVE_BATCH, start);
+			writeVarInt(items.size());
+			for (int i = 0; i < items.size(); i++) {
+				writeVarInt(idOf(items.get(i)));
+				writeRectangle(newBoundingBoxes.get(i));
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		for (int i = 0; i < items.size(); i++)
+			fireItemMoved(items.get(i), oldBoundingBoxes.get(i), newBoundingBoxes.get(i));
+
+	}
+
+	public synchronized void moveItem(T item, Rectangle oldItemBoundingBox,
+			Rectangle newItemBoundingBox) {
+
+		long start = System.nanoTime();
+		tree.moveItem(item, oldItemBoundingBox, newItemBoundingBox);
+
+		try {
+			writeHeader(MOVE, start);
+			writeVarInt(idOf(item));
+			writeRectangle(newItemBoundingBox);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		fireItemMoved(item, oldItemBoundingBox, newItemBoundingBox);
+
+	}
+
+	@Override
+	public synchronized void raycast(int x0, int y0, int x1, int y1, ItemVisitor<T> visitor) {
+
+		long start = System.nanoTime();
+		tree.raycast(x0, y0, x1, y1, visitor);
+
+		try {
+			writeHeader(RAYCAST, start);
+			writeVarInt(x0);
+			writeVarInt(y0);
+			writeVarInt(x1);
+			writeVarInt(y1);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+	}
+
+	/**
+	 * The filter can't be replayed, so the items are searched and removed one
+	 * by one, recorded as a search followed by a removal per item.
+	 */
+	@Override
+	public synchronized int removeAll(Rectangle region, Predicate<T> filter) {
+		return super.removeAll(region, filter);
+	}
+
+	public synchronized void removeItem(T item, Rectangle itemBoundingBox) {
+
+		long start = System.nanoTime();
+		tree.removeItem(item, itemBoundingBox);
+
+		try {
+			writeHeader(REMOVE, start);
+			writeVarInt(idOf(item));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		ids.remove(item);
+		fireItemRemoved(item, itemBoundingBox);
+
+	}
+
+	@Override
+	public synchronized List<Cluster<T>> searchClusters(Rectangle region, int minCellSize) {
+
+		long start = System.nanoTime();
+		List<Cluster<T>> clusters = tree.searchClusters(region, minCellSize);
+
+		try {
+			writeHeader(SEARCH_CLUSTERS, start);
+			writeRectangle(region);
+			writeVarInt(minCellSize);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		return clusters;
+
+	}
+
+	/**
+	 * Recorded as a search of the bounding box of the tree.
+	 */
+	public synchronized Set<T> searchItems() {
+
+		long start = System.nanoTime();
+		Set<T> result = tree.searchItems();
+		recordSearch(start, tree.getBoundingBox());
+		return result;
+
+	}
+
+	public synchronized Set<T> searchItems(Rectangle boundingBox) {
+
+		long start = System.nanoTime();
+		Set<T> result = tree.searchItems(boundingBox);
+		recordSearch(start, boundingBox);
+		return result;
+
+	}
+
+	@Override
+	public synchronized Set<T> searchItems(Rectangle boundingBox, int limit) {
+
+		long start = System.nanoTime();
+		Set<T> result = tree.searchItems(boundingBox, limit);
+		recordSearch(start, boundingBox);
+		return result;
+
+	}
+
+	@Override
+	public synchronized List<T> searchItems(Rectangle boundingBox, int limit,
+			ItemPriority<T> priority) {
+
+		long start = System.nanoTime();
+		List<T> result = tree.searchItems(boundingBox, limit, priority);
+		recordSearch(start, boundingBox);
+		return result;
+
+	}
+
+	@Override
+	public synchronized List<Set<T>> searchItems(List<Rectangle> boundingBoxes) {
+
+		long start = System.nanoTime();
+		List<Set<T>> results = tree.searchItems(boundingBoxes);
+
+		try {
+			writeHeader(SEARCH_MULTI, start);
+			writeVarInt(boundingBoxes.size());
+			for (Rectangle boundingBox : boundingBoxes)
+				writeRectangle(boundingBox);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		return results;
+
+	}
+
+	public synchronized void searchItems(Rectangle boundingBox, ItemVisitor<T> visitor) {
+
+		long start = System.nanoTime();
+		tree.searchItems(boundingBox, visitor);
+		recordSearch(start, boundingBox);
+
+	}
+
+	/**
+	 * Recorded as a search of the viewport.
+	 */
+	public synchronized List<List<T>> searchItemsByTile(Rectangle viewport, int tileSize) {
+
+		long start = System.nanoTime();
+		List<List<T>> tiles = tree.searchItemsByTile(viewport, tileSize);
+		recordSearch(start, viewport);
+		return tiles;
+
+	}
+
+	@Override
+	public synchronized Set<T> searchItemsInCircle(int centerX, int centerY, int radius) {
+
+		long start = System.nanoTime();
+		Set<T> result = tree.searchItemsInCircle(centerX, centerY, radius);
+
+		try {
+			writeHeader(SEARCH_CIRCLE, start);
+			writeVarInt(centerX);
+			writeVarInt(centerY);
+			writeVarInt(radius);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		return result;
+
+	}
+
+	@Override
+	public synchronized Set<T> searchItemsInPolygon(int[] pointArray) {
+
+		long start = System.nanoTime();
+		Set<T> result = tree.searchItemsInPolygon(pointArray);
+
+		try {
+			writeHeader(SEARCH_POLYGON, start);
+			writeVarInt(pointArray.length);
+			for (int coordinate : pointArray)
+				writeVarInt(coordinate);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		return result;
+
+	}
+
+	private void recordSearch(long start, Rectangle boundingBox) {
+
+		try {
+			writeHeader(SEARCH, start);
+			writeRectangle(boundingBox);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+	}
+
+	@Override
+	public synchronized ViewportQuery<T> createViewportQuery(Rectangle viewport) {
+		return super.createViewportQuery(viewport);
+	}
+
+	@Override
+	public synchronized RegionSubscription<T> subscribe(Rectangle region,
+			RegionListener<T> listener) {
+		return super.subscribe(region, listener);
+	}
+
+	@Override
+	public String toString() {
+		return "RecordingSWTQuadTree [" + tree + "]";
+	}
+
+}
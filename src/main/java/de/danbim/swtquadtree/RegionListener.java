@@ -0,0 +1,56 @@
+package de.danbim.swtquadtree;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * Listener of a region subscribed to by
+ * {@link ISWTQuadTree#subscribe(Rectangle, RegionListener)}. It is notified
+ * synchronously by the modifying methods of the tree whenever the bounding box
+ * of an item starts, stops or continues to intersect with the region.
+ * 
+ * The listener must not modify the tree it is subscribed to. The rectangles
+ * passed are the ones passed to the modifying methods of the tree and must not
+ * be modified.
+ * 
+ * @author Daniel Bimschas
+ * 
+ * @param <T>
+ *            the type of the items managed by the tree
+ */
+public interface RegionListener<T> {
+
+	/**
+	 * Called when an item was inserted into the region or moved into it.
+	 * 
+	 * @param item
+	 *            the item that entered the region
+	 * @param boundingBox
+	 *            the new bounding box of <code>item</code>
+	 */
+	void itemEntered(T item, Rectangle boundingBox);
+
+	/**
+	 * Called when an item was removed from the region or moved out of it,
+	 * including the removal by {@link ISWTQuadTree#clear()}.
+	 * 
+	 * @param item
+	 *            the item that left the region
+	 * @param boundingBox
+	 *            the last bounding box of <code>item</code> inside the region
+	 */
+	void itemLeft(T item, Rectangle boundingBox);
+
+	/**
+	 * Called when an item was moved and intersects with the region before and
+	 * after the move.
+	 * 
+	 * @param item
+	 *            the item that was moved
+	 * @param oldBoundingBox
+	 *            the old bounding box of <code>item</code>
+	 * @param newBoundingBox
+	 *            the new bounding box of <code>item</code>
+	 */
+	void itemMoved(T item, Rectangle oldBoundingBox, Rectangle newBoundingBox);
+
+}
@@ -0,0 +1,68 @@
+package de.danbim.swtquadtree;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * Handle of a region subscribed to by
+ * {@link ISWTQuadTree#subscribe(Rectangle, RegionListener)}. The listener is
+ * notified until the subscription is cancelled.
+ * 
+ * @author Daniel Bimschas
+ * 
+ * @param <T>
+ *            the type of the items managed by the tree
+ */
+public class RegionSubscription<T> {
+
+	private final RegionSubscriptions<T> subscriptions;
+
+	final Rectangle region;
+
+	final RegionListener<T> listener;
+
+	private volatile boolean cancelled;
+
+	RegionSubscription(RegionSubscriptions<T> subscriptions, Rectangle region,
+			RegionListener<T> listener) {
+		this.subscriptions = subscriptions;
+		this.region = region;
+		this.listener = listener;
+	}
+
+	/**
+	 * Stops notifying the listener of this subscription. Cancelling a
+	 * subscription more than once has no effect.
+	 */
+	public void cancel() {
+
+		synchronized (subscriptions.tree) {
+
+			if (cancelled)
+				return;
+
+			cancelled = true;
+			subscriptions.remove(this);
+
+		}
+
+	}
+
+	/**
+	 * Returns a copy of the subscribed region.
+	 * 
+	 * @return a copy of the subscribed region
+	 */
+	public Rectangle getRegion() {
+		return new Rectangle(region.x, region.y, region.width, region.height);
+	}
+
+	/**
+	 * Returns if this subscription was cancelled.
+	 * 
+	 * @return <code>true</code> if this subscription was cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+}
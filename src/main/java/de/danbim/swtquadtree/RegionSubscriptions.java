@@ -0,0 +1,168 @@
+package de.danbim.swtquadtree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * Manages the {@link RegionSubscription}s of a tree. The subscribed regions
+ * are indexed by a {@link SWTQuadTree} of their own covering the same area as
+ * the tree, so that every modification of the tree only looks at the
+ * subscriptions whose regions intersect with the bounding boxes involved.
+ * 
+ * @author Daniel Bimschas
+ * 
+ * @param <T>
+ *            the type of the items managed by the tree
+ */
+class RegionSubscriptions<T> implements TreeListener<T> {
+
+	/**
+	 * The capacity of the nodes of the subscription index.
+	 */
+	private static final int INDEX_CAPACITY = 4;
+
+	/**
+	 * The number of quadrants of minimum size per side of the subscription
+	 * index.
+	 */
+	private static final int INDEX_RESOLUTION = 64;
+
+	final AbstractSWTQuadTree<T> tree;
+
+	private final Rectangle indexBoundingBox;
+
+	private final SWTQuadTree<RegionSubscription<T>> index;
+
+	RegionSubscriptions(AbstractSWTQuadTree<T> tree) {
+
+		this.tree = tree;
+		this.indexBoundingBox = tree.getBoundingBox();
+		this.index = new SWTQuadTree<RegionSubscription<T>>(indexBoundingBox.x,
+				indexBoundingBox.y, indexBoundingBox.width, Math.max(1, indexBoundingBox.width
+						/ INDEX_RESOLUTION), INDEX_CAPACITY);
+
+	}
+
+	RegionSubscription<T> add(Rectangle region, RegionListener<T> listener) {
+
+		if (listener == null)
+			throw new RuntimeException("The listener must not be null!");
+
+		RegionSubscription<T> subscription = new RegionSubscription<T>(this, new Rectangle(
+				region.x, region.y, region.width, region.height), listener);
+		index.insertItem(subscription, subscription.region);
+		return subscription;
+
+	}
+
+	public void beforeClear() {
+
+		for (RegionSubscription<T> subscription : index.searchItems()) {
+
+			// collect first, the bounding boxes passed to the visitor may be
+			// reused by the tree
+			final List<T> items = new ArrayList<T>();
+			final List<Rectangle> boundingBoxes = new ArrayList<Rectangle>();
+			tree.searchItems(subscription.region, new ItemVisitor<T>() {
+				public boolean visit(T item, Rectangle boundingBox) {
+					items.add(item);
+					boundingBoxes.add(new Rectangle(boundingBox.x, boundingBox.y,
+							boundingBox.width, boundingBox.height));
+					return true;
+				}
+			});
+
+			for (int i = 0; i < items.size() && !subscription.isCancelled(); i++)
+				subscription.listener.itemLeft(items.get(i), boundingBoxes.get(i));
+
+		}
+
+	}
+
+	public void itemInserted(T item, Rectangle boundingBox) {
+
+		for (RegionSubscription<T> subscription : searchSubscriptions(boundingBox))
+			if (!subscription.isCancelled())
+				subscription.listener.itemEntered(item, boundingBox);
+
+	}
+
+	public void itemMoved(T item, Rectangle oldBoundingBox, Rectangle newBoundingBox) {
+
+		// search the index for both bounding boxes separately, so that long
+		// moves don't look at the subscriptions in between
+		List<RegionSubscription<T>> subscriptions = searchSubscriptions(oldBoundingBox);
+		Set<RegionSubscription<T>> seen = Collections
+				.newSetFromMap(new IdentityHashMap<RegionSubscription<T>, Boolean>());
+		seen.addAll(subscriptions);
+		for (RegionSubscription<T> subscription : searchSubscriptions(newBoundingBox))
+			if (seen.add(subscription))
+				subscriptions.add(subscription);
+
+		for (RegionSubscription<T> subscription : subscriptions) {
+
+			if (subscription.isCancelled())
+				continue;
+
+			boolean wasInside = subscription.region.intersects(oldBoundingBox);
+			boolean isInside = subscription.region.intersects(newBoundingBox);
+
+			if (wasInside && isInside)
+				subscription.listener.itemMoved(item, oldBoundingBox, newBoundingBox);
+			else if (wasInside)
+				subscription.listener.itemLeft(item, oldBoundingBox);
+			else if (isInside)
+				subscription.listener.itemEntered(item, newBoundingBox);
+
+		}
+
+	}
+
+	public void itemRemoved(T item, Rectangle boundingBox) {
+
+		for (RegionSubscription<T> subscription : searchSubscriptions(boundingBox))
+			if (!subscription.isCancelled())
+				subscription.listener.itemLeft(item, boundingBox);
+
+	}
+
+	boolean isEmpty() {
+		return index.getItemCount() == 0;
+	}
+
+	void remove(RegionSubscription<T> subscription) {
+
+		index.removeItem(subscription, subscription.region);
+
+		if (isEmpty())
+			tree.removeRegionSubscriptions(this);
+
+	}
+
+	/**
+	 * Returns the subscriptions whose regions intersect with
+	 * <code>boundingBox</code>. They are collected before notifying any
+	 * listener so that listeners may cancel subscriptions.
+	 */
+	private List<RegionSubscription<T>> searchSubscriptions(Rectangle boundingBox) {
+
+		if (!indexBoundingBox.intersects(boundingBox))
+			return new ArrayList<RegionSubscription<T>>();
+
+		final List<RegionSubscription<T>> found = new ArrayList<RegionSubscription<T>>();
+		index.searchItems(boundingBox, new ItemVisitor<RegionSubscription<T>>() {
+			public boolean visit(RegionSubscription<T> subscription, Rectangle region) {
+				found.add(subscription);
+				return true;
+			}
+		});
+		return found;
+
+	}
+
+}
@@ -1,9 +1,16 @@
 package de.danbim.swtquadtree;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Predicate;
 
 import org.eclipse.swt.graphics.Rectangle;
 
@@ -17,7 +24,67 @@ import org.eclipse.swt.graphics.Rectangle;
  * @param <T>
  *            the type of items the tree should manage
  */
-class SWTQuadTree<T> implements ISWTQuadTree<T> {
+class SWTQuadTree<T> extends AbstractSWTQuadTree<T> {
+
+	/**
+	 * A single move of {@link SWTQuadTree#moveBatch(List, List, List, ForkJoinPool)}.
+	 */
+	static class BatchMove<K> {
+
+		final K item;
+
+		final Rectangle oldBoundingBox;
+
+		final Rectangle newBoundingBox;
+
+		/**
+		 * Set when the item was found and removed from its old position.
+		 */
+		boolean removed;
+
+		BatchMove(K item, Rectangle oldBoundingBox, Rectangle newBoundingBox) {
+			this.item = item;
+			this.oldBoundingBox = oldBoundingBox;
+			this.newBoundingBox = newBoundingBox;
+		}
+
+	}
+
+	/**
+	 * The maximum priority of the items of a node for a priority, cached by
+	 * {@link SWTQuadTree#getMaxPriority(ItemPriority)}. Immutable, so that
+	 * concurrent searches may replace the cache of a node without locking.
+	 */
+	static class MaxPriority<K> {
+
+		final ItemPriority<K> key;
+
+		final int value;
+
+		MaxPriority(ItemPriority<K> key, int value) {
+			this.key = key;
+			this.value = value;
+		}
+
+	}
+
+	/**
+	 * A node queued by
+	 * {@link SWTQuadTree#searchItemsInternal(Rectangle, TopItems, ItemPriority)}
+	 * with the maximum priority of its items at the time it was queued.
+	 */
+	private static class RankedNode<K> {
+
+		final SWTQuadTree<K> node;
+
+		final int maxPriority;
+
+		RankedNode(SWTQuadTree<K> node, int maxPriority) {
+			this.node = node;
+			this.maxPriority = maxPriority;
+		}
+
+	}
 
 	static class Entry<K> {
 
@@ -32,21 +99,240 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 
 	}
 
+	/**
+	 * Fork-join task for
+	 * {@link SWTQuadTree#forEachIntersectingPair(PairVisitor, ForkJoinPool)}.
+	 * Forks one sub task per child node until
+	 * {@link SWTQuadTree#PARALLEL_SPLIT_DEPTH} is reached and continues
+	 * sequentially below.
+	 */
+	static class IntersectingPairTask<K> extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final SWTQuadTree<K> node;
+
+		private final PairVisitor<K> visitor;
+
+		private final List<Entry<K>> ancestors;
+
+		private final int level;
+
+		IntersectingPairTask(SWTQuadTree<K> node, PairVisitor<K> visitor,
+				List<Entry<K>> ancestors, int level) {
+			this.node = node;
+			this.visitor = visitor;
+			this.ancestors = ancestors;
+			this.level = level;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (node.leaf || level >= PARALLEL_SPLIT_DEPTH) {
+				node.forEachIntersectingPairInternal(visitor, ancestors, 0, Integer.MAX_VALUE);
+				return;
+			}
+
+			// visit the pairs of this node only, the children are forked
+			node.forEachIntersectingPairInternal(visitor, ancestors, 0, 0);
+
+			List<IntersectingPairTask<K>> tasks = new ArrayList<IntersectingPairTask<K>>(4);
+			for (int i = 0; i < 4; i++) {
+
+				if (node.children[i] == null)
+					continue;
+
+				// every sub task gets its own copy of the ancestor stack
+				List<Entry<K>> childAncestors = new ArrayList<Entry<K>>();
+				node.pushIntersectingAncestors(ancestors, 0, ancestors.size(), childAncestors,
+						node.children[i].boundingBox);
+				tasks.add(new IntersectingPairTask<K>(node.children[i], visitor, childAncestors,
+						level + 1));
+
+			}
+
+			invokeAll(tasks);
+
+		}
+
+	}
+
+	/**
+	 * Fork-join task for
+	 * {@link SWTQuadTree#insertBatch(List, List, ForkJoinPool)}. Distributes
+	 * the entries among the children of a node and forks one sub task per child
+	 * until {@link SWTQuadTree#PARALLEL_SPLIT_DEPTH} is reached or only a few
+	 * entries are left. The sub trees of the children are disjoint, so the sub
+	 * tasks never touch the same node.
+	 */
+	static class InsertBatchTask<K> extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final SWTQuadTree<K> node;
+
+		private final List<Entry<K>> entries;
+
+		private final int level;
+
+		InsertBatchTask(SWTQuadTree<K> node, List<Entry<K>> entries, int level) {
+			this.node = node;
+			this.entries = entries;
+			this.level = level;
+		}
+
+		@Override
+		protected void compute() {
+
+			List<List<Entry<K>>> partitions = null;
+			if (level < PARALLEL_SPLIT_DEPTH && entries.size() >= BATCH_SPLIT_THRESHOLD)
+				partitions = node.partitionInsertBatch(entries);
+
+			if (partitions == null) {
+				for (Entry<K> e : entries)
+					node.insertItemInternal(e.item, e.boundingBox);
+				return;
+			}
+
+			List<InsertBatchTask<K>> tasks = new ArrayList<InsertBatchTask<K>>(4);
+			for (int i = 0; i < 4; i++)
+				if (!partitions.get(i).isEmpty())
+					tasks.add(new InsertBatchTask<K>(node.children[i], partitions.get(i),
+							level + 1));
+
+			invokeAll(tasks);
+
+		}
+
+	}
+
+	/**
+	 * Fork-join task removing the items of
+	 * {@link SWTQuadTree#moveBatch(List, List, List, ForkJoinPool)} from their
+	 * old positions. Like {@link InsertBatchTask} it forks one sub task per
+	 * child, items that don't fit into a child are removed before forking. The
+	 * tree is not cleaned up, which is done once for the whole batch
+	 * afterwards.
+	 */
+	static class RemoveBatchTask<K> extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final SWTQuadTree<K> node;
+
+		private final List<BatchMove<K>> moves;
+
+		private final int level;
+
+		RemoveBatchTask(SWTQuadTree<K> node, List<BatchMove<K>> moves, int level) {
+			this.node = node;
+			this.moves = moves;
+			this.level = level;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (node.leaf || level >= PARALLEL_SPLIT_DEPTH || moves.size() < BATCH_SPLIT_THRESHOLD) {
+				for (BatchMove<K> move : moves)
+					node.removeBatchMove(move);
+				return;
+			}
+
+			List<List<BatchMove<K>>> partitions = new ArrayList<List<BatchMove<K>>>(4);
+			for (int i = 0; i < 4; i++)
+				partitions.add(new ArrayList<BatchMove<K>>());
+
+			for (BatchMove<K> move : moves) {
+
+				int position = node.getFittingChildRectanglePosition(move.oldBoundingBox);
+
+				if (position == -1 || node.children[position] == null)
+					node.removeBatchMove(move);
+				else
+					partitions.get(position).add(move);
+
+			}
+
+			List<RemoveBatchTask<K>> tasks = new ArrayList<RemoveBatchTask<K>>(4);
+			for (int i = 0; i < 4; i++)
+				if (!partitions.get(i).isEmpty())
+					tasks.add(new RemoveBatchTask<K>(node.children[i], partitions.get(i),
+							level + 1));
+
+			invokeAll(tasks);
+
+		}
+
+	}
+
+	/**
+	 * The number of entries below which batch operations stop forking sub
+	 * tasks.
+	 */
+	private static final int BATCH_SPLIT_THRESHOLD = 256;
+
+	/**
+	 * The estimated size of an {@link Entry}, see {@link MemoryUsage}.
+	 */
+	static final long ENTRY_SIZE = MemoryUsage.objectSize(2, 0, 0, 0);
+
+	private static final String ERROR_BATCH_SIZE = "The lists of a batch must have the same size.";
+
 	private static final String ERROR_BOUNDING_BOX_NO_INTERSECTION = "The bounding box must "
 			+ "intersect the tree elements' bounding box.";
 
+	private static final String ERROR_CELL_SIZE = "The cell size must be positive.";
+
+	private static final String ERROR_ITEM_ALREADY_CONTAINED = "Item already contained in the "
+			+ "QuadTree. Please make sure you don't add items more than once.";
+
 	private static final String ERROR_ITEM_NOT_CONTAINED = "Could not remove the item because it "
 			+ "was not found in this quad tree. The existence in the tree is a precondition for "
 			+ "calling the remove or move function.";
 
+	/**
+	 * The initial capacity of lists allocated for the entries of a node, they
+	 * grow as needed up to the capacity of the node.
+	 */
+	private static final int INITIAL_LIST_CAPACITY = 4;
+
 	private static final int LOWER_LEFT = 3;
 
 	private static final int LOWER_RIGHT = 2;
 
+	/**
+	 * The estimated size of a node, see {@link MemoryUsage}. Eight references,
+	 * three ints and two booleans including the fields of
+	 * {@link AbstractSWTQuadTree}.
+	 */
+	private static final long NODE_SIZE = MemoryUsage.objectSize(8, 3, 0, 2);
+
+	/**
+	 * The depth up to which parallel traversals fork one task per child node,
+	 * i.e. up to 4^PARALLEL_SPLIT_DEPTH tasks are created.
+	 */
+	private static final int PARALLEL_SPLIT_DEPTH = 3;
+
 	private static final int UPPER_LEFT = 0;
 
 	private static final int UPPER_RIGHT = 1;
 
+	/**
+	 * Shared by all nodes that never had children, it only ever contains
+	 * <code>null</code>. Replaced by a new array before creating a child.
+	 */
+	@SuppressWarnings("rawtypes")
+	private static final SWTQuadTree[] NO_CHILDREN = new SWTQuadTree[4];
+
+	/**
+	 * Shared by the empty lists of all nodes, so that nodes without entries
+	 * don't allocate lists. Replaced by a new list before adding to it.
+	 */
+	@SuppressWarnings("rawtypes")
+	private static final List NO_ENTRIES = Collections.emptyList();
+
 	/**
 	 * Checks if the rectangle <code>itemBoundingBox</code> really lies inside
 	 * this nodes bounding box, not only if they intersect.
@@ -76,6 +362,14 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 
 	}
 
+	/**
+	 * Returns <code>list</code> or a new list replacing it if it is
+	 * {@link SWTQuadTree#NO_ENTRIES}.
+	 */
+	private static <K> List<Entry<K>> allocate(List<Entry<K>> list) {
+		return list == NO_ENTRIES ? new ArrayList<Entry<K>>(INITIAL_LIST_CAPACITY) : list;
+	}
+
 	/**
 	 * Checks if an integer is a power of two by checking if <code>n</code> > 0
 	 * and if only one bit in <code>n</code> is set.
@@ -89,6 +383,21 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 		return ((n != 0) && (n & (n - 1)) == 0);
 	}
 
+	@SuppressWarnings("unchecked")
+	private static <K> SWTQuadTree<K>[] newChildren() {
+		return new SWTQuadTree[4];
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <K> SWTQuadTree<K>[] noChildren() {
+		return NO_CHILDREN;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <K> List<Entry<K>> noEntries() {
+		return NO_ENTRIES;
+	}
+
 	/**
 	 * The bounding box of this tree element.
 	 */
@@ -101,13 +410,10 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 	final int capacity;
 
 	/**
-	 * An array containing the bounding boxes of the child nodes of this tree
-	 * element. Mostly used for checking if an item would fit into a child node.
-	 */
-	Rectangle[] childBoxes;
-
-	/**
-	 * An array containing the child nodes of this tree element
+	 * An array containing the child nodes of this tree element. Nodes that
+	 * never had children share {@link SWTQuadTree#NO_CHILDREN}. The bounding
+	 * boxes of the children are computed from the bounding box of this node
+	 * when creating them.
 	 */
 	SWTQuadTree<T>[] children;
 
@@ -118,6 +424,24 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 	 */
 	boolean leaf;
 
+	/**
+	 * The maximum priority of the items in this node and its descendants,
+	 * cached by {@link SWTQuadTree#getMaxPriority(ItemPriority)}. Only valid
+	 * while not <code>null</code>, which implies that the caches of all
+	 * descendants are valid, too. Searches holding a read lock may replace
+	 * it concurrently, modifications reset it.
+	 */
+	volatile MaxPriority<T> maxPriority;
+
+	/**
+	 * The number of items in this node and its descendants, cached by
+	 * {@link SWTQuadTree#getCachedItemCount()}. Only valid while not
+	 * negative, which implies that the caches of all descendants are valid,
+	 * too. Searches holding a read lock may compute it concurrently, as they
+	 * all write the same value.
+	 */
+	volatile int itemCount = -1;
+
 	/**
 	 * Set to true when the maximum resolution is reached. Used for speeding up
 	 * checks. Must be set by the constructor.
@@ -173,32 +497,12 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 		this.minSideLength = minSideLength;
 		this.capacity = capacity;
 
-		children = new SWTQuadTree[4];
-		childBoxes = new Rectangle[4];
-		objects = new ArrayList<Entry<T>>(capacity);
-		overflows = new ArrayList<Entry<T>>(capacity);
+		children = noChildren();
+		objects = noEntries();
+		overflows = noEntries();
 		leaf = true;
 
-		int childSideLength = boundingBox.width / 2;
-
-		if (!(childSideLength < minSideLength)) {
-
-			maximumResolutionReached = false;
-
-			childBoxes[UPPER_LEFT] = new Rectangle(boundingBox.x, boundingBox.y, childSideLength,
-					childSideLength);
-			childBoxes[UPPER_RIGHT] = new Rectangle(boundingBox.x + childSideLength, boundingBox.y,
-					childSideLength, childSideLength);
-			childBoxes[LOWER_RIGHT] = new Rectangle(boundingBox.x + childSideLength, boundingBox.y
-					+ childSideLength, childSideLength, childSideLength);
-			childBoxes[LOWER_LEFT] = new Rectangle(boundingBox.x, boundingBox.y + childSideLength,
-					childSideLength, childSideLength);
-
-		} else {
-
-			maximumResolutionReached = true;
-
-		}
+		maximumResolutionReached = boundingBox.width / 2 < minSideLength;
 
 		// check invariants
 		assert isOfIntegrity();
@@ -228,26 +532,76 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 	 */
 	void cleanUp() {
 
+		cleanUpNode();
+
+		// propagate cleanup to parent
+		if (parent != null) {
+			parent.cleanUp();
+			return;
+		}
+
+		// check invariants
+		assert isOfIntegrity() : "Invariants check failed for: " + this.toString();
+
+	}
+
+	/**
+	 * Cleans up <code>nodes</code> and their ancestors, every node once and the
+	 * deepest nodes first. Used after batch operations instead of
+	 * {@link SWTQuadTree#cleanUpSubtree()} so that only the paths the batch
+	 * touched are visited.
+	 */
+	void cleanUp(List<SWTQuadTree<T>> nodes) {
+
+		Set<SWTQuadTree<T>> visited = Collections
+				.newSetFromMap(new IdentityHashMap<SWTQuadTree<T>, Boolean>());
+		List<SWTQuadTree<T>> path = new ArrayList<SWTQuadTree<T>>();
+
+		for (SWTQuadTree<T> node : nodes)
+			for (SWTQuadTree<T> n = node; n != null && visited.add(n); n = n.parent)
+				path.add(n);
+
+		// smaller nodes are deeper in the tree
+		Collections.sort(path, new Comparator<SWTQuadTree<T>>() {
+			public int compare(SWTQuadTree<T> node, SWTQuadTree<T> otherNode) {
+				return Integer.compare(node.boundingBox.width, otherNode.boundingBox.width);
+			}
+		});
+
+		for (SWTQuadTree<T> node : path)
+			node.cleanUpNode();
+
+	}
+
+	/**
+	 * Cleans up the current tree element by deleting obsolete children if
+	 * possible, without cleaning up its parent.
+	 */
+	private void cleanUpNode() {
+
 		// check if all items in the subnodes would fit into this and in this
 		// case reorder them (we don't check for overflows in this node since
 		// overflows are always allowed to exceed the capacity)
-		int itemCount = objects.size() + getChildItemCountRecursive();
+		int itemCount = objects.size() + getChildItemCountRecursive(capacity - objects.size());
 		if (itemCount <= capacity) {
 
 			// put all objects from children into this node
 			List<Entry<T>> reorderSet = new ArrayList<Entry<T>>(itemCount);
 			getChildItemsRecursive(reorderSet);
-			objects.addAll(reorderSet);
+			if (!reorderSet.isEmpty()) {
+				objects = allocate(objects);
+				objects.addAll(reorderSet);
+			}
 
 			// remove child nodes
-			children[UPPER_LEFT] = children[UPPER_RIGHT] = children[LOWER_RIGHT] = children[LOWER_LEFT] = null;
+			children = noChildren();
 			leaf = true;
 
 		} else {
 
 			// remove empty children if there are any
 			for (int i = 0; i < 4; i++)
-				if (children[i] != null && children[i].getItemCountRecursive() == 0)
+				if (children[i] != null && children[i].getItemCountRecursive(0) == 0)
 					children[i] = null;
 
 		}
@@ -256,7 +610,7 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 		if (!leaf) {
 			boolean isLeaf = true;
 			for (int i = 0; i < 4; i++) {
-				if (children[i] != null && children[i].getItemCountRecursive() == 0)
+				if (children[i] != null && children[i].getItemCountRecursive(0) == 0)
 					children[i] = null;
 				else if (children[i] != null)
 					isLeaf = false;
@@ -264,14 +618,44 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 			leaf = isLeaf;
 		}
 
-		// propagate cleanup to parent
-		if (parent != null) {
-			parent.cleanUp();
-			return;
+	}
+
+	/**
+	 * Cleans up this node and all of its descendants bottom-up in a single
+	 * pass. Used after batch operations instead of cleaning up the path to the
+	 * root once for every item.
+	 * 
+	 * @return the number of items in this node and its descendants
+	 */
+	int cleanUpSubtree() {
+
+		int childItemCount = 0;
+
+		for (int i = 0; i < 4; i++) {
+
+			if (children[i] == null)
+				continue;
+
+			int count = children[i].cleanUpSubtree();
+			if (count == 0)
+				children[i] = null;
+			else
+				childItemCount += count;
+
 		}
 
-		// check invariants
-		assert isOfIntegrity() : "Invariants check failed for: " + this.toString();
+		// put all objects from the children into this node if they fit
+		if (childItemCount > 0 && objects.size() + childItemCount <= capacity) {
+			objects = allocate(objects);
+			getChildItemsRecursive(objects);
+			childItemCount = 0;
+		}
+
+		leaf = childItemCount == 0;
+		if (leaf)
+			children = noChildren();
+
+		return objects.size() + overflows.size() + childItemCount;
 
 	}
 
@@ -280,19 +664,98 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 		// check invariants
 		assert isOfIntegrity();
 
+		fireBeforeClear();
+
 		// remove child nodes
-		children[UPPER_LEFT] = children[UPPER_RIGHT] = children[LOWER_RIGHT] = children[LOWER_LEFT] = null;
+		children = noChildren();
 		leaf = true;
 
 		// empty objects and overflows
-		objects.clear();
-		overflows.clear();
+		objects = noEntries();
+		overflows = noEntries();
+
+		maxPriority = null;
+		itemCount = -1;
+
+		// check invariants
+		assert isOfIntegrity();
+
+	}
+
+	/**
+	 * Applies all changes at once with
+	 * {@link SWTQuadTree#commitEntries(List, List)}.
+	 */
+	@Override
+	void commitBatch(List<WriteBatch.Change<T>> changes) {
+
+		// check invariants
+		assert isOfIntegrity();
+
+		// this node must be the root node
+		assert parent == null;
+
+		List<Entry<T>> removals = new ArrayList<Entry<T>>();
+		List<Entry<T>> insertions = new ArrayList<Entry<T>>();
+		splitChanges(changes, removals, insertions);
+
+		commitEntries(removals, insertions);
+
+		fireBatchCommitted(changes);
+
+		// check invariants
+		assert isOfIntegrity();
+
+	}
+
+	/**
+	 * Removes <code>removals</code> without cleaning up, inserts
+	 * <code>insertions</code> partitioned by quadrant like
+	 * {@link SWTQuadTree#insertBatch(List, List, ForkJoinPool)} but
+	 * sequentially, and finally cleans up only the nodes that were touched and
+	 * their ancestors. The cost depends on the size of the batch, not on the
+	 * size of the tree.
+	 */
+	void commitEntries(List<Entry<T>> removals, List<Entry<T>> insertions) {
+
+		List<SWTQuadTree<T>> touched = new ArrayList<SWTQuadTree<T>>(removals.size()
+				+ insertions.size());
+
+		removeEntries(removals, touched);
+		insertEntries(insertions, touched);
+		cleanUp(touched);
 
 		// check invariants
 		assert isOfIntegrity();
 
 	}
 
+	/**
+	 * Splits the changes of a {@link WriteBatch} into the entries to remove
+	 * and the entries to insert, checking the new bounding boxes and that the
+	 * items to insert are not contained yet, so that inserting them can't fail
+	 * after the removals were applied.
+	 */
+	void splitChanges(List<WriteBatch.Change<T>> changes, List<Entry<T>> removals,
+			List<Entry<T>> insertions) {
+
+		for (WriteBatch.Change<T> change : changes) {
+
+			if (change.oldBoundingBox != null)
+				removals.add(new Entry<T>(change.oldBoundingBox, change.item));
+
+			if (change.newBoundingBox != null) {
+				boundingBoxCheck(change.newBoundingBox);
+				if (change.oldBoundingBox == null
+						&& containsItem(change.item, change.newBoundingBox))
+					throw new RuntimeException(ERROR_ITEM_ALREADY_CONTAINED);
+				insertions.add(new Entry<T>(change.newBoundingBox, change.item));
+			}
+
+		}
+
+	}
+
 	public boolean containsItem(T item, Rectangle itemBoundingBox) {
 
 		SWTQuadTree<T> node = searchNode(itemBoundingBox);
@@ -314,28 +777,233 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 				|| position == LOWER_LEFT;
 
 		assert children[position] == null;
-		assert childBoxes[position] != null;
+		assert !maximumResolutionReached;
+
+		if (children == NO_CHILDREN)
+			children = newChildren();
 
-		children[position] = new SWTQuadTree<T>(this, childBoxes[position], minSideLength, capacity);
+		int childSideLength = boundingBox.width / 2;
+		int x = position == UPPER_RIGHT || position == LOWER_RIGHT ? boundingBox.x
+				+ childSideLength : boundingBox.x;
+		int y = position == LOWER_RIGHT || position == LOWER_LEFT ? boundingBox.y
+				+ childSideLength : boundingBox.y;
+
+		children[position] = new SWTQuadTree<T>(this, new Rectangle(x, y, childSideLength,
+				childSideLength), minSideLength, capacity);
 
 		leaf = false;
 
+		// a valid node must not have invalid descendants
+		invalidateCaches();
+
 	}
 
 	/**
-	 * Returns the number of objects recursively excluding this node.
-	 * 
-	 * @return
+	 * Visits only the nodes intersecting with <code>area</code> down to the
+	 * first quadrants lying entirely inside a cell, which are counted with
+	 * their cached item counts.
 	 */
-	int getChildItemCountRecursive() {
+	public int[] densityGrid(Rectangle area, int columns, int rows) {
 
-		int itemCount = 0;
+		boundingBoxCheck(area);
 
-		for (SWTQuadTree<T> child : children)
-			if (child != null)
-				itemCount += child.getItemCountRecursive();
+		DensityGrid grid = new DensityGrid(area, columns, rows);
+		densityGridInternal(grid, area);
+		return grid.getCounts();
 
-		return itemCount;
+	}
+
+	void densityGridInternal(DensityGrid grid, Rectangle area) {
+
+		// all items of a node other than the root lie inside of it, while the
+		// overflows of the root may lie anywhere
+		if (parent != null) {
+			int cell = grid.getCell(boundingBox);
+			if (cell >= 0) {
+				grid.add(cell, getCachedItemCount());
+				return;
+			}
+		}
+
+		for (Entry<T> e : objects)
+			if (e.boundingBox.intersects(area))
+				grid.add(e.boundingBox);
+
+		for (Entry<T> e : overflows)
+			if (e.boundingBox.intersects(area))
+				grid.add(e.boundingBox);
+
+		if (!leaf) {
+			for (int i = 0; i < 4; i++)
+				if (children[i] != null && children[i].boundingBox.intersects(area))
+					children[i].densityGridInternal(grid, area);
+		}
+
+	}
+
+	public void forEachIntersectingPair(PairVisitor<T> visitor) {
+
+		forEachIntersectingPairInternal(visitor, new ArrayList<Entry<T>>(), 0, Integer.MAX_VALUE);
+
+	}
+
+	public void forEachIntersectingPair(PairVisitor<T> visitor, ForkJoinPool pool) {
+
+		pool.invoke(new IntersectingPairTask<T>(this, visitor, new ArrayList<Entry<T>>(), 0));
+
+	}
+
+	/**
+	 * Reports all intersecting pairs of entries in this subtree and all
+	 * intersecting pairs between entries in this subtree and the entries in
+	 * <code>ancestors</code> starting at index <code>from</code>.
+	 * 
+	 * Entries of a non-root node always lie within the nodes bounding box and
+	 * the bounding boxes of sibling nodes do not overlap. Therefore an entry
+	 * can only intersect with entries of the same node, of its ancestors or of
+	 * its descendants. While descending, <code>ancestors</code> is used as a
+	 * stack: the entries of all ancestors that intersect with a child node are
+	 * appended to it before descending into the child and removed afterwards,
+	 * so no allocation takes place per pair or per node.
+	 * 
+	 * @param visitor
+	 *            the visitor to report the pairs to
+	 * @param ancestors
+	 *            the stack of ancestor entries
+	 * @param from
+	 *            the index of the first ancestor entry in <code>ancestors</code>
+	 *            that intersects with this node
+	 * @param depth
+	 *            the number of levels to descend into, children below that
+	 *            depth are not visited
+	 */
+	void forEachIntersectingPairInternal(PairVisitor<T> visitor, List<Entry<T>> ancestors,
+			int from, int depth) {
+
+		int to = ancestors.size();
+
+		// pairs inside this node
+		visitPairs(visitor, objects, overflows);
+		visitPairs(visitor, overflows, overflows);
+		visitPairs(visitor, objects, objects);
+
+		// pairs between this node and its ancestors
+		for (int i = from; i < to; i++) {
+
+			Entry<T> ancestor = ancestors.get(i);
+
+			for (Entry<T> e : objects)
+				if (e.boundingBox.intersects(ancestor.boundingBox))
+					visitor.visit(ancestor.item, e.item);
+
+			for (Entry<T> e : overflows)
+				if (e.boundingBox.intersects(ancestor.boundingBox))
+					visitor.visit(ancestor.item, e.item);
+
+		}
+
+		if (leaf || depth == 0)
+			return;
+
+		for (int i = 0; i < 4; i++) {
+
+			if (children[i] == null)
+				continue;
+
+			pushIntersectingAncestors(ancestors, from, to, ancestors, children[i].boundingBox);
+			children[i].forEachIntersectingPairInternal(visitor, ancestors, to, depth - 1);
+
+			// pop the entries pushed for the child
+			for (int k = ancestors.size() - 1; k >= to; k--)
+				ancestors.remove(k);
+
+		}
+
+	}
+
+	/**
+	 * Pushes all entries in <code>ancestors</code> between <code>from</code>
+	 * (inclusive) and <code>to</code> (exclusive) as well as all entries of
+	 * this node onto <code>target</code> if they intersect with
+	 * <code>childBox</code>.
+	 */
+	private void pushIntersectingAncestors(List<Entry<T>> ancestors, int from, int to,
+			List<Entry<T>> target, Rectangle childBox) {
+
+		for (int k = from; k < to; k++)
+			if (ancestors.get(k).boundingBox.intersects(childBox))
+				target.add(ancestors.get(k));
+
+		for (Entry<T> e : objects)
+			if (e.boundingBox.intersects(childBox))
+				target.add(e);
+
+		for (Entry<T> e : overflows)
+			if (e.boundingBox.intersects(childBox))
+				target.add(e);
+
+	}
+
+	/**
+	 * Reports all intersecting pairs between the entries of <code>list</code>
+	 * and <code>otherList</code>. If both are the same list only pairs of
+	 * different entries are reported and each of them only once.
+	 */
+	private void visitPairs(PairVisitor<T> visitor, List<Entry<T>> list, List<Entry<T>> otherList) {
+
+		boolean sameList = list == otherList;
+
+		for (int i = 0; i < list.size(); i++) {
+
+			Entry<T> e = list.get(i);
+
+			for (int j = sameList ? i + 1 : 0; j < otherList.size(); j++)
+				if (e.boundingBox.intersects(otherList.get(j).boundingBox))
+					visitor.visit(e.item, otherList.get(j).item);
+
+		}
+
+	}
+
+	public Rectangle getBoundingBox() {
+
+		return new Rectangle(boundingBox.x, boundingBox.y, boundingBox.width, boundingBox.height);
+
+	}
+
+	/**
+	 * Returns the number of objects recursively excluding this node.
+	 * 
+	 * @return
+	 */
+	int getChildItemCountRecursive() {
+
+		int itemCount = 0;
+
+		for (SWTQuadTree<T> child : children)
+			if (child != null)
+				itemCount += child.getItemCountRecursive();
+
+		return itemCount;
+
+	}
+
+	/**
+	 * Same as {@link SWTQuadTree#getChildItemCountRecursive()} but stops
+	 * counting as soon as there are more than <code>limit</code> items.
+	 * 
+	 * @return the number of items, or any number greater than
+	 *         <code>limit</code>
+	 */
+	int getChildItemCountRecursive(int limit) {
+
+		int itemCount = 0;
+
+		for (int i = 0; i < 4 && itemCount <= limit; i++)
+			if (children[i] != null)
+				itemCount += children[i].getItemCountRecursive(limit - itemCount);
+
+		return itemCount;
 
 	}
 
@@ -361,11 +1029,24 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 		if (maximumResolutionReached)
 			return -1;
 
-		for (int i = 0; i < 4; i++)
-			if (boundingBoxContains(childBoxes[i], itemBoundingBox))
-				return i;
+		// the upper left point of itemBoundingBox determines the only child
+		// box it may fit into
+		int childSideLength = boundingBox.width / 2;
+		boolean right = itemBoundingBox.x >= boundingBox.x + childSideLength;
+		boolean lower = itemBoundingBox.y >= boundingBox.y + childSideLength;
+		int x = right ? boundingBox.x + childSideLength : boundingBox.x;
+		int y = lower ? boundingBox.y + childSideLength : boundingBox.y;
+
+		// both points defining itemBoundingBox must lie within the child box
+		int lowerRightX = itemBoundingBox.x + itemBoundingBox.width;
+		int lowerRightY = itemBoundingBox.y + itemBoundingBox.height;
+		if (itemBoundingBox.x < x || itemBoundingBox.y < y
+				|| itemBoundingBox.x >= x + childSideLength
+				|| itemBoundingBox.y >= y + childSideLength || lowerRightX < x || lowerRightY < y
+				|| lowerRightX >= x + childSideLength || lowerRightY >= y + childSideLength)
+			return -1;
 
-		return -1;
+		return lower ? right ? LOWER_RIGHT : LOWER_LEFT : right ? UPPER_RIGHT : UPPER_LEFT;
 
 	}
 
@@ -386,6 +1067,23 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 
 	}
 
+	/**
+	 * Same as {@link SWTQuadTree#getItemCountRecursive()} but stops counting
+	 * as soon as there are more than <code>limit</code> items.
+	 * 
+	 * @return the number of items, or any number greater than
+	 *         <code>limit</code>
+	 */
+	int getItemCountRecursive(int limit) {
+
+		int itemCount = objects.size() + overflows.size();
+		if (itemCount > limit)
+			return itemCount;
+
+		return itemCount + getChildItemCountRecursive(limit - itemCount);
+
+	}
+
 	void getItemsRecursive(List<Entry<T>> set) {
 
 		set.addAll(overflows);
@@ -395,6 +1093,207 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 
 	}
 
+	public TreeStatistics getStatistics() {
+
+		TreeStatistics statistics = new TreeStatistics();
+		getStatisticsRecursive(statistics, 0);
+		return statistics;
+
+	}
+
+	/**
+	 * Adds this node and its descendants to <code>statistics</code>, this node
+	 * on <code>depth</code>.
+	 */
+	void getStatisticsRecursive(TreeStatistics statistics, int depth) {
+
+		int entryCount = objects.size() + overflows.size();
+
+		long nodeBytes = NODE_SIZE;
+		if (children != NO_CHILDREN)
+			nodeBytes += MemoryUsage.arraySize(4, MemoryUsage.REFERENCE);
+
+		// the bounding box of this node and those of its entries
+		long rectangleBytes = (1 + entryCount) * MemoryUsage.RECTANGLE;
+
+		long listBytes = MemoryUsage.listSize(objects, INITIAL_LIST_CAPACITY)
+				+ MemoryUsage.listSize(overflows, INITIAL_LIST_CAPACITY);
+		long listSlackBytes = MemoryUsage.listSlack(objects, INITIAL_LIST_CAPACITY)
+				+ MemoryUsage.listSlack(overflows, INITIAL_LIST_CAPACITY);
+
+		statistics.addNode(depth, leaf, objects.size(), overflows.size());
+		statistics.getMemoryUsage().add(depth, nodeBytes, entryCount * ENTRY_SIZE,
+				rectangleBytes, listBytes, listSlackBytes);
+
+		for (SWTQuadTree<T> child : children)
+			if (child != null)
+				child.getStatisticsRecursive(statistics, depth + 1);
+
+	}
+
+	void getItemsRecursive(Set<T> set) {
+
+		for (Entry<T> e : objects)
+			set.add(e.item);
+
+		for (Entry<T> e : overflows)
+			set.add(e.item);
+
+		if (!leaf) {
+			for (int i = 0; i < 4; i++)
+				if (children[i] != null)
+					children[i].getItemsRecursive(set);
+		}
+
+	}
+
+	/**
+	 * Returns the number of items in this node and its descendants, computing
+	 * it for the nodes whose cached value is not valid.
+	 */
+	int getCachedItemCount() {
+
+		int cached = itemCount;
+		if (cached >= 0)
+			return cached;
+
+		int count = objects.size() + overflows.size();
+
+		if (!leaf) {
+			for (int i = 0; i < 4; i++)
+				if (children[i] != null)
+					count += children[i].getCachedItemCount();
+		}
+
+		itemCount = count;
+
+		return count;
+
+	}
+
+	/**
+	 * Returns the first entry found in this node or its descendants whose
+	 * bounding box intersects with <code>region</code>, <code>null</code> if
+	 * there is none.
+	 */
+	Entry<T> getFirstEntry(Rectangle region) {
+
+		for (Entry<T> e : objects)
+			if (e.boundingBox.intersects(region))
+				return e;
+
+		for (Entry<T> e : overflows)
+			if (e.boundingBox.intersects(region))
+				return e;
+
+		if (!leaf) {
+			for (int i = 0; i < 4; i++) {
+				if (children[i] != null && children[i].boundingBox.intersects(region)) {
+					Entry<T> e = children[i].getFirstEntry(region);
+					if (e != null)
+						return e;
+				}
+			}
+		}
+
+		return null;
+
+	}
+
+	/**
+	 * Returns the maximum priority of the items in this node and its
+	 * descendants, computing it for the nodes whose cached value is not valid
+	 * for <code>priority</code>.
+	 */
+	int getMaxPriority(ItemPriority<T> priority) {
+
+		MaxPriority<T> cached = maxPriority;
+		if (cached != null && cached.key == priority)
+			return cached.value;
+
+		int max = Integer.MIN_VALUE;
+
+		for (Entry<T> e : objects)
+			max = Math.max(max, priority.getPriority(e.item));
+
+		for (Entry<T> e : overflows)
+			max = Math.max(max, priority.getPriority(e.item));
+
+		if (!leaf) {
+			for (int i = 0; i < 4; i++)
+				if (children[i] != null)
+					max = Math.max(max, children[i].getMaxPriority(priority));
+		}
+
+		maxPriority = new MaxPriority<T>(priority, max);
+
+		return max;
+
+	}
+
+	public void insertBatch(List<T> items, List<Rectangle> boundingBoxes, ForkJoinPool pool) {
+
+		// check invariants
+		assert isOfIntegrity();
+
+		// this node must be the root node
+		assert parent == null;
+
+		if (items.size() != boundingBoxes.size())
+			throw new RuntimeException(ERROR_BATCH_SIZE);
+
+		List<Entry<T>> entries = new ArrayList<Entry<T>>(items.size());
+		for (int i = 0; i < items.size(); i++) {
+			boundingBoxCheck(boundingBoxes.get(i));
+			entries.add(new Entry<T>(boundingBoxes.get(i), items.get(i)));
+		}
+
+		pool.invoke(new InsertBatchTask<T>(this, entries, 0));
+
+		for (Entry<T> e : entries)
+			fireItemInserted(e.item, e.boundingBox);
+
+		// check invariants
+		assert isOfIntegrity();
+
+	}
+
+	/**
+	 * Inserts <code>entries</code> into the sub tree of this node like
+	 * {@link InsertBatchTask} but without forking, so that every node is split
+	 * at most once for all entries. The tree is not cleaned up.
+	 */
+	void insertEntries(List<Entry<T>> entries) {
+
+		List<List<Entry<T>>> partitions = null;
+		if (entries.size() >= BATCH_SPLIT_THRESHOLD)
+			partitions = partitionInsertBatch(entries);
+
+		if (partitions == null) {
+			for (Entry<T> e : entries)
+				insertItemInternal(e.item, e.boundingBox);
+			return;
+		}
+
+		for (int i = 0; i < 4; i++)
+			if (!partitions.get(i).isEmpty())
+				children[i].insertEntries(partitions.get(i));
+
+	}
+
+	/**
+	 * Same as {@link SWTQuadTree#insertEntries(List)} but adds the nodes the
+	 * entries were inserted into to <code>touched</code>.
+	 */
+	void insertEntries(List<Entry<T>> entries, List<SWTQuadTree<T>> touched) {
+
+		insertEntries(entries);
+
+		for (Entry<T> e : entries)
+			touched.add(searchNode(e.boundingBox));
+
+	}
+
 	public void insertItem(T item, Rectangle itemBoundingBox) {
 
 		// check invariants
@@ -407,19 +1306,22 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 		boundingBoxCheck(itemBoundingBox);
 
 		insertItemInternal(item, itemBoundingBox);
+		fireItemInserted(item, itemBoundingBox);
 
 		// check invariants
 		assert isOfIntegrity();
 
 	}
 
-	private void addOrThrowIfExisting(List<Entry<T>> list, Entry<T> entry) {
+	private List<Entry<T>> addOrThrowIfExisting(List<Entry<T>> list, Entry<T> entry) {
 		for (Entry<T> listEntry : list) {
 			if (listEntry.item == entry.item)
-				throw new RuntimeException(
-						"Item already contained in the QuadTree. Please make sure you don't add items more than once.");
+				throw new RuntimeException(ERROR_ITEM_ALREADY_CONTAINED);
 		}
+		list = allocate(list);
 		list.add(entry);
+		invalidateCaches();
+		return list;
 	}
 
 	/**
@@ -443,7 +1345,7 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 		if (!boundingBoxContains(boundingBox, itemBoundingBox)) {
 
 			if (parent == null) {
-				addOrThrowIfExisting(overflows, new Entry<T>(itemBoundingBox, item));
+				overflows = addOrThrowIfExisting(overflows, new Entry<T>(itemBoundingBox, item));
 			} else
 				parent.insertItemInternal(item, itemBoundingBox);
 
@@ -453,7 +1355,7 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 
 			if (leaf && !capacityReached()) {
 
-				addOrThrowIfExisting(objects, new Entry<T>(itemBoundingBox, item));
+				objects = addOrThrowIfExisting(objects, new Entry<T>(itemBoundingBox, item));
 
 			} else {
 
@@ -469,32 +1371,7 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 					createChild(fittingChildRectanglePosition);
 
 				// reorder children after creating child node
-				int reorderFitPosition;
-				for (Entry<T> entry : objects) {
-
-					// objects items must fit into a child node because
-					// otherwise they wouldn't have been placed into objects but
-					// into overflows
-					assert wouldFitIntoChildNode(entry.boundingBox);
-
-					// test where reorder item would fit
-					reorderFitPosition = getFittingChildRectanglePosition(entry.boundingBox);
-
-					assert reorderFitPosition == UPPER_LEFT || reorderFitPosition == UPPER_RIGHT
-							|| reorderFitPosition == LOWER_RIGHT
-							|| reorderFitPosition == LOWER_LEFT;
-
-					// assure the node for the item to reorder exists
-					if (children[reorderFitPosition] == null)
-						createChild(reorderFitPosition);
-
-					// finally insert the item to be reordered
-					children[reorderFitPosition].insertItemInternal(entry.item, entry.boundingBox);
-
-				}
-				// all objects should now be reordered
-				objects.clear();
-				// end reordering children
+				pushObjectsToChildren();
 
 				// now, at last, really insert the item we wanted to insert in
 				// the first place
@@ -506,8 +1383,57 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 
 			// the item doesn't fit into one of the child boxes or the maximum
 			// resolution is reached
-			addOrThrowIfExisting(overflows, new Entry<T>(itemBoundingBox, item));
+			overflows = addOrThrowIfExisting(overflows, new Entry<T>(itemBoundingBox, item));
+
+		}
+
+	}
+
+	/**
+	 * Moves the objects of this node into its children, creating them as
+	 * needed.
+	 */
+	private void pushObjectsToChildren() {
+
+		int reorderFitPosition;
+		for (Entry<T> entry : objects) {
+
+			// objects items must fit into a child node because
+			// otherwise they wouldn't have been placed into objects but
+			// into overflows
+			assert wouldFitIntoChildNode(entry.boundingBox);
+
+			// test where reorder item would fit
+			reorderFitPosition = getFittingChildRectanglePosition(entry.boundingBox);
+
+			assert reorderFitPosition == UPPER_LEFT || reorderFitPosition == UPPER_RIGHT
+					|| reorderFitPosition == LOWER_RIGHT
+					|| reorderFitPosition == LOWER_LEFT;
+
+			// assure the node for the item to reorder exists
+			if (children[reorderFitPosition] == null)
+				createChild(reorderFitPosition);
+
+			// finally insert the item to be reordered
+			children[reorderFitPosition].insertItemInternal(entry.item, entry.boundingBox);
+
+		}
+		// all objects should now be reordered
+		objects = noEntries();
+
+	}
+
+	/**
+	 * Invalidates the cached maximum priority and item count of this node and
+	 * its ancestors after the items of this node changed. Stops at the first
+	 * node with both caches invalid, as its ancestors are invalid, too.
+	 */
+	void invalidateCaches() {
 
+		for (SWTQuadTree<T> node = this; node != null
+				&& (node.maxPriority != null || node.itemCount >= 0); node = node.parent) {
+			node.maxPriority = null;
+			node.itemCount = -1;
 		}
 
 	}
@@ -585,10 +1511,15 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 			return false;
 
 		// check: if the maximum resolution is reached there should be no child
-		// nodes and node child boxes
-		if (maximumResolutionReached
-				&& (!leaf || childBoxes[UPPER_LEFT] != null || childBoxes[UPPER_RIGHT] != null
-						|| childBoxes[LOWER_RIGHT] != null || childBoxes[LOWER_LEFT] != null))
+		// nodes
+		if (maximumResolutionReached && !leaf)
+			return false;
+
+		// check: the shared empty array and list must not have been modified
+		for (SWTQuadTree<?> child : NO_CHILDREN)
+			if (child != null)
+				return false;
+		if (!NO_ENTRIES.isEmpty())
 			return false;
 
 		// check if all connections to <code>parent</code> are set correctly
@@ -606,27 +1537,559 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 
 	}
 
-	public void moveItem(T item, Rectangle oldItemBoundingBox, Rectangle newItemBoundingBox) {
-
-		// check invariants
-		assert isOfIntegrity();
+	@SuppressWarnings("unchecked")
+	public <U> void join(ISWTQuadTree<U> other, JoinVisitor<T, U> visitor) {
 
-		SWTQuadTree<T> node = searchNode(oldItemBoundingBox);
+		// the nodes of a synchronized tree must only be walked holding its
+		// monitor, SynchronizedSWTQuadTree#join takes it in a fixed order
+		if (other instanceof SynchronizedSWTQuadTree && !Thread.holdsLock(other)) {
+			synchronized (other) {
+				joinInternal((SWTQuadTree<U>) other, visitor);
+			}
+			return;
+		}
+
+		if (other instanceof SWTQuadTree) {
+			joinInternal((SWTQuadTree<U>) other, visitor);
+			return;
+		}
+
+		// unknown implementation, search it once for every entry of this tree
+		Rectangle otherBoundingBox = other.getBoundingBox();
+		List<Entry<T>> entries = new ArrayList<Entry<T>>(getItemCountRecursive());
+		getItemsRecursive(entries);
+
+		for (Entry<T> e : entries)
+			if (otherBoundingBox.intersects(e.boundingBox))
+				for (U otherItem : other.searchItems(e.boundingBox))
+					visitor.visit(e.item, otherItem);
+
+	}
+
+	/**
+	 * Reports all intersecting pairs between the entries in the subtree of this
+	 * node and the entries in the subtree of the node <code>other</code>.
+	 * 
+	 * The pairs are split up into pairs between the entries of both nodes,
+	 * pairs between the entries of one node and the descendants of the other
+	 * and pairs between the descendants of both nodes. The latter are found by
+	 * recursing into all pairs of child nodes whose bounding boxes intersect.
+	 * If both nodes cover the same area their quadrants are aligned and only
+	 * children at the same position can intersect.
+	 */
+	<U> void joinInternal(SWTQuadTree<U> other, JoinVisitor<T, U> visitor) {
+
+		// pairs between the entries of both nodes
+		joinPairs(objects, other.objects, visitor);
+		joinPairs(objects, other.overflows, visitor);
+		joinPairs(overflows, other.objects, visitor);
+		joinPairs(overflows, other.overflows, visitor);
+
+		// pairs between the entries of this node and the descendants of other
+		if (!other.leaf) {
+			for (int i = 0; i < 4; i++) {
+				if (other.children[i] == null)
+					continue;
+				for (Entry<T> e : objects)
+					if (other.children[i].boundingBox.intersects(e.boundingBox))
+						joinEntryWithSubtree(e, other.children[i], visitor);
+				for (Entry<T> e : overflows)
+					if (other.children[i].boundingBox.intersects(e.boundingBox))
+						joinEntryWithSubtree(e, other.children[i], visitor);
+			}
+		}
+
+		// pairs between the descendants of this node and the entries of other
+		if (!leaf) {
+			for (int i = 0; i < 4; i++) {
+				if (children[i] == null)
+					continue;
+				for (Entry<U> e : other.objects)
+					if (children[i].boundingBox.intersects(e.boundingBox))
+						children[i].joinSubtreeWithEntry(e, visitor);
+				for (Entry<U> e : other.overflows)
+					if (children[i].boundingBox.intersects(e.boundingBox))
+						children[i].joinSubtreeWithEntry(e, visitor);
+			}
+		}
+
+		// pairs between the descendants of both nodes
+		if (leaf || other.leaf)
+			return;
+
+		if (boundingBox.equals(other.boundingBox)) {
+
+			for (int i = 0; i < 4; i++)
+				if (children[i] != null && other.children[i] != null)
+					children[i].joinInternal(other.children[i], visitor);
+
+		} else {
+
+			for (int i = 0; i < 4; i++)
+				for (int j = 0; j < 4; j++)
+					if (children[i] != null && other.children[j] != null
+							&& children[i].boundingBox.intersects(other.children[j].boundingBox))
+						children[i].joinInternal(other.children[j], visitor);
+
+		}
+
+	}
+
+	/**
+	 * Reports all entries in the subtree of <code>node</code> that intersect
+	 * with the entry <code>e</code> of this tree.
+	 */
+	private <U> void joinEntryWithSubtree(Entry<T> e, SWTQuadTree<U> node,
+			JoinVisitor<T, U> visitor) {
+
+		for (Entry<U> otherEntry : node.objects)
+			if (e.boundingBox.intersects(otherEntry.boundingBox))
+				visitor.visit(e.item, otherEntry.item);
+
+		for (Entry<U> otherEntry : node.overflows)
+			if (e.boundingBox.intersects(otherEntry.boundingBox))
+				visitor.visit(e.item, otherEntry.item);
+
+		if (!node.leaf) {
+			for (int i = 0; i < 4; i++)
+				if (node.children[i] != null && node.children[i].boundingBox.intersects(e.boundingBox))
+					joinEntryWithSubtree(e, node.children[i], visitor);
+		}
+
+	}
+
+	/**
+	 * Reports all entries in the subtree of this node that intersect with the
+	 * entry <code>otherEntry</code> of the other tree.
+	 */
+	private <U> void joinSubtreeWithEntry(Entry<U> otherEntry, JoinVisitor<T, U> visitor) {
+
+		for (Entry<T> e : objects)
+			if (e.boundingBox.intersects(otherEntry.boundingBox))
+				visitor.visit(e.item, otherEntry.item);
+
+		for (Entry<T> e : overflows)
+			if (e.boundingBox.intersects(otherEntry.boundingBox))
+				visitor.visit(e.item, otherEntry.item);
+
+		if (!leaf) {
+			for (int i = 0; i < 4; i++)
+				if (children[i] != null && children[i].boundingBox.intersects(otherEntry.boundingBox))
+					children[i].joinSubtreeWithEntry(otherEntry, visitor);
+		}
+
+	}
+
+	/**
+	 * Reports all intersecting pairs between the entries of <code>list</code>
+	 * and the entries of <code>otherList</code>.
+	 */
+	private <U> void joinPairs(List<Entry<T>> list, List<Entry<U>> otherList,
+			JoinVisitor<T, U> visitor) {
+
+		for (Entry<T> e : list)
+			for (Entry<U> otherEntry : otherList)
+				if (e.boundingBox.intersects(otherEntry.boundingBox))
+					visitor.visit(e.item, otherEntry.item);
+
+	}
+
+	public void moveBatch(List<T> items, List<Rectangle> oldBoundingBoxes,
+			List<Rectangle> newBoundingBoxes, ForkJoinPool pool) {
+
+		// check invariants
+		assert isOfIntegrity();
+
+		// this node must be the root node
+		assert parent == null;
+
+		if (items.size() != oldBoundingBoxes.size() || items.size() != newBoundingBoxes.size())
+			throw new RuntimeException(ERROR_BATCH_SIZE);
+
+		List<BatchMove<T>> moves = new ArrayList<BatchMove<T>>(items.size());
+		for (int i = 0; i < items.size(); i++)
+			moves.add(new BatchMove<T>(items.get(i), oldBoundingBoxes.get(i), newBoundingBoxes
+					.get(i)));
+
+		pool.invoke(new RemoveBatchTask<T>(this, moves, 0));
+
+		// if an item was not found put the others back to leave the tree
+		// unchanged
+		for (BatchMove<T> move : moves) {
+			if (!move.removed) {
+				for (BatchMove<T> removed : moves)
+					if (removed.removed)
+						insertItemInternal(removed.item, removed.oldBoundingBox);
+				cleanUpSubtree();
+				throw new RuntimeException(ERROR_ITEM_NOT_CONTAINED);
+			}
+		}
+
+		List<Entry<T>> entries = new ArrayList<Entry<T>>(moves.size());
+		for (BatchMove<T> move : moves)
+			entries.add(new Entry<T>(move.newBoundingBox, move.item));
+
+		pool.invoke(new InsertBatchTask<T>(this, entries, 0));
+		cleanUpSubtree();
+
+		for (BatchMove<T> move : moves)
+			fireItemMoved(move.item, move.oldBoundingBox, move.newBoundingBox);
+
+		// check invariants
+		assert isOfIntegrity();
+
+	}
+
+	public void moveItem(T item, Rectangle oldItemBoundingBox, Rectangle newItemBoundingBox) {
+
+		// check invariants
+		assert isOfIntegrity();
+
+		SWTQuadTree<T> node = searchNode(oldItemBoundingBox);
 
 		// check if item is contained and then remove it, otherwise throw an
 		// exception since it's a precondition that item is managed by the tree
-		if (!removeItemFromList(node.objects, item))
-			if (!removeItemFromList(node.overflows, item))
+		if (!node.removeItemFromList(node.objects, item))
+			if (!node.removeItemFromList(node.overflows, item))
 				throw new RuntimeException(ERROR_ITEM_NOT_CONTAINED);
 
 		node.insertItemInternal(item, newItemBoundingBox);
 		node.cleanUp();
+		fireItemMoved(item, oldItemBoundingBox, newItemBoundingBox);
 
 		// check invariants
 		assert isOfIntegrity();
 
 	}
 
+	/**
+	 * Moves the item in place if its entry stays valid in the node it is
+	 * stored in, i.e. if the new bounding box would be put into the same list
+	 * of the same node by {@link SWTQuadTree#insertItemInternal(Object, Rectangle)}.
+	 */
+	@Override
+	boolean moveItemInPlace(T item, Rectangle boundingBox, Rectangle newBoundingBox) {
+
+		// this node must be the root node
+		assert parent == null;
+
+		SWTQuadTree<T> node = searchNode(boundingBox);
+
+		boolean inObjects = containsEntry(node.objects, item, boundingBox);
+		if (!inObjects && !containsEntry(node.overflows, item, boundingBox))
+			return false;
+
+		boolean contained = boundingBoxContains(node.boundingBox, newBoundingBox);
+		boolean fits = contained && !node.maximumResolutionReached
+				&& node.wouldFitIntoChildNode(newBoundingBox);
+
+		// objects must still fit into a child, overflows must neither fit into
+		// a child nor leave a node other than the root
+		if (inObjects ? !fits : fits || (!contained && node.parent != null))
+			return false;
+
+		Rectangle oldBoundingBox = hasTreeListeners() ? new Rectangle(boundingBox.x,
+				boundingBox.y, boundingBox.width, boundingBox.height) : null;
+
+		boundingBox.x = newBoundingBox.x;
+		boundingBox.y = newBoundingBox.y;
+		boundingBox.width = newBoundingBox.width;
+		boundingBox.height = newBoundingBox.height;
+
+		// the listeners may keep the rectangles, but the bounding box owned by
+		// the tree is rewritten by the next move in place
+		if (oldBoundingBox != null)
+			fireItemMoved(item, oldBoundingBox, new Rectangle(boundingBox.x, boundingBox.y,
+					boundingBox.width, boundingBox.height));
+
+		// check invariants
+		assert isOfIntegrity();
+
+		return true;
+
+	}
+
+	private static <K> boolean containsEntry(List<Entry<K>> list, K item, Rectangle boundingBox) {
+
+		for (Entry<K> e : list)
+			if (e.item == item && e.boundingBox == boundingBox)
+				return true;
+
+		return false;
+
+	}
+
+	/**
+	 * Prepares this node for inserting <code>entries</code> into its children
+	 * in parallel. Splits this node if necessary, inserts the entries that
+	 * don't fit into a child and returns the remaining entries, together with
+	 * the objects of this node if it was split, partitioned by the position of
+	 * the child they fit into. The children for all non-empty partitions are
+	 * created.
+	 * 
+	 * @return the partitioned entries or <code>null</code> if this node can't
+	 *         be split or stays a leaf, in which case nothing was changed and
+	 *         the entries should be inserted sequentially
+	 */
+	List<List<Entry<T>>> partitionInsertBatch(List<Entry<T>> entries) {
+
+		if (maximumResolutionReached)
+			return null;
+
+		List<List<Entry<T>>> partitions = new ArrayList<List<Entry<T>>>(4);
+		for (int i = 0; i < 4; i++)
+			partitions.add(new ArrayList<Entry<T>>());
+
+		List<Entry<T>> straddling = new ArrayList<Entry<T>>();
+		for (Entry<T> e : entries) {
+
+			int position = getFittingChildRectanglePosition(e.boundingBox);
+
+			if (position == -1)
+				straddling.add(e);
+			else
+				partitions.get(position).add(e);
+
+		}
+
+		if (leaf && objects.size() + entries.size() - straddling.size() <= capacity)
+			return null;
+
+		// split this node, its objects are inserted into the children together
+		// with the entries
+		for (Entry<T> e : objects)
+			partitions.get(getFittingChildRectanglePosition(e.boundingBox)).add(e);
+		objects = noEntries();
+
+		for (int i = 0; i < 4; i++)
+			if (!partitions.get(i).isEmpty() && children[i] == null)
+				createChild(i);
+
+		for (Entry<T> e : straddling)
+			insertItemInternal(e.item, e.boundingBox);
+
+		return partitions;
+
+	}
+
+	/**
+	 * Removes <code>entries</code> from the sub tree of this node without
+	 * cleaning up and adds the nodes they were removed from to
+	 * <code>touched</code>. If an entry is not found the entries removed before
+	 * are put back, so that nothing is changed, and an exception is thrown.
+	 */
+	void removeEntries(List<Entry<T>> entries, List<SWTQuadTree<T>> touched) {
+
+		for (int i = 0; i < entries.size(); i++) {
+
+			Entry<T> e = entries.get(i);
+			SWTQuadTree<T> node = searchNode(e.boundingBox);
+
+			if (!node.removeItemFromList(node.objects, e.item)
+					&& !node.removeItemFromList(node.overflows, e.item)) {
+				insertEntries(entries.subList(0, i), touched);
+				cleanUp(touched);
+				throw new RuntimeException(ERROR_ITEM_NOT_CONTAINED);
+			}
+
+			touched.add(node);
+
+		}
+
+	}
+
+	/**
+	 * Removes the item of <code>move</code> from its old position in the sub
+	 * tree of this node without cleaning up and marks <code>move</code> as
+	 * removed if it was found.
+	 */
+	void removeBatchMove(BatchMove<T> move) {
+
+		SWTQuadTree<T> node = searchNode(move.oldBoundingBox);
+
+		move.removed = node.removeItemFromList(node.objects, move.item)
+				|| node.removeItemFromList(node.overflows, move.item);
+
+	}
+
+	/**
+	 * Walks the quadrants in the order in which the segment enters them,
+	 * skipping the ones it doesn't pass through.
+	 */
+	@Override
+	public void raycast(int x0, int y0, int x1, int y1, ItemVisitor<T> visitor) {
+
+		Ray ray = new Ray(x0, y0, x1, y1);
+		boundingBoxCheck(ray.getBoundingBox());
+
+		// the root is queued first as its overflows may lie outside of it
+		PriorityQueue<Ray.Hit<T>> queue = new PriorityQueue<Ray.Hit<T>>();
+		queue.add(new Ray.Hit<T>(Double.NEGATIVE_INFINITY, this));
+		raycastInternal(queue, ray, visitor);
+
+	}
+
+	/**
+	 * Processes the nodes and items of <code>queue</code> in the order in
+	 * which the segment enters them, adding the items and children hit of
+	 * every node taken from the queue. As the items and children of a node lie
+	 * within its bounding box they can't be entered before the node itself, so
+	 * the items are reported in order.
+	 */
+	static <K> void raycastInternal(PriorityQueue<Ray.Hit<K>> queue, Ray ray,
+			ItemVisitor<K> visitor) {
+
+		while (!queue.isEmpty()) {
+
+			Ray.Hit<K> hit = queue.poll();
+
+			if (hit.node == null) {
+				if (!visitor.visit(hit.item, hit.boundingBox))
+					return;
+				continue;
+			}
+
+			SWTQuadTree<K> node = hit.node;
+			double t;
+
+			for (Entry<K> e : node.objects)
+				if ((t = ray.enter(e.boundingBox)) >= 0)
+					queue.add(new Ray.Hit<K>(t, e.item, e.boundingBox));
+
+			for (Entry<K> e : node.overflows)
+				if ((t = ray.enter(e.boundingBox)) >= 0)
+					queue.add(new Ray.Hit<K>(t, e.item, e.boundingBox));
+
+			if (node.leaf)
+				continue;
+
+			for (int i = 0; i < 4; i++)
+				if (node.children[i] != null && (t = ray.enter(node.children[i].boundingBox)) >= 0)
+					queue.add(new Ray.Hit<K>(t, node.children[i]));
+
+		}
+
+	}
+
+	/**
+	 * Removes the matching entries of all nodes intersecting with
+	 * <code>region</code> in one traversal and cleans up the tree once.
+	 */
+	@Override
+	public int removeAll(Rectangle region, Predicate<T> filter) {
+
+		List<Entry<T>> removed = hasTreeListeners() ? new ArrayList<Entry<T>>() : null;
+		int count = removeAll(region, filter, removed);
+
+		if (removed != null)
+			for (Entry<T> e : removed)
+				fireItemRemoved(e.item, e.boundingBox);
+
+		return count;
+
+	}
+
+	/**
+	 * Same as {@link SWTQuadTree#removeAll(Rectangle, Predicate)} but doesn't
+	 * notify the listeners, the removed entries are added to
+	 * <code>removed</code> instead unless it is <code>null</code>.
+	 */
+	int removeAll(Rectangle region, Predicate<T> filter, List<Entry<T>> removed) {
+
+		// check invariants
+		assert isOfIntegrity();
+
+		// this node must be the root node
+		assert parent == null;
+
+		boundingBoxCheck(region);
+
+		int count = removeAllRecursive(region, filter, removed);
+		if (count > 0)
+			cleanUpSubtree();
+
+		// check invariants
+		assert isOfIntegrity();
+
+		return count;
+
+	}
+
+	/**
+	 * Removes the matching entries of this node and its descendants without
+	 * cleaning up. If this node lies within <code>region</code> and there is
+	 * no filter all of its items match and the sub tree is dropped without
+	 * looking at the entries, unless <code>region</code> shares the left or
+	 * upper border with this node. Items of zero width or height lying on that
+	 * border don't intersect with <code>region</code>.
+	 * 
+	 * @return the number of entries removed
+	 */
+	private int removeAllRecursive(Rectangle region, Predicate<T> filter,
+			List<Entry<T>> removed) {
+
+		if (filter == null && region.x < boundingBox.x && region.y < boundingBox.y
+				&& boundingBox.x + boundingBox.width <= region.x + region.width
+				&& boundingBox.y + boundingBox.height <= region.y + region.height) {
+
+			int count = getItemCountRecursive();
+			if (removed != null)
+				getItemsRecursive(removed);
+
+			children = noChildren();
+			leaf = true;
+			objects = noEntries();
+			overflows = noEntries();
+			invalidateCaches();
+
+			return count;
+
+		}
+
+		int count = removeAllFromList(objects, region, filter, removed)
+				+ removeAllFromList(overflows, region, filter, removed);
+
+		if (!leaf)
+			for (int i = 0; i < 4; i++)
+				if (children[i] != null && children[i].boundingBox.intersects(region))
+					count += children[i].removeAllRecursive(region, filter, removed);
+
+		if (count > 0)
+			invalidateCaches();
+
+		return count;
+
+	}
+
+	/**
+	 * Removes the matching entries of <code>list</code>, compacting the list
+	 * in a single pass.
+	 */
+	private static <K> int removeAllFromList(List<Entry<K>> list, Rectangle region,
+			Predicate<K> filter, List<Entry<K>> removed) {
+
+		int kept = 0;
+
+		for (int i = 0; i < list.size(); i++) {
+
+			Entry<K> e = list.get(i);
+
+			if (e.boundingBox.intersects(region) && (filter == null || filter.test(e.item))) {
+				if (removed != null)
+					removed.add(e);
+			} else
+				list.set(kept++, e);
+
+		}
+
+		int count = list.size() - kept;
+		if (count > 0)
+			list.subList(kept, list.size()).clear();
+
+		return count;
+
+	}
+
 	public void removeItem(T item, Rectangle itemBoundingBox) {
 
 		// check invariants
@@ -636,11 +2099,12 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 
 		// check if item is contained and then remove it, otherwise throw an
 		// exception since it's a precondition that item is managed by the tree
-		if (!removeItemFromList(node.objects, item))
-			if (!removeItemFromList(node.overflows, item))
+		if (!node.removeItemFromList(node.objects, item))
+			if (!node.removeItemFromList(node.overflows, item))
 				throw new RuntimeException(ERROR_ITEM_NOT_CONTAINED);
 
 		node.cleanUp();
+		fireItemRemoved(item, itemBoundingBox);
 
 		// check invariants
 		assert isOfIntegrity();
@@ -658,6 +2122,7 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 
 		if (toRemove != -1) {
 			list.remove(toRemove);
+			invalidateCaches();
 			return true;
 		}
 
@@ -665,6 +2130,73 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 
 	}
 
+	/**
+	 * Visits only the nodes intersecting with <code>region</code> down to the
+	 * first level of quadrants not larger than <code>minCellSize</code>, which
+	 * are reported with their cached item counts.
+	 */
+	public List<Cluster<T>> searchClusters(Rectangle region, int minCellSize) {
+
+		boundingBoxCheck(region);
+
+		if (minCellSize <= 0)
+			throw new RuntimeException(ERROR_CELL_SIZE);
+
+		List<Cluster<T>> clusters = new ArrayList<Cluster<T>>();
+		searchClustersInternal(clusters, region, minCellSize);
+		return clusters;
+
+	}
+
+	/**
+	 * Adds the items of this node and its descendants intersecting with
+	 * <code>region</code> to <code>clusters</code>, aggregating them if this
+	 * node is not larger than <code>minCellSize</code>. The root is never
+	 * aggregated, as its overflows may lie outside of its bounding box. A
+	 * quadrant is only reported if one of its items intersects with
+	 * <code>region</code>, which becomes the representative of the cluster.
+	 */
+	void searchClustersInternal(List<Cluster<T>> clusters, Rectangle region, int minCellSize) {
+
+		if (parent != null && boundingBox.width <= minCellSize) {
+
+			Entry<T> first = getFirstEntry(region);
+			if (first == null)
+				return;
+
+			int count = getCachedItemCount();
+			if (count == 1)
+				clusters.add(newSingleItemCluster(first));
+			else
+				clusters.add(new Cluster<T>(new Rectangle(boundingBox.x, boundingBox.y,
+						boundingBox.width, boundingBox.height), count, first.item));
+
+			return;
+
+		}
+
+		for (Entry<T> e : objects)
+			if (e.boundingBox.intersects(region))
+				clusters.add(newSingleItemCluster(e));
+
+		for (Entry<T> e : overflows)
+			if (e.boundingBox.intersects(region))
+				clusters.add(newSingleItemCluster(e));
+
+		if (leaf)
+			return;
+
+		for (int i = 0; i < 4; i++)
+			if (children[i] != null && children[i].boundingBox.intersects(region))
+				children[i].searchClustersInternal(clusters, region, minCellSize);
+
+	}
+
+	private static <K> Cluster<K> newSingleItemCluster(Entry<K> e) {
+		return new Cluster<K>(new Rectangle(e.boundingBox.x, e.boundingBox.y,
+				e.boundingBox.width, e.boundingBox.height), 1, e.item);
+	}
+
 	public Set<T> searchItems() {
 		return searchItems(boundingBox);
 	}
@@ -679,6 +2211,136 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 
 	}
 
+	/**
+	 * Visits the nodes best-first by their cached maximum priority and stops
+	 * as soon as no node left can contain an item with a priority higher than
+	 * the lowest one found so far.
+	 */
+	@Override
+	public List<T> searchItems(Rectangle boundingBox, int limit, ItemPriority<T> priority) {
+
+		boundingBoxCheck(boundingBox);
+
+		TopItems<T> top = new TopItems<T>(limit);
+		searchItemsInternal(boundingBox, top, priority);
+		return top.getItems();
+
+	}
+
+	/**
+	 * Adds the items of this node and its descendants intersecting with
+	 * <code>boundingBox</code> to <code>top</code>, skipping the nodes that
+	 * can't contain an item that would be added.
+	 */
+	void searchItemsInternal(Rectangle boundingBox, TopItems<T> top, ItemPriority<T> priority) {
+
+		// the maximum priorities are queued along with the nodes, as a
+		// concurrent search for another priority may replace the caches
+		PriorityQueue<RankedNode<T>> queue = new PriorityQueue<RankedNode<T>>(16,
+				new Comparator<RankedNode<T>>() {
+					public int compare(RankedNode<T> ranked, RankedNode<T> otherRanked) {
+						return Integer.compare(otherRanked.maxPriority, ranked.maxPriority);
+					}
+				});
+
+		queue.add(new RankedNode<T>(this, getMaxPriority(priority)));
+
+		while (!queue.isEmpty()) {
+
+			RankedNode<T> ranked = queue.poll();
+			SWTQuadTree<T> node = ranked.node;
+
+			if (top.isFull() && ranked.maxPriority <= top.getMinimumPriority())
+				return;
+
+			for (Entry<T> e : node.objects)
+				if (e.boundingBox.intersects(boundingBox))
+					top.add(e.item, priority.getPriority(e.item));
+
+			for (Entry<T> e : node.overflows)
+				if (e.boundingBox.intersects(boundingBox))
+					top.add(e.item, priority.getPriority(e.item));
+
+			if (node.leaf)
+				continue;
+
+			for (int i = 0; i < 4; i++) {
+				SWTQuadTree<T> child = node.children[i];
+				if (child != null && node.children[i].boundingBox.intersects(boundingBox))
+					queue.add(new RankedNode<T>(child, child.getMaxPriority(priority)));
+			}
+
+		}
+
+	}
+
+	/**
+	 * Answers all areas in a single traversal. Every node checks its entries
+	 * only against the areas intersecting with it and only the children
+	 * intersecting with at least one of these areas are visited.
+	 */
+	@Override
+	public List<Set<T>> searchItems(List<Rectangle> boundingBoxes) {
+
+		List<Set<T>> results = new ArrayList<Set<T>>(boundingBoxes.size());
+		int[] areas = new int[boundingBoxes.size()];
+
+		for (int i = 0; i < boundingBoxes.size(); i++) {
+			boundingBoxCheck(boundingBoxes.get(i));
+			results.add(new HashSet<T>());
+			areas[i] = i;
+		}
+
+		searchItemsInternal(boundingBoxes, results, areas, areas.length);
+		return results;
+
+	}
+
+	/**
+	 * Searches the areas of <code>boundingBoxes</code> with the first
+	 * <code>areaCount</code> indexes of <code>areas</code> in this node and its
+	 * descendants.
+	 */
+	void searchItemsInternal(List<Rectangle> boundingBoxes, List<Set<T>> results, int[] areas,
+			int areaCount) {
+
+		for (int i = 0; i < areaCount; i++) {
+
+			Rectangle boundingBox = boundingBoxes.get(areas[i]);
+			Set<T> set = results.get(areas[i]);
+
+			for (Entry<T> e : objects)
+				if (e.boundingBox.intersects(boundingBox))
+					set.add(e.item);
+
+			for (Entry<T> e : overflows)
+				if (e.boundingBox.intersects(boundingBox))
+					set.add(e.item);
+
+		}
+
+		if (leaf)
+			return;
+
+		int[] childAreas = new int[areaCount];
+		for (int i = 0; i < 4; i++) {
+
+			if (children[i] == null)
+				continue;
+
+			int childAreaCount = 0;
+			for (int j = 0; j < areaCount; j++)
+				if (children[i].boundingBox.intersects(boundingBoxes.get(areas[j])))
+					childAreas[childAreaCount++] = areas[j];
+
+			if (childAreaCount > 0)
+				children[i].searchItemsInternal(boundingBoxes, results, childAreas,
+						childAreaCount);
+
+		}
+
+	}
+
 	void searchItemsInternal(HashSet<T> set, Rectangle boundingBox) {
 
 		for (Entry<T> e : objects)
@@ -691,12 +2353,122 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 
 		if (!leaf) {
 			for (int i = 0; i < 4; i++)
-				if (children[i] != null && childBoxes[i].intersects(boundingBox))
+				if (children[i] != null && children[i].boundingBox.intersects(boundingBox))
 					children[i].searchItemsInternal(set, boundingBox);
 		}
 
 	}
 
+	public void searchItems(Rectangle boundingBox, ItemVisitor<T> visitor) {
+
+		boundingBoxCheck(boundingBox);
+
+		searchItemsInternal(visitor, boundingBox);
+
+	}
+
+	/**
+	 * Prunes the child boxes with exact tests against <code>shape</code>.
+	 */
+	@Override
+	Set<T> searchItems(QueryShape shape) {
+
+		boundingBoxCheck(shape.boundingBox);
+
+		Set<T> set = new HashSet<T>();
+		searchItemsInternal(set, shape);
+		return set;
+
+	}
+
+	/**
+	 * Adds the items of this node and its descendants intersecting with
+	 * <code>shape</code> to <code>set</code>. The items of a child lying
+	 * completely inside of the shape are added without testing them, as they
+	 * lie within the bounding box of the child.
+	 */
+	void searchItemsInternal(Set<T> set, QueryShape shape) {
+
+		for (Entry<T> e : objects)
+			if (shape.intersects(e.boundingBox))
+				set.add(e.item);
+
+		for (Entry<T> e : overflows)
+			if (shape.intersects(e.boundingBox))
+				set.add(e.item);
+
+		if (leaf)
+			return;
+
+		for (int i = 0; i < 4; i++) {
+
+			if (children[i] == null)
+				continue;
+
+			if (shape.contains(children[i].boundingBox))
+				children[i].getItemsRecursive(set);
+			else if (shape.intersects(children[i].boundingBox))
+				children[i].searchItemsInternal(set, shape);
+
+		}
+
+	}
+
+	/**
+	 * Reports the items intersecting with <code>boundingBox</code> to
+	 * <code>visitor</code>.
+	 * 
+	 * @return <code>false</code> if the visitor stopped the search
+	 */
+	boolean searchItemsInternal(ItemVisitor<T> visitor, Rectangle boundingBox) {
+
+		for (Entry<T> e : objects)
+			if (e.boundingBox.intersects(boundingBox) && !visitor.visit(e.item, e.boundingBox))
+				return false;
+
+		for (Entry<T> e : overflows)
+			if (e.boundingBox.intersects(boundingBox) && !visitor.visit(e.item, e.boundingBox))
+				return false;
+
+		if (!leaf) {
+			for (int i = 0; i < 4; i++)
+				if (children[i] != null && children[i].boundingBox.intersects(boundingBox)
+						&& !children[i].searchItemsInternal(visitor, boundingBox))
+					return false;
+		}
+
+		return true;
+
+	}
+
+	public List<List<T>> searchItemsByTile(Rectangle viewport, int tileSize) {
+
+		boundingBoxCheck(viewport);
+
+		TileBuckets<T> tiles = new TileBuckets<T>(viewport, tileSize);
+		searchItemsByTileInternal(tiles, viewport);
+		return tiles.getTiles();
+
+	}
+
+	void searchItemsByTileInternal(TileBuckets<T> tiles, Rectangle viewport) {
+
+		for (Entry<T> e : objects)
+			if (e.boundingBox.intersects(viewport))
+				tiles.add(e.item, e.boundingBox);
+
+		for (Entry<T> e : overflows)
+			if (e.boundingBox.intersects(viewport))
+				tiles.add(e.item, e.boundingBox);
+
+		if (!leaf) {
+			for (int i = 0; i < 4; i++)
+				if (children[i] != null && children[i].boundingBox.intersects(viewport))
+					children[i].searchItemsByTileInternal(tiles, viewport);
+		}
+
+	}
+
 	/**
 	 * Search the tree element which should contain an item with the bounding
 	 * box <code>boundingBox</code>.
@@ -763,13 +2535,7 @@ class SWTQuadTree<T> implements ISWTQuadTree<T> {
 	 * @return
 	 */
 	boolean wouldFitIntoChildNode(Rectangle itemBoundingBox) {
-
-		for (Rectangle rect : childBoxes)
-			if (boundingBoxContains(rect, itemBoundingBox))
-				return true;
-
-		return false;
-
+		return getFittingChildRectanglePosition(itemBoundingBox) != -1;
 	}
 
 
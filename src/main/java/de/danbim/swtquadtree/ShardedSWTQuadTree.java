@@ -0,0 +1,326 @@
+package de.danbim.swtquadtree;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * Sharded implementation of {@link ISWTQuadTree} which in addition to the
+ * concurrent writers of {@link ConcurrentSWTQuadTree} answers single queries
+ * covering several regions in parallel.
+ * 
+ * The shards are the stripes of {@link ConcurrentSWTQuadTree}, i.e. a grid of
+ * independent {@link SWTQuadTree}s guarded by their own read/write locks plus
+ * the overflow tree for the items straddling their borders. Inserts, moves
+ * and removals are routed to the shards like in {@link ConcurrentSWTQuadTree},
+ * moves between two shards lock both of them. Searches by rectangle, circle
+ * and polygon as well as {@link #searchItemsByTile(Rectangle, int)},
+ * {@link #searchClusters(Rectangle, int)} and
+ * {@link #densityGrid(Rectangle, int, int)} query all shards they touch as
+ * fork-join tasks in the pool given to the constructor, each task holding
+ * only the lock of its own shard, and merge the results afterwards. Queries
+ * touching only one shard besides the overflow tree, and all queries if the
+ * pool has a single worker, are answered by the calling thread. Searches
+ * with an {@link ItemVisitor} and searches for the items with the highest
+ * priorities still visit the shards one after the other, as the former may
+ * be stopped by the visitor and the latter prunes the shards by the items
+ * found in earlier ones.
+ * 
+ * @author Daniel Bimschas
+ * 
+ * @param <T>
+ *            the type of items the tree should manage
+ */
+class ShardedSWTQuadTree<T> extends ConcurrentSWTQuadTree<T> {
+
+	/**
+	 * Fork-join task running all shard queries of a single query.
+	 */
+	static class FanOutTask<R> extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<ShardTask<?, R>> tasks;
+
+		FanOutTask(List<ShardTask<?, R>> tasks) {
+			this.tasks = tasks;
+		}
+
+		@Override
+		protected void compute() {
+			invokeAll(tasks);
+		}
+
+	}
+
+	/**
+	 * Fork-join task querying a single shard holding its lock.
+	 */
+	static class ShardTask<K, R> extends RecursiveTask<R> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final SWTQuadTree<K> tree;
+
+		private final Lock lock;
+
+		private final Function<SWTQuadTree<K>, R> query;
+
+		ShardTask(SWTQuadTree<K> tree, Lock lock, Function<SWTQuadTree<K>, R> query) {
+			this.tree = tree;
+			this.lock = lock;
+			this.query = query;
+		}
+
+		@Override
+		protected R compute() {
+
+			lock.lock();
+			try {
+				return query.apply(tree);
+			} finally {
+				lock.unlock();
+			}
+
+		}
+
+	}
+
+	/**
+	 * The number of shards up to which a query is answered by the calling
+	 * thread like in {@link ConcurrentSWTQuadTree}, i.e. a single stripe and
+	 * the overflow tree.
+	 */
+	private static final int INLINE_SHARD_COUNT = 2;
+
+	private final ForkJoinPool pool;
+
+	public ShardedSWTQuadTree(int originX, int originY, int totalSideLength, int minSideLength,
+			int capacity, int shardDepth, ForkJoinPool pool) {
+
+		super(originX, originY, totalSideLength, minSideLength, capacity, shardDepth);
+
+		if (pool == null)
+			throw new RuntimeException("The pool must not be null!");
+
+		this.pool = pool;
+
+	}
+
+	/**
+	 * Counts the items of every shard in its own grid and sums up the grids.
+	 */
+	@Override
+	public int[] densityGrid(final Rectangle area, final int columns, final int rows) {
+
+		boundingBoxCheck(area);
+
+		List<Integer> shards = shardsIntersecting(area);
+		if (!fansOut(shards))
+			return super.densityGrid(area, columns, rows);
+
+		// check the arguments before forking
+		new DensityGrid(area, columns, rows);
+
+		List<int[]> grids = fanOut(shards,
+				new Function<SWTQuadTree<T>, int[]>() {
+					public int[] apply(SWTQuadTree<T> tree) {
+						DensityGrid grid = new DensityGrid(area, columns, rows);
+						tree.densityGridInternal(grid, area);
+						return grid.getCounts();
+					}
+				});
+
+		int[] counts = grids.get(0);
+		for (int i = 1; i < grids.size(); i++)
+			for (int j = 0; j < counts.length; j++)
+				counts[j] += grids.get(i)[j];
+		return counts;
+
+	}
+
+	/**
+	 * Runs <code>query</code> on every shard in <code>shards</code> holding
+	 * the read lock of the shard and returns the results in the order of
+	 * <code>shards</code>.
+	 */
+	private <R> List<R> fanOut(List<Integer> shards, Function<SWTQuadTree<T>, R> query) {
+
+		List<ShardTask<?, R>> tasks = new ArrayList<ShardTask<?, R>>(shards.size());
+		for (int index : shards)
+			tasks.add(new ShardTask<T, R>(trees[index], locks[index].readLock(), query));
+
+		pool.invoke(new FanOutTask<R>(tasks));
+
+		List<R> results = new ArrayList<R>(tasks.size());
+		for (ShardTask<?, R> task : tasks)
+			results.add(task.join());
+		return results;
+
+	}
+
+	/**
+	 * Returns whether a query of <code>shards</code> is worth forking, i.e.
+	 * whether it touches more than one stripe and the pool has more than one
+	 * worker. Otherwise merging the results of the shards would only add to
+	 * the work of searching them one after the other.
+	 */
+	private boolean fansOut(List<Integer> shards) {
+		return shards.size() > INLINE_SHARD_COUNT && pool.getParallelism() > 1;
+	}
+
+	/**
+	 * Merges the items found in the shards into the largest of the sets, the
+	 * shards are disjoint.
+	 */
+	private static <K> Set<K> merge(List<Set<K>> sets) {
+
+		Set<K> largest = sets.get(0);
+		for (Set<K> set : sets)
+			if (set.size() > largest.size())
+				largest = set;
+
+		for (Set<K> set : sets)
+			if (set != largest)
+				largest.addAll(set);
+
+		return largest;
+
+	}
+
+	/**
+	 * Searches every shard in its own list of clusters. Like in
+	 * {@link ConcurrentSWTQuadTree} clusters never span more than one shard.
+	 */
+	@Override
+	public List<Cluster<T>> searchClusters(final Rectangle region, final int minCellSize) {
+
+		boundingBoxCheck(region);
+
+		List<Integer> shards = shardsIntersecting(region);
+		if (!fansOut(shards))
+			return super.searchClusters(region, minCellSize);
+
+		if (minCellSize <= 0)
+			throw new RuntimeException("The cell size must be positive.");
+
+		List<List<Cluster<T>>> results = fanOut(shards,
+				new Function<SWTQuadTree<T>, List<Cluster<T>>>() {
+					public List<Cluster<T>> apply(SWTQuadTree<T> tree) {
+						List<Cluster<T>> clusters = new ArrayList<Cluster<T>>();
+						tree.searchClustersInternal(clusters, region, minCellSize);
+						return clusters;
+					}
+				});
+
+		int size = 0;
+		for (List<Cluster<T>> clusters : results)
+			size += clusters.size();
+
+		List<Cluster<T>> clusters = new ArrayList<Cluster<T>>(size);
+		for (List<Cluster<T>> result : results)
+			clusters.addAll(result);
+		return clusters;
+
+	}
+
+	@Override
+	public Set<T> searchItems(final Rectangle boundingBox) {
+
+		boundingBoxCheck(boundingBox);
+
+		List<Integer> shards = shardsIntersecting(boundingBox);
+		if (!fansOut(shards))
+			return super.searchItems(boundingBox);
+
+		return merge(fanOut(shards,
+				new Function<SWTQuadTree<T>, Set<T>>() {
+					public Set<T> apply(SWTQuadTree<T> tree) {
+						HashSet<T> set = new HashSet<T>();
+						tree.searchItemsInternal(set, boundingBox);
+						return set;
+					}
+				}));
+
+	}
+
+	@Override
+	Set<T> searchItems(final QueryShape shape) {
+
+		boundingBoxCheck(shape.boundingBox);
+
+		List<Integer> shards = new ArrayList<Integer>();
+		for (int i = 0; i < trees.length; i++)
+			if (shape.intersects(trees[i].boundingBox) || i == trees.length - 1)
+				shards.add(i);
+
+		if (!fansOut(shards))
+			return super.searchItems(shape);
+
+		return merge(fanOut(shards, new Function<SWTQuadTree<T>, Set<T>>() {
+			public Set<T> apply(SWTQuadTree<T> tree) {
+				Set<T> set = new HashSet<T>();
+				tree.searchItemsInternal(set, shape);
+				return set;
+			}
+		}));
+
+	}
+
+	/**
+	 * Sorts the items of every shard into its own tiles and appends the tiles
+	 * of the shards to each other.
+	 */
+	@Override
+	public List<List<T>> searchItemsByTile(final Rectangle viewport, final int tileSize) {
+
+		boundingBoxCheck(viewport);
+
+		List<Integer> shards = shardsIntersecting(viewport);
+		if (!fansOut(shards))
+			return super.searchItemsByTile(viewport, tileSize);
+
+		// check the arguments before forking
+		new TileBuckets<T>(viewport, tileSize);
+
+		List<List<List<T>>> results = fanOut(shards,
+				new Function<SWTQuadTree<T>, List<List<T>>>() {
+					public List<List<T>> apply(SWTQuadTree<T> tree) {
+						TileBuckets<T> tiles = new TileBuckets<T>(viewport, tileSize);
+						tree.searchItemsByTileInternal(tiles, viewport);
+						return tiles.getTiles();
+					}
+				});
+
+		List<List<T>> tiles = results.get(0);
+		for (int i = 1; i < results.size(); i++)
+			for (int j = 0; j < tiles.size(); j++)
+				tiles.get(j).addAll(results.get(i).get(j));
+		return tiles;
+
+	}
+
+	/**
+	 * Returns the indexes of the stripes intersecting with
+	 * <code>region</code> followed by the index of the overflow tree, whose
+	 * items may lie anywhere.
+	 */
+	private List<Integer> shardsIntersecting(Rectangle region) {
+
+		List<Integer> shards = new ArrayList<Integer>();
+		for (int i = 0; i < trees.length; i++)
+			if (trees[i].boundingBox.intersects(region) || i == trees.length - 1)
+				shards.add(i);
+		return shards;
+
+	}
+
+}
@@ -0,0 +1,123 @@
+package de.danbim.swtquadtree;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * Handle of an item inserted by
+ * {@link ISWTQuadTree#insertItem(Object, int, int, int, int)}. The bounding
+ * box of the item is owned by the handle and the tree, so callers can't
+ * corrupt the tree by modifying it.
+ * 
+ * {@link SpatialHandle#update(int, int, int, int)} rewrites the bounding box
+ * in place as long as the item stays at the same position in the tree and
+ * relocates it otherwise. Both cases don't allocate a new bounding box, the
+ * handle alternates between two rectangles. Only if the tree has listeners,
+ * e.g. {@link ViewportQuery}s or region subscriptions, which may keep the
+ * rectangles they are notified with, a relocation replaces the rectangle it
+ * moved the item from.
+ * 
+ * A handle must not be used by more than one thread at a time.
+ * 
+ * @author Daniel Bimschas
+ * 
+ * @param <T>
+ *            the type of the items managed by the tree
+ */
+public class SpatialHandle<T> {
+
+	private final AbstractSWTQuadTree<T> tree;
+
+	private final T item;
+
+	/**
+	 * The current bounding box of the item, shared with the tree.
+	 */
+	private Rectangle boundingBox;
+
+	/**
+	 * The rectangle the next relocation moves the item to.
+	 */
+	private Rectangle spare;
+
+	private boolean removed;
+
+	SpatialHandle(AbstractSWTQuadTree<T> tree, T item, int x, int y, int width, int height) {
+		this.tree = tree;
+		this.item = item;
+		this.boundingBox = new Rectangle(x, y, width, height);
+		this.spare = new Rectangle(x, y, width, height);
+	}
+
+	/**
+	 * Returns a copy of the current bounding box of the item.
+	 * 
+	 * @return a copy of the current bounding box of the item
+	 */
+	public Rectangle getBoundingBox() {
+		return new Rectangle(boundingBox.x, boundingBox.y, boundingBox.width, boundingBox.height);
+	}
+
+	Rectangle getBoundingBoxInternal() {
+		return boundingBox;
+	}
+
+	public T getItem() {
+		return item;
+	}
+
+	public boolean isRemoved() {
+		return removed;
+	}
+
+	/**
+	 * Removes the item from the tree. The handle must not be used anymore
+	 * afterwards.
+	 * 
+	 * @throws RuntimeException
+	 *             if the item was already removed
+	 */
+	public void remove() {
+
+		checkNotRemoved();
+
+		tree.removeItem(item, boundingBox);
+		removed = true;
+
+	}
+
+	/**
+	 * Moves the item to the bounding box (<code>x</code>, <code>y</code>,
+	 * <code>width</code>, <code>height</code>).
+	 * 
+	 * @throws RuntimeException
+	 *             if the item was removed
+	 */
+	public void update(int x, int y, int width, int height) {
+
+		checkNotRemoved();
+
+		spare.x = x;
+		spare.y = y;
+		spare.width = width;
+		spare.height = height;
+
+		if (tree.moveItemInPlace(item, boundingBox, spare))
+			return;
+
+		tree.moveItem(item, boundingBox, spare);
+
+		// the listeners of the tree may keep the old bounding box
+		Rectangle oldBoundingBox = boundingBox;
+		boundingBox = spare;
+		spare = tree.hasTreeListeners() ? new Rectangle(x, y, width, height) : oldBoundingBox;
+
+	}
+
+	private void checkNotRemoved() {
+
+		if (removed)
+			throw new RuntimeException("The item of this handle was removed from the tree.");
+
+	}
+
+}
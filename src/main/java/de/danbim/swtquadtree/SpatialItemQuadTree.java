@@ -0,0 +1,182 @@
+package de.danbim.swtquadtree;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * Manages {@link ISpatialItem}s in an {@link ISWTQuadTree}. The bounding box
+ * of an item is read from the item itself on {@link #insert(ISpatialItem)} and
+ * {@link #update(ISpatialItem)} and cached by the tree, so callers neither
+ * allocate rectangles nor keep track of the bounding box an item was inserted
+ * with.
+ * 
+ * Every item is kept through a {@link SpatialHandle}, i.e. updates rewrite the
+ * cached bounding box in place if the item stays in its node and don't
+ * allocate otherwise.
+ * 
+ * Instances are not thread-safe.
+ * 
+ * @author Daniel Bimschas
+ * 
+ * @param <T>
+ *            the type of the items managed by the tree
+ */
+public class SpatialItemQuadTree<T extends ISpatialItem> {
+
+	private static final String ERROR_ITEM_ALREADY_CONTAINED = "The item is already contained "
+			+ "in this tree.";
+
+	private static final String ERROR_ITEM_NOT_CONTAINED = "The item is not contained in this "
+			+ "tree.";
+
+	private final ISWTQuadTree<T> tree;
+
+	private final Map<T, SpatialHandle<T>> handles = new IdentityHashMap<T, SpatialHandle<T>>();
+
+	/**
+	 * The array the items write their bounds to.
+	 */
+	private final int[] bounds = new int[4];
+
+	/**
+	 * Creates a tree managing its items in <code>tree</code>.
+	 * 
+	 * @param tree
+	 *            the tree to keep the items in, must not be modified other
+	 *            than through the new instance afterwards
+	 * @throws RuntimeException
+	 *             if <code>tree</code> is not empty
+	 */
+	public SpatialItemQuadTree(ISWTQuadTree<T> tree) {
+
+		if (tree.getItemCount() != 0)
+			throw new RuntimeException("The tree must be empty!");
+
+		this.tree = tree;
+
+	}
+
+	public void clear() {
+
+		tree.clear();
+		handles.clear();
+
+	}
+
+	public boolean contains(T item) {
+		return handles.containsKey(item);
+	}
+
+	/**
+	 * Returns a copy of the bounding box cached for <code>item</code>, i.e. the
+	 * one read by the last insert or update.
+	 * 
+	 * @throws RuntimeException
+	 *             if <code>item</code> is not contained
+	 */
+	public Rectangle getBoundingBox(T item) {
+		return getHandle(item).getBoundingBox();
+	}
+
+	public int getItemCount() {
+		return handles.size();
+	}
+
+	/**
+	 * Returns the tree the items are kept in, e.g. for searching it. It must
+	 * not be modified directly.
+	 */
+	public ISWTQuadTree<T> getTree() {
+		return tree;
+	}
+
+	/**
+	 * Inserts <code>item</code> at its current bounding box.
+	 * 
+	 * @throws RuntimeException
+	 *             if <code>item</code> is already contained or if its bounding
+	 *             box doesn't intersect with the bounding box of the tree
+	 */
+	public void insert(T item) {
+
+		if (handles.containsKey(item))
+			throw new RuntimeException(ERROR_ITEM_ALREADY_CONTAINED);
+
+		item.getBounds(bounds);
+		handles.put(item, tree.insertItem(item, bounds[ISpatialItem.X], bounds[ISpatialItem.Y],
+				bounds[ISpatialItem.WIDTH], bounds[ISpatialItem.HEIGHT]));
+
+	}
+
+	/**
+	 * Removes <code>item</code> from the bounding box it was last inserted or
+	 * updated with.
+	 * 
+	 * @throws RuntimeException
+	 *             if <code>item</code> is not contained
+	 */
+	public void remove(T item) {
+
+		SpatialHandle<T> handle = handles.remove(item);
+
+		if (handle == null)
+			throw new RuntimeException(ERROR_ITEM_NOT_CONTAINED);
+
+		handle.remove();
+
+	}
+
+	public Set<T> searchItems(Rectangle boundingBox) {
+		return tree.searchItems(boundingBox);
+	}
+
+	public void searchItems(Rectangle boundingBox, ItemVisitor<T> visitor) {
+		tree.searchItems(boundingBox, visitor);
+	}
+
+	/**
+	 * Moves <code>item</code> to its current bounding box if it changed since
+	 * the last insert or update.
+	 * 
+	 * @return <code>true</code> if the item was moved, <code>false</code> if
+	 *         its bounding box didn't change
+	 * @throws RuntimeException
+	 *             if <code>item</code> is not contained
+	 */
+	public boolean update(T item) {
+
+		SpatialHandle<T> handle = getHandle(item);
+		Rectangle cached = handle.getBoundingBoxInternal();
+
+		item.getBounds(bounds);
+		if (cached.x == bounds[ISpatialItem.X] && cached.y == bounds[ISpatialItem.Y]
+				&& cached.width == bounds[ISpatialItem.WIDTH]
+				&& cached.height == bounds[ISpatialItem.HEIGHT])
+			return false;
+
+		handle.update(bounds[ISpatialItem.X], bounds[ISpatialItem.Y], bounds[ISpatialItem.WIDTH],
+				bounds[ISpatialItem.HEIGHT]);
+		return true;
+
+	}
+
+	private SpatialHandle<T> getHandle(T item) {
+
+		SpatialHandle<T> handle = handles.get(item);
+
+		if (handle == null)
+			throw new RuntimeException(ERROR_ITEM_NOT_CONTAINED);
+
+		return handle;
+
+	}
+
+	@Override
+	public String toString() {
+		return "SpatialItemQuadTree [" + tree + "]";
+	}
+
+}
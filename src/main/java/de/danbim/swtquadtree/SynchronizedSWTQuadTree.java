@@ -1,6 +1,9 @@
 package de.danbim.swtquadtree;
 
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
 
 import org.eclipse.swt.graphics.Rectangle;
 
@@ -15,6 +18,13 @@ import org.eclipse.swt.graphics.Rectangle;
  */
 class SynchronizedSWTQuadTree<T> extends SWTQuadTree<T> {
 
+	/**
+	 * Lock used to order the acquisition of two monitors in
+	 * {@link SynchronizedSWTQuadTree#join(ISWTQuadTree, JoinVisitor)} if their
+	 * identity hash codes are equal.
+	 */
+	private static final Object JOIN_TIE_LOCK = new Object();
+
 	public SynchronizedSWTQuadTree(int originX, int originY, int totalSideLength,
 			int minSideLength, int capacity) {
 		super(originX, originY, totalSideLength, minSideLength, capacity);
@@ -25,42 +35,149 @@ class SynchronizedSWTQuadTree<T> extends SWTQuadTree<T> {
 		super.clear();
 	};
 
+	@Override
+	synchronized void commitBatch(List<WriteBatch.Change<T>> changes) {
+		super.commitBatch(changes);
+	}
+
 	@Override
 	public synchronized boolean containsItem(T item, Rectangle itemBoundingBox) {
 		return super.containsItem(item, itemBoundingBox);
 	};
 
+	@Override
+	public synchronized ViewportQuery<T> createViewportQuery(Rectangle viewport) {
+		return super.createViewportQuery(viewport);
+	}
+
+	@Override
+	public synchronized int[] densityGrid(Rectangle area, int columns, int rows) {
+		return super.densityGrid(area, columns, rows);
+	}
+
 	@Override
 	public synchronized boolean equals(Object obj) {
 		return super.equals(obj);
 	}
 
+	@Override
+	public synchronized void forEachIntersectingPair(PairVisitor<T> visitor) {
+		super.forEachIntersectingPair(visitor);
+	}
+
+	@Override
+	public synchronized void forEachIntersectingPair(PairVisitor<T> visitor, ForkJoinPool pool) {
+		super.forEachIntersectingPair(visitor, pool);
+	}
+
+	@Override
+	public synchronized Rectangle getBoundingBox() {
+		return super.getBoundingBox();
+	}
+
 	@Override
 	public synchronized int getItemCount() {
 		return super.getItemCount();
 	}
 
+	@Override
+	public synchronized TreeStatistics getStatistics() {
+		return super.getStatistics();
+	}
+
 	@Override
 	public synchronized int hashCode() {
 		return super.hashCode();
 	}
 
+	@Override
+	public synchronized void insertBatch(List<T> items, List<Rectangle> boundingBoxes,
+			ForkJoinPool pool) {
+		super.insertBatch(items, boundingBoxes, pool);
+	}
+
 	@Override
 	public synchronized void insertItem(T item, Rectangle itemBoundingBox) {
 		super.insertItem(item, itemBoundingBox);
 	};
 
+	/**
+	 * Locks this tree and, if it is synchronized as well, the tree
+	 * <code>other</code>. The monitors are always acquired in the order of
+	 * their identity hash codes so that two threads joining the same trees in
+	 * opposite directions can't deadlock.
+	 */
+	@Override
+	public <U> void join(ISWTQuadTree<U> other, JoinVisitor<T, U> visitor) {
+
+		if (!(other instanceof SynchronizedSWTQuadTree) || other == this) {
+			synchronized (this) {
+				super.join(other, visitor);
+			}
+			return;
+		}
+
+		int hash = System.identityHashCode(this);
+		int otherHash = System.identityHashCode(other);
+		Object first = hash < otherHash ? this : other;
+		Object second = hash < otherHash ? other : this;
+
+		if (hash == otherHash) {
+			synchronized (JOIN_TIE_LOCK) {
+				synchronized (this) {
+					synchronized (other) {
+						super.join(other, visitor);
+					}
+				}
+			}
+			return;
+		}
+
+		synchronized (first) {
+			synchronized (second) {
+				super.join(other, visitor);
+			}
+		}
+
+	}
+
+	@Override
+	public synchronized void moveBatch(List<T> items, List<Rectangle> oldBoundingBoxes,
+			List<Rectangle> newBoundingBoxes, ForkJoinPool pool) {
+		super.moveBatch(items, oldBoundingBoxes, newBoundingBoxes, pool);
+	}
+
+	@Override
+	synchronized boolean moveItemInPlace(T item, Rectangle boundingBox, Rectangle newBoundingBox) {
+		return super.moveItemInPlace(item, boundingBox, newBoundingBox);
+	}
+
 	@Override
 	public synchronized void moveItem(T item, Rectangle oldItemBoundingBox,
 			Rectangle newItemBoundingBox) {
 		super.moveItem(item, oldItemBoundingBox, newItemBoundingBox);
 	};
 
+	@Override
+	public synchronized void raycast(int x0, int y0, int x1, int y1, ItemVisitor<T> visitor) {
+		super.raycast(x0, y0, x1, y1, visitor);
+	}
+
+	@Override
+	public synchronized int removeAll(Rectangle region, Predicate<T> filter) {
+		return super.removeAll(region, filter);
+	}
+
 	@Override
 	public synchronized void removeItem(T item, Rectangle itemBoundingBox) {
 		super.removeItem(item, itemBoundingBox);
 	};
 
+	@Override
+	public synchronized List<Cluster<T>> searchClusters(Rectangle region, int minCellSize) {
+		return super.searchClusters(region, minCellSize);
+	}
+
 	@Override
 	public synchronized Set<T> searchItems() {
 		return super.searchItems();
@@ -71,6 +188,48 @@ class SynchronizedSWTQuadTree<T> extends SWTQuadTree<T> {
 		return super.searchItems(boundingBox);
 	}
 
+	@Override
+	public synchronized Set<T> searchItems(Rectangle boundingBox, int limit) {
+		return super.searchItems(boundingBox, limit);
+	}
+
+	@Override
+	public synchronized List<T> searchItems(Rectangle boundingBox, int limit,
+			ItemPriority<T> priority) {
+		return super.searchItems(boundingBox, limit, priority);
+	}
+
+	@Override
+	public synchronized List<Set<T>> searchItems(List<Rectangle> boundingBoxes) {
+		return super.searchItems(boundingBoxes);
+	}
+
+	@Override
+	public synchronized void searchItems(Rectangle boundingBox, ItemVisitor<T> visitor) {
+		super.searchItems(boundingBox, visitor);
+	}
+
+	@Override
+	public synchronized List<List<T>> searchItemsByTile(Rectangle viewport, int tileSize) {
+		return super.searchItemsByTile(viewport, tileSize);
+	}
+
+	@Override
+	public synchronized Set<T> searchItemsInCircle(int centerX, int centerY, int radius) {
+		return super.searchItemsInCircle(centerX, centerY, radius);
+	}
+
+	@Override
+	public synchronized Set<T> searchItemsInPolygon(int[] pointArray) {
+		return super.searchItemsInPolygon(pointArray);
+	}
+
+	@Override
+	public synchronized RegionSubscription<T> subscribe(Rectangle region,
+			RegionListener<T> listener) {
+		return super.subscribe(region, listener);
+	}
+
 	@Override
 	public synchronized String toString() {
 		return super.toString();
@@ -0,0 +1,77 @@
+package de.danbim.swtquadtree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * Helper for {@link ISWTQuadTree#searchItemsByTile(Rectangle, int)}. Splits a
+ * viewport into square tiles and sorts the items found during a single
+ * traversal into one bucket per tile. The range of tiles an item intersects is
+ * computed arithmetically from its bounding box, so items spanning several
+ * tiles are still only looked at once.
+ * 
+ * @author Daniel Bimschas
+ * 
+ * @param <T>
+ *            the type of the items managed by the tree
+ */
+class TileBuckets<T> {
+
+	private final Rectangle viewport;
+
+	private final int tileSize;
+
+	private final int columns;
+
+	private final int rows;
+
+	private final List<List<T>> tiles;
+
+	public TileBuckets(Rectangle viewport, int tileSize) {
+
+		if (tileSize <= 0)
+			throw new RuntimeException("The tile size must be positive!");
+
+		this.viewport = viewport;
+		this.tileSize = tileSize;
+		this.columns = (viewport.width + tileSize - 1) / tileSize;
+		this.rows = (viewport.height + tileSize - 1) / tileSize;
+		this.tiles = new ArrayList<List<T>>(columns * rows);
+
+		for (int i = 0; i < columns * rows; i++)
+			tiles.add(new ArrayList<T>());
+
+	}
+
+	/**
+	 * Adds <code>item</code> to the buckets of all tiles its bounding box
+	 * intersects with, using the semantics of
+	 * {@link Rectangle#intersects(Rectangle)}.
+	 */
+	public void add(T item, int x, int y, int width, int height) {
+
+		int firstColumn = Math.max(0, Math.floorDiv(x - viewport.x, tileSize));
+		int lastColumn = Math.min(columns - 1, Math.floorDiv(x + width - viewport.x - 1, tileSize));
+		int firstRow = Math.max(0, Math.floorDiv(y - viewport.y, tileSize));
+		int lastRow = Math.min(rows - 1, Math.floorDiv(y + height - viewport.y - 1, tileSize));
+
+		for (int row = firstRow; row <= lastRow; row++)
+			for (int column = firstColumn; column <= lastColumn; column++)
+				tiles.get(row * columns + column).add(item);
+
+	}
+
+	public void add(T item, Rectangle boundingBox) {
+		add(item, boundingBox.x, boundingBox.y, boundingBox.width, boundingBox.height);
+	}
+
+	/**
+	 * Returns the buckets of all tiles in row-major order.
+	 */
+	public List<List<T>> getTiles() {
+		return tiles;
+	}
+
+}
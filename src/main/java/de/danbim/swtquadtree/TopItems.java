@@ -0,0 +1,100 @@
+package de.danbim.swtquadtree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * Helper for {@link ISWTQuadTree#searchItems(Rectangle, int, ItemPriority)}.
+ * Keeps the items with the highest priorities seen so far, up to a limit, in a
+ * heap whose head is the item with the lowest priority kept.
+ * 
+ * @author Daniel Bimschas
+ * 
+ * @param <T>
+ *            the type of the items managed by the tree
+ */
+class TopItems<T> {
+
+	private static class Ranked<K> {
+
+		final K item;
+
+		final int priority;
+
+		Ranked(K item, int priority) {
+			this.item = item;
+			this.priority = priority;
+		}
+
+	}
+
+	private static final Comparator<Ranked<?>> ASCENDING = new Comparator<Ranked<?>>() {
+		public int compare(Ranked<?> r1, Ranked<?> r2) {
+			return Integer.compare(r1.priority, r2.priority);
+		}
+	};
+
+	private final int limit;
+
+	private final PriorityQueue<Ranked<T>> heap;
+
+	public TopItems(int limit) {
+
+		if (limit < 0)
+			throw new RuntimeException("The limit must not be negative!");
+
+		this.limit = limit;
+		this.heap = new PriorityQueue<Ranked<T>>(Math.max(1, Math.min(limit, 64)), ASCENDING);
+
+	}
+
+	/**
+	 * Adds <code>item</code> if less than <code>limit</code> items are kept or
+	 * if its priority is higher than the lowest priority kept, which is
+	 * dropped in this case.
+	 */
+	public void add(T item, int priority) {
+
+		if (heap.size() < limit)
+			heap.add(new Ranked<T>(item, priority));
+
+		else if (limit > 0 && priority > heap.peek().priority) {
+			heap.poll();
+			heap.add(new Ranked<T>(item, priority));
+		}
+
+	}
+
+	/**
+	 * Returns the priority an item must exceed to still be added once
+	 * {@link #isFull()} returns <code>true</code>.
+	 */
+	public int getMinimumPriority() {
+		return heap.isEmpty() ? Integer.MAX_VALUE : heap.peek().priority;
+	}
+
+	/**
+	 * Returns the items kept, ordered by descending priority.
+	 */
+	public List<T> getItems() {
+
+		List<Ranked<T>> ranked = new ArrayList<Ranked<T>>(heap);
+		Collections.sort(ranked, Collections.reverseOrder(ASCENDING));
+
+		List<T> items = new ArrayList<T>(ranked.size());
+		for (Ranked<T> r : ranked)
+			items.add(r.item);
+		return items;
+
+	}
+
+	public boolean isFull() {
+		return heap.size() >= limit;
+	}
+
+}
@@ -0,0 +1,529 @@
+package de.danbim.swtquadtree;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * Replays a trace written by {@link RecordingSWTQuadTree} against any
+ * {@link ISWTQuadTree} implementation and reports the throughput and the
+ * latency percentiles of the operations. The trace is loaded into memory
+ * once, so that it can be replayed against several trees without reading it
+ * again and without measuring the decoding.
+ * 
+ * The operations are replayed one after the other as fast as possible, the
+ * pauses between them are not reproduced. Batch operations run in the common
+ * {@link ForkJoinPool}.
+ * 
+ * @author Daniel Bimschas
+ */
+public class TraceReplayer {
+
+	/**
+	 * The throughput and latencies of the operations of a replay, or of the
+	 * recording as returned by {@link TraceReplayer#getRecordedReport()}.
+	 */
+	public static class Report {
+
+		/**
+		 * The sorted latencies in nanoseconds, indexed by the operation codes.
+		 */
+		private final long[][] latencies;
+
+		private final long totalTime;
+
+		private final int operationCount;
+
+		Report(int[] operations, long[] latencies, int operationCount) {
+
+			this.operationCount = operationCount;
+			this.latencies = new long[RecordingSWTQuadTree.OPERATION_NAMES.length][];
+
+			int[] counts = new int[this.latencies.length];
+			for (int i = 0; i < operationCount; i++)
+				counts[operations[i]]++;
+			for (int operation = 0; operation < counts.length; operation++)
+				this.latencies[operation] = new long[counts[operation]];
+
+			long totalTime = 0;
+			Arrays.fill(counts, 0);
+			for (int i = 0; i < operationCount; i++) {
+				this.latencies[operations[i]][counts[operations[i]]++] = latencies[i];
+				totalTime += latencies[i];
+			}
+			this.totalTime = totalTime;
+
+			for (long[] operationLatencies : this.latencies)
+				Arrays.sort(operationLatencies);
+
+		}
+
+		/**
+		 * Returns the latency in nanoseconds that <code>percentile</code>
+		 * percent of the operations <code>operation</code> didn't exceed, 0
+		 * if there were none.
+		 * 
+		 * @param operation
+		 *            one of the operation codes of
+		 *            {@link RecordingSWTQuadTree}
+		 * @param percentile
+		 *            between 0 and 100
+		 */
+		public long getLatencyPercentile(int operation, double percentile) {
+
+			if (percentile < 0 || percentile > 100)
+				throw new RuntimeException("The percentile must be between 0 and 100!");
+
+			long[] operationLatencies = latencies[operation];
+			if (operationLatencies.length == 0)
+				return 0;
+
+			// nearest rank
+			int rank = (int) Math.ceil(percentile / 100 * operationLatencies.length);
+			return operationLatencies[Math.max(rank, 1) - 1];
+
+		}
+
+		public int getOperationCount() {
+			return operationCount;
+		}
+
+		/**
+		 * @param operation
+		 *            one of the operation codes of
+		 *            {@link RecordingSWTQuadTree}
+		 */
+		public int getOperationCount(int operation) {
+			return latencies[operation].length;
+		}
+
+		/**
+		 * Returns the operations per second, based on the time spent in the
+		 * operations only.
+		 */
+		public double getThroughput() {
+			return totalTime == 0 ? 0 : operationCount * 1e9 / totalTime;
+		}
+
+		/**
+		 * Returns the time spent in the operations in nanoseconds.
+		 */
+		public long getTotalTime() {
+			return totalTime;
+		}
+
+		/**
+		 * Lists the throughput and, for every operation that occurred, its
+		 * count and latency percentiles in microseconds.
+		 */
+		@Override
+		public String toString() {
+
+			StringBuilder builder = new StringBuilder();
+			builder.append(String.format("%d operations in %.1f ms, %.0f operations/s%n",
+					operationCount, totalTime / 1e6, getThroughput()));
+
+			for (int operation = 0; operation < latencies.length; operation++) {
+
+				if (latencies[operation].length == 0)
+					continue;
+
+				builder.append(String.format(
+						"  %-15s %8d  p50 %8.1f  p90 %8.1f  p99 %8.1f  max %8.1f us%n",
+						RecordingSWTQuadTree.OPERATION_NAMES[operation],
+						latencies[operation].length,
+						getLatencyPercentile(operation, 50) / 1e3,
+						getLatencyPercentile(operation, 90) / 1e3,
+						getLatencyPercentile(operation, 99) / 1e3,
+						getLatencyPercentile(operation, 100) / 1e3));
+
+			}
+
+			return builder.toString();
+
+		}
+
+	}
+
+	/**
+	 * The item replayed for an item of the trace.
+	 */
+	private static class TracedItem {
+
+		final int id;
+
+		TracedItem(int id) {
+			this.id = id;
+		}
+
+		@Override
+		public String toString() {
+			return "TracedItem [" + id + "]";
+		}
+
+	}
+
+	private static final ItemVisitor<Object> CONTINUE = new ItemVisitor<Object>() {
+		public boolean visit(Object item, Rectangle itemBoundingBox) {
+			return true;
+		}
+	};
+
+	private final Rectangle boundingBox;
+
+	/**
+	 * The codes of the operations in the order they were recorded.
+	 */
+	private int[] operations = new int[1024];
+
+	/**
+	 * The arguments of all operations one after the other, the rectangles
+	 * as x, y, width and height.
+	 */
+	private int[] arguments = new int[8192];
+
+	private long[] recordedLatencies = new long[1024];
+
+	private int operationCount;
+
+	private int argumentCount;
+
+	private int idCount;
+
+	/**
+	 * Loads the trace from <code>in</code>, which is read to its end but not
+	 * closed.
+	 * 
+	 * @throws RuntimeException
+	 *             if reading fails or the stream doesn't contain a trace
+	 */
+	public TraceReplayer(InputStream in) {
+
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+
+		try {
+
+			if (data.readInt() != RecordingSWTQuadTree.MAGIC
+					|| data.readByte() != RecordingSWTQuadTree.VERSION)
+				throw new RuntimeException("Not a trace of a supported version!");
+
+			boundingBox = new Rectangle(readVarInt(data), readVarInt(data), readVarInt(data),
+					readVarInt(data));
+
+			for (int operation = data.read(); operation != -1; operation = data.read())
+				readOperation(data, operation);
+
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+	}
+
+	private void readOperation(DataInputStream data, int operation) throws IOException {
+
+		if (operation >= RecordingSWTQuadTree.OPERATION_NAMES.length)
+			throw new RuntimeException("Unknown operation " + operation + "!");
+
+		if (operationCount == operations.length) {
+			operations = Arrays.copyOf(operations, operationCount * 2);
+			recordedLatencies = Arrays.copyOf(recordedLatencies, operationCount * 2);
+		}
+
+		// the time passed since the previous operation is not replayed
+		readVarLong(data);
+
+		operations[operationCount] = operation;
+		recordedLatencies[operationCount] = readVarLong(data);
+		operationCount++;
+
+		int count;
+
+		switch (operation) {
+
+		case RecordingSWTQuadTree.INSERT:
+		case RecordingSWTQuadTree.MOVE:
+			readId(data, operation == RecordingSWTQuadTree.INSERT);
+			readArguments(data, 4);
+			break;
+
+		case RecordingSWTQuadTree.INSERT_BATCH:
+		case RecordingSWTQuadTree.MOVE_BATCH:
+			count = readArguments(data, 1);
+			for (int i = 0; i < count; i++) {
+				readId(data, operation == RecordingSWTQuadTree.INSERT_BATCH);
+				readArguments(data, 4);
+			}
+			break;
+
+		case RecordingSWTQuadTree.REMOVE:
+			readId(data, false);
+			break;
+
+		case RecordingSWTQuadTree.SEARCH:
+		case RecordingSWTQuadTree.RAYCAST:
+			readArguments(data, 4);
+			break;
+
+		case RecordingSWTQuadTree.SEARCH_MULTI:
+			count = readArguments(data, 1);
+			for (int i = 0; i < count; i++)
+				readArguments(data, 4);
+			break;
+
+		case RecordingSWTQuadTree.SEARCH_CIRCLE:
+			readArguments(data, 3);
+			break;
+
+		case RecordingSWTQuadTree.SEARCH_POLYGON:
+			count = readArguments(data, 1);
+			for (int i = 0; i < count; i++)
+				readArguments(data, 1);
+			break;
+
+		case RecordingSWTQuadTree.SEARCH_CLUSTERS:
+			readArguments(data, 5);
+			break;
+
+		case RecordingSWTQuadTree.DENSITY_GRID:
+			readArguments(data, 6);
+			break;
+
+		}
+
+	}
+
+	private void readId(DataInputStream data, boolean inserted) throws IOException {
+
+		int id = readArguments(data, 1);
+		if (id < 0 || id > idCount || (inserted ? id != idCount : id == idCount))
+			throw new RuntimeException("Corrupt trace, unexpected item " + id + "!");
+		if (inserted)
+			idCount++;
+
+	}
+
+	/**
+	 * Reads <code>count</code> arguments.
+	 * 
+	 * @return the last argument read
+	 */
+	private int readArguments(DataInputStream data, int count) throws IOException {
+
+		if (argumentCount + count > arguments.length)
+			arguments = Arrays.copyOf(arguments, Math.max(arguments.length * 2, argumentCount
+					+ count));
+
+		for (int i = 0; i < count; i++)
+			arguments[argumentCount++] = readVarInt(data);
+
+		return arguments[argumentCount - 1];
+
+	}
+
+	private static long readVarLong(DataInputStream data) throws IOException {
+
+		long value = 0;
+
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = data.read();
+			if (b == -1)
+				throw new EOFException("Truncated trace!");
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+
+		throw new RuntimeException("Corrupt trace, malformed number!");
+
+	}
+
+	private static int readVarInt(DataInputStream data) throws IOException {
+
+		int value = (int) readVarLong(data);
+		return (value >>> 1) ^ -(value & 1);
+
+	}
+
+	/**
+	 * Returns the bounding box of the tree the trace was recorded on.
+	 */
+	public Rectangle getBoundingBox() {
+		return new Rectangle(boundingBox.x, boundingBox.y, boundingBox.width,
+				boundingBox.height);
+	}
+
+	public int getOperationCount() {
+		return operationCount;
+	}
+
+	/**
+	 * Returns the throughput and latencies of the operations as recorded.
+	 */
+	public Report getRecordedReport() {
+		return new Report(operations, recordedLatencies, operationCount);
+	}
+
+	/**
+	 * Replays the trace against <code>tree</code>, which must be empty and
+	 * should have the bounding box returned by {@link #getBoundingBox()}.
+	 * 
+	 * @throws RuntimeException
+	 *             if <code>tree</code> is not empty or if it fails to execute
+	 *             an operation
+	 */
+	public Report replay(ISWTQuadTree<Object> tree) {
+
+		if (tree.getItemCount() != 0)
+			throw new RuntimeException("The tree to replay the trace on must be empty!");
+
+		Object[] items = new Object[idCount];
+		Rectangle[] boundingBoxes = new Rectangle[idCount];
+		long[] latencies = new long[operationCount];
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+
+		int a = 0;
+		int count;
+		long start;
+
+		for (int i = 0; i < operationCount; i++) {
+
+			switch (operations[i]) {
+
+			case RecordingSWTQuadTree.CLEAR:
+				start = System.nanoTime();
+				tree.clear();
+				latencies[i] = System.nanoTime() - start;
+				Arrays.fill(items, null);
+				Arrays.fill(boundingBoxes, null);
+				break;
+
+			case RecordingSWTQuadTree.INSERT:
+				Object item = new TracedItem(arguments[a]);
+				Rectangle itemBoundingBox = rectangle(a + 1);
+				start = System.nanoTime();
+				tree.insertItem(item, itemBoundingBox);
+				latencies[i] = System.nanoTime() - start;
+				items[arguments[a]] = item;
+				boundingBoxes[arguments[a]] = itemBoundingBox;
+				a += 5;
+				break;
+
+			case RecordingSWTQuadTree.MOVE:
+				Rectangle newBoundingBox = rectangle(a + 1);
+				start = System.nanoTime();
+				tree.moveItem(items[arguments[a]], boundingBoxes[arguments[a]], newBoundingBox);
+				latencies[i] = System.nanoTime() - start;
+				boundingBoxes[arguments[a]] = newBoundingBox;
+				a += 5;
+				break;
+
+			case RecordingSWTQuadTree.INSERT_BATCH:
+			case RecordingSWTQuadTree.MOVE_BATCH:
+				count = arguments[a++];
+				List<Object> batchItems = new ArrayList<Object>(count);
+				List<Rectangle> oldBoundingBoxes = new ArrayList<Rectangle>(count);
+				List<Rectangle> newBoundingBoxes = new ArrayList<Rectangle>(count);
+				for (int j = 0; j < count; j++, a += 5) {
+					if (operations[i] == RecordingSWTQuadTree.INSERT_BATCH)
+						items[arguments[a]] = new TracedItem(arguments[a]);
+					batchItems.add(items[arguments[a]]);
+					oldBoundingBoxes.add(boundingBoxes[arguments[a]]);
+					newBoundingBoxes.add(boundingBoxes[arguments[a]] = rectangle(a + 1));
+				}
+				start = System.nanoTime();
+				if (operations[i] == RecordingSWTQuadTree.INSERT_BATCH)
+					tree.insertBatch(batchItems, newBoundingBoxes, pool);
+				else
+					tree.moveBatch(batchItems, oldBoundingBoxes, newBoundingBoxes, pool);
+				latencies[i] = System.nanoTime() - start;
+				break;
+
+			case RecordingSWTQuadTree.REMOVE:
+				start = System.nanoTime();
+				tree.removeItem(items[arguments[a]], boundingBoxes[arguments[a]]);
+				latencies[i] = System.nanoTime() - start;
+				items[arguments[a]] = null;
+				boundingBoxes[arguments[a]] = null;
+				a += 1;
+				break;
+
+			case RecordingSWTQuadTree.SEARCH:
+				Rectangle area = rectangle(a);
+				start = System.nanoTime();
+				tree.searchItems(area);
+				latencies[i] = System.nanoTime() - start;
+				a += 4;
+				break;
+
+			case RecordingSWTQuadTree.SEARCH_MULTI:
+				count = arguments[a++];
+				List<Rectangle> areas = new ArrayList<Rectangle>(count);
+				for (int j = 0; j < count; j++, a += 4)
+					areas.add(rectangle(a));
+				start = System.nanoTime();
+				tree.searchItems(areas);
+				latencies[i] = System.nanoTime() - start;
+				break;
+
+			case RecordingSWTQuadTree.SEARCH_CIRCLE:
+				start = System.nanoTime();
+				tree.searchItemsInCircle(arguments[a], arguments[a + 1], arguments[a + 2]);
+				latencies[i] = System.nanoTime() - start;
+				a += 3;
+				break;
+
+			case RecordingSWTQuadTree.SEARCH_POLYGON:
+				count = arguments[a++];
+				int[] pointArray = Arrays.copyOfRange(arguments, a, a + count);
+				start = System.nanoTime();
+				tree.searchItemsInPolygon(pointArray);
+				latencies[i] = System.nanoTime() - start;
+				a += count;
+				break;
+
+			case RecordingSWTQuadTree.RAYCAST:
+				start = System.nanoTime();
+				tree.raycast(arguments[a], arguments[a + 1], arguments[a + 2], arguments[a + 3],
+						CONTINUE);
+				latencies[i] = System.nanoTime() - start;
+				a += 4;
+				break;
+
+			case RecordingSWTQuadTree.SEARCH_CLUSTERS:
+				Rectangle region = rectangle(a);
+				start = System.nanoTime();
+				tree.searchClusters(region, arguments[a + 4]);
+				latencies[i] = System.nanoTime() - start;
+				a += 5;
+				break;
+
+			case RecordingSWTQuadTree.DENSITY_GRID:
+				Rectangle gridArea = rectangle(a);
+				start = System.nanoTime();
+				tree.densityGrid(gridArea, arguments[a + 4], arguments[a + 5]);
+				latencies[i] = System.nanoTime() - start;
+				a += 6;
+				break;
+
+			}
+
+		}
+
+		return new Report(operations, latencies, operationCount);
+
+	}
+
+	private Rectangle rectangle(int offset) {
+		return new Rectangle(arguments[offset], arguments[offset + 1], arguments[offset + 2],
+				arguments[offset + 3]);
+	}
+
+}
@@ -0,0 +1,31 @@
+package de.danbim.swtquadtree;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * Internal listener notified by {@link AbstractSWTQuadTree} implementations
+ * about every modification of the tree, used to implement stateful views on a
+ * tree like {@link ViewportQuery}. Listeners are called synchronously from the
+ * modifying method after the modification took place, except for
+ * {@link TreeListener#beforeClear()}.
+ * 
+ * @author Daniel Bimschas
+ * 
+ * @param <T>
+ *            the type of the items managed by the tree
+ */
+interface TreeListener<T> {
+
+	/**
+	 * Called before all items are removed from the tree, the tree can still be
+	 * searched for them.
+	 */
+	void beforeClear();
+
+	void itemInserted(T item, Rectangle boundingBox);
+
+	void itemMoved(T item, Rectangle oldBoundingBox, Rectangle newBoundingBox);
+
+	void itemRemoved(T item, Rectangle boundingBox);
+
+}
@@ -0,0 +1,176 @@
+package de.danbim.swtquadtree;
+
+import java.util.Arrays;
+
+/**
+ * A snapshot of the structure of an {@link ISWTQuadTree}, the number of nodes,
+ * leaves and items per depth together with the estimated memory usage, see
+ * {@link ISWTQuadTree#getStatistics()}.
+ * 
+ * @author Daniel Bimschas
+ */
+public class TreeStatistics {
+
+	private static final int NODES = 0;
+
+	private static final int LEAVES = 1;
+
+	private static final int OBJECTS = 2;
+
+	private static final int OVERFLOWS = 3;
+
+	private final MemoryUsage memoryUsage = new MemoryUsage();
+
+	/**
+	 * The counts per category and depth.
+	 */
+	private int[][] counts = new int[4][0];
+
+	private int depthCount;
+
+	TreeStatistics() {
+	}
+
+	/**
+	 * Adds a node on <code>depth</code> holding <code>objects</code> items
+	 * that fit into it and <code>overflows</code> items that don't.
+	 */
+	void addNode(int depth, boolean leaf, int objects, int overflows) {
+
+		add(depth, 1, leaf ? 1 : 0, objects, overflows);
+
+	}
+
+	/**
+	 * Adds <code>objects</code> items on <code>depth</code> without a node,
+	 * for trees without node objects.
+	 */
+	void addItems(int depth, int objects) {
+
+		add(depth, 0, 0, objects, 0);
+
+	}
+
+	/**
+	 * Adds all counts and bytes of <code>other</code>, moved down by
+	 * <code>depthOffset</code> levels.
+	 */
+	void add(TreeStatistics other, int depthOffset) {
+
+		for (int depth = 0; depth < other.depthCount; depth++)
+			add(depth + depthOffset, other.counts[NODES][depth], other.counts[LEAVES][depth],
+					other.counts[OBJECTS][depth], other.counts[OVERFLOWS][depth]);
+
+		memoryUsage.add(other.memoryUsage, depthOffset);
+
+	}
+
+	private void add(int depth, int nodes, int leaves, int objects, int overflows) {
+
+		if (depth >= depthCount) {
+			depthCount = depth + 1;
+			if (depthCount > counts[0].length)
+				for (int category = 0; category < counts.length; category++)
+					counts[category] = Arrays.copyOf(counts[category], Math.max(depthCount,
+							2 * counts[category].length));
+		}
+
+		counts[NODES][depth] += nodes;
+		counts[LEAVES][depth] += leaves;
+		counts[OBJECTS][depth] += objects;
+		counts[OVERFLOWS][depth] += overflows;
+
+	}
+
+	private int get(int category, int depth) {
+		return depth < depthCount ? counts[category][depth] : 0;
+	}
+
+	private int getTotal(int category) {
+
+		int total = 0;
+		for (int depth = 0; depth < depthCount; depth++)
+			total += counts[category][depth];
+		return total;
+
+	}
+
+	/**
+	 * Returns the number of depths, i.e. the depth of the deepest node plus
+	 * one.
+	 */
+	public int getDepthCount() {
+		return depthCount;
+	}
+
+	public int getNodeCount() {
+		return getTotal(NODES);
+	}
+
+	public int getNodeCount(int depth) {
+		return get(NODES, depth);
+	}
+
+	public int getLeafCount() {
+		return getTotal(LEAVES);
+	}
+
+	public int getLeafCount(int depth) {
+		return get(LEAVES, depth);
+	}
+
+	/**
+	 * Returns the number of items, including the overflows.
+	 */
+	public int getItemCount() {
+		return getTotal(OBJECTS) + getTotal(OVERFLOWS);
+	}
+
+	public int getItemCount(int depth) {
+		return get(OBJECTS, depth) + get(OVERFLOWS, depth);
+	}
+
+	/**
+	 * Returns the number of items that are kept as overflows because they
+	 * didn't fit into a child of their node or because the maximum resolution
+	 * was reached.
+	 */
+	public int getOverflowCount() {
+		return getTotal(OVERFLOWS);
+	}
+
+	public int getOverflowCount(int depth) {
+		return get(OVERFLOWS, depth);
+	}
+
+	/**
+	 * Returns the estimated memory usage of the tree, the same as returned by
+	 * {@link ISWTQuadTree#estimateMemoryUsage()}.
+	 */
+	public MemoryUsage getMemoryUsage() {
+		return memoryUsage;
+	}
+
+	/**
+	 * Lists the counts per depth and the memory usage.
+	 */
+	@Override
+	public String toString() {
+
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("%d nodes, %d leaves, %d items, %d overflows%n",
+				getNodeCount(), getLeafCount(), getItemCount(), getOverflowCount()));
+
+		builder.append(String.format("  %-6s %10s %10s %10s %10s%n", "depth", "nodes", "leaves",
+				"items", "overflows"));
+		for (int depth = 0; depth < depthCount; depth++)
+			builder.append(String.format("  %-6d %10d %10d %10d %10d%n", depth,
+					counts[NODES][depth], counts[LEAVES][depth], getItemCount(depth),
+					counts[OVERFLOWS][depth]));
+
+		builder.append(memoryUsage);
+		return builder.toString();
+
+	}
+
+}
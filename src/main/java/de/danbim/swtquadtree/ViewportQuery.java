@@ -0,0 +1,274 @@
+package de.danbim.swtquadtree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * Stateful search of the items visible in a viewport, created by
+ * {@link ISWTQuadTree#createViewportQuery(Rectangle)}. When the viewport is
+ * moved (e.g. when the user pans) only the items that entered and the items
+ * that left the viewport are determined, by searching only the strips of the
+ * viewport that were exposed or vacated. Modifications of the tree since the
+ * last update are tracked, so that items moved, inserted or removed in the
+ * area that stayed visible are accounted for as well.
+ * 
+ * A viewport query is bound to the thread-safety of its tree: it may be used
+ * concurrently to modifications of a thread-safe tree, otherwise it must be
+ * used from the thread modifying the tree. Call
+ * {@link ViewportQuery#dispose()} when it isn't needed anymore, the tree keeps
+ * track of its modifications until then.
+ * 
+ * @author Daniel Bimschas
+ * 
+ * @param <T>
+ *            the type of the items managed by the tree
+ */
+public class ViewportQuery<T> {
+
+	/**
+	 * Records the modifications of items whose old or new bounding box
+	 * intersects with the current viewport. Once an item is recorded all of
+	 * its following modifications are recorded as well so that the recorded
+	 * bounding box always is the current one.
+	 */
+	private final TreeListener<T> listener = new TreeListener<T>() {
+
+		public void beforeClear() {
+			for (T item : visibleItems)
+				changedItems.put(item, null);
+			for (Map.Entry<T, Rectangle> change : changedItems.entrySet())
+				change.setValue(null);
+		}
+
+		public void itemInserted(T item, Rectangle boundingBox) {
+			if (boundingBox.intersects(viewport) || changedItems.containsKey(item))
+				changedItems.put(item, boundingBox);
+		}
+
+		public void itemMoved(T item, Rectangle oldBoundingBox, Rectangle newBoundingBox) {
+			if (oldBoundingBox.intersects(viewport) || newBoundingBox.intersects(viewport)
+					|| changedItems.containsKey(item))
+				changedItems.put(item, newBoundingBox);
+		}
+
+		public void itemRemoved(T item, Rectangle boundingBox) {
+			if (boundingBox.intersects(viewport) || changedItems.containsKey(item))
+				changedItems.put(item, null);
+		}
+
+	};
+
+	/**
+	 * Returns the parts of <code>rectangle</code> that don't intersect with
+	 * <code>other</code> as up to four non-overlapping strips.
+	 */
+	static List<Rectangle> subtract(Rectangle rectangle, Rectangle other) {
+
+		List<Rectangle> strips = new ArrayList<Rectangle>(4);
+
+		if (!rectangle.intersects(other)) {
+			if (!rectangle.isEmpty())
+				strips.add(rectangle);
+			return strips;
+		}
+
+		int right = rectangle.x + rectangle.width;
+		int bottom = rectangle.y + rectangle.height;
+		int otherRight = other.x + other.width;
+		int otherBottom = other.y + other.height;
+
+		// strips above and below other, spanning the whole width
+		if (other.y > rectangle.y)
+			strips.add(new Rectangle(rectangle.x, rectangle.y, rectangle.width, other.y
+					- rectangle.y));
+		if (otherBottom < bottom)
+			strips.add(new Rectangle(rectangle.x, otherBottom, rectangle.width, bottom
+					- otherBottom));
+
+		// strips left and right of other, between the strips above and below
+		int top = Math.max(rectangle.y, other.y);
+		int height = Math.min(bottom, otherBottom) - top;
+		if (other.x > rectangle.x)
+			strips.add(new Rectangle(rectangle.x, top, other.x - rectangle.x, height));
+		if (otherRight < right)
+			strips.add(new Rectangle(otherRight, top, right - otherRight, height));
+
+		return strips;
+
+	}
+
+	private final AbstractSWTQuadTree<T> tree;
+
+	/**
+	 * The current viewport.
+	 */
+	private Rectangle viewport;
+
+	/**
+	 * The items currently visible in <code>viewport</code>.
+	 */
+	private final Set<T> visibleItems = new HashSet<T>();
+
+	/**
+	 * The items that entered the viewport during the last update.
+	 */
+	private final Set<T> enteredItems = new HashSet<T>();
+
+	/**
+	 * The items that left the viewport during the last update.
+	 */
+	private final Set<T> leftItems = new HashSet<T>();
+
+	/**
+	 * The items modified since the last update mapped to their current
+	 * bounding box, or to <code>null</code> if they were removed.
+	 */
+	private final Map<T, Rectangle> changedItems = new HashMap<T, Rectangle>();
+
+	ViewportQuery(AbstractSWTQuadTree<T> tree, Rectangle viewport) {
+
+		this.tree = tree;
+		this.viewport = new Rectangle(viewport.x, viewport.y, viewport.width, viewport.height);
+
+		// listen first so that no modification is missed by trees that search
+		// and modify concurrently
+		synchronized (tree) {
+			tree.addTreeListener(listener);
+			visibleItems.addAll(tree.searchItems(this.viewport));
+		}
+
+	}
+
+	/**
+	 * Stops tracking the modifications of the tree. The query must not be used
+	 * anymore afterwards.
+	 */
+	public void dispose() {
+
+		synchronized (tree) {
+			tree.removeTreeListener(listener);
+		}
+
+	}
+
+	/**
+	 * Returns the items that entered the viewport during the last call to
+	 * {@link ViewportQuery#update(Rectangle)}. The returned set is reused by
+	 * the next update.
+	 * 
+	 * @return the items that entered the viewport
+	 */
+	public Set<T> getEnteredItems() {
+		return enteredItems;
+	}
+
+	/**
+	 * Returns the items that left the viewport during the last call to
+	 * {@link ViewportQuery#update(Rectangle)}. The returned set is reused by
+	 * the next update.
+	 * 
+	 * @return the items that left the viewport
+	 */
+	public Set<T> getLeftItems() {
+		return leftItems;
+	}
+
+	/**
+	 * Returns a copy of the current viewport.
+	 * 
+	 * @return a copy of the current viewport
+	 */
+	public Rectangle getViewport() {
+		return new Rectangle(viewport.x, viewport.y, viewport.width, viewport.height);
+	}
+
+	/**
+	 * Returns the items that were visible in the viewport at the time of the
+	 * last update. The returned set must not be modified.
+	 * 
+	 * @return the items visible in the viewport
+	 */
+	public Set<T> getVisibleItems() {
+		return visibleItems;
+	}
+
+	/**
+	 * Moves the viewport to <code>newViewport</code> and determines the items
+	 * that entered and left it since the last update, either because the
+	 * viewport moved or because the tree was modified. Afterwards they can be
+	 * retrieved by {@link ViewportQuery#getEnteredItems()} and
+	 * {@link ViewportQuery#getLeftItems()}.
+	 * 
+	 * @param newViewport
+	 *            the new viewport, may be the same as the current one to only
+	 *            account for modifications of the tree
+	 * @return <code>true</code> if any item entered or left the viewport
+	 */
+	public boolean update(Rectangle newViewport) {
+
+		synchronized (tree) {
+
+			enteredItems.clear();
+			leftItems.clear();
+
+			Rectangle oldViewport = viewport;
+			viewport = new Rectangle(newViewport.x, newViewport.y, newViewport.width,
+					newViewport.height);
+			Rectangle treeBoundingBox = tree.getBoundingBox();
+
+			// items in the vacated strips that don't intersect the new viewport
+			// left it
+			ItemVisitor<T> vacatedVisitor = new ItemVisitor<T>() {
+				public boolean visit(T item, Rectangle boundingBox) {
+					if (!boundingBox.intersects(viewport) && visibleItems.remove(item))
+						leftItems.add(item);
+					return true;
+				}
+			};
+			for (Rectangle strip : subtract(oldViewport, viewport))
+				if (strip.intersects(treeBoundingBox))
+					tree.searchItems(strip, vacatedVisitor);
+
+			// all items in the exposed strips entered the viewport
+			ItemVisitor<T> exposedVisitor = new ItemVisitor<T>() {
+				public boolean visit(T item, Rectangle boundingBox) {
+					if (visibleItems.add(item))
+						enteredItems.add(item);
+					return true;
+				}
+			};
+			for (Rectangle strip : subtract(viewport, oldViewport))
+				if (strip.intersects(treeBoundingBox))
+					tree.searchItems(strip, exposedVisitor);
+
+			// modifications in the area that stayed visible
+			for (Map.Entry<T, Rectangle> change : changedItems.entrySet()) {
+
+				T item = change.getKey();
+				boolean visible = change.getValue() != null
+						&& change.getValue().intersects(viewport);
+
+				if (visible && visibleItems.add(item)) {
+					if (!leftItems.remove(item))
+						enteredItems.add(item);
+				} else if (!visible && visibleItems.remove(item)) {
+					if (!enteredItems.remove(item))
+						leftItems.add(item);
+				}
+
+			}
+			changedItems.clear();
+
+			return !enteredItems.isEmpty() || !leftItems.isEmpty();
+
+		}
+
+	}
+
+}
@@ -0,0 +1,212 @@
+package de.danbim.swtquadtree;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * A write session started by {@link ISWTQuadTree#beginBatch()}. Insertions,
+ * moves and removals are buffered and applied all at once by
+ * {@link WriteBatch#commit()}, which takes the lock of the tree once, checks
+ * the invariants once and restructures every affected node once instead of
+ * after every single modification. The tree is neither modified nor locked
+ * before the commit and readers see either none or all of the changes.
+ * 
+ * Only the net change of every item is applied, e.g. an item that is inserted
+ * and moved in the same batch is inserted at its final position. The listeners
+ * of the tree are notified about the net changes after the commit.
+ * 
+ * A batch must not be used by more than one thread at a time.
+ * 
+ * @author Daniel Bimschas
+ * 
+ * @param <T>
+ *            the type of the items managed by the tree
+ */
+public class WriteBatch<T> {
+
+	/**
+	 * The net change of a single item.
+	 */
+	static class Change<K> {
+
+		final K item;
+
+		/**
+		 * The bounding box the item has in the tree before the commit,
+		 * <code>null</code> if the item is inserted.
+		 */
+		final Rectangle oldBoundingBox;
+
+		/**
+		 * The bounding box the item has in the tree after the commit,
+		 * <code>null</code> if the item is removed.
+		 */
+		Rectangle newBoundingBox;
+
+		Change(K item, Rectangle oldBoundingBox, Rectangle newBoundingBox) {
+			this.item = item;
+			this.oldBoundingBox = oldBoundingBox;
+			this.newBoundingBox = newBoundingBox;
+		}
+
+	}
+
+	private static final String ERROR_ITEM_ALREADY_CONTAINED = "Item already inserted by this "
+			+ "batch.";
+
+	private static final String ERROR_ITEM_NOT_CONTAINED = "Item already removed by this batch.";
+
+	private final AbstractSWTQuadTree<T> tree;
+
+	/**
+	 * The changes in the order of the first modification of their items.
+	 */
+	private List<Change<T>> changes = new ArrayList<Change<T>>();
+
+	private final Map<T, Change<T>> changesByItem = new IdentityHashMap<T, Change<T>>();
+
+	WriteBatch(AbstractSWTQuadTree<T> tree) {
+		this.tree = tree;
+	}
+
+	/**
+	 * Returns the number of items changed by this batch.
+	 */
+	public int getChangeCount() {
+		return changes == null ? 0 : changes.size();
+	}
+
+	public boolean isOpen() {
+		return changes != null;
+	}
+
+	/**
+	 * Buffers the insertion of <code>item</code>, see
+	 * {@link ISWTQuadTree#insertItem(Object, Rectangle)}.
+	 * 
+	 * @throws RuntimeException
+	 *             if this batch already inserted or moved <code>item</code>
+	 *             or if it was committed
+	 */
+	public void insertItem(T item, Rectangle boundingBox) {
+
+		checkOpen();
+
+		Change<T> change = changesByItem.get(item);
+
+		if (change == null)
+			addChange(new Change<T>(item, null, boundingBox));
+		else if (change.newBoundingBox == null)
+			change.newBoundingBox = boundingBox;
+		else
+			throw new RuntimeException(ERROR_ITEM_ALREADY_CONTAINED);
+
+	}
+
+	/**
+	 * Buffers moving <code>item</code>, see
+	 * {@link ISWTQuadTree#moveItem(Object, Rectangle, Rectangle)}.
+	 * 
+	 * @throws RuntimeException
+	 *             if this batch already removed <code>item</code> or if it was
+	 *             committed
+	 */
+	public void moveItem(T item, Rectangle oldBoundingBox, Rectangle newBoundingBox) {
+
+		checkOpen();
+
+		Change<T> change = changesByItem.get(item);
+
+		if (change == null)
+			addChange(new Change<T>(item, oldBoundingBox, newBoundingBox));
+		else if (change.newBoundingBox != null)
+			change.newBoundingBox = newBoundingBox;
+		else
+			throw new RuntimeException(ERROR_ITEM_NOT_CONTAINED);
+
+	}
+
+	/**
+	 * Buffers the removal of <code>item</code>, see
+	 * {@link ISWTQuadTree#removeItem(Object, Rectangle)}.
+	 * 
+	 * @throws RuntimeException
+	 *             if this batch already removed <code>item</code> or if it was
+	 *             committed
+	 */
+	public void removeItem(T item, Rectangle boundingBox) {
+
+		checkOpen();
+
+		Change<T> change = changesByItem.get(item);
+
+		if (change == null)
+			addChange(new Change<T>(item, boundingBox, null));
+		else if (change.newBoundingBox != null)
+			change.newBoundingBox = null;
+		else
+			throw new RuntimeException(ERROR_ITEM_NOT_CONTAINED);
+
+	}
+
+	/**
+	 * Applies all buffered changes to the tree at once and closes this batch.
+	 * If an item to move or remove is not contained in the tree or an item to
+	 * insert is already contained at its bounding box, nothing is changed.
+	 * 
+	 * @throws RuntimeException
+	 *             if an item is not found, if an item to insert is already
+	 *             contained, if a bounding box doesn't intersect with the
+	 *             bounding box of the tree or if this batch was already
+	 *             committed
+	 */
+	public void commit() {
+
+		checkOpen();
+
+		List<Change<T>> committed = changes;
+		changes = null;
+		changesByItem.clear();
+
+		// changes cancelling each other out don't touch the tree
+		List<Change<T>> netChanges = new ArrayList<Change<T>>(committed.size());
+		for (Change<T> change : committed)
+			if (change.oldBoundingBox != null || change.newBoundingBox != null)
+				netChanges.add(change);
+
+		if (!netChanges.isEmpty())
+			tree.commitBatch(netChanges);
+
+	}
+
+	/**
+	 * Closes this batch without applying the buffered changes.
+	 */
+	public void discard() {
+
+		checkOpen();
+
+		changes = null;
+		changesByItem.clear();
+
+	}
+
+	private void addChange(Change<T> change) {
+
+		changes.add(change);
+		changesByItem.put(change.item, change);
+
+	}
+
+	private void checkOpen() {
+
+		if (changes == null)
+			throw new RuntimeException("The batch was already committed or discarded.");
+
+	}
+
+}
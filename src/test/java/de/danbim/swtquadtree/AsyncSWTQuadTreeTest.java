@@ -0,0 +1,192 @@
+package de.danbim.swtquadtree;
+
+import org.eclipse.swt.graphics.Rectangle;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class AsyncSWTQuadTreeTest {
+
+	private static final int width = QuadTreeTest.width;
+
+	private static final int upperLeftX = QuadTreeTest.upperLeftX;
+
+	private static final int upperLeftY = QuadTreeTest.upperLeftY;
+
+	@Test
+	public void testConcurrentSearches() throws Exception {
+
+		final ISWTQuadTree<TestingObject> reference = new ISWTQuadTree.Factory<TestingObject>()
+				.create(upperLeftX, upperLeftY, width, 16, 4);
+		final AsyncSWTQuadTree<TestingObject> asyncTree = new AsyncSWTQuadTree<TestingObject>(
+				new ISWTQuadTree.Factory<TestingObject>().create(upperLeftX, upperLeftY, width, 16,
+						4));
+
+		for (TestingObject item : QuadTreeTest.createRandomItems(2000, 11)) {
+			reference.insertItem(item, item.box);
+			asyncTree.insertItem(item, item.box);
+		}
+
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 8; t++) {
+
+			final long seed = t;
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+
+						Random rand = new Random(seed);
+						List<Rectangle> areas = new ArrayList<Rectangle>();
+						List<CompletableFuture<Set<TestingObject>>> futures;
+						futures = new ArrayList<CompletableFuture<Set<TestingObject>>>();
+
+						for (int i = 0; i < 500; i++) {
+							Rectangle area = new Rectangle(upperLeftX + rand.nextInt(width),
+									upperLeftY + rand.nextInt(width), rand.nextInt(100), rand
+											.nextInt(100));
+							areas.add(area);
+							futures.add(asyncTree.searchItemsAsync(area));
+						}
+
+						for (int i = 0; i < areas.size(); i++)
+							assertEquals(reference.searchItems(areas.get(i)), futures.get(i).get());
+
+						List<Set<TestingObject>> results = asyncTree.searchItemsAsync(areas).get();
+						for (int i = 0; i < areas.size(); i++)
+							assertEquals(reference.searchItems(areas.get(i)), results.get(i));
+
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+
+		}
+
+		// the reference tree is only read concurrently
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+
+		if (failure.get() != null)
+			throw new AssertionError(failure.get());
+
+	}
+
+	@Test
+	public void testInvalidSearchFailsAlone() throws Exception {
+
+		AsyncSWTQuadTree<TestingObject> asyncTree = new AsyncSWTQuadTree<TestingObject>(
+				new ISWTQuadTree.Factory<TestingObject>().create(upperLeftX, upperLeftY, width, 16,
+						4));
+		TestingObject item = new TestingObject(new Rectangle(0, 0, 10, 10));
+		asyncTree.insertItem(item, item.box);
+
+		CompletableFuture<Set<TestingObject>> invalid = asyncTree
+				.searchItemsAsync(new Rectangle(upperLeftX - 100, upperLeftY - 100, 10, 10));
+		CompletableFuture<Set<TestingObject>> valid = asyncTree.searchItemsAsync(new Rectangle(0,
+				0, 5, 5));
+
+		try {
+			invalid.get();
+			fail("the search outside of the tree must fail");
+		} catch (ExecutionException e) {
+			// expected
+		}
+		assertTrue(valid.get().contains(item));
+		assertEquals(1, asyncTree.getItemCount());
+
+	}
+
+	@Test
+	public void testSearchQueuedWhileLocked() throws Exception {
+
+		final AtomicReference<CountDownLatch> entered = new AtomicReference<CountDownLatch>();
+		final AtomicReference<CountDownLatch> release = new AtomicReference<CountDownLatch>();
+
+		// blocks the thread holding the lock of the facade while a gate is set
+		final AsyncSWTQuadTree<TestingObject> asyncTree = new AsyncSWTQuadTree<TestingObject>(
+				new SWTQuadTree<TestingObject>(upperLeftX, upperLeftY, width, 16, 4) {
+
+					private void block() {
+
+						CountDownLatch gate = release.get();
+						if (gate == null)
+							return;
+
+						entered.get().countDown();
+						try {
+							gate.await();
+						} catch (InterruptedException e) {
+							throw new RuntimeException(e);
+						}
+
+					}
+
+					@Override
+					public int getItemCount() {
+						block();
+						return super.getItemCount();
+					}
+
+					@Override
+					public void insertItem(TestingObject item, Rectangle boundingBox) {
+						block();
+						super.insertItem(item, boundingBox);
+					}
+
+				});
+
+		final TestingObject item = new TestingObject(new Rectangle(upperLeftX, upperLeftY, 10, 10));
+		asyncTree.insertItem(item, item.box);
+
+		// once reading the item count, once failing to insert the item again
+		for (int round = 0; round < 2; round++) {
+
+			final boolean failing = round == 1;
+			entered.set(new CountDownLatch(1));
+			release.set(new CountDownLatch(1));
+
+			Thread holder = new Thread() {
+				@Override
+				public void run() {
+					try {
+						if (failing)
+							asyncTree.insertItem(item, item.box);
+						else
+							asyncTree.getItemCount();
+					} catch (RuntimeException e) {
+						// expected for the duplicate item
+					}
+				}
+			};
+			holder.start();
+			entered.get().await();
+
+			CompletableFuture<Set<TestingObject>> future = asyncTree
+					.searchItemsAsync(new Rectangle(upperLeftX, upperLeftY, 5, 5));
+			assertFalse(future.isDone());
+
+			release.getAndSet(null).countDown();
+			holder.join();
+
+			assertTrue(future.get(2, TimeUnit.SECONDS).contains(item));
+
+		}
+
+	}
+
+}
@@ -0,0 +1,353 @@
+package de.danbim.swtquadtree;
+
+import org.eclipse.swt.graphics.Rectangle;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs all tests of {@link QuadTreeTest} against {@link ConcurrentSWTQuadTree}
+ * and checks that concurrent writers in different regions don't interfere.
+ */
+public class ConcurrentSWTQuadTreeTest extends QuadTreeTest {
+
+	@Override
+	protected ISWTQuadTree<TestingObject> createTree() {
+		return new ISWTQuadTree.Factory<TestingObject>().createConcurrent(upperLeftX, upperLeftY,
+				1024, 16, 1, 2);
+	}
+
+	@Test
+	public void testFailedMoveBetweenStripes() {
+
+		ISWTQuadTree<TestingObject> tree = createTree();
+		TestingObject item = new TestingObject(new Rectangle(upperLeftX + 10, upperLeftY + 10,
+				10, 10));
+		Rectangle otherBox = new Rectangle(upperLeftX + 300, upperLeftY + 10, 10, 10);
+
+		// the stripes don't know about each other, so the item can be
+		// inserted into both of them
+		tree.insertItem(item, item.box);
+		tree.insertItem(item, otherBox);
+
+		try {
+			tree.moveItem(item, item.box, otherBox);
+			fail("moving onto the item itself must fail");
+		} catch (RuntimeException e) {
+			// expected
+		}
+		assertTrue(tree.containsItem(item, item.box));
+		assertTrue(tree.containsItem(item, otherBox));
+
+		// an item not contained at its old bounding box is not inserted
+		TestingObject missing = new TestingObject(new Rectangle(upperLeftX + 20,
+				upperLeftY + 20, 10, 10));
+		Rectangle newBox = new Rectangle(upperLeftX + 600, upperLeftY + 600, 10, 10);
+		try {
+			tree.moveItem(missing, missing.box, newBox);
+			fail("moving a missing item must fail");
+		} catch (RuntimeException e) {
+			// expected
+		}
+		assertFalse(tree.containsItem(missing, newBox));
+		assertEquals(2, tree.getItemCount());
+
+	}
+
+	@Test(timeout = 60000)
+	public void testJoinWithItselfWhileMoving() throws Exception {
+
+		final ISWTQuadTree<TestingObject> tree = createTree();
+		final List<TestingObject> items = createRandomItems(300, 21);
+		for (TestingObject item : items)
+			tree.insertItem(item, item.box);
+
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		// moves the first half of the items across the borders of the stripes,
+		// the other half stays where it is
+		Thread mover = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Random rand = new Random(21);
+					while (!done.get()) {
+						TestingObject item = items.get(rand.nextInt(items.size() / 2));
+						Rectangle oldBox = item.box;
+						item.box = new Rectangle(upperLeftX + rand.nextInt(width - 20), upperLeftY
+								+ rand.nextInt(height - 20), oldBox.width, oldBox.height);
+						tree.moveItem(item, oldBox, item.box);
+					}
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			}
+		};
+		mover.start();
+
+		try {
+			for (int i = 0; i < 200; i++) {
+
+				final Set<TestingObject> joined = new HashSet<TestingObject>();
+				tree.join(tree, new JoinVisitor<TestingObject, TestingObject>() {
+					public void visit(TestingObject item, TestingObject otherItem) {
+						if (item == otherItem)
+							joined.add(item);
+					}
+				});
+
+				// items moved while joining may be missed, but not the others
+				assertTrue(joined.containsAll(items.subList(items.size() / 2, items.size())));
+
+			}
+		} finally {
+			done.set(true);
+			mover.join();
+		}
+
+		if (failure.get() != null)
+			throw new AssertionError(failure.get());
+
+	}
+
+	@Test
+	public void testIndexOf() {
+
+		ConcurrentSWTQuadTree<TestingObject> tree = new ConcurrentSWTQuadTree<TestingObject>(0,
+				0, 1024, 16, 4, 2);
+
+		assertEquals(0, tree.indexOf(new Rectangle(0, 0, 10, 10)));
+		assertEquals(5, tree.indexOf(new Rectangle(256, 256, 255, 255)));
+		assertEquals(15, tree.indexOf(new Rectangle(1000, 1000, 10, 10)));
+
+		// straddling two stripes or leaving the tree
+		assertEquals(16, tree.indexOf(new Rectangle(250, 0, 10, 10)));
+		assertEquals(16, tree.indexOf(new Rectangle(0, 0, 256, 10)));
+		assertEquals(16, tree.indexOf(new Rectangle(-5, 0, 10, 10)));
+		assertEquals(16, tree.indexOf(new Rectangle(1020, 0, 10, 10)));
+
+	}
+
+	@Test
+	public void testClearWhileInserting() throws Exception {
+
+		final ISWTQuadTree<TestingObject> tree = createTree();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final AtomicBoolean stop = new AtomicBoolean();
+
+		// every item entering the region must leave it again when cleared
+		final Set<TestingObject> inside = Collections.synchronizedSet(new HashSet<TestingObject>());
+		RegionSubscription<TestingObject> subscription = tree.subscribe(tree.getBoundingBox(),
+				new RegionListener<TestingObject>() {
+
+					public void itemEntered(TestingObject item, Rectangle boundingBox) {
+						inside.add(item);
+					}
+
+					public void itemLeft(TestingObject item, Rectangle boundingBox) {
+						inside.remove(item);
+					}
+
+					public void itemMoved(TestingObject item, Rectangle oldBoundingBox,
+							Rectangle newBoundingBox) {
+					}
+
+				});
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 3; t++) {
+
+			final long seed = t;
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						Random rand = new Random(seed);
+						while (!stop.get()) {
+							TestingObject item = new TestingObject(new Rectangle(upperLeftX
+									+ rand.nextInt(width - 50), upperLeftY
+									+ rand.nextInt(height - 50), 1 + rand.nextInt(40), 1 + rand
+									.nextInt(40)));
+							tree.insertItem(item, item.box);
+						}
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+
+		}
+
+		for (Thread thread : threads)
+			thread.start();
+		for (int i = 0; i < 200; i++) {
+			tree.clear();
+			Thread.yield();
+		}
+		stop.set(true);
+		for (Thread thread : threads)
+			thread.join();
+
+		if (failure.get() != null)
+			throw new AssertionError(failure.get());
+
+		assertEquals(tree.searchItems(), inside);
+		subscription.cancel();
+
+	}
+
+	@Test
+	public void testConcurrentCachedQueries() throws Exception {
+
+		final ISWTQuadTree<TestingObject> tree = createTree();
+		final List<TestingObject> items = QuadTreeTest.createRandomItems(2000, 41);
+		for (TestingObject item : items)
+			tree.insertItem(item, item.box);
+
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+
+		// readers of different priorities replace the cached priorities of
+		// each other while others compute the cached item counts
+		for (int t = 0; t < 4; t++) {
+
+			final int modulo = 3 + t;
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+
+						ItemPriority<TestingObject> priority = new ItemPriority<TestingObject>() {
+							public int getPriority(TestingObject item) {
+								return item.id % modulo;
+							}
+						};
+
+						Random rand = new Random(modulo);
+						for (int i = 0; i < 300; i++) {
+
+							Rectangle area = new Rectangle(upperLeftX + rand.nextInt(width / 2),
+									upperLeftY + rand.nextInt(height / 2), 1 + rand.nextInt(width),
+									1 + rand.nextInt(height));
+
+							List<Integer> expected = new ArrayList<Integer>();
+							for (TestingObject item : items)
+								if (item.box.intersects(area))
+									expected.add(priority.getPriority(item));
+							Collections.sort(expected, Collections.reverseOrder());
+							expected = expected.subList(0, Math.min(10, expected.size()));
+
+							List<Integer> actual = new ArrayList<Integer>();
+							for (TestingObject item : tree.searchItems(area, 10, priority))
+								actual.add(priority.getPriority(item));
+							assertEquals(expected, actual);
+
+							int count = 0;
+							for (int cellCount : tree.densityGrid(tree.getBoundingBox(), 1, 1))
+								count += cellCount;
+							assertEquals(items.size(), count);
+
+						}
+
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+
+		}
+
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+
+		if (failure.get() != null)
+			throw new AssertionError(failure.get());
+
+	}
+
+	@Test
+	public void testConcurrentWriters() throws Exception {
+
+		final ISWTQuadTree<TestingObject> tree = createTree();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final int regionSize = width / 2;
+		List<Thread> threads = new ArrayList<Thread>();
+		final List<List<TestingObject>> itemsByThread = new ArrayList<List<TestingObject>>();
+
+		// every worker owns one quarter of the map, some of its items cross
+		// the borders of the stripes and of the quarter
+		for (int t = 0; t < 4; t++) {
+
+			final int regionX = upperLeftX + (t % 2) * regionSize;
+			final int regionY = upperLeftY + (t / 2) * regionSize;
+			final long seed = t;
+			final List<TestingObject> items = new ArrayList<TestingObject>();
+			itemsByThread.add(items);
+
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+
+						Random rand = new Random(seed);
+						for (int i = 0; i < 300; i++) {
+							TestingObject item = new TestingObject(new Rectangle(regionX
+									+ rand.nextInt(regionSize), regionY + rand.nextInt(regionSize),
+									1 + rand.nextInt(40), 1 + rand.nextInt(40)));
+							items.add(item);
+							tree.insertItem(item, item.box);
+						}
+
+						for (int round = 0; round < 5000; round++) {
+
+							TestingObject item = items.get(rand.nextInt(items.size()));
+							Rectangle oldBox = item.box;
+							item.box = new Rectangle(regionX + rand.nextInt(regionSize), regionY
+									+ rand.nextInt(regionSize), oldBox.width, oldBox.height);
+							tree.moveItem(item, oldBox, item.box);
+
+							assertTrue(tree.containsItem(item, item.box));
+							assertTrue(tree.searchItems(item.box).contains(item));
+
+						}
+
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+
+		}
+
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+
+		if (failure.get() != null)
+			throw new AssertionError(failure.get());
+
+		Set<TestingObject> all = new HashSet<TestingObject>();
+		for (List<TestingObject> items : itemsByThread)
+			all.addAll(items);
+
+		assertEquals(all.size(), tree.getItemCount());
+		assertEquals(all, tree.searchItems());
+		for (TestingObject item : all)
+			assertTrue(tree.containsItem(item, item.box));
+
+	}
+
+}
@@ -0,0 +1,245 @@
+package de.danbim.swtquadtree;
+
+import org.eclipse.swt.graphics.Rectangle;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class DoubleBufferedSWTQuadTreeTest {
+
+	private static final int width = QuadTreeTest.width;
+
+	private static final int upperLeftX = QuadTreeTest.upperLeftX;
+
+	private static final int upperLeftY = QuadTreeTest.upperLeftY;
+
+	private DoubleBufferedSWTQuadTree<TestingObject> createTree() {
+		return new ISWTQuadTree.Factory<TestingObject>().createDoubleBuffered(upperLeftX,
+				upperLeftY, width, 16, 4);
+	}
+
+	@Test
+	public void testSwap() {
+
+		DoubleBufferedSWTQuadTree<TestingObject> tree = createTree();
+		TestingObject item1 = new TestingObject(new Rectangle(upperLeftX, upperLeftY, 5, 5));
+		TestingObject item2 = new TestingObject(new Rectangle(0, 0, 5, 5));
+
+		tree.insertItem(item1, item1.box);
+		tree.insertItem(item2, item2.box);
+
+		// nothing is visible before the swap
+		assertEquals(0, tree.getItemCount());
+		assertTrue(tree.searchItems().isEmpty());
+
+		tree.swap();
+		assertEquals(2, tree.getItemCount());
+		assertTrue(tree.containsItem(item1, item1.box));
+
+		Rectangle newBox = new Rectangle(100, 100, 5, 5);
+		tree.moveItem(item1, item1.box, newBox);
+		tree.removeItem(item2, item2.box);
+
+		// the front tree is still the one published by the first swap
+		assertEquals(2, tree.getItemCount());
+		assertTrue(tree.containsItem(item2, item2.box));
+		assertTrue(tree.searchItems(newBox).isEmpty());
+
+		tree.swap();
+		assertEquals(1, tree.getItemCount());
+		assertTrue(tree.containsItem(item1, newBox));
+		assertTrue(tree.searchItems(item2.box).isEmpty());
+
+		// the former front tree caught up with the first swap
+		tree.swap();
+		assertEquals(1, tree.getItemCount());
+		assertTrue(tree.containsItem(item1, newBox));
+
+		tree.clear();
+		assertEquals(1, tree.getItemCount());
+		tree.swap();
+		assertEquals(0, tree.getItemCount());
+		tree.swap();
+		assertEquals(0, tree.getItemCount());
+
+	}
+
+	@Test
+	public void testSwapRandomized() {
+
+		DoubleBufferedSWTQuadTree<TestingObject> tree = createTree();
+		ISWTQuadTree<TestingObject> reference = new ISWTQuadTree.Factory<TestingObject>().create(
+				upperLeftX, upperLeftY, width, 16, 4);
+
+		Random rand = new Random(3);
+		List<TestingObject> items = new ArrayList<TestingObject>(QuadTreeTest.createRandomItems(
+				500, 5));
+		List<SpatialHandle<TestingObject>> handles = new ArrayList<SpatialHandle<TestingObject>>();
+
+		for (TestingObject item : items) {
+			tree.insertItem(item, item.box);
+			reference.insertItem(item, item.box);
+		}
+		tree.swap();
+
+		for (int frame = 0; frame < 30; frame++) {
+
+			Set<TestingObject> published = reference.searchItems();
+
+			for (int i = 0; i < 100; i++) {
+
+				if (rand.nextInt(10) == 0 && !items.isEmpty()) {
+
+					TestingObject item = items.remove(rand.nextInt(items.size()));
+					tree.removeItem(item, item.box);
+					reference.removeItem(item, item.box);
+
+				} else if (rand.nextInt(10) == 0) {
+
+					TestingObject item = new TestingObject(new Rectangle(upperLeftX
+							+ rand.nextInt(width - 10), upperLeftY + rand.nextInt(width - 10), 5,
+							5));
+					SpatialHandle<TestingObject> handle = tree.insertItem(item, item.box.x,
+							item.box.y, item.box.width, item.box.height);
+					reference.insertItem(item, handle.getBoundingBox());
+					handles.add(handle);
+
+				} else if (!handles.isEmpty() && rand.nextBoolean()) {
+
+					// handles reuse their bounding boxes
+					SpatialHandle<TestingObject> handle = handles.get(rand.nextInt(handles.size()));
+					Rectangle oldBox = handle.getBoundingBox();
+					handle.update(upperLeftX + rand.nextInt(width - 10), upperLeftY
+							+ rand.nextInt(width - 10), 5, 5);
+					reference.moveItem(handle.getItem(), oldBox, handle.getBoundingBox());
+
+				} else if (!items.isEmpty()) {
+
+					TestingObject item = items.get(rand.nextInt(items.size()));
+					Rectangle newBox = new Rectangle(item.box.x + rand.nextInt(21) - 10,
+							item.box.y + rand.nextInt(21) - 10, item.box.width, item.box.height);
+					if (!tree.getBoundingBox().intersects(newBox))
+						continue;
+					tree.moveItem(item, item.box, newBox);
+					reference.moveItem(item, item.box, newBox);
+					item.box = newBox;
+
+				}
+
+			}
+
+			if (frame % 10 == 9) {
+				WriteBatch<TestingObject> batch = tree.beginBatch();
+				for (TestingObject item : items.subList(0, 10)) {
+					Rectangle newBox = new Rectangle(item.box.x + 3, item.box.y + 3,
+							item.box.width, item.box.height);
+					batch.moveItem(item, item.box, newBox);
+					reference.moveItem(item, item.box, newBox);
+					item.box = newBox;
+				}
+				batch.commit();
+			}
+
+			assertEquals(published, tree.searchItems());
+
+			tree.swap();
+
+			assertEquals(reference.getItemCount(), tree.getItemCount());
+			assertEquals(reference.searchItems(), tree.searchItems());
+			for (int i = 0; i < 20; i++) {
+				Rectangle area = new Rectangle(upperLeftX + rand.nextInt(width), upperLeftY
+						+ rand.nextInt(width), rand.nextInt(200), rand.nextInt(200));
+				assertEquals(reference.searchItems(area), tree.searchItems(area));
+			}
+
+		}
+
+	}
+
+	/**
+	 * A reader searching continuously while the writer removes and inserts all
+	 * items in every frame must always see complete frames, also with the
+	 * queries caching counts and priorities in the nodes of the front tree.
+	 */
+	@Test
+	public void testConcurrentReaders() throws Exception {
+
+		final DoubleBufferedSWTQuadTree<TestingObject> tree = createTree();
+		final List<TestingObject> items = QuadTreeTest.createRandomItems(200, 7);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final int frameCnt = 500;
+		final Rectangle area = tree.getBoundingBox();
+		final ItemPriority<TestingObject> priority = new ItemPriority<TestingObject>() {
+			public int getPriority(TestingObject item) {
+				return item.box.x;
+			}
+		};
+
+		List<Thread> readers = new ArrayList<Thread>();
+		for (int t = 0; t < 3; t++) {
+			readers.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+
+						Set<TestingObject> all = new HashSet<TestingObject>(items);
+						while (tree.getItemCount() == 0)
+							Thread.yield();
+
+						for (int i = 0; i < 2000; i++) {
+
+							Set<TestingObject> found = tree.searchItems();
+							assertTrue(found.isEmpty() || found.equals(all));
+
+							int count = tree.densityGrid(area, 1, 1)[0];
+							assertTrue(count == 0 || count == all.size());
+
+							count = 0;
+							for (Cluster<TestingObject> cluster : tree.searchClusters(area, 64))
+								count += cluster.getCount();
+							assertTrue(count == 0 || count == all.size());
+
+							count = tree.searchItems(area, all.size(), priority).size();
+							assertTrue(count == 0 || count == all.size());
+
+						}
+
+					} catch (Throwable t) {
+						failure.compareAndSet(null, t);
+					}
+				}
+			});
+		}
+
+		for (Thread reader : readers)
+			reader.start();
+
+		for (int frame = 0; frame < frameCnt; frame++) {
+
+			if (frame % 2 == 0)
+				for (TestingObject item : items)
+					tree.insertItem(item, item.box);
+			else
+				for (TestingObject item : items)
+					tree.removeItem(item, item.box);
+
+			tree.swap();
+
+		}
+
+		for (Thread reader : readers)
+			reader.join();
+
+		if (failure.get() != null)
+			throw new AssertionError(failure.get());
+
+	}
+
+}
@@ -0,0 +1,162 @@
+package de.danbim.swtquadtree;
+
+import org.eclipse.swt.graphics.Rectangle;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+import static org.junit.Assert.*;
+
+public class IntQuadTreeTest {
+
+	private static final int width = QuadTreeTest.width;
+
+	private static final int upperLeftX = QuadTreeTest.upperLeftX;
+
+	private static final int upperLeftY = QuadTreeTest.upperLeftY;
+
+	private static Set<Integer> ids(Set<TestingObject> items) {
+
+		Set<Integer> ids = new HashSet<Integer>();
+		for (TestingObject item : items)
+			ids.add(item.id);
+		return ids;
+
+	}
+
+	private static Set<Integer> search(IntQuadTree tree, Rectangle area) {
+
+		final Set<Integer> found = new HashSet<Integer>();
+		tree.searchItems(area.x, area.y, area.width, area.height, new IntConsumer() {
+			public void accept(int id) {
+				assertTrue(found.add(id));
+			}
+		});
+
+		// the buffer variant must find the same ids
+		int[] buffer = new int[found.size()];
+		assertEquals(found.size(), tree.searchItems(area.x, area.y, area.width, area.height,
+				buffer));
+		Set<Integer> buffered = new HashSet<Integer>();
+		for (int id : buffer)
+			buffered.add(id);
+		assertEquals(found, buffered);
+
+		return found;
+
+	}
+
+	@Test
+	public void testAgainstSWTQuadTree() {
+
+		ISWTQuadTree<TestingObject> reference = new ISWTQuadTree.Factory<TestingObject>()
+				.create(upperLeftX, upperLeftY, width, 16, 4);
+		IntQuadTree tree = new IntQuadTree(upperLeftX, upperLeftY, width, 16, 4);
+
+		List<TestingObject> items = QuadTreeTest.createRandomItems(2000, 13);
+		for (TestingObject item : items) {
+			reference.insertItem(item, item.box);
+			tree.insertItem(item.id, item.box.x, item.box.y, item.box.width, item.box.height);
+		}
+
+		assertEquals(reference.getItemCount(), tree.getItemCount());
+
+		Random rand = new Random(13);
+		List<TestingObject> removed = new ArrayList<TestingObject>();
+
+		for (int round = 0; round < 20; round++) {
+
+			for (TestingObject item : items) {
+
+				if (removed.contains(item))
+					continue;
+
+				Rectangle box = item.box;
+
+				if (rand.nextInt(20) == 0) {
+
+					reference.removeItem(item, box);
+					tree.removeItem(item.id, box.x, box.y, box.width, box.height);
+					assertFalse(tree.containsItem(item.id, box.x, box.y, box.width, box.height));
+					removed.add(item);
+
+				} else {
+
+					Rectangle newBox = new Rectangle(box.x + rand.nextInt(41) - 20, box.y
+							+ rand.nextInt(41) - 20, box.width, box.height);
+					reference.moveItem(item, box, newBox);
+					tree.moveItem(item.id, box.x, box.y, box.width, box.height, newBox.x,
+							newBox.y, newBox.width, newBox.height);
+					item.box = newBox;
+					assertTrue(tree.containsItem(item.id, newBox.x, newBox.y, newBox.width,
+							newBox.height));
+
+				}
+
+			}
+
+			assertEquals(reference.getItemCount(), tree.getItemCount());
+
+			for (int i = 0; i < 50; i++) {
+				Rectangle area = new Rectangle(upperLeftX + rand.nextInt(width), upperLeftY
+						+ rand.nextInt(width), rand.nextInt(200), rand.nextInt(200));
+				assertEquals(ids(reference.searchItems(area)), search(tree, area));
+			}
+
+		}
+
+		assertEquals(ids(reference.searchItems()), search(tree, tree.getBoundingBox()));
+
+		tree.clear();
+		assertEquals(0, tree.getItemCount());
+		assertTrue(search(tree, tree.getBoundingBox()).isEmpty());
+
+	}
+
+	@Test
+	public void testInsertTwice() {
+
+		IntQuadTree tree = new IntQuadTree(upperLeftX, upperLeftY, width, 16, 4);
+		tree.insertItem(1, 0, 0, 5, 5);
+
+		try {
+			tree.insertItem(1, 0, 0, 5, 5);
+			fail();
+		} catch (RuntimeException expected) {
+		}
+
+		assertEquals(1, tree.getItemCount());
+
+		try {
+			tree.removeItem(2, 0, 0, 5, 5);
+			fail();
+		} catch (RuntimeException expected) {
+		}
+
+	}
+
+	@Test
+	public void testSearchItemsSmallBuffer() {
+
+		IntQuadTree tree = new IntQuadTree(upperLeftX, upperLeftY, width, 16, 1);
+		for (int i = 0; i < 10; i++)
+			tree.insertItem(i, i * 10, i * 10, 5, 5);
+
+		int[] buffer = new int[4];
+		assertEquals(10, tree.searchItems(0, 0, 100, 100, buffer));
+
+		Set<Integer> found = new HashSet<Integer>();
+		for (int id : buffer) {
+			assertTrue(id >= 0 && id < 10);
+			found.add(id);
+		}
+		assertEquals(4, found.size());
+
+	}
+
+}
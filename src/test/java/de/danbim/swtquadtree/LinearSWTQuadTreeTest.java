@@ -0,0 +1,84 @@
+package de.danbim.swtquadtree;
+
+import org.eclipse.swt.graphics.Rectangle;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs all tests of {@link QuadTreeTest} against {@link LinearSWTQuadTree} and
+ * compares it to {@link SWTQuadTree} on random operations.
+ */
+public class LinearSWTQuadTreeTest extends QuadTreeTest {
+
+	@Override
+	protected ISWTQuadTree<TestingObject> createTree() {
+		return new ISWTQuadTree.Factory<TestingObject>().createLinear(upperLeftX, upperLeftY, 1024,
+				16);
+	}
+
+	@Test
+	public void testSameResultsAsSWTQuadTree() {
+
+		ISWTQuadTree<TestingObject> linearTree = createTree();
+		ISWTQuadTree<TestingObject> nodeTree = new ISWTQuadTree.Factory<TestingObject>().create(
+				upperLeftX, upperLeftY, 1024, 16, 4);
+
+		List<TestingObject> items = createRandomItems(1000, 7);
+		for (TestingObject item : items) {
+			linearTree.insertItem(item, item.box);
+			nodeTree.insertItem(item, item.box);
+		}
+
+		Random rand = new Random(7);
+		for (int round = 0; round < 2000; round++) {
+
+			TestingObject item = items.get(rand.nextInt(items.size()));
+			Rectangle oldBox = item.box;
+			item.box = new Rectangle(oldBox.x + rand.nextInt(41) - 20, oldBox.y
+					+ rand.nextInt(41) - 20, oldBox.width, oldBox.height);
+
+			if (!linearTree.getBoundingBox().intersects(item.box)) {
+				item.box = oldBox;
+				continue;
+			}
+
+			linearTree.moveItem(item, oldBox, item.box);
+			nodeTree.moveItem(item, oldBox, item.box);
+
+			Rectangle area = new Rectangle(upperLeftX + rand.nextInt(width), upperLeftY
+					+ rand.nextInt(height), rand.nextInt(300), rand.nextInt(300));
+			assertEquals(nodeTree.searchItems(area), linearTree.searchItems(area));
+
+		}
+
+		for (int i = 0; i < items.size(); i += 3) {
+			linearTree.removeItem(items.get(i), items.get(i).box);
+			nodeTree.removeItem(items.get(i), items.get(i).box);
+		}
+
+		assertEquals(nodeTree.getItemCount(), linearTree.getItemCount());
+		assertEquals(nodeTree.searchItems(), linearTree.searchItems());
+
+		for (TestingObject item : items)
+			assertEquals(nodeTree.containsItem(item, item.box),
+					linearTree.containsItem(item, item.box));
+
+	}
+
+	@Test
+	public void testMortonOrder() {
+
+		assertEquals(0, LinearSWTQuadTree.morton(0, 0));
+		assertEquals(1, LinearSWTQuadTree.morton(1, 0));
+		assertEquals(2, LinearSWTQuadTree.morton(0, 1));
+		assertEquals(3, LinearSWTQuadTree.morton(1, 1));
+		assertEquals(4, LinearSWTQuadTree.morton(2, 0));
+		assertEquals(15, LinearSWTQuadTree.morton(3, 3));
+
+	}
+
+}
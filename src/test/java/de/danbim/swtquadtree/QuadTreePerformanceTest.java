@@ -5,9 +5,14 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -45,6 +50,830 @@ public class QuadTreePerformanceTest {
 		manyItemsTestInternal(100, 100);
 	}
 
+	@Test
+	public void readHeavyEngineComparison() {
+
+		ISWTQuadTree.Factory<TestingObject> factory = new ISWTQuadTree.Factory<TestingObject>();
+
+		readHeavyTestInternal("SWTQuadTree", factory.create(upperLeftX, upperLeftY, 1024, 4, 8));
+		readHeavyTestInternal("LinearSWTQuadTree", factory.createLinear(upperLeftX, upperLeftY,
+				1024, 4));
+
+	}
+
+	@Test
+	public void batchMoveComparison() {
+
+		ISWTQuadTree.Factory<TestingObject> factory = new ISWTQuadTree.Factory<TestingObject>();
+
+		batchMoveTestInternal(false, factory.create(upperLeftX, upperLeftY, 1024, 4, 8));
+		batchMoveTestInternal(true, factory.create(upperLeftX, upperLeftY, 1024, 4, 8));
+
+	}
+
+	/**
+	 * Moves a large number of agents by a few pixels per tick, either one by
+	 * one or as a batch.
+	 */
+	private void batchMoveTestInternal(boolean batch, ISWTQuadTree<TestingObject> tree) {
+
+		int objectCnt = 20000;
+		int tickCnt = 10;
+		Random rand = new Random(0);
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+
+		List<TestingObject> items = new ArrayList<TestingObject>(objectCnt);
+		List<Rectangle> boxes = new ArrayList<Rectangle>(objectCnt);
+		for (int i = 0; i < objectCnt; i++) {
+			Rectangle boundingBox = new Rectangle(rand.nextInt(width - 10) + upperLeftX + 5, rand
+					.nextInt(height - 10)
+					+ upperLeftY + 5, 1 + rand.nextInt(rectWidth), 1 + rand.nextInt(rectHeight));
+			items.add(new TestingObject(boundingBox));
+			boxes.add(boundingBox);
+		}
+
+		long start = System.currentTimeMillis();
+		if (batch)
+			tree.insertBatch(items, boxes, pool);
+		else
+			for (int i = 0; i < objectCnt; i++)
+				tree.insertItem(items.get(i), boxes.get(i));
+		long insertionTime = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		for (int tick = 0; tick < tickCnt; tick++) {
+
+			List<Rectangle> newBoxes = new ArrayList<Rectangle>(objectCnt);
+			for (Rectangle box : boxes)
+				newBoxes.add(new Rectangle(box.x + rand.nextInt(5) - 2, box.y + rand.nextInt(5) - 2,
+						box.width, box.height));
+
+			if (batch)
+				tree.moveBatch(items, boxes, newBoxes, pool);
+			else
+				for (int i = 0; i < objectCnt; i++)
+					tree.moveItem(items.get(i), boxes.get(i), newBoxes.get(i));
+			boxes = newBoxes;
+
+		}
+		long moveTime = System.currentTimeMillis() - start;
+
+		assertTrue(tree.getItemCount() == objectCnt);
+		System.out.println((batch ? "batch" : "one by one") + ": inserting " + objectCnt
+				+ " items took " + insertionTime + " ms, " + tickCnt + " ticks of moves took "
+				+ moveTime + " ms.");
+
+	}
+
+	@Test
+	public void writeBatchComparison() {
+
+		ISWTQuadTree.Factory<TestingObject> factory = new ISWTQuadTree.Factory<TestingObject>();
+
+		writeBatchTestInternal(false, factory.create(upperLeftX, upperLeftY, 1024, 4, 8, true));
+		writeBatchTestInternal(true, factory.create(upperLeftX, upperLeftY, 1024, 4, 8, true));
+
+	}
+
+	/**
+	 * Applies a frame of mutations to a synchronized tree, moving all agents
+	 * and replacing some of them, either one by one or in a write batch.
+	 */
+	private void writeBatchTestInternal(boolean batch, ISWTQuadTree<TestingObject> tree) {
+
+		int objectCnt = 20000;
+		int frameCnt = 20;
+		Random rand = new Random(0);
+
+		List<TestingObject> items = new ArrayList<TestingObject>(objectCnt);
+		for (int i = 0; i < objectCnt; i++) {
+			TestingObject item = new TestingObject(new Rectangle(rand.nextInt(width - 10)
+					+ upperLeftX + 5, rand.nextInt(height - 10) + upperLeftY + 5, 1 + rand
+					.nextInt(rectWidth), 1 + rand.nextInt(rectHeight)));
+			items.add(item);
+			tree.insertItem(item, item.box);
+		}
+
+		long start = System.currentTimeMillis();
+		for (int frame = 0; frame < frameCnt; frame++) {
+
+			WriteBatch<TestingObject> writeBatch = batch ? tree.beginBatch() : null;
+
+			for (int i = 0; i < objectCnt; i++) {
+
+				TestingObject item = items.get(i);
+
+				// every 100th agent is replaced by a new one
+				if (i % 100 == frame % 100) {
+					TestingObject newItem = new TestingObject(new Rectangle(item.box.x,
+							item.box.y, item.box.width, item.box.height));
+					if (batch) {
+						writeBatch.removeItem(item, item.box);
+						writeBatch.insertItem(newItem, newItem.box);
+					} else {
+						tree.removeItem(item, item.box);
+						tree.insertItem(newItem, newItem.box);
+					}
+					items.set(i, newItem);
+					continue;
+				}
+
+				Rectangle newBox = new Rectangle(Math.max(upperLeftX, Math.min(upperLeftX + width
+						- 10, item.box.x + rand.nextInt(5) - 2)), Math.max(upperLeftY, Math.min(
+						upperLeftY + height - 10, item.box.y + rand.nextInt(5) - 2)),
+						item.box.width, item.box.height);
+				if (batch)
+					writeBatch.moveItem(item, item.box, newBox);
+				else
+					tree.moveItem(item, item.box, newBox);
+				item.box = newBox;
+
+			}
+
+			if (batch)
+				writeBatch.commit();
+
+		}
+		long time = System.currentTimeMillis() - start;
+
+		assertTrue(tree.getItemCount() == objectCnt);
+		System.out.println((batch ? "write batch" : "one by one") + ": " + frameCnt
+				+ " frames of " + objectCnt + " mutations took " + time + " ms.");
+
+	}
+
+	@Test
+	public void smallWriteBatchComparison() {
+
+		ISWTQuadTree.Factory<TestingObject> factory = new ISWTQuadTree.Factory<TestingObject>();
+
+		for (int objectCnt : new int[] { 10000, 1000000 }) {
+			smallWriteBatchTestInternal("SWTQuadTree", objectCnt, factory.create(upperLeftX,
+					upperLeftY, 1024, 4, 8));
+			smallWriteBatchTestInternal("ConcurrentSWTQuadTree", objectCnt, factory
+					.createConcurrent(upperLeftX, upperLeftY, 1024, 4, 8, 2));
+			smallWriteBatchTestInternal("DoubleBufferedSWTQuadTree", objectCnt, factory
+					.createDoubleBuffered(upperLeftX, upperLeftY, 1024, 4, 8));
+		}
+
+	}
+
+	/**
+	 * Commits many write batches of a few moves to a tree of
+	 * <code>objectCnt</code> items. A double-buffered tree is swapped after
+	 * every batch, so that its time includes catching up the other buffer. The
+	 * time per commit should not depend on the size of the tree.
+	 */
+	private void smallWriteBatchTestInternal(String engine, int objectCnt,
+			ISWTQuadTree<TestingObject> tree) {
+
+		int batchCnt = 2000;
+		int batchSize = 10;
+		Random rand = new Random(0);
+
+		List<TestingObject> items = new ArrayList<TestingObject>(objectCnt);
+		List<Rectangle> boxes = new ArrayList<Rectangle>(objectCnt);
+		for (int i = 0; i < objectCnt; i++) {
+			TestingObject item = new TestingObject(new Rectangle(rand.nextInt(width - 10)
+					+ upperLeftX + 5, rand.nextInt(height - 10) + upperLeftY + 5, 1 + rand
+					.nextInt(rectWidth), 1 + rand.nextInt(rectHeight)));
+			items.add(item);
+			boxes.add(item.box);
+		}
+		tree.insertBatch(items, boxes, ForkJoinPool.commonPool());
+
+		DoubleBufferedSWTQuadTree<TestingObject> doubleBuffered = null;
+		if (tree instanceof DoubleBufferedSWTQuadTree) {
+			doubleBuffered = (DoubleBufferedSWTQuadTree<TestingObject>) tree;
+			doubleBuffered.swap();
+			doubleBuffered.swap();
+		}
+
+		long start = 0;
+		for (int batch = 0; batch < 2 * batchCnt; batch++) {
+
+			// the first half warms up
+			if (batch == batchCnt)
+				start = System.nanoTime();
+
+			WriteBatch<TestingObject> writeBatch = tree.beginBatch();
+
+			for (int i = 0; i < batchSize; i++) {
+				TestingObject item = items.get(rand.nextInt(objectCnt));
+				Rectangle newBox = new Rectangle(rand.nextInt(width - 10) + upperLeftX + 5, rand
+						.nextInt(height - 10)
+						+ upperLeftY + 5, item.box.width, item.box.height);
+				writeBatch.moveItem(item, item.box, newBox);
+				item.box = newBox;
+			}
+
+			writeBatch.commit();
+			if (doubleBuffered != null)
+				doubleBuffered.swap();
+
+		}
+		long time = System.nanoTime() - start;
+
+		assertTrue(tree.getItemCount() == objectCnt);
+		System.out.println(engine + ": a write batch of " + batchSize + " moves in a tree of "
+				+ objectCnt + " items took " + time / batchCnt / 1000 + " us.");
+
+	}
+
+	@Test
+	public void renderStallComparison() throws Exception {
+
+		ISWTQuadTree.Factory<TestingObject> factory = new ISWTQuadTree.Factory<TestingObject>();
+
+		renderStallTestInternal("SynchronizedSWTQuadTree", factory.create(upperLeftX, upperLeftY,
+				1024, 4, 8, true));
+		renderStallTestInternal("DoubleBufferedSWTQuadTree", factory.createDoubleBuffered(
+				upperLeftX, upperLeftY, 1024, 4, 8));
+
+	}
+
+	/**
+	 * Lets a simulation thread move all agents in one write batch per frame
+	 * while a render thread searches viewports, and reports the durations of
+	 * the searches of the render thread, i.e. the stalls of its frames.
+	 */
+	private void renderStallTestInternal(String name, final ISWTQuadTree<TestingObject> tree)
+			throws Exception {
+
+		final int objectCnt = 20000;
+		final int frameCnt = 30;
+		final Random rand = new Random(0);
+
+		final DoubleBufferedSWTQuadTree<TestingObject> doubleBuffered;
+		if (tree instanceof DoubleBufferedSWTQuadTree)
+			doubleBuffered = (DoubleBufferedSWTQuadTree<TestingObject>) tree;
+		else
+			doubleBuffered = null;
+
+		final List<TestingObject> items = new ArrayList<TestingObject>(objectCnt);
+		for (int i = 0; i < objectCnt; i++) {
+			TestingObject item = new TestingObject(new Rectangle(rand.nextInt(width - 10)
+					+ upperLeftX + 5, rand.nextInt(height - 10) + upperLeftY + 5, 1 + rand
+					.nextInt(rectWidth), 1 + rand.nextInt(rectHeight)));
+			items.add(item);
+			tree.insertItem(item, item.box);
+		}
+		if (doubleBuffered != null)
+			doubleBuffered.swap();
+
+		final AtomicBoolean done = new AtomicBoolean();
+		Thread simulation = new Thread() {
+			@Override
+			public void run() {
+
+				for (int frame = 0; frame < frameCnt; frame++) {
+
+					WriteBatch<TestingObject> writeBatch = tree.beginBatch();
+					for (TestingObject item : items) {
+						Rectangle newBox = new Rectangle(Math.max(upperLeftX, Math.min(upperLeftX
+								+ width - 10, item.box.x + rand.nextInt(5) - 2)), Math.max(
+								upperLeftY, Math.min(upperLeftY + height - 10, item.box.y
+										+ rand.nextInt(5) - 2)), item.box.width, item.box.height);
+						writeBatch.moveItem(item, item.box, newBox);
+						item.box = newBox;
+					}
+					writeBatch.commit();
+
+					if (doubleBuffered != null)
+						doubleBuffered.swap();
+
+				}
+				done.set(true);
+
+			}
+		};
+
+		long start = System.currentTimeMillis();
+		simulation.start();
+
+		List<Long> searchTimes = new ArrayList<Long>();
+		Random viewportRand = new Random(1);
+		while (!done.get()) {
+			Rectangle viewport = new Rectangle(upperLeftX + viewportRand.nextInt(width - 256),
+					upperLeftY + viewportRand.nextInt(height - 256), 256, 256);
+			long searchStart = System.nanoTime();
+			tree.searchItems(viewport);
+			searchTimes.add(System.nanoTime() - searchStart);
+		}
+
+		simulation.join();
+		long time = System.currentTimeMillis() - start;
+
+		Collections.sort(searchTimes);
+		int searchCnt = searchTimes.size();
+
+		assertTrue(tree.getItemCount() == objectCnt);
+		System.out.println(name + ": " + frameCnt + " frames of " + objectCnt + " moves took "
+				+ time + " ms, " + searchCnt + " searches meanwhile, median "
+				+ searchTimes.get(searchCnt / 2) / 1000 + " us, 99th percentile "
+				+ searchTimes.get(searchCnt * 99 / 100) / 1000 + " us, longest "
+				+ searchTimes.get(searchCnt - 1) / 1000 + " us.");
+
+	}
+
+	/**
+	 * Moves agents owning their bounding boxes by a few pixels per tick,
+	 * either by allocating a new rectangle and passing the old and the new one
+	 * to {@link ISWTQuadTree#moveItem(Object, Rectangle, Rectangle)} or by
+	 * updating the coordinates in place and calling
+	 * {@link SpatialItemQuadTree#update(ISpatialItem)}.
+	 */
+	@Test
+	public void spatialItemComparison() {
+
+		int objectCnt = 20000;
+		int tickCnt = 50;
+		ISWTQuadTree.Factory<TestingObject> factory = new ISWTQuadTree.Factory<TestingObject>();
+
+		for (boolean spatialItems : new boolean[] { false, true }) {
+
+			Random rand = new Random(0);
+			ISWTQuadTree<TestingObject> tree = factory.create(upperLeftX, upperLeftY, 1024, 4, 8);
+			SpatialItemQuadTree<TestingObject> spatialItemTree = null;
+			if (spatialItems)
+				spatialItemTree = new SpatialItemQuadTree<TestingObject>(tree);
+
+			List<TestingObject> items = new ArrayList<TestingObject>(objectCnt);
+			for (int i = 0; i < objectCnt; i++) {
+				TestingObject item = new TestingObject(new Rectangle(rand.nextInt(width - 10)
+						+ upperLeftX + 5, rand.nextInt(height - 10) + upperLeftY + 5, 1 + rand
+						.nextInt(rectWidth), 1 + rand.nextInt(rectHeight)));
+				items.add(item);
+				if (spatialItems)
+					spatialItemTree.insert(item);
+				else
+					tree.insertItem(item, item.box);
+			}
+
+			long start = System.currentTimeMillis();
+			for (int tick = 0; tick < tickCnt; tick++) {
+				for (TestingObject item : items) {
+
+					int x = Math.max(upperLeftX, Math.min(upperLeftX + width - 10, item.box.x
+							+ rand.nextInt(5) - 2));
+					int y = Math.max(upperLeftY, Math.min(upperLeftY + height - 10, item.box.y
+							+ rand.nextInt(5) - 2));
+
+					if (spatialItems) {
+						item.box.x = x;
+						item.box.y = y;
+						spatialItemTree.update(item);
+					} else {
+						Rectangle newBox = new Rectangle(x, y, item.box.width, item.box.height);
+						tree.moveItem(item, item.box, newBox);
+						item.box = newBox;
+					}
+
+				}
+			}
+			long time = System.currentTimeMillis() - start;
+
+			assertTrue(tree.getItemCount() == objectCnt);
+			System.out.println((spatialItems ? "SpatialItemQuadTree.update" : "moveItem") + ": "
+					+ tickCnt + " ticks of " + objectCnt + " moves took " + time + " ms.");
+
+		}
+
+	}
+
+	/**
+	 * Renders a zoomed out view of the whole map, i.e. a viewport in which an
+	 * 8x8 quadrant covers about a pixel, either by searching all items or by
+	 * searching clusters, once after modifying the tree and then repeatedly
+	 * with valid cached counts.
+	 */
+	@Test
+	public void clusterLevelOfDetail() {
+
+		int objectCnt = 200000;
+		int renderCnt = 20;
+		Random rand = new Random(0);
+		ISWTQuadTree<TestingObject> tree = new ISWTQuadTree.Factory<TestingObject>().create(
+				upperLeftX, upperLeftY, 1024, 4, 8);
+
+		for (int i = 0; i < objectCnt; i++) {
+			TestingObject item = new TestingObject(new Rectangle(rand.nextInt(width - 10)
+					+ upperLeftX, rand.nextInt(height - 10) + upperLeftY, 1 + rand
+					.nextInt(rectWidth), 1 + rand.nextInt(rectHeight)));
+			tree.insertItem(item, item.box);
+		}
+
+		Rectangle viewport = tree.getBoundingBox();
+
+		long start = System.currentTimeMillis();
+		int itemCnt = 0;
+		for (int i = 0; i < renderCnt; i++)
+			itemCnt = tree.searchItems(viewport).size();
+		long searchTime = System.currentTimeMillis() - start;
+
+		start = System.nanoTime();
+		int clusterCnt = tree.searchClusters(viewport, 8).size();
+		long firstClusterTime = (System.nanoTime() - start) / 1000;
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < renderCnt; i++)
+			clusterCnt = tree.searchClusters(viewport, 8).size();
+		long clusterTime = System.currentTimeMillis() - start;
+
+		assertTrue(itemCnt == objectCnt);
+		System.out.println(renderCnt + " searches of " + itemCnt + " items took " + searchTime
+				+ " ms, the first search of " + clusterCnt + " clusters took " + firstClusterTime
+				+ " us, " + renderCnt + " more took " + clusterTime + " ms.");
+
+	}
+
+	/**
+	 * Computes a heatmap of 64x64 cells over the whole map, either by
+	 * searching every cell or by a single density grid traversal.
+	 */
+	@Test
+	public void densityGridComparison() {
+
+		int objectCnt = 200000;
+		int cells = 64;
+		int renderCnt = 20;
+		Random rand = new Random(0);
+		ISWTQuadTree<TestingObject> tree = new ISWTQuadTree.Factory<TestingObject>().create(
+				upperLeftX, upperLeftY, 1024, 4, 8);
+
+		for (int i = 0; i < objectCnt; i++) {
+			TestingObject item = new TestingObject(new Rectangle(rand.nextInt(width - 10)
+					+ upperLeftX, rand.nextInt(height - 10) + upperLeftY, 1 + rand
+					.nextInt(rectWidth), 1 + rand.nextInt(rectHeight)));
+			tree.insertItem(item, item.box);
+		}
+
+		Rectangle area = tree.getBoundingBox();
+		int cellSize = area.width / cells;
+
+		long start = System.currentTimeMillis();
+		int searchSum = 0;
+		for (int i = 0; i < renderCnt; i++) {
+			searchSum = 0;
+			for (int row = 0; row < cells; row++)
+				for (int column = 0; column < cells; column++)
+					searchSum += tree.searchItems(
+							new Rectangle(area.x + column * cellSize, area.y + row * cellSize,
+									cellSize, cellSize)).size();
+		}
+		long searchTime = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		int gridSum = 0;
+		for (int i = 0; i < renderCnt; i++) {
+			gridSum = 0;
+			for (int count : tree.densityGrid(area, cells, cells))
+				gridSum += count;
+		}
+		long gridTime = System.currentTimeMillis() - start;
+
+		assertTrue(searchSum == gridSum);
+		System.out.println(renderCnt + " heatmaps of " + cells + "x" + cells + " cells by "
+				+ "searching every cell took " + searchTime + " ms, by a density grid "
+				+ gridTime + " ms.");
+
+	}
+
+	/**
+	 * Searches large viewports, each spanning many shards, from one thread
+	 * per core and compares the concurrent tree, which searches the shards one
+	 * after the other, with the sharded tree, which forks a task per shard.
+	 * Both trees hold the same items and are warmed up before the timed runs,
+	 * which alternate between them. The pool has at least two workers so that
+	 * the sharded tree forks even on a single core, where it can only show
+	 * the overhead of forking and merging.
+	 */
+	@Test
+	public void shardedSearchComparison() throws Exception {
+
+		int objectCnt = 200000;
+		int runCnt = 5;
+		int processors = Runtime.getRuntime().availableProcessors();
+		ForkJoinPool pool = new ForkJoinPool(Math.max(2, processors));
+		Random rand = new Random(0);
+
+		ISWTQuadTree.Factory<TestingObject> factory = new ISWTQuadTree.Factory<TestingObject>();
+		ISWTQuadTree<TestingObject> concurrent = factory.createConcurrent(upperLeftX, upperLeftY,
+				1024, 4, 8, 2);
+		ISWTQuadTree<TestingObject> sharded = factory.createSharded(upperLeftX, upperLeftY, 1024,
+				4, 8, 2, pool);
+
+		for (int i = 0; i < objectCnt; i++) {
+			TestingObject item = new TestingObject(new Rectangle(rand.nextInt(width - 10)
+					+ upperLeftX, rand.nextInt(height - 10) + upperLeftY, 1 + rand
+					.nextInt(rectWidth), 1 + rand.nextInt(rectHeight)));
+			concurrent.insertItem(item, item.box);
+			sharded.insertItem(item, item.box);
+		}
+
+		// warm up
+		shardedSearchTestInternal(concurrent, processors);
+		shardedSearchTestInternal(sharded, processors);
+
+		List<Long> concurrentTimes = new ArrayList<Long>();
+		List<Long> shardedTimes = new ArrayList<Long>();
+		for (int run = 0; run < runCnt; run++) {
+			concurrentTimes.add(shardedSearchTestInternal(concurrent, processors));
+			shardedTimes.add(shardedSearchTestInternal(sharded, processors));
+		}
+
+		pool.shutdown();
+
+		Collections.sort(concurrentTimes);
+		Collections.sort(shardedTimes);
+		System.out.println(processors + " cores, " + pool.getParallelism() + " pool workers, "
+				+ runCnt + " alternating runs of " + processors + " threads searching "
+				+ processors * 200 + " viewports of a quarter of the map each: "
+				+ "ConcurrentSWTQuadTree median " + concurrentTimes.get(runCnt / 2) + " ms "
+				+ concurrentTimes + ", ShardedSWTQuadTree median " + shardedTimes.get(runCnt / 2)
+				+ " ms " + shardedTimes + ".");
+
+	}
+
+	/**
+	 * Searches 200 viewports per thread with <code>threadCnt</code> threads.
+	 * 
+	 * @return the time taken in milliseconds
+	 */
+	private long shardedSearchTestInternal(final ISWTQuadTree<TestingObject> tree, int threadCnt)
+			throws Exception {
+
+		final int searchCnt = 200;
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < threadCnt; t++) {
+
+			final long seed = t;
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					Random rand = new Random(seed);
+					for (int i = 0; i < searchCnt; i++)
+						tree.searchItems(new Rectangle(upperLeftX + rand.nextInt(width / 2),
+								upperLeftY + rand.nextInt(height / 2), width / 2, height / 2));
+				}
+			});
+
+		}
+
+		long start = System.currentTimeMillis();
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+		return System.currentTimeMillis() - start;
+
+	}
+
+	@Test
+	public void removeAllComparison() {
+
+		ISWTQuadTree.Factory<TestingObject> factory = new ISWTQuadTree.Factory<TestingObject>();
+
+		removeAllTestInternal("SWTQuadTree", factory.create(upperLeftX, upperLeftY, 1024, 4, 8));
+		removeAllTestInternal("LinearSWTQuadTree", factory.createLinear(upperLeftX, upperLeftY,
+				1024, 4));
+
+	}
+
+	/**
+	 * Expires the tiles of a map one after the other, either by searching and
+	 * removing the items one by one or with a single call to
+	 * {@link ISWTQuadTree#removeAll(Rectangle, java.util.function.Predicate)}.
+	 */
+	private void removeAllTestInternal(String name, ISWTQuadTree<TestingObject> tree) {
+
+		int objectCnt = 100000;
+		int tileSize = 128;
+		Random rand = new Random(0);
+
+		List<TestingObject> items = new ArrayList<TestingObject>(objectCnt);
+		List<Rectangle> boxes = new ArrayList<Rectangle>(objectCnt);
+		for (int i = 0; i < objectCnt; i++) {
+			Rectangle boundingBox = new Rectangle(rand.nextInt(width - 10) + upperLeftX + 5, rand
+					.nextInt(height - 10)
+					+ upperLeftY + 5, 1 + rand.nextInt(rectWidth), 1 + rand.nextInt(rectHeight));
+			items.add(new TestingObject(boundingBox));
+			boxes.add(boundingBox);
+		}
+
+		for (boolean bulk : new boolean[] { false, true }) {
+
+			tree.insertBatch(items, boxes, ForkJoinPool.commonPool());
+
+			long start = System.currentTimeMillis();
+			for (int y = upperLeftY; y < upperLeftY + height; y += tileSize) {
+				for (int x = upperLeftX; x < upperLeftX + width; x += tileSize) {
+
+					Rectangle tile = new Rectangle(x - 1, y - 1, tileSize + 1, tileSize + 1);
+
+					if (bulk) {
+						tree.removeAll(tile, null);
+						continue;
+					}
+
+					for (TestingObject item : tree.searchItems(tile))
+						tree.removeItem(item, item.box);
+
+				}
+			}
+			long time = System.currentTimeMillis() - start;
+
+			assertTrue(tree.getItemCount() == 0);
+			System.out.println(name + (bulk ? " removeAll" : " one by one") + ": expiring "
+					+ objectCnt + " items took " + time + " ms.");
+
+		}
+
+	}
+
+	/**
+	 * Measures the heap footprint of the tree alone (nodes, lists and entries,
+	 * but not the items and their bounding boxes) per item for a small and a
+	 * large node capacity.
+	 */
+	@Test
+	public void memoryFootprint() {
+
+		memoryFootprintInternal(8);
+		memoryFootprintInternal(64);
+		memoryFootprintInternal(256);
+
+	}
+
+	private void memoryFootprintInternal(int capacity) {
+
+		int objectCnt = 100000;
+		Random rand = new Random(0);
+
+		List<TestingObject> items = new ArrayList<TestingObject>(objectCnt);
+		for (int i = 0; i < objectCnt; i++)
+			items.add(new TestingObject(new Rectangle(rand.nextInt(width) + upperLeftX, rand
+					.nextInt(height)
+					+ upperLeftY, 1 + rand.nextInt(rectWidth), 1 + rand.nextInt(rectHeight))));
+
+		long before = usedHeap();
+
+		ISWTQuadTree<TestingObject> tree = new ISWTQuadTree.Factory<TestingObject>().create(
+				upperLeftX, upperLeftY, 1024, 1, capacity);
+		for (TestingObject item : items)
+			tree.insertItem(item, item.box);
+
+		long after = usedHeap();
+
+		assertTrue(tree.getItemCount() == objectCnt);
+
+		// the bounding boxes of the items were allocated before measuring
+		long estimated = tree.estimateMemoryUsage().getTotalBytes() - objectCnt
+				* MemoryUsage.RECTANGLE;
+		System.out.println("capacity " + capacity + ": " + (after - before) / objectCnt
+				+ " bytes per item, estimated " + estimated / objectCnt);
+
+	}
+
+	private static long usedHeap() {
+
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+
+		// collect until the used heap doesn't shrink anymore
+		for (int i = 0; i < 10; i++) {
+			System.gc();
+			long current = runtime.totalMemory() - runtime.freeMemory();
+			if (current >= used)
+				break;
+			used = current;
+		}
+
+		return used;
+
+	}
+
+	/**
+	 * Records a mixed workload once and replays the trace against every
+	 * engine.
+	 */
+	@Test
+	public void replayRecordedTrace() {
+
+		int objectCnt = 20000;
+		int roundCnt = 10;
+		Random rand = new Random(0);
+
+		ByteArrayOutputStream trace = new ByteArrayOutputStream();
+		RecordingSWTQuadTree<TestingObject> recorder = new RecordingSWTQuadTree<TestingObject>(
+				new ISWTQuadTree.Factory<TestingObject>().create(upperLeftX, upperLeftY, 1024, 4,
+						8), trace);
+
+		List<TestingObject> items = new ArrayList<TestingObject>(objectCnt);
+		for (int i = 0; i < objectCnt; i++) {
+			TestingObject item = new TestingObject(new Rectangle(rand.nextInt(width - 16)
+					+ upperLeftX, rand.nextInt(height - 16) + upperLeftY, 1 + rand
+					.nextInt(rectWidth), 1 + rand.nextInt(rectHeight)));
+			items.add(item);
+			recorder.insertItem(item, item.box);
+		}
+
+		for (int round = 0; round < roundCnt; round++) {
+			for (TestingObject item : items) {
+				Rectangle newBox = new Rectangle(Math.min(Math.max(item.box.x + rand.nextInt(9)
+						- 4, upperLeftX), upperLeftX + width - 16), Math.min(Math.max(item.box.y
+						+ rand.nextInt(9) - 4, upperLeftY), upperLeftY + height - 16),
+						item.box.width, item.box.height);
+				recorder.moveItem(item, item.box, newBox);
+				item.box = newBox;
+				recorder.searchItems(new Rectangle(rand.nextInt(width) + upperLeftX, rand
+						.nextInt(height)
+						+ upperLeftY, 32, 32));
+			}
+		}
+
+		recorder.close();
+
+		TraceReplayer replayer = new TraceReplayer(new ByteArrayInputStream(trace.toByteArray()));
+		System.out.println("recorded " + replayer.getOperationCount() + " operations in "
+				+ trace.size() + " bytes: " + replayer.getRecordedReport());
+
+		ISWTQuadTree.Factory<Object> factory = new ISWTQuadTree.Factory<Object>();
+		System.out.println("SWTQuadTree: "
+				+ replayer.replay(factory.create(upperLeftX, upperLeftY, 1024, 4, 8)));
+		System.out.println("LinearSWTQuadTree: "
+				+ replayer.replay(factory.createLinear(upperLeftX, upperLeftY, 1024, 4)));
+		System.out.println("ConcurrentSWTQuadTree: "
+				+ replayer.replay(factory.createConcurrent(upperLeftX, upperLeftY, 1024, 4, 8, 2)));
+
+	}
+
+	/**
+	 * Runs the workload of {@link #readHeavyTestInternal(String, ISWTQuadTree)}
+	 * on an {@link IntQuadTree} collecting the ids into a reused buffer.
+	 */
+	@Test
+	public void readHeavyIntQuadTree() {
+
+		int objectCnt = 20000;
+		int searchCnt = 200000;
+		Random rand = new Random(0);
+		IntQuadTree tree = new IntQuadTree(upperLeftX, upperLeftY, 1024, 4, 8);
+
+		long startInsertion = System.currentTimeMillis();
+		for (int i = 0; i < objectCnt; i++)
+			tree.insertItem(i, rand.nextInt(width) + upperLeftX, rand.nextInt(height)
+					+ upperLeftY, 1 + rand.nextInt(rectWidth), 1 + rand.nextInt(rectHeight));
+		long insertionTime = System.currentTimeMillis() - startInsertion;
+
+		long found = 0;
+		int[] buffer = new int[256];
+		long startSearch = System.currentTimeMillis();
+		for (int i = 0; i < searchCnt; i++)
+			found += tree.searchItems(rand.nextInt(width) + upperLeftX, rand.nextInt(height)
+					+ upperLeftY, 32, 32, buffer);
+		long searchTime = System.currentTimeMillis() - startSearch;
+
+		System.out.println("IntQuadTree: inserting " + objectCnt + " items took "
+				+ insertionTime + " ms, " + searchCnt + " searches (" + found + " hits) took "
+				+ searchTime + " ms.");
+
+	}
+
+	/**
+	 * Inserts a static layer of items and runs many small searches on it, as
+	 * e.g. done for hit-testing.
+	 */
+	private void readHeavyTestInternal(String engine, ISWTQuadTree<TestingObject> tree) {
+
+		int objectCnt = 20000;
+		int searchCnt = 200000;
+		Random rand = new Random(0);
+
+		long startInsertion = System.currentTimeMillis();
+		for (int i = 0; i < objectCnt; i++) {
+			Rectangle boundingBox = new Rectangle(rand.nextInt(width) + upperLeftX, rand
+					.nextInt(height)
+					+ upperLeftY, 1 + rand.nextInt(rectWidth), 1 + rand.nextInt(rectHeight));
+			tree.insertItem(new TestingObject(boundingBox), boundingBox);
+		}
+		long insertionTime = System.currentTimeMillis() - startInsertion;
+
+		long found = 0;
+		long startSearch = System.currentTimeMillis();
+		for (int i = 0; i < searchCnt; i++)
+			found += tree.searchItems(
+					new Rectangle(rand.nextInt(width) + upperLeftX, rand.nextInt(height)
+							+ upperLeftY, 32, 32)).size();
+		long searchTime = System.currentTimeMillis() - startSearch;
+
+		System.out.println(engine + ": inserting " + objectCnt + " items took " + insertionTime
+				+ " ms, " + searchCnt + " searches (" + found + " hits) took " + searchTime
+				+ " ms.");
+
+	}
+
 	private void manyItemsTestInternal(final int testWidth, final int testHeight) {
 
 		// generate 100 items and insert them
@@ -5,7 +5,16 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 
 import static org.junit.Assert.*;
 
@@ -21,11 +30,11 @@ public class QuadTreeTest {
 
 	private TestingObject item4;
 
-	private static final int width = (int) Math.pow(2, 10);
-	private static final int height = (int) Math.pow(2, 10);
+	static final int width = (int) Math.pow(2, 10);
+	static final int height = (int) Math.pow(2, 10);
 
-	private static final int upperLeftX = -(width / 2);
-	private static final int upperLeftY = -(height / 2);
+	static final int upperLeftX = -(width / 2);
+	static final int upperLeftY = -(height / 2);
 
 	private static final int rectangleWidth = 5;
 	private static final int rectangleHeight = 5;
@@ -51,10 +60,41 @@ public class QuadTreeTest {
 
 	}
 
+	/**
+	 * Creates <code>count</code> randomly placed items of random size, some of
+	 * them lying partially outside of the trees bounding box.
+	 */
+	static List<TestingObject> createRandomItems(int count, long seed) {
+
+		Random rand = new Random(seed);
+		List<TestingObject> list = new ArrayList<TestingObject>(count);
+
+		for (int i = 0; i < count; i++) {
+			int x = upperLeftX - 5 + rand.nextInt(width);
+			int y = upperLeftY - 5 + rand.nextInt(height);
+			int size = 6 + rand.nextInt(i % 10 == 0 ? 200 : 20);
+			list.add(new TestingObject(new Rectangle(x, y, size, size)));
+		}
+
+		return list;
+
+	}
+
+	private static String pairKey(TestingObject item, TestingObject otherItem) {
+		return Math.min(item.id, otherItem.id) + "-" + Math.max(item.id, otherItem.id);
+	}
+
+	/**
+	 * Creates the tree under test. Overridden by the tests of other engines.
+	 */
+	protected ISWTQuadTree<TestingObject> createTree() {
+		return new ISWTQuadTree.Factory<TestingObject>().create(upperLeftX, upperLeftY, 1024, 16, 1);
+	}
+
 	@Before
 	public void setUp() throws Exception {
 
-		tree = new ISWTQuadTree.Factory<TestingObject>().create(upperLeftX, upperLeftY, 1024, 16, 1);
+		tree = createTree();
 
 		item1 = new TestingObject(new Rectangle(upperLeftQuadrant.x, upperLeftQuadrant.y,
 				rectangleWidth, rectangleHeight
@@ -294,6 +334,64 @@ public class QuadTreeTest {
 
 	}
 
+	@Test
+	public void testRaycast() {
+
+		// the bounding box of a diagonal segment contains boxes it misses
+		Ray diagonal = new Ray(0, 0, 100, 100);
+		assertEquals(0.4, diagonal.enter(new Rectangle(40, 40, 5, 5)), 1e-9);
+		assertEquals(-1, diagonal.enter(new Rectangle(60, 0, 10, 10)), 0);
+		assertEquals(0, diagonal.enter(new Rectangle(-5, -5, 10, 10)), 0);
+
+		List<TestingObject> items = createRandomItems(800, 16);
+		for (TestingObject item : items)
+			tree.insertItem(item, item.box);
+
+		Random rand = new Random(16);
+		for (int i = 0; i < 100; i++) {
+
+			int x0 = upperLeftX + rand.nextInt(width);
+			int y0 = upperLeftY + rand.nextInt(height);
+			int x1 = i % 10 == 0 ? x0 : upperLeftX + rand.nextInt(width);
+			int y1 = upperLeftY + rand.nextInt(height);
+			final Ray ray = new Ray(x0, y0, x1, y1);
+
+			Set<TestingObject> expected = new HashSet<TestingObject>();
+			for (TestingObject item : items)
+				if (ray.enter(item.box) >= 0)
+					expected.add(item);
+
+			final List<TestingObject> visited = new ArrayList<TestingObject>();
+			tree.raycast(x0, y0, x1, y1, new ItemVisitor<TestingObject>() {
+				public boolean visit(TestingObject item, Rectangle boundingBox) {
+					assertEquals(item.box, boundingBox);
+					visited.add(item);
+					return true;
+				}
+			});
+
+			assertEquals(expected, new HashSet<TestingObject>(visited));
+			assertEquals(expected.size(), visited.size());
+			for (int j = 1; j < visited.size(); j++)
+				assertTrue(ray.enter(visited.get(j - 1).box) <= ray.enter(visited.get(j).box));
+
+			// stop at the first hit
+			final List<TestingObject> first = new ArrayList<TestingObject>();
+			tree.raycast(x0, y0, x1, y1, new ItemVisitor<TestingObject>() {
+				public boolean visit(TestingObject item, Rectangle boundingBox) {
+					first.add(item);
+					return false;
+				}
+			});
+
+			assertEquals(Math.min(1, visited.size()), first.size());
+			if (!first.isEmpty())
+				assertEquals(ray.enter(visited.get(0).box), ray.enter(first.get(0).box), 0);
+
+		}
+
+	}
+
 	@Test
 	public void testRemove() {
 
@@ -378,4 +476,1114 @@ public class QuadTreeTest {
 		
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void testForEachIntersectingPair() {
+
+		List<TestingObject> items = createRandomItems(500, 42);
+		for (TestingObject item : items)
+			tree.insertItem(item, item.box);
+
+		Set<String> expected = new HashSet<String>();
+		for (int i = 0; i < items.size(); i++)
+			for (int j = i + 1; j < items.size(); j++)
+				if (items.get(i).box.intersects(items.get(j).box))
+					expected.add(pairKey(items.get(i), items.get(j)));
+
+		final List<String> reported = new ArrayList<String>();
+		tree.forEachIntersectingPair(new PairVisitor<TestingObject>() {
+			public void visit(TestingObject item, TestingObject otherItem) {
+				reported.add(pairKey(item, otherItem));
+			}
+		});
+
+		assertEquals(expected.size(), reported.size());
+		assertEquals(expected, new HashSet<String>(reported));
+
+		final List<String> reportedParallel = Collections.synchronizedList(new ArrayList<String>());
+		tree.forEachIntersectingPair(new PairVisitor<TestingObject>() {
+			public void visit(TestingObject item, TestingObject otherItem) {
+				reportedParallel.add(pairKey(item, otherItem));
+			}
+		}, new ForkJoinPool(4));
+
+		assertEquals(expected.size(), reportedParallel.size());
+		assertEquals(expected, new HashSet<String>(reportedParallel));
+
+	}
+
+	@Test
+	public void testJoin() {
+
+		List<TestingObject> items = createRandomItems(300, 1);
+		List<TestingObject> otherItems = createRandomItems(300, 2);
+		for (TestingObject item : items)
+			tree.insertItem(item, item.box);
+
+		// one tree aligned with the test tree, one covering a different area
+		ISWTQuadTree<TestingObject> alignedTree = new ISWTQuadTree.Factory<TestingObject>().create(
+				upperLeftX, upperLeftY, width, 16, 1);
+		ISWTQuadTree<TestingObject> shiftedTree = new ISWTQuadTree.Factory<TestingObject>().create(
+				upperLeftX - 100, upperLeftY - 50, 2 * width, 32, 2, true);
+		for (TestingObject item : otherItems) {
+			alignedTree.insertItem(item, item.box);
+			shiftedTree.insertItem(item, item.box);
+		}
+
+		Set<String> expected = new HashSet<String>();
+		for (TestingObject item : items)
+			for (TestingObject otherItem : otherItems)
+				if (item.box.intersects(otherItem.box))
+					expected.add(item.id + "-" + otherItem.id);
+
+		assertEquals(expected, join(tree, alignedTree));
+		assertEquals(expected, join(tree, shiftedTree));
+
+		Set<String> expectedReverse = new HashSet<String>();
+		for (String pair : expected)
+			expectedReverse.add(pair.substring(pair.indexOf('-') + 1) + "-"
+					+ pair.substring(0, pair.indexOf('-')));
+
+		assertEquals(expectedReverse, join(shiftedTree, tree));
+
+	}
+
+	@Test
+	public void testJoinLocksSynchronizedTree() throws Exception {
+
+		for (TestingObject item : createRandomItems(300, 1))
+			tree.insertItem(item, item.box);
+
+		final ISWTQuadTree<TestingObject> synchronizedTree;
+		synchronizedTree = new ISWTQuadTree.Factory<TestingObject>().create(upperLeftX,
+				upperLeftY, width, 16, 1, true);
+		for (TestingObject item : createRandomItems(300, 2))
+			synchronizedTree.insertItem(item, item.box);
+		Set<String> expected = join(tree, synchronizedTree);
+
+		final AtomicReference<Set<String>> joined = new AtomicReference<Set<String>>();
+		Thread joiner = new Thread() {
+			@Override
+			public void run() {
+				joined.set(QuadTreeTest.join(tree, synchronizedTree));
+			}
+		};
+
+		// the join must wait for the monitor of the synchronized tree
+		synchronized (synchronizedTree) {
+			joiner.start();
+			long deadline = System.currentTimeMillis() + 10000;
+			while (joiner.getState() != Thread.State.BLOCKED && joiner.isAlive()
+					&& System.currentTimeMillis() < deadline)
+				Thread.sleep(1);
+			assertEquals(Thread.State.BLOCKED, joiner.getState());
+		}
+
+		joiner.join();
+		assertEquals(expected, joined.get());
+
+	}
+
+	private static Set<String> join(ISWTQuadTree<TestingObject> tree,
+			ISWTQuadTree<TestingObject> otherTree) {
+
+		final List<String> reported = new ArrayList<String>();
+		tree.join(otherTree, new JoinVisitor<TestingObject, TestingObject>() {
+			public void visit(TestingObject item, TestingObject otherItem) {
+				reported.add(item.id + "-" + otherItem.id);
+			}
+		});
+
+		Set<String> pairs = new HashSet<String>(reported);
+		assertEquals(reported.size(), pairs.size());
+		return pairs;
+
+	}
+
+	@Test
+	public void testSearchItemsByTile() {
+
+		for (TestingObject item : createRandomItems(500, 3))
+			tree.insertItem(item, item.box);
+
+		// the last column and row of tiles are cut off by the viewport
+		Rectangle viewport = new Rectangle(upperLeftX - 20, upperLeftY + 100, 250, 170);
+		int tileSize = 64;
+
+		List<List<TestingObject>> tiles = tree.searchItemsByTile(viewport, tileSize);
+		assertEquals(4 * 3, tiles.size());
+
+		for (int row = 0; row < 3; row++) {
+			for (int column = 0; column < 4; column++) {
+
+				Rectangle tile = new Rectangle(viewport.x + column * tileSize, viewport.y + row
+						* tileSize, tileSize, tileSize).intersection(viewport);
+				List<TestingObject> bucket = tiles.get(row * 4 + column);
+
+				assertEquals(tree.searchItems(tile), new HashSet<TestingObject>(bucket));
+				assertEquals(new HashSet<TestingObject>(bucket).size(), bucket.size());
+
+			}
+		}
+
+	}
+
+	@Test
+	public void testSearchItemsMultipleAreas() {
+
+		for (TestingObject item : createRandomItems(500, 9))
+			tree.insertItem(item, item.box);
+
+		Random rand = new Random(9);
+		List<Rectangle> areas = new ArrayList<Rectangle>();
+		for (int i = 0; i < 50; i++)
+			areas.add(new Rectangle(upperLeftX + rand.nextInt(width), upperLeftY
+					+ rand.nextInt(height), rand.nextInt(300), rand.nextInt(300)));
+		areas.add(tree.getBoundingBox());
+
+		List<Set<TestingObject>> results = tree.searchItems(areas);
+		assertEquals(areas.size(), results.size());
+		for (int i = 0; i < areas.size(); i++)
+			assertEquals(tree.searchItems(areas.get(i)), results.get(i));
+
+	}
+
+	@Test
+	public void testSearchItemsInShapes() {
+
+		// an L-shaped polygon, its notch is the upper right quarter
+		QueryShape lasso = new QueryShape.Polygon(new int[] { 0, 0, 50, 0, 50, 50, 100, 50, 100,
+				100, 0, 100 });
+		assertTrue(lasso.contains(10, 10, 20, 20));
+		assertTrue(lasso.intersects(45, 10, 10, 10));
+		assertFalse(lasso.contains(45, 10, 10, 10));
+		assertFalse(lasso.intersects(60, 10, 20, 20));
+		assertTrue(lasso.intersects(-10, -10, 200, 200));
+		assertFalse(lasso.contains(-10, -10, 200, 200));
+
+		QueryShape circle = new QueryShape.Circle(0, 0, 10);
+		assertTrue(circle.contains(-5, -5, 10, 10));
+		assertTrue(circle.intersects(10, -5, 5, 10));
+		assertFalse(circle.intersects(8, 8, 5, 5));
+		assertTrue(circle.intersects(-20, -20, 40, 40));
+
+		List<TestingObject> items = createRandomItems(1000, 17);
+		for (TestingObject item : items)
+			tree.insertItem(item, item.box);
+
+		Random rand = new Random(17);
+		for (int i = 0; i < 50; i++) {
+
+			int centerX = upperLeftX + rand.nextInt(width);
+			int centerY = upperLeftY + rand.nextInt(height);
+			int radius = rand.nextInt(300);
+
+			int[] pointArray = new int[2 * (3 + rand.nextInt(6))];
+			for (int j = 0; j < pointArray.length; j += 2) {
+				double angle = 2 * Math.PI * j / pointArray.length;
+				double distance = radius * (0.3 + rand.nextDouble());
+				pointArray[j] = centerX + (int) (distance * Math.cos(angle));
+				pointArray[j + 1] = centerY + (int) (distance * Math.sin(angle));
+			}
+
+			circle = new QueryShape.Circle(centerX, centerY, radius);
+			QueryShape polygon = new QueryShape.Polygon(pointArray);
+
+			Set<TestingObject> inCircle = new HashSet<TestingObject>();
+			Set<TestingObject> inPolygon = new HashSet<TestingObject>();
+			for (TestingObject item : items) {
+				if (circle.intersects(item.box))
+					inCircle.add(item);
+				if (polygon.intersects(item.box))
+					inPolygon.add(item);
+			}
+
+			assertEquals(inCircle, tree.searchItemsInCircle(centerX, centerY, radius));
+			assertEquals(inPolygon, tree.searchItemsInPolygon(pointArray));
+
+		}
+
+	}
+
+	@Test
+	public void testSearchItemsLimit() {
+
+		for (TestingObject item : createRandomItems(500, 14))
+			tree.insertItem(item, item.box);
+
+		Rectangle area = new Rectangle(upperLeftX + 100, upperLeftY + 100, 500, 500);
+		Set<TestingObject> all = tree.searchItems(area);
+		assertTrue(all.size() > 20);
+
+		Set<TestingObject> limited = tree.searchItems(area, 20);
+		assertEquals(20, limited.size());
+		assertTrue(all.containsAll(limited));
+
+		assertEquals(all, tree.searchItems(area, all.size() + 1));
+		assertTrue(tree.searchItems(area, 0).isEmpty());
+
+	}
+
+	@Test
+	public void testSearchItemsOrdered() {
+
+		List<TestingObject> items = createRandomItems(1000, 15);
+		for (TestingObject item : items)
+			tree.insertItem(item, item.box);
+
+		ItemPriority<TestingObject> byId = new ItemPriority<TestingObject>() {
+			public int getPriority(TestingObject item) {
+				return item.id;
+			}
+		};
+		ItemPriority<TestingObject> byLayer = new ItemPriority<TestingObject>() {
+			public int getPriority(TestingObject item) {
+				return item.id % 7;
+			}
+		};
+
+		Random rand = new Random(15);
+		for (int round = 0; round < 10; round++) {
+
+			// modify the tree between the searches so that cached priorities
+			// have to be invalidated
+			for (int i = 0; i < 50; i++) {
+				TestingObject item = items.get(rand.nextInt(items.size()));
+				Rectangle newBox = new Rectangle(item.box.x + rand.nextInt(101) - 50, item.box.y
+						+ rand.nextInt(101) - 50, item.box.width, item.box.height);
+				tree.moveItem(item, item.box, newBox);
+				item.box = newBox;
+			}
+
+			for (ItemPriority<TestingObject> priority : Arrays.asList(byId, byLayer)) {
+
+				Rectangle area = new Rectangle(upperLeftX + rand.nextInt(width), upperLeftY
+						+ rand.nextInt(height), rand.nextInt(400), rand.nextInt(400));
+				int limit = 1 + rand.nextInt(30);
+
+				List<Integer> expected = new ArrayList<Integer>();
+				for (TestingObject item : tree.searchItems(area))
+					expected.add(priority.getPriority(item));
+				Collections.sort(expected, Collections.reverseOrder());
+				expected = expected.subList(0, Math.min(limit, expected.size()));
+
+				List<TestingObject> found = tree.searchItems(area, limit, priority);
+				List<Integer> actual = new ArrayList<Integer>();
+				for (TestingObject item : found) {
+					assertTrue(item.box.intersects(area));
+					actual.add(priority.getPriority(item));
+				}
+
+				assertEquals(expected, actual);
+				assertEquals(found.size(), new HashSet<TestingObject>(found).size());
+
+			}
+
+		}
+
+	}
+
+	@Test
+	public void testSearchItemsWithVisitor() {
+
+		for (TestingObject item : createRandomItems(500, 4))
+			tree.insertItem(item, item.box);
+
+		Rectangle area = new Rectangle(upperLeftX + 100, upperLeftY + 200, 300, 250);
+		final Set<TestingObject> found = new HashSet<TestingObject>();
+		tree.searchItems(area, new ItemVisitor<TestingObject>() {
+			public boolean visit(TestingObject item, Rectangle boundingBox) {
+				assertEquals(item.box, boundingBox);
+				assertTrue(found.add(item));
+				return true;
+			}
+		});
+		assertEquals(tree.searchItems(area), found);
+
+		// stop after the third item
+		final List<TestingObject> firstThree = new ArrayList<TestingObject>();
+		tree.searchItems(area, new ItemVisitor<TestingObject>() {
+			public boolean visit(TestingObject item, Rectangle boundingBox) {
+				firstThree.add(item);
+				return firstThree.size() < 3;
+			}
+		});
+		assertEquals(3, firstThree.size());
+
+	}
+
+	@Test
+	public void testViewportQuery() {
+
+		List<TestingObject> items = createRandomItems(800, 5);
+		for (TestingObject item : items)
+			tree.insertItem(item, item.box);
+
+		Rectangle viewport = new Rectangle(upperLeftX + 200, upperLeftY + 200, 300, 200);
+		ViewportQuery<TestingObject> query = tree.createViewportQuery(viewport);
+		assertEquals(tree.searchItems(viewport), query.getVisibleItems());
+
+		Random rand = new Random(5);
+		for (int round = 0; round < 300; round++) {
+
+			Set<TestingObject> before = new HashSet<TestingObject>(query.getVisibleItems());
+
+			// modify some items, inside and outside of the viewport
+			for (int i = 0; i < 5; i++) {
+
+				TestingObject item = items.get(rand.nextInt(items.size()));
+				if (!tree.containsItem(item, item.box)) {
+					tree.insertItem(item, item.box);
+					continue;
+				}
+				if (rand.nextInt(10) == 0) {
+					tree.removeItem(item, item.box);
+					continue;
+				}
+
+				Rectangle oldBox = item.box;
+				item.box = new Rectangle(oldBox.x + rand.nextInt(81) - 40, oldBox.y
+						+ rand.nextInt(81) - 40, oldBox.width, oldBox.height);
+				if (!tree.getBoundingBox().intersects(item.box))
+					item.box = oldBox;
+				else
+					tree.moveItem(item, oldBox, item.box);
+
+			}
+
+			// pan the viewport or jump to a distant location
+			if (round % 50 == 49)
+				viewport = new Rectangle(upperLeftX + rand.nextInt(width - 300), upperLeftY
+						+ rand.nextInt(height - 200), 300, 200);
+			else
+				viewport = new Rectangle(viewport.x + rand.nextInt(41) - 20, viewport.y
+						+ rand.nextInt(41) - 20, viewport.width, viewport.height);
+
+			if (round % 100 == 99) {
+				tree.clear();
+				for (TestingObject item : items)
+					tree.insertItem(item, item.box);
+			}
+
+			query.update(viewport);
+
+			Set<TestingObject> expected = tree.searchItems(viewport);
+			assertEquals(expected, query.getVisibleItems());
+
+			Set<TestingObject> entered = new HashSet<TestingObject>(expected);
+			entered.removeAll(before);
+			Set<TestingObject> left = new HashSet<TestingObject>(before);
+			left.removeAll(expected);
+			assertEquals(entered, query.getEnteredItems());
+			assertEquals(left, query.getLeftItems());
+
+		}
+
+		query.dispose();
+
+	}
+
+	@Test
+	public void testSubscribe() {
+
+		List<TestingObject> items = createRandomItems(400, 6);
+		for (int i = 0; i < items.size() / 2; i++)
+			tree.insertItem(items.get(i), items.get(i).box);
+
+		// every listener keeps track of the items inside its region
+		Random rand = new Random(6);
+		List<Rectangle> regions = new ArrayList<Rectangle>();
+		List<Set<TestingObject>> insides = new ArrayList<Set<TestingObject>>();
+		List<RegionSubscription<TestingObject>> subscriptions;
+		subscriptions = new ArrayList<RegionSubscription<TestingObject>>();
+		for (int i = 0; i < 20; i++) {
+
+			final Rectangle region = new Rectangle(upperLeftX + rand.nextInt(width - 200),
+					upperLeftY + rand.nextInt(height - 200), 10 + rand.nextInt(190),
+					10 + rand.nextInt(190));
+			final Set<TestingObject> inside = new HashSet<TestingObject>(tree.searchItems(region));
+
+			regions.add(region);
+			insides.add(inside);
+			subscriptions.add(tree.subscribe(region, new RegionListener<TestingObject>() {
+
+				public void itemEntered(TestingObject item, Rectangle boundingBox) {
+					assertTrue(region.intersects(boundingBox));
+					assertTrue(inside.add(item));
+				}
+
+				public void itemLeft(TestingObject item, Rectangle boundingBox) {
+					assertTrue(inside.remove(item));
+				}
+
+				public void itemMoved(TestingObject item, Rectangle oldBoundingBox,
+						Rectangle newBoundingBox) {
+					assertTrue(region.intersects(oldBoundingBox));
+					assertTrue(region.intersects(newBoundingBox));
+					assertTrue(inside.contains(item));
+				}
+
+			}));
+
+		}
+
+		for (int round = 0; round < 3000; round++) {
+
+			TestingObject item = items.get(rand.nextInt(items.size()));
+
+			if (round == 2000) {
+				tree.clear();
+				for (Set<TestingObject> inside : insides)
+					assertTrue(inside.isEmpty());
+			} else if (!tree.containsItem(item, item.box)) {
+				tree.insertItem(item, item.box);
+			} else if (rand.nextInt(5) == 0) {
+				tree.removeItem(item, item.box);
+			} else {
+				Rectangle oldBox = item.box;
+				item.box = new Rectangle(oldBox.x + rand.nextInt(61) - 30, oldBox.y
+						+ rand.nextInt(61) - 30, oldBox.width, oldBox.height);
+				if (!tree.getBoundingBox().intersects(item.box))
+					item.box = oldBox;
+				else
+					tree.moveItem(item, oldBox, item.box);
+			}
+
+		}
+
+		// the cancelled subscription isn't notified anymore
+		subscriptions.get(0).cancel();
+		assertTrue(subscriptions.get(0).isCancelled());
+		Set<TestingObject> frozen = new HashSet<TestingObject>(insides.get(0));
+		for (TestingObject item : tree.searchItems(regions.get(0)))
+			tree.removeItem(item, item.box);
+		assertEquals(frozen, insides.get(0));
+
+		for (int i = 1; i < regions.size(); i++)
+			assertEquals(tree.searchItems(regions.get(i)), insides.get(i));
+
+		for (RegionSubscription<TestingObject> subscription : subscriptions)
+			subscription.cancel();
+
+	}
+
+	@Test
+	public void testInsertAndMoveBatch() {
+
+		List<TestingObject> items = createRandomItems(5000, 8);
+		List<Rectangle> boxes = new ArrayList<Rectangle>();
+		for (TestingObject item : items)
+			boxes.add(item.box);
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		ISWTQuadTree<TestingObject> reference = new ISWTQuadTree.Factory<TestingObject>().create(
+				upperLeftX, upperLeftY, width, 16, 4);
+		for (TestingObject item : items)
+			reference.insertItem(item, item.box);
+
+		tree.insertBatch(items, boxes, pool);
+		assertSameItems(reference, tree, 8);
+
+		// move all items, some of them far away
+		Random rand = new Random(8);
+		List<Rectangle> newBoxes = new ArrayList<Rectangle>();
+		for (TestingObject item : items) {
+			int distance = rand.nextInt(10) == 0 ? 400 : 20;
+			Rectangle newBox = new Rectangle(item.box.x + rand.nextInt(2 * distance + 1)
+					- distance, item.box.y + rand.nextInt(2 * distance + 1) - distance,
+					item.box.width, item.box.height);
+			if (!tree.getBoundingBox().intersects(newBox))
+				newBox = item.box;
+			newBoxes.add(newBox);
+		}
+
+		tree.moveBatch(items, boxes, newBoxes, pool);
+		for (int i = 0; i < items.size(); i++) {
+			reference.moveItem(items.get(i), boxes.get(i), newBoxes.get(i));
+			items.get(i).box = newBoxes.get(i);
+		}
+		assertSameItems(reference, tree, 9);
+
+		// a batch containing an item that isn't contained leaves the tree
+		// unchanged
+		List<TestingObject> invalidItems = new ArrayList<TestingObject>(items.subList(0, 1000));
+		List<Rectangle> invalidBoxes = new ArrayList<Rectangle>(newBoxes.subList(0, 1000));
+		invalidItems.add(new TestingObject(new Rectangle(upperLeftX, upperLeftY, 10, 10)));
+		invalidBoxes.add(new Rectangle(upperLeftX, upperLeftY, 10, 10));
+		try {
+			tree.moveBatch(invalidItems, invalidBoxes, invalidBoxes, pool);
+			fail("moving an item that isn't contained must fail");
+		} catch (RuntimeException e) {
+			// expected
+		}
+		assertSameItems(reference, tree, 10);
+
+		// removing most items and moving the rest collapses the tree again
+		for (int i = 0; i < items.size() - 10; i++)
+			tree.removeItem(items.get(i), items.get(i).box);
+		List<TestingObject> rest = items.subList(items.size() - 10, items.size());
+		List<Rectangle> restBoxes = newBoxes.subList(items.size() - 10, items.size());
+		tree.moveBatch(rest, restBoxes, restBoxes, pool);
+		assertEquals(new HashSet<TestingObject>(rest), tree.searchItems());
+
+	}
+
+	private static void assertSameItems(ISWTQuadTree<TestingObject> expected,
+			ISWTQuadTree<TestingObject> actual, long seed) {
+
+		assertEquals(expected.getItemCount(), actual.getItemCount());
+		assertEquals(expected.searchItems(), actual.searchItems());
+
+		Random rand = new Random(seed);
+		for (int i = 0; i < 200; i++) {
+			Rectangle area = new Rectangle(upperLeftX + rand.nextInt(width), upperLeftY
+					+ rand.nextInt(height), rand.nextInt(200), rand.nextInt(200));
+			assertEquals(expected.searchItems(area), actual.searchItems(area));
+		}
+
+		for (TestingObject item : expected.searchItems())
+			assertTrue(actual.containsItem(item, item.box));
+
+	}
+
+	@Test
+	public void testSpatialHandle() {
+
+		List<TestingObject> items = createRandomItems(500, 12);
+		List<SpatialHandle<TestingObject>> handles = new ArrayList<SpatialHandle<TestingObject>>();
+		ISWTQuadTree<TestingObject> reference = new ISWTQuadTree.Factory<TestingObject>().create(
+				upperLeftX, upperLeftY, width, 16, 4);
+
+		for (TestingObject item : items) {
+			handles.add(tree.insertItem(item, item.box.x, item.box.y, item.box.width,
+					item.box.height));
+			reference.insertItem(item, item.box);
+		}
+
+		// modifying the returned bounding box doesn't affect the tree
+		handles.get(0).getBoundingBox().x += 100;
+		assertTrue(tree.containsItem(items.get(0), items.get(0).box));
+
+		Random rand = new Random(12);
+		for (int round = 0; round < 5000; round++) {
+
+			int index = rand.nextInt(items.size());
+			TestingObject item = items.get(index);
+			SpatialHandle<TestingObject> handle = handles.get(index);
+
+			// mostly small steps that keep the item in its node
+			int distance = rand.nextInt(10) == 0 ? 300 : 3;
+			Rectangle oldBox = item.box;
+			item.box = new Rectangle(oldBox.x + rand.nextInt(2 * distance + 1) - distance,
+					oldBox.y + rand.nextInt(2 * distance + 1) - distance, oldBox.width,
+					oldBox.height);
+			if (!tree.getBoundingBox().intersects(item.box)) {
+				item.box = oldBox;
+				continue;
+			}
+
+			handle.update(item.box.x, item.box.y, item.box.width, item.box.height);
+			reference.moveItem(item, oldBox, item.box);
+			assertEquals(item.box, handle.getBoundingBox());
+
+		}
+		assertSameItems(reference, tree, 12);
+
+		for (int i = 0; i < items.size(); i += 2) {
+			handles.get(i).remove();
+			reference.removeItem(items.get(i), items.get(i).box);
+			assertTrue(handles.get(i).isRemoved());
+		}
+		assertSameItems(reference, tree, 13);
+
+		try {
+			handles.get(0).update(0, 0, 1, 1);
+			fail("updating a removed item must fail");
+		} catch (RuntimeException e) {
+			// expected
+		}
+
+	}
+
+	@Test
+	public void testSpatialHandleNotifiesStableBoundingBoxes() {
+
+		final List<Rectangle> notified = new ArrayList<Rectangle>();
+		final List<Rectangle> copies = new ArrayList<Rectangle>();
+		tree.subscribe(tree.getBoundingBox(), new RegionListener<TestingObject>() {
+			private void record(Rectangle boundingBox) {
+				notified.add(boundingBox);
+				copies.add(new Rectangle(boundingBox.x, boundingBox.y, boundingBox.width,
+						boundingBox.height));
+			}
+
+			public void itemEntered(TestingObject item, Rectangle boundingBox) {
+			}
+
+			public void itemLeft(TestingObject item, Rectangle boundingBox) {
+			}
+
+			public void itemMoved(TestingObject item, Rectangle oldBoundingBox,
+					Rectangle newBoundingBox) {
+				record(oldBoundingBox);
+				record(newBoundingBox);
+			}
+		});
+
+		TestingObject item = new TestingObject(new Rectangle(upperLeftX + 100, upperLeftY + 100,
+				10, 10));
+		SpatialHandle<TestingObject> handle = tree.insertItem(item, item.box.x, item.box.y,
+				item.box.width, item.box.height);
+
+		// small steps staying in the node alternating with relocations
+		for (int i = 1; i <= 20; i++) {
+			int x = upperLeftX + (i % 4 == 0 ? 600 : 100) + i;
+			handle.update(x, upperLeftY + 100 + i, 10, 10);
+		}
+
+		assertEquals(40, notified.size());
+		assertEquals(copies, notified);
+
+	}
+
+	@Test
+	public void testStatistics() {
+
+		TreeStatistics empty = tree.getStatistics();
+		assertEquals(0, empty.getItemCount());
+		assertTrue(empty.getNodeCount() >= 1);
+		assertEquals(0, empty.getMemoryUsage().getEntryBytes());
+		assertTrue(empty.getMemoryUsage().getTotalBytes() > 0);
+
+		List<TestingObject> items = createRandomItems(800, 17);
+		for (TestingObject item : items)
+			tree.insertItem(item, item.box);
+
+		TreeStatistics statistics = tree.getStatistics();
+		MemoryUsage memoryUsage = statistics.getMemoryUsage();
+		assertEquals(tree.getItemCount(), statistics.getItemCount());
+		assertTrue(statistics.getLeafCount() <= statistics.getNodeCount());
+		assertTrue(statistics.getOverflowCount() <= statistics.getItemCount());
+		assertEquals(memoryUsage.getTotalBytes(), tree.estimateMemoryUsage().getTotalBytes());
+
+		// the totals are the sums over all depths
+		int itemCount = 0;
+		long totalBytes = 0;
+		for (int depth = 0; depth < statistics.getDepthCount(); depth++) {
+			itemCount += statistics.getItemCount(depth);
+			totalBytes += memoryUsage.getTotalBytes(depth);
+		}
+		assertEquals(statistics.getItemCount(), itemCount);
+		assertEquals(memoryUsage.getTotalBytes(), totalBytes);
+		assertEquals(memoryUsage.getTotalBytes(), memoryUsage.getNodeBytes()
+				+ memoryUsage.getEntryBytes() + memoryUsage.getRectangleBytes()
+				+ memoryUsage.getListBytes() + memoryUsage.getListSlackBytes());
+		assertEquals(0, memoryUsage.getTotalBytes(memoryUsage.getDepthCount()));
+
+		// at least a reference and the coordinates of the bounding box per item
+		assertTrue(memoryUsage.getTotalBytes() - empty.getMemoryUsage().getTotalBytes() >= 800 * 20);
+		assertTrue(memoryUsage.toString().startsWith(memoryUsage.getTotalBytes() + " bytes"));
+
+		for (TestingObject item : items)
+			tree.removeItem(item, item.box);
+		assertEquals(0, tree.getStatistics().getItemCount());
+		assertTrue(tree.estimateMemoryUsage().getTotalBytes() < memoryUsage.getTotalBytes());
+
+	}
+
+	@Test
+	public void testRemoveAll() {
+
+		List<TestingObject> items = createRandomItems(1500, 18);
+		for (TestingObject item : items)
+			tree.insertItem(item, item.box);
+
+		final List<TestingObject> left = new ArrayList<TestingObject>();
+		tree.subscribe(tree.getBoundingBox(), new RegionListener<TestingObject>() {
+			public void itemEntered(TestingObject item, Rectangle boundingBox) {
+			}
+
+			public void itemLeft(TestingObject item, Rectangle boundingBox) {
+				left.add(item);
+			}
+
+			public void itemMoved(TestingObject item, Rectangle oldBoundingBox,
+					Rectangle newBoundingBox) {
+			}
+		});
+
+		Predicate<TestingObject> even = new Predicate<TestingObject>() {
+			public boolean test(TestingObject item) {
+				return item.id % 2 == 0;
+			}
+		};
+
+		// a region sharing the borders of quadrants, an arbitrary one and the
+		// whole tree
+		Rectangle[] regions = { new Rectangle(upperLeftX, upperLeftY, 512, 512),
+				new Rectangle(upperLeftX + 100, upperLeftY + 300, 333, 222),
+				new Rectangle(upperLeftX - 10, upperLeftY - 10, 1100, 1100) };
+
+		for (Rectangle region : regions) {
+			for (Predicate<TestingObject> filter : Arrays.asList(even, null)) {
+
+				Set<TestingObject> expected = new HashSet<TestingObject>();
+				for (TestingObject item : tree.searchItems(region))
+					if (filter == null || filter.test(item))
+						expected.add(item);
+				int itemCount = tree.getItemCount();
+				left.clear();
+
+				assertEquals(expected.size(), tree.removeAll(region, filter));
+				assertEquals(itemCount - expected.size(), tree.getItemCount());
+				assertEquals(expected, new HashSet<TestingObject>(left));
+
+				for (TestingObject item : expected)
+					assertFalse(tree.containsItem(item, item.box));
+
+			}
+		}
+
+		assertEquals(0, tree.getItemCount());
+		assertEquals(0, tree.removeAll(tree.getBoundingBox(), null));
+
+	}
+
+	@Test
+	public void testSearchClusters() {
+
+		List<TestingObject> items = createRandomItems(2000, 19);
+		for (TestingObject item : items)
+			tree.insertItem(item, item.box);
+
+		Rectangle[] regions = { new Rectangle(upperLeftX, upperLeftY, 512, 512),
+				new Rectangle(upperLeftX + 100, upperLeftY + 300, 333, 222),
+				new Rectangle(upperLeftX - 10, upperLeftY - 10, 1100, 1100) };
+
+		// smaller than the smallest quadrants, nothing is aggregated
+		for (Rectangle region : regions) {
+			Set<TestingObject> found = new HashSet<TestingObject>();
+			for (Cluster<TestingObject> cluster : tree.searchClusters(region, 1)) {
+				assertTrue(cluster.isSingleItem());
+				assertEquals(cluster.getRepresentative().box, cluster.getBoundingBox());
+				assertTrue(found.add(cluster.getRepresentative()));
+			}
+			assertEquals(tree.searchItems(region), found);
+		}
+
+		for (int round = 0; round < 2; round++) {
+
+			for (Rectangle region : regions)
+				for (int minCellSize : new int[] { 16, 64, 100, 1024 })
+					checkClusters(region, minCellSize);
+
+			// the cached counts must follow modifications
+			for (TestingObject item : items.subList(0, 500)) {
+				Rectangle newBox = new Rectangle(item.box.x / 2, item.box.y / 2, item.box.width,
+						item.box.height);
+				tree.moveItem(item, item.box, newBox);
+				item.box = newBox;
+			}
+			for (TestingObject item : items.subList(500 + round * 300, 800 + round * 300))
+				tree.removeItem(item, item.box);
+
+		}
+
+		try {
+			tree.searchClusters(regions[0], 0);
+			fail();
+		} catch (RuntimeException e) {
+			// expected
+		}
+
+	}
+
+	@Test
+	public void testSearchClustersOutsideOfRegion() {
+
+		TestingObject first = new TestingObject(new Rectangle(upperLeftX + 100, upperLeftY + 100,
+				1, 1));
+		TestingObject second = new TestingObject(new Rectangle(upperLeftX + 110,
+				upperLeftY + 110, 1, 1));
+		tree.insertItem(first, first.box);
+		tree.insertItem(second, second.box);
+
+		// the quadrant of both items intersects with the region, they don't
+		assertEquals(0, tree.searchClusters(
+				new Rectangle(upperLeftX + 64, upperLeftY + 64, 4, 4), 128).size());
+
+		List<Cluster<TestingObject>> clusters = tree.searchClusters(new Rectangle(
+				upperLeftX + 105, upperLeftY + 105, 10, 10), 128);
+		assertEquals(1, clusters.size());
+		assertEquals(second, clusters.get(0).getRepresentative());
+
+		// the root is not aggregated even if it is small enough, as its
+		// overflows may stick out of it
+		TestingObject straddling = new TestingObject(new Rectangle(upperLeftX - 20,
+				upperLeftY - 20, 30, 30));
+		tree.insertItem(straddling, straddling.box);
+		boolean found = false;
+		for (Cluster<TestingObject> cluster : tree.searchClusters(new Rectangle(upperLeftX - 30,
+				upperLeftY - 30, 2 * width, 2 * height), 2 * width)) {
+			assertTrue(cluster.getBoundingBox().intersects(cluster.getRepresentative().box));
+			found |= cluster.isSingleItem() && cluster.getRepresentative() == straddling;
+		}
+		assertTrue(found);
+
+	}
+
+	/**
+	 * Checks that every item intersecting with <code>region</code> is either
+	 * returned as a single item or lies in a cluster.
+	 */
+	private void checkClusters(Rectangle region, int minCellSize) {
+
+		List<Cluster<TestingObject>> clusters = tree.searchClusters(region, minCellSize);
+		Set<TestingObject> singleItems = new HashSet<TestingObject>();
+		int count = 0;
+
+		for (Cluster<TestingObject> cluster : clusters) {
+
+			count += cluster.getCount();
+
+			if (cluster.isSingleItem()) {
+				assertTrue(cluster.getRepresentative().box.intersects(region));
+				assertTrue(singleItems.add(cluster.getRepresentative()));
+				continue;
+			}
+
+			assertTrue(cluster.getBoundingBox().width <= minCellSize);
+			assertTrue(cluster.getRepresentative().box.intersects(region));
+			assertTrue(cluster.getBoundingBox().intersects(cluster.getRepresentative().box));
+
+		}
+
+		for (TestingObject item : tree.searchItems(region)) {
+
+			if (singleItems.contains(item))
+				continue;
+
+			boolean clustered = false;
+			for (Cluster<TestingObject> cluster : clusters)
+				clustered |= !cluster.isSingleItem()
+						&& cluster.getBoundingBox().intersects(item.box);
+			assertTrue(clustered);
+
+		}
+
+		// every item is counted exactly once
+		if (region.contains(upperLeftX, upperLeftY)
+				&& region.contains(upperLeftX + width - 1, upperLeftY + height - 1))
+			assertEquals(tree.getItemCount(), count);
+
+	}
+
+	@Test
+	public void testDensityGrid() {
+
+		List<TestingObject> items = createRandomItems(1500, 23);
+		for (TestingObject item : items)
+			tree.insertItem(item, item.box);
+
+		// aligned with the quadrants, not dividing the area evenly and finer
+		// than the smallest quadrants
+		Rectangle[] areas = { new Rectangle(upperLeftX, upperLeftY, 1024, 1024),
+				new Rectangle(upperLeftX - 20, upperLeftY + 100, 250, 170),
+				new Rectangle(upperLeftX + 300, upperLeftY + 200, 40, 40) };
+		int[][] grids = { { 16, 16 }, { 7, 5 }, { 40, 13 } };
+
+		for (int round = 0; round < 2; round++) {
+
+			for (int i = 0; i < areas.length; i++)
+				checkDensityGrid(areas[i], grids[i][0], grids[i][1]);
+
+			// the cached counts must follow modifications
+			for (TestingObject item : items.subList(0, 500)) {
+				Rectangle newBox = new Rectangle(item.box.x / 2, item.box.y / 2, item.box.width,
+						item.box.height);
+				tree.moveItem(item, item.box, newBox);
+				item.box = newBox;
+			}
+			for (TestingObject item : items.subList(500 + round * 300, 800 + round * 300))
+				tree.removeItem(item, item.box);
+
+		}
+
+		for (int[] grid : new int[][] { { 0, 1 }, { 1, -1 }, { 41, 1 } }) {
+			try {
+				tree.densityGrid(areas[2], grid[0], grid[1]);
+				fail();
+			} catch (RuntimeException e) {
+				// expected
+			}
+		}
+
+	}
+
+	/**
+	 * Checks that every cell counts the items a search of the cell finds.
+	 */
+	private void checkDensityGrid(Rectangle area, int columns, int rows) {
+
+		int[] counts = tree.densityGrid(area, columns, rows);
+		assertEquals(columns * rows, counts.length);
+
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+
+				int x = area.x + column * area.width / columns;
+				int y = area.y + row * area.height / rows;
+				Rectangle cell = new Rectangle(x, y, area.x + (column + 1) * area.width / columns
+						- x, area.y + (row + 1) * area.height / rows - y);
+
+				assertEquals(tree.searchItems(cell).size(), counts[row * columns + column]);
+
+			}
+		}
+
+	}
+
+	@Test
+	public void testWriteBatch() {
+
+		ISWTQuadTree<TestingObject> reference = new ISWTQuadTree.Factory<TestingObject>().create(
+				upperLeftX, upperLeftY, 1024, 16, 1);
+
+		List<TestingObject> items = createRandomItems(1200, 19);
+		for (TestingObject item : items.subList(0, 800)) {
+			tree.insertItem(item, item.box);
+			reference.insertItem(item, item.box);
+		}
+
+		// a region containing all items, so that moves are reported as moves
+		final int[] events = new int[3];
+		tree.subscribe(new Rectangle(upperLeftX - 100, upperLeftY - 100, 1300, 1300),
+				new RegionListener<TestingObject>() {
+			public void itemEntered(TestingObject item, Rectangle boundingBox) {
+				events[0]++;
+			}
+
+			public void itemLeft(TestingObject item, Rectangle boundingBox) {
+				events[1]++;
+			}
+
+			public void itemMoved(TestingObject item, Rectangle oldBoundingBox,
+					Rectangle newBoundingBox) {
+				events[2]++;
+			}
+		});
+
+		WriteBatch<TestingObject> batch = tree.beginBatch();
+		Random rand = new Random(19);
+
+		// move the first half, remove every fourth item and insert new ones
+		for (int i = 0; i < 800; i++) {
+
+			TestingObject item = items.get(i);
+
+			if (i % 4 == 0) {
+				batch.removeItem(item, item.box);
+				reference.removeItem(item, item.box);
+			} else if (i < 400) {
+				Rectangle newBox = new Rectangle(item.box.x + rand.nextInt(101) - 50, item.box.y
+						+ rand.nextInt(101) - 50, item.box.width, item.box.height);
+				if (!tree.getBoundingBox().intersects(newBox))
+					continue;
+				batch.moveItem(item, item.box, newBox);
+				reference.moveItem(item, item.box, newBox);
+				item.box = newBox;
+			}
+
+		}
+		for (TestingObject item : items.subList(800, 1200)) {
+			batch.insertItem(item, item.box);
+			reference.insertItem(item, item.box);
+		}
+
+		// net changes: inserted and moved, removed and inserted again, inserted
+		// and removed
+		TestingObject inserted = items.get(800);
+		Rectangle newBox = new Rectangle(inserted.box.x + 10, inserted.box.y, 6, 6);
+		batch.moveItem(inserted, inserted.box, newBox);
+		reference.moveItem(inserted, inserted.box, newBox);
+		inserted.box = newBox;
+
+		TestingObject removed = items.get(0);
+		batch.insertItem(removed, removed.box);
+		reference.insertItem(removed, removed.box);
+
+		TestingObject discarded = items.get(801);
+		batch.removeItem(discarded, discarded.box);
+		reference.removeItem(discarded, discarded.box);
+
+		try {
+			batch.removeItem(discarded, discarded.box);
+			fail("removing an item twice must fail");
+		} catch (RuntimeException e) {
+			// expected
+		}
+
+		// nothing is applied before the commit
+		assertEquals(800, tree.getItemCount());
+		int changeCount = batch.getChangeCount();
+		assertTrue(changeCount > 850);
+
+		batch.commit();
+		assertFalse(batch.isOpen());
+		assertSameItems(reference, tree, 14);
+		assertEquals(399, events[0]);
+		assertEquals(199, events[1]);
+		assertEquals(changeCount - 400 - 200 + 1, events[2]);
+
+		try {
+			batch.commit();
+			fail("committing twice must fail");
+		} catch (RuntimeException e) {
+			// expected
+		}
+
+		// a batch failing on an item that is not contained changes nothing
+		batch = tree.beginBatch();
+		TestingObject item = items.get(1);
+		batch.moveItem(item, item.box, new Rectangle(item.box.x + 1, item.box.y, 6, 6));
+		batch.removeItem(discarded, discarded.box);
+		try {
+			batch.commit();
+			fail("removing an item that is not contained must fail");
+		} catch (RuntimeException e) {
+			// expected
+		}
+		assertSameItems(reference, tree, 15);
+
+		// neither does a batch failing on an item that is already contained,
+		// even after moving items across the tree and removing others
+		batch = tree.beginBatch();
+		for (int i = 5; i < 100; i++) {
+			TestingObject other = items.get(i);
+			if (i % 4 == 0)
+				continue;
+			if (i % 4 == 1)
+				batch.removeItem(other, other.box);
+			else
+				batch.moveItem(other, other.box, new Rectangle(upperLeftX + width
+						- (other.box.x - upperLeftX) - other.box.width, other.box.y,
+						other.box.width, other.box.height));
+		}
+		TestingObject contained = items.get(3);
+		batch.insertItem(contained, contained.box);
+		try {
+			batch.commit();
+			fail("inserting an item that is already contained must fail");
+		} catch (RuntimeException e) {
+			// expected
+		}
+		assertSameItems(reference, tree, 16);
+
+		// discarded batches are never applied
+		batch = tree.beginBatch();
+		batch.removeItem(item, item.box);
+		batch.discard();
+		assertSameItems(reference, tree, 17);
+
+	}
+
+}
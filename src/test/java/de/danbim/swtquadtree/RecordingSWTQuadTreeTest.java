@@ -0,0 +1,132 @@
+package de.danbim.swtquadtree;
+
+import org.eclipse.swt.graphics.Rectangle;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs all tests of {@link QuadTreeTest} against a {@link RecordingSWTQuadTree}
+ * and replays recorded traces with a {@link TraceReplayer}.
+ */
+public class RecordingSWTQuadTreeTest extends QuadTreeTest {
+
+	@Override
+	protected ISWTQuadTree<TestingObject> createTree() {
+		return new RecordingSWTQuadTree<TestingObject>(new ISWTQuadTree.Factory<TestingObject>()
+				.create(upperLeftX, upperLeftY, 1024, 16, 1), new ByteArrayOutputStream());
+	}
+
+	@Test
+	public void testReplay() {
+
+		ByteArrayOutputStream trace = new ByteArrayOutputStream();
+		RecordingSWTQuadTree<TestingObject> recorder = new RecordingSWTQuadTree<TestingObject>(
+				new ISWTQuadTree.Factory<TestingObject>().create(upperLeftX, upperLeftY, 1024, 16,
+						4), trace);
+
+		List<TestingObject> items = createRandomItems(500, 5);
+		for (TestingObject item : items.subList(0, 400))
+			recorder.insertItem(item, item.box);
+
+		List<Rectangle> boxes = new ArrayList<Rectangle>();
+		for (TestingObject item : items.subList(400, 500))
+			boxes.add(item.box);
+		recorder.insertBatch(items.subList(400, 500), boxes, ForkJoinPool.commonPool());
+
+		Random rand = new Random(5);
+		List<Rectangle> areas = new ArrayList<Rectangle>();
+
+		for (int round = 0; round < 500; round++) {
+
+			TestingObject item = items.get(rand.nextInt(items.size()));
+			Rectangle newBox = new Rectangle(item.box.x + rand.nextInt(21) - 10, item.box.y
+					+ rand.nextInt(21) - 10, item.box.width, item.box.height);
+			recorder.moveItem(item, item.box, newBox);
+			item.box = newBox;
+
+			Rectangle area = new Rectangle(upperLeftX + rand.nextInt(width), upperLeftY
+					+ rand.nextInt(height), rand.nextInt(100), rand.nextInt(100));
+			recorder.searchItems(area);
+			areas.add(area);
+
+		}
+
+		recorder.searchItems(areas);
+		recorder.searchItemsInCircle(0, 0, 100);
+		recorder.searchItemsInPolygon(new int[] { -100, -100, 100, -50, 0, 100 });
+		recorder.searchClusters(new Rectangle(upperLeftX, upperLeftY, 512, 512), 64);
+		recorder.densityGrid(new Rectangle(upperLeftX, upperLeftY, 512, 512), 8, 4);
+		recorder.raycast(upperLeftX, upperLeftY, 0, 0, new ItemVisitor<TestingObject>() {
+			public boolean visit(TestingObject item, Rectangle itemBoundingBox) {
+				return true;
+			}
+		});
+
+		for (int i = 0; i < 100; i++)
+			recorder.removeItem(items.get(i), items.get(i).box);
+
+		// failing operations are not recorded
+		try {
+			recorder.removeItem(items.get(0), items.get(0).box);
+			fail();
+		} catch (RuntimeException expected) {
+		}
+
+		recorder.close();
+
+		TraceReplayer replayer = new TraceReplayer(new ByteArrayInputStream(trace.toByteArray()));
+		assertEquals(recorder.getBoundingBox(), replayer.getBoundingBox());
+		assertEquals(400 + 1 + 500 * 2 + 6 + 100, replayer.getOperationCount());
+
+		TraceReplayer.Report recorded = replayer.getRecordedReport();
+		assertEquals(400, recorded.getOperationCount(RecordingSWTQuadTree.INSERT));
+		assertEquals(1, recorded.getOperationCount(RecordingSWTQuadTree.INSERT_BATCH));
+		assertEquals(500, recorded.getOperationCount(RecordingSWTQuadTree.MOVE));
+		assertEquals(100, recorded.getOperationCount(RecordingSWTQuadTree.REMOVE));
+		assertEquals(500, recorded.getOperationCount(RecordingSWTQuadTree.SEARCH));
+		assertEquals(1, recorded.getOperationCount(RecordingSWTQuadTree.SEARCH_CLUSTERS));
+		assertEquals(1, recorded.getOperationCount(RecordingSWTQuadTree.DENSITY_GRID));
+		assertEquals(0, recorded.getOperationCount(RecordingSWTQuadTree.CLEAR));
+
+		ISWTQuadTree.Factory<Object> factory = new ISWTQuadTree.Factory<Object>();
+		List<ISWTQuadTree<Object>> engines = Arrays.asList(
+				factory.create(upperLeftX, upperLeftY, 1024, 16, 4),
+				factory.createLinear(upperLeftX, upperLeftY, 1024, 16),
+				factory.createConcurrent(upperLeftX, upperLeftY, 1024, 16, 4, 2));
+
+		for (ISWTQuadTree<Object> engine : engines) {
+
+			TraceReplayer.Report report = replayer.replay(engine);
+			assertEquals(replayer.getOperationCount(), report.getOperationCount());
+			assertTrue(report.getThroughput() > 0);
+			assertEquals(1, report.getOperationCount(RecordingSWTQuadTree.SEARCH_CLUSTERS));
+			assertEquals(1, report.getOperationCount(RecordingSWTQuadTree.DENSITY_GRID));
+			assertTrue(report.getLatencyPercentile(RecordingSWTQuadTree.SEARCH, 50) <= report
+					.getLatencyPercentile(RecordingSWTQuadTree.SEARCH, 99));
+
+			// the replayed tree holds the same items at the same places
+			assertEquals(recorder.getItemCount(), engine.getItemCount());
+			for (Rectangle area : areas)
+				assertEquals(recorder.searchItems(area).size(), engine.searchItems(area).size());
+
+		}
+
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testNoTrace() {
+
+		new TraceReplayer(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5 }));
+
+	}
+
+}
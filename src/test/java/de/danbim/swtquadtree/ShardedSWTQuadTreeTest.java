@@ -0,0 +1,120 @@
+package de.danbim.swtquadtree;
+
+import org.eclipse.swt.graphics.Rectangle;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs all tests of {@link ConcurrentSWTQuadTreeTest} against
+ * {@link ShardedSWTQuadTree} and checks that parallel searches see all items
+ * of the shards while other threads move items between them.
+ */
+public class ShardedSWTQuadTreeTest extends ConcurrentSWTQuadTreeTest {
+
+	private static final ForkJoinPool pool = new ForkJoinPool(4);
+
+	@Override
+	protected ISWTQuadTree<TestingObject> createTree() {
+		return new ISWTQuadTree.Factory<TestingObject>().createSharded(upperLeftX, upperLeftY,
+				1024, 16, 1, 2, pool);
+	}
+
+	@Test
+	public void testSearchesWhileMoving() throws Exception {
+
+		final ISWTQuadTree<TestingObject> tree = createTree();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+
+		// the fixed items are never moved, so every search must find exactly
+		// the ones intersecting with its area
+		final List<TestingObject> fixedItems = QuadTreeTest.createRandomItems(1000, 29);
+		for (TestingObject item : fixedItems)
+			tree.insertItem(item, item.box);
+
+		final List<TestingObject> movingItems = QuadTreeTest.createRandomItems(1000, 31);
+		for (TestingObject item : movingItems)
+			tree.insertItem(item, item.box);
+
+		threads.add(new Thread() {
+			@Override
+			public void run() {
+				try {
+
+					Random rand = new Random(37);
+					for (int round = 0; round < 20000; round++) {
+
+						// moves across the borders of the shards
+						TestingObject item = movingItems.get(rand.nextInt(movingItems.size()));
+						Rectangle oldBox = item.box;
+						item.box = new Rectangle(upperLeftX + rand.nextInt(width), upperLeftY
+								+ rand.nextInt(height), oldBox.width, oldBox.height);
+						tree.moveItem(item, oldBox, item.box);
+
+					}
+
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			}
+		});
+
+		for (int t = 0; t < 3; t++) {
+
+			final long seed = t;
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+
+						Random rand = new Random(seed);
+						for (int i = 0; i < 200; i++) {
+
+							Rectangle area = new Rectangle(upperLeftX + rand.nextInt(width / 2),
+									upperLeftY + rand.nextInt(height / 2), rand.nextInt(width),
+									rand.nextInt(height));
+
+							Set<TestingObject> expected = new HashSet<TestingObject>();
+							for (TestingObject item : fixedItems)
+								if (item.box.intersects(area))
+									expected.add(item);
+
+							Set<TestingObject> found = new HashSet<TestingObject>(tree
+									.searchItems(area));
+							found.retainAll(new HashSet<TestingObject>(fixedItems));
+							assertEquals(expected, found);
+
+						}
+
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+
+		}
+
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+
+		if (failure.get() != null)
+			throw new AssertionError(failure.get());
+
+		assertEquals(fixedItems.size() + movingItems.size(), tree.getItemCount());
+		for (TestingObject item : movingItems)
+			assertTrue(tree.containsItem(item, item.box));
+
+	}
+
+}
@@ -0,0 +1,115 @@
+package de.danbim.swtquadtree;
+
+import org.eclipse.swt.graphics.Rectangle;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SpatialItemQuadTreeTest {
+
+	private static final int width = QuadTreeTest.width;
+
+	private static final int upperLeftX = QuadTreeTest.upperLeftX;
+
+	private static final int upperLeftY = QuadTreeTest.upperLeftY;
+
+	private SpatialItemQuadTree<TestingObject> tree;
+
+	@Before
+	public void setUp() throws Exception {
+		tree = new SpatialItemQuadTree<TestingObject>(new ISWTQuadTree.Factory<TestingObject>()
+				.create(upperLeftX, upperLeftY, width, 16, 4));
+	}
+
+	@Test
+	public void testInsertUpdateRemove() {
+
+		TestingObject item = new TestingObject(new Rectangle(0, 0, 5, 5));
+
+		tree.insert(item);
+		assertTrue(tree.contains(item));
+		assertEquals(1, tree.getItemCount());
+		assertTrue(tree.searchItems(new Rectangle(0, 0, 1, 1)).contains(item));
+
+		// the tree caches the bounding box, the item may modify its own
+		Rectangle oldBox = item.box;
+		item.box = new Rectangle(300, 300, 5, 5);
+		assertTrue(tree.searchItems(oldBox).contains(item));
+		assertEquals(oldBox, tree.getBoundingBox(item));
+
+		assertTrue(tree.update(item));
+		assertFalse(tree.update(item));
+		assertTrue(tree.searchItems(oldBox).isEmpty());
+		assertTrue(tree.searchItems(new Rectangle(300, 300, 1, 1)).contains(item));
+		assertEquals(item.box, tree.getBoundingBox(item));
+
+		// moving in place within the same node
+		item.box.x++;
+		assertTrue(tree.update(item));
+		assertTrue(tree.getTree().containsItem(item, item.box));
+
+		tree.remove(item);
+		assertFalse(tree.contains(item));
+		assertEquals(0, tree.getTree().getItemCount());
+
+	}
+
+	@Test
+	public void testRandomized() {
+
+		ISWTQuadTree<TestingObject> reference = new ISWTQuadTree.Factory<TestingObject>().create(
+				upperLeftX, upperLeftY, width, 16, 4);
+		List<TestingObject> items = QuadTreeTest.createRandomItems(1000, 17);
+		Random rand = new Random(17);
+
+		for (TestingObject item : items) {
+			tree.insert(item);
+			reference.insertItem(item, item.box);
+		}
+
+		for (int i = 0; i < 20000; i++) {
+
+			TestingObject item = items.get(rand.nextInt(items.size()));
+			Rectangle newBox = new Rectangle(item.box.x + rand.nextInt(41) - 20, item.box.y
+					+ rand.nextInt(41) - 20, item.box.width, item.box.height);
+			if (!reference.getBoundingBox().intersects(newBox))
+				continue;
+
+			reference.moveItem(item, item.box, newBox);
+			item.box = newBox;
+			tree.update(item);
+
+		}
+
+		assertEquals(reference.getItemCount(), tree.getItemCount());
+		for (int i = 0; i < 200; i++) {
+			Rectangle area = new Rectangle(upperLeftX + rand.nextInt(width), upperLeftY
+					+ rand.nextInt(width), rand.nextInt(100), rand.nextInt(100));
+			assertEquals(reference.searchItems(area), tree.searchItems(area));
+		}
+
+		for (TestingObject item : items)
+			tree.remove(item);
+		assertEquals(0, tree.getTree().getItemCount());
+
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testInsertTwice() {
+
+		TestingObject item = new TestingObject(new Rectangle(0, 0, 5, 5));
+		tree.insert(item);
+		tree.insert(item);
+
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testUpdateNotContained() {
+		tree.update(new TestingObject(new Rectangle(0, 0, 5, 5)));
+	}
+
+}
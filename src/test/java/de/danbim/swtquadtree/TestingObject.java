@@ -2,7 +2,7 @@ package de.danbim.swtquadtree;
 
 import org.eclipse.swt.graphics.Rectangle;
 
-class TestingObject {
+class TestingObject implements ISpatialItem {
 
 	private static int lastTestingObjectID = 0;
 	
@@ -15,6 +15,13 @@ class TestingObject {
 		this.box = box;
 	}
 
+	public void getBounds(int[] bounds) {
+		bounds[X] = box.x;
+		bounds[Y] = box.y;
+		bounds[WIDTH] = box.width;
+		bounds[HEIGHT] = box.height;
+	}
+
 	@Override
 	public boolean equals(Object obj) {
 		if (this == obj)